@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.eventdispatcher.jcstress;
+
+import java.util.List;
+
+import org.everit.eventdispatcher.EventDispatcherImpl;
+import org.openjdk.jcstress.annotations.Actor;
+import org.openjdk.jcstress.annotations.Arbiter;
+import org.openjdk.jcstress.annotations.Expect;
+import org.openjdk.jcstress.annotations.JCStressTest;
+import org.openjdk.jcstress.annotations.Outcome;
+import org.openjdk.jcstress.annotations.State;
+import org.openjdk.jcstress.infra.results.III_Result;
+
+/**
+ * Racing dispatches and a removal of the same key. The registered listener must receive both
+ * dispatched events exactly once and a listener that is registered afterwards must receive at
+ * most one replay event of the key: the one that was stored last, or none if the removal came
+ * last.
+ */
+@JCStressTest
+@Outcome(id = "2, 0, 0", expect = Expect.ACCEPTABLE, desc = "The removal came last.")
+@Outcome(id = "2, 1, 1", expect = Expect.ACCEPTABLE, desc = "The first version was stored last.")
+@Outcome(id = "2, 1, 2", expect = Expect.ACCEPTABLE, desc = "The second version was stored last.")
+@Outcome(expect = Expect.FORBIDDEN, desc = "Lost or duplicated event.")
+@State
+public class LatestPerKeyTest {
+
+  private final EventDispatcherImpl<StressEvent, Integer, StressListener, StressListener>
+      dispatcher = StressEventUtil.createDispatcher();
+
+  private final StressListener listener = new StressListener();
+
+  public LatestPerKeyTest() {
+    this.dispatcher.addListener(this.listener, this.listener);
+  }
+
+  /**
+   * Result: the number of live events of the registered listener, the number of replay events of
+   * a new listener and the version of the replay event (0 if there is none).
+   */
+  @Arbiter
+  public void arbiter(final III_Result result) {
+    result.r1 = this.listener.getReceivedEvents().size();
+
+    StressListener newListener = new StressListener();
+    this.dispatcher.addListener(newListener, newListener);
+    List<StressEvent> replayEvents = newListener.getReceivedEvents();
+    result.r2 = replayEvents.size();
+    result.r3 = replayEvents.isEmpty() ? 0 : replayEvents.get(0).version;
+  }
+
+  @Actor
+  public void dispatch1() {
+    this.dispatcher.dispatchEvent(new StressEvent(1, 1, false));
+  }
+
+  @Actor
+  public void dispatch2() {
+    this.dispatcher.dispatchEvent(new StressEvent(1, 2, false));
+  }
+
+  @Actor
+  public void removeEvent() {
+    this.dispatcher.removeEvent(1);
+  }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.eventdispatcher.jcstress;
+
+import org.everit.eventdispatcher.EventDispatcherImpl;
+import org.openjdk.jcstress.annotations.Actor;
+import org.openjdk.jcstress.annotations.Arbiter;
+import org.openjdk.jcstress.annotations.Expect;
+import org.openjdk.jcstress.annotations.JCStressTest;
+import org.openjdk.jcstress.annotations.Outcome;
+import org.openjdk.jcstress.annotations.State;
+import org.openjdk.jcstress.infra.results.II_Result;
+
+/**
+ * A listener must not receive any event after {@link EventDispatcherImpl#removeListener(Object)}
+ * returned, even if the event was dispatched concurrently with the removal.
+ */
+@JCStressTest
+@Outcome(id = "0, 0", expect = Expect.ACCEPTABLE, desc = "Removed before the dispatch.")
+@Outcome(id = "1, 0", expect = Expect.ACCEPTABLE, desc = "Delivered before the removal.")
+@Outcome(expect = Expect.FORBIDDEN, desc = "Delivered after the removal returned.")
+@State
+public class NoDeliveryAfterRemoveTest {
+
+  private int deliveries;
+
+  private final EventDispatcherImpl<StressEvent, Integer, StressListener, StressListener>
+      dispatcher = StressEventUtil.createDispatcher();
+
+  private int lateDeliveries;
+
+  private final StressListener listener = new StressListener() {
+
+    @Override
+    public synchronized void receiveEvent(final StressEvent event) {
+      if (NoDeliveryAfterRemoveTest.this.removed) {
+        NoDeliveryAfterRemoveTest.this.lateDeliveries++;
+      } else {
+        NoDeliveryAfterRemoveTest.this.deliveries++;
+      }
+    }
+  };
+
+  private volatile boolean removed;
+
+  public NoDeliveryAfterRemoveTest() {
+    this.dispatcher.addListener(this.listener, this.listener);
+  }
+
+  /**
+   * Result: the number of deliveries before and after the removal returned.
+   */
+  @Arbiter
+  public void arbiter(final II_Result result) {
+    synchronized (this.listener) {
+      result.r1 = this.deliveries;
+      result.r2 = this.lateDeliveries;
+    }
+  }
+
+  @Actor
+  public void dispatch() {
+    this.dispatcher.dispatchEvent(new StressEvent(1, 1, false));
+  }
+
+  @Actor
+  public void removeListener() {
+    this.dispatcher.removeListener(this.listener);
+    this.removed = true;
+  }
+}
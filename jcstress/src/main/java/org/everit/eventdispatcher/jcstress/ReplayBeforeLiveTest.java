@@ -0,0 +1,63 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.eventdispatcher.jcstress;
+
+import org.everit.eventdispatcher.EventDispatcherImpl;
+import org.openjdk.jcstress.annotations.Actor;
+import org.openjdk.jcstress.annotations.Arbiter;
+import org.openjdk.jcstress.annotations.Expect;
+import org.openjdk.jcstress.annotations.JCStressTest;
+import org.openjdk.jcstress.annotations.Outcome;
+import org.openjdk.jcstress.annotations.State;
+import org.openjdk.jcstress.infra.results.L_Result;
+
+/**
+ * A new listener must receive the replay events before the live events, and every version of the
+ * key exactly once: either as a replay event or as a live event.
+ */
+@JCStressTest
+@Outcome(id = "replay:1 live:2", expect = Expect.ACCEPTABLE,
+    desc = "Registered before the second dispatch.")
+@Outcome(id = "replay:2", expect = Expect.ACCEPTABLE,
+    desc = "Registered after the second dispatch.")
+@Outcome(expect = Expect.FORBIDDEN, desc = "Lost, duplicated or reordered event.")
+@State
+public class ReplayBeforeLiveTest {
+
+  private final EventDispatcherImpl<StressEvent, Integer, StressListener, StressListener>
+      dispatcher = StressEventUtil.createDispatcher();
+
+  private final StressListener listener = new StressListener();
+
+  public ReplayBeforeLiveTest() {
+    this.dispatcher.dispatchEvent(new StressEvent(1, 1, false));
+  }
+
+  @Actor
+  public void addListener() {
+    this.dispatcher.addListener(this.listener, this.listener);
+  }
+
+  @Arbiter
+  public void arbiter(final L_Result result) {
+    result.r1 = this.listener.toString();
+  }
+
+  @Actor
+  public void dispatch() {
+    this.dispatcher.dispatchEvent(new StressEvent(1, 2, false));
+  }
+}
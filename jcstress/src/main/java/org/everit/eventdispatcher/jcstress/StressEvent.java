@@ -0,0 +1,40 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.eventdispatcher.jcstress;
+
+/**
+ * Event of the stress tests that carries its key, a version that is increased by every dispatch
+ * of the same key and a flag that shows if the event is the replay version.
+ */
+final class StressEvent {
+
+  final int key;
+
+  final boolean replay;
+
+  final int version;
+
+  StressEvent(final int key, final int version, final boolean replay) {
+    this.key = key;
+    this.version = version;
+    this.replay = replay;
+  }
+
+  @Override
+  public String toString() {
+    return (this.replay ? "replay:" : "live:") + this.version;
+  }
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.eventdispatcher.jcstress;
+
+import org.everit.eventdispatcher.EventDispatcherImpl;
+import org.everit.eventdispatcher.EventUtil;
+
+/**
+ * Event util of the stress tests.
+ */
+final class StressEventUtil implements EventUtil<StressEvent, Integer, StressListener> {
+
+  static EventDispatcherImpl<StressEvent, Integer, StressListener, StressListener>
+      createDispatcher() {
+    return new EventDispatcherImpl<>(new StressEventUtil());
+  }
+
+  @Override
+  public void callListener(final StressListener listener, final StressEvent event) {
+    listener.receiveEvent(event);
+  }
+
+  @Override
+  public StressEvent createReplayEvent(final StressEvent originalEvent) {
+    return new StressEvent(originalEvent.key, originalEvent.version, true);
+  }
+
+  @Override
+  public Integer getEventKey(final StressEvent event) {
+    return event.key;
+  }
+}
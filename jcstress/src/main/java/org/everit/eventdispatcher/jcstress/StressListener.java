@@ -0,0 +1,48 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.eventdispatcher.jcstress;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Listener that records the received events. The events are recorded under the monitor of the
+ * listener, as the dispatcher may call the listener concurrently from several threads.
+ */
+class StressListener {
+
+  private final List<StressEvent> receivedEvents = new ArrayList<>();
+
+  public synchronized List<StressEvent> getReceivedEvents() {
+    return new ArrayList<>(this.receivedEvents);
+  }
+
+  public synchronized void receiveEvent(final StressEvent event) {
+    this.receivedEvents.add(event);
+  }
+
+  @Override
+  public synchronized String toString() {
+    StringBuilder sb = new StringBuilder();
+    for (StressEvent event : this.receivedEvents) {
+      if (sb.length() > 0) {
+        sb.append(' ');
+      }
+      sb.append(event);
+    }
+    return sb.toString();
+  }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.eventdispatcher.soak;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.List;
+
+/**
+ * Samples the garbage collectors and the heap of the JVM.
+ */
+final class JvmMonitor {
+
+  /**
+   * The state of the JVM at a point in time.
+   */
+  static final class Sample {
+
+    /**
+     * The number of collections since the JVM started.
+     */
+    final long gcCount;
+
+    /**
+     * The accumulated time of the collections in milliseconds since the JVM started.
+     */
+    final long gcTimeMillis;
+
+    /**
+     * The heap that remained used after the last collection of each heap pool. Its trend shows
+     * whether the live set grows.
+     */
+    final long heapAfterGcBytes;
+
+    /**
+     * The currently used heap including garbage.
+     */
+    final long heapUsedBytes;
+
+    Sample(final long gcCount, final long gcTimeMillis, final long heapUsedBytes,
+        final long heapAfterGcBytes) {
+      this.gcCount = gcCount;
+      this.gcTimeMillis = gcTimeMillis;
+      this.heapUsedBytes = heapUsedBytes;
+      this.heapAfterGcBytes = heapAfterGcBytes;
+    }
+  }
+
+  private final List<GarbageCollectorMXBean> garbageCollectors =
+      ManagementFactory.getGarbageCollectorMXBeans();
+
+  private final List<MemoryPoolMXBean> memoryPools = ManagementFactory.getMemoryPoolMXBeans();
+
+  Sample sample() {
+    long gcCount = 0;
+    long gcTimeMillis = 0;
+    for (GarbageCollectorMXBean garbageCollector : this.garbageCollectors) {
+      // Collectors that do not support the counters return -1.
+      gcCount += Math.max(garbageCollector.getCollectionCount(), 0);
+      gcTimeMillis += Math.max(garbageCollector.getCollectionTime(), 0);
+    }
+
+    long heapAfterGcBytes = 0;
+    for (MemoryPoolMXBean memoryPool : this.memoryPools) {
+      if (memoryPool.getType() == MemoryType.HEAP) {
+        MemoryUsage collectionUsage = memoryPool.getCollectionUsage();
+        if (collectionUsage != null) {
+          heapAfterGcBytes += collectionUsage.getUsed();
+        }
+      }
+    }
+
+    long heapUsedBytes = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    return new Sample(gcCount, gcTimeMillis, heapUsedBytes, heapAfterGcBytes);
+  }
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.eventdispatcher.soak;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free histogram of latencies in nanoseconds with log-linear buckets. Values below
+ * {@value #LINEAR_BUCKET_COUNT} are counted exactly, above that every power of two is split into
+ * {@value #SUB_BUCKET_COUNT} buckets, so the reported percentiles are at most 1/64 higher than the
+ * recorded values.
+ */
+final class LatencyHistogram {
+
+  private static final int SUB_BUCKET_BITS = 6;
+
+  private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+
+  private static final int LINEAR_BUCKET_COUNT = SUB_BUCKET_COUNT * 2;
+
+  private static final int BUCKET_COUNT =
+      LINEAR_BUCKET_COUNT + (Long.SIZE - SUB_BUCKET_BITS - 2) * SUB_BUCKET_COUNT;
+
+  private static int bucketIndex(final long value) {
+    if (value < LINEAR_BUCKET_COUNT) {
+      return (int) value;
+    }
+    int exponent = Long.SIZE - 1 - Long.numberOfLeadingZeros(value);
+    int shift = exponent - SUB_BUCKET_BITS;
+    return shift * SUB_BUCKET_COUNT + (int) (value >>> shift);
+  }
+
+  /**
+   * The highest value that is counted in a bucket.
+   */
+  private static long highestValue(final int bucketIndex) {
+    if (bucketIndex < LINEAR_BUCKET_COUNT) {
+      return bucketIndex;
+    }
+    int shift = (bucketIndex >>> SUB_BUCKET_BITS) - 1;
+    long mantissa = (bucketIndex & (SUB_BUCKET_COUNT - 1)) + SUB_BUCKET_COUNT;
+    return ((mantissa + 1) << shift) - 1;
+  }
+
+  private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+
+  private final AtomicLong maxValue = new AtomicLong();
+
+  /**
+   * Adding the counts of another histogram. Must not be called concurrently with
+   * {@link #record(long)} on this histogram.
+   *
+   * @param other
+   *          The histogram to add.
+   */
+  void add(final LatencyHistogram other) {
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      long count = other.counts.get(i);
+      if (count > 0) {
+        this.counts.addAndGet(i, count);
+      }
+    }
+    updateMax(other.maxValue.get());
+  }
+
+  long getCount() {
+    long result = 0;
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      result += this.counts.get(i);
+    }
+    return result;
+  }
+
+  long getMax() {
+    return this.maxValue.get();
+  }
+
+  /**
+   * Getting the value below which the passed percentage of the recorded values are.
+   *
+   * @param percentile
+   *          The percentile between 0 and 100.
+   * @return The highest value of the bucket of the percentile, or 0 if there are no values.
+   */
+  long getValueAtPercentile(final double percentile) {
+    long totalCount = getCount();
+    if (totalCount == 0) {
+      return 0;
+    }
+    long targetCount = Math.max((long) Math.ceil(percentile / 100 * totalCount), 1);
+    long count = 0;
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      count += this.counts.get(i);
+      if (count >= targetCount) {
+        return Math.min(highestValue(i), getMax());
+      }
+    }
+    return getMax();
+  }
+
+  /**
+   * Recording a latency.
+   *
+   * @param nanos
+   *          The latency in nanoseconds. Negative values are recorded as zero.
+   */
+  void record(final long nanos) {
+    long value = Math.max(nanos, 0);
+    this.counts.incrementAndGet(bucketIndex(value));
+    updateMax(value);
+  }
+
+  /**
+   * Moving the recorded values to a new histogram. The values that are recorded concurrently are
+   * counted either in the returned histogram or in this one, none of them is lost.
+   *
+   * @return The histogram of the values that were recorded since the previous call.
+   */
+  LatencyHistogram takeInterval() {
+    LatencyHistogram result = new LatencyHistogram();
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      long count = this.counts.getAndSet(i, 0);
+      if (count > 0) {
+        result.counts.set(i, count);
+      }
+    }
+    result.maxValue.set(this.maxValue.getAndSet(0));
+    return result;
+  }
+
+  private void updateMax(final long value) {
+    long currentMax = this.maxValue.get();
+    while (value > currentMax && !this.maxValue.compareAndSet(currentMax, value)) {
+      currentMax = this.maxValue.get();
+    }
+  }
+}
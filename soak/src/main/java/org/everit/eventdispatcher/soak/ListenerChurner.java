@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.eventdispatcher.soak;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.everit.eventdispatcher.EventDispatcher;
+
+/**
+ * Replaces the oldest churning listener with a new one at a fixed rate. The new listeners receive
+ * the whole replay queue, so the latency of the registrations grows with the replay queue. The
+ * latency is measured from the intended start of the registration the same way as the latency of
+ * the events is measured by {@link LoadGenerator}.
+ */
+final class ListenerChurner implements Runnable {
+
+  private final Deque<String> churningListenerKeys = new ArrayDeque<>();
+
+  private final EventDispatcher<SoakEvent, Long, SoakListener, String> dispatcher;
+
+  private final SoakListenerFactory listenerFactory;
+
+  private int nextListenerIndex = 0;
+
+  private final long periodNanos;
+
+  private final SoakMetrics metrics;
+
+  private volatile boolean running = true;
+
+  private final long startNanos;
+
+  ListenerChurner(final EventDispatcher<SoakEvent, Long, SoakListener, String> dispatcher,
+      final SoakListenerFactory listenerFactory, final SoakConfig config, final long startNanos,
+      final SoakMetrics metrics) {
+    this.dispatcher = dispatcher;
+    this.listenerFactory = listenerFactory;
+    this.startNanos = startNanos;
+    this.metrics = metrics;
+    this.periodNanos = TimeUnit.MILLISECONDS.toNanos(config.getLong("churnInterval"));
+    for (int i = 0; i < config.getInt("churnListeners"); i++) {
+      addListener();
+    }
+  }
+
+  private void addListener() {
+    String listenerKey = "churning-" + this.nextListenerIndex;
+    this.nextListenerIndex++;
+    this.dispatcher.addListener(listenerKey, this.listenerFactory.createListener());
+    this.churningListenerKeys.add(listenerKey);
+  }
+
+  @Override
+  public void run() {
+    if (this.churningListenerKeys.isEmpty()) {
+      return;
+    }
+    long intendedStartNanos = this.startNanos + this.periodNanos;
+    while (this.running) {
+      long now = System.nanoTime();
+      if (now < intendedStartNanos) {
+        LockSupport.parkNanos(intendedStartNanos - now);
+        continue;
+      }
+      this.dispatcher.removeListener(this.churningListenerKeys.poll());
+      addListener();
+      this.metrics.registrationLatency.record(System.nanoTime() - intendedStartNanos);
+      intendedStartNanos += this.periodNanos;
+    }
+  }
+
+  void stop() {
+    this.running = false;
+  }
+}
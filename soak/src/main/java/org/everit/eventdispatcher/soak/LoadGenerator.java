@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.eventdispatcher.soak;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.LockSupport;
+
+import org.everit.eventdispatcher.EventDispatcher;
+
+/**
+ * Calls the dispatcher at a fixed arrival rate (open loop). Every operation has an intended start
+ * time on the schedule. If the dispatcher stalls, the generator does not skip the operations that
+ * should have started meanwhile, but issues them as fast as it can, and their latency is measured
+ * from the intended start. This way the latencies include the time the operations would have
+ * waited in front of a stalled dispatcher, so the percentiles are not hidden by coordinated
+ * omission as they would be if the latency was measured from the actual start.
+ */
+final class LoadGenerator implements Runnable {
+
+  private final EventDispatcher<SoakEvent, Long, SoakListener, String> dispatcher;
+
+  private final double dispatchAndRemoveRatio;
+
+  private final long durationNanos;
+
+  private final long firstIntendedStartNanos;
+
+  private final int initialKeys;
+
+  private final int maxKeys;
+
+  private final SoakMetrics metrics;
+
+  private final int payloadSize;
+
+  private final long periodNanos;
+
+  private final double removeRatio;
+
+  private volatile boolean running = true;
+
+  private final long startNanos;
+
+  LoadGenerator(final EventDispatcher<SoakEvent, Long, SoakListener, String> dispatcher,
+      final SoakConfig config, final int producerIndex, final long startNanos,
+      final SoakMetrics metrics) {
+    this.dispatcher = dispatcher;
+    this.metrics = metrics;
+    this.startNanos = startNanos;
+    this.durationNanos = config.getLong("duration") * 1000000000L;
+    this.initialKeys = config.getInt("initialKeys");
+    this.maxKeys = config.getInt("maxKeys");
+    this.payloadSize = config.getInt("payloadSize");
+    this.removeRatio = config.getDouble("removeRatio");
+    this.dispatchAndRemoveRatio = config.getDouble("dispatchAndRemoveRatio");
+
+    int producers = config.getInt("producers");
+    this.periodNanos = 1000000000L * producers / config.getLong("rate");
+    // The producers are shifted, so the operations are spread evenly in time.
+    this.firstIntendedStartNanos = startNanos + this.periodNanos * producerIndex / producers;
+  }
+
+  /**
+   * The number of keys that are used at a point of the run. It grows linearly from the initial to
+   * the maximum number of keys, so the replay queue grows during the run.
+   */
+  int getKeySpace(final long nowNanos) {
+    double progress = Math.min((double) (nowNanos - this.startNanos) / this.durationNanos, 1);
+    return this.initialKeys + (int) ((this.maxKeys - this.initialKeys) * progress);
+  }
+
+  @Override
+  public void run() {
+    ThreadLocalRandom random = ThreadLocalRandom.current();
+    long intendedStartNanos = this.firstIntendedStartNanos;
+    while (this.running) {
+      long now = System.nanoTime();
+      if (now < intendedStartNanos) {
+        LockSupport.parkNanos(intendedStartNanos - now);
+        continue;
+      }
+      this.metrics.scheduleLag.record(now - intendedStartNanos);
+
+      long key = random.nextInt(getKeySpace(now));
+      double operation = random.nextDouble();
+      if (operation < this.removeRatio) {
+        this.dispatcher.removeEvent(key);
+      } else {
+        SoakEvent event =
+            new SoakEvent(key, intendedStartNanos, new byte[this.payloadSize], false);
+        if (operation < this.removeRatio + this.dispatchAndRemoveRatio) {
+          this.dispatcher.dispatchAndRemoveEvent(event);
+        } else {
+          this.dispatcher.dispatchEvent(event);
+        }
+      }
+
+      this.metrics.operationLatency.record(System.nanoTime() - intendedStartNanos);
+      this.metrics.operations.incrementAndGet();
+      intendedStartNanos += this.periodNanos;
+    }
+  }
+
+  void stop() {
+    this.running = false;
+  }
+}
@@ -0,0 +1,31 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.eventdispatcher.soak;
+
+import org.everit.eventdispatcher.LongEventUtil;
+
+/**
+ * Event util of the soak test with primitive keys, so the dispatchers keep their replay events in
+ * the store that is optimized for <code>long</code> keys.
+ */
+final class LongSoakEventUtil extends SoakEventUtil
+    implements LongEventUtil<SoakEvent, SoakListener> {
+
+  @Override
+  public long getLongEventKey(final SoakEvent event) {
+    return event.key;
+  }
+}
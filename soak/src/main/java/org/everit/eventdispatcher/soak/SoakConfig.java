@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.eventdispatcher.soak;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+
+/**
+ * The parameters of a soak test run. Every parameter can be passed as a
+ * <code>--name=value</code> command line argument.
+ */
+final class SoakConfig {
+
+  private static final Map<String, String> DEFAULTS = new LinkedHashMap<>();
+
+  static {
+    DEFAULTS.put("implementation", "map");
+    DEFAULTS.put("duration", "3600");
+    DEFAULTS.put("reportInterval", "10");
+    DEFAULTS.put("rate", "20000");
+    DEFAULTS.put("producers", "2");
+    DEFAULTS.put("workers", "4");
+    DEFAULTS.put("initialKeys", "1000");
+    DEFAULTS.put("maxKeys", "1000000");
+    DEFAULTS.put("payloadSize", "64");
+    DEFAULTS.put("removeRatio", "0.05");
+    DEFAULTS.put("dispatchAndRemoveRatio", "0.05");
+    DEFAULTS.put("listeners", "4");
+    DEFAULTS.put("churnListeners", "2");
+    DEFAULTS.put("churnInterval", "1000");
+    DEFAULTS.put("slowProbability", "0.001");
+    DEFAULTS.put("slowMicros", "2000");
+    DEFAULTS.put("failureProbability", "0.0001");
+    DEFAULTS.put("replayBudget", Long.toString(Long.MAX_VALUE));
+    DEFAULTS.put("output", "soak-report");
+  }
+
+  /**
+   * Parsing the command line arguments.
+   *
+   * @throws IllegalArgumentException
+   *           if an argument is not in <code>--name=value</code> format or the name is unknown.
+   */
+  static SoakConfig parse(final String[] args) {
+    Map<String, String> values = new LinkedHashMap<>(DEFAULTS);
+    for (String arg : args) {
+      int separatorIndex = arg.indexOf('=');
+      if (!arg.startsWith("--") || separatorIndex < 0) {
+        throw new IllegalArgumentException("Argument must be in --name=value format: " + arg);
+      }
+      String name = arg.substring(2, separatorIndex);
+      if (!DEFAULTS.containsKey(name)) {
+        throw new IllegalArgumentException("Unknown argument: " + name + ", known arguments: "
+            + DEFAULTS.keySet());
+      }
+      values.put(name, arg.substring(separatorIndex + 1));
+    }
+    return new SoakConfig(values);
+  }
+
+  /**
+   * Printing the usage of the soak test with the default values.
+   */
+  static String usage() {
+    StringBuilder sb = new StringBuilder("Arguments (--name=value):");
+    for (Entry<String, String> entry : DEFAULTS.entrySet()) {
+      sb.append("\n  --").append(entry.getKey()).append('=').append(entry.getValue());
+    }
+    return sb.toString();
+  }
+
+  private final Map<String, String> values;
+
+  private SoakConfig(final Map<String, String> values) {
+    this.values = values;
+  }
+
+  double getDouble(final String name) {
+    return Double.parseDouble(this.values.get(name));
+  }
+
+  int getInt(final String name) {
+    return Integer.parseInt(this.values.get(name));
+  }
+
+  long getLong(final String name) {
+    return Long.parseLong(this.values.get(name));
+  }
+
+  String getString(final String name) {
+    return this.values.get(name);
+  }
+
+  /**
+   * All parameters with their values, including the defaults.
+   */
+  Map<String, String> getValues() {
+    return this.values;
+  }
+}
@@ -0,0 +1,43 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.eventdispatcher.soak;
+
+/**
+ * Event of the soak test. The event carries the time when it should have been dispatched by the
+ * fixed rate schedule, so the latency of the listeners is measured from the intended start and not
+ * from the time the dispatching actually started.
+ */
+final class SoakEvent {
+
+  final long intendedStartNanos;
+
+  final long key;
+
+  /**
+   * Payload that makes the replay events take some memory.
+   */
+  final byte[] payload;
+
+  final boolean replay;
+
+  SoakEvent(final long key, final long intendedStartNanos, final byte[] payload,
+      final boolean replay) {
+    this.key = key;
+    this.intendedStartNanos = intendedStartNanos;
+    this.payload = payload;
+    this.replay = replay;
+  }
+}
@@ -0,0 +1,41 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.eventdispatcher.soak;
+
+import org.everit.eventdispatcher.EventUtil;
+
+/**
+ * Event util of the soak test with boxed keys, so the dispatchers keep their replay events in a
+ * map.
+ */
+class SoakEventUtil implements EventUtil<SoakEvent, Long, SoakListener> {
+
+  @Override
+  public void callListener(final SoakListener listener, final SoakEvent event) {
+    listener.receiveEvent(event);
+  }
+
+  @Override
+  public SoakEvent createReplayEvent(final SoakEvent originalEvent) {
+    return new SoakEvent(originalEvent.key, originalEvent.intendedStartNanos,
+        originalEvent.payload, true);
+  }
+
+  @Override
+  public Long getEventKey(final SoakEvent event) {
+    return event.key;
+  }
+}
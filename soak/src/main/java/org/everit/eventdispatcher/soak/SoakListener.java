@@ -0,0 +1,57 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.eventdispatcher.soak;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Listener of the soak test that records the end-to-end latency of the live events. It can
+ * simulate a slow listener by parking for a while and a failing one by throwing an exception.
+ */
+final class SoakListener {
+
+  private final double failureProbability;
+
+  private final SoakMetrics metrics;
+
+  private final long slowNanos;
+
+  private final double slowProbability;
+
+  SoakListener(final SoakMetrics metrics, final double slowProbability, final long slowNanos,
+      final double failureProbability) {
+    this.metrics = metrics;
+    this.slowProbability = slowProbability;
+    this.slowNanos = slowNanos;
+    this.failureProbability = failureProbability;
+  }
+
+  void receiveEvent(final SoakEvent event) {
+    if (event.replay) {
+      this.metrics.receivedReplayEvents.incrementAndGet();
+      return;
+    }
+    ThreadLocalRandom random = ThreadLocalRandom.current();
+    if (this.slowProbability > 0 && random.nextDouble() < this.slowProbability) {
+      LockSupport.parkNanos(this.slowNanos);
+    }
+    this.metrics.deliveryLatency.record(System.nanoTime() - event.intendedStartNanos);
+    if (this.failureProbability > 0 && random.nextDouble() < this.failureProbability) {
+      throw new IllegalStateException("Simulated listener failure");
+    }
+  }
+}
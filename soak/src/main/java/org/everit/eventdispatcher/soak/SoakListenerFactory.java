@@ -0,0 +1,44 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.eventdispatcher.soak;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Creates the listeners of the soak test that record into the same metrics.
+ */
+final class SoakListenerFactory {
+
+  private final double failureProbability;
+
+  private final SoakMetrics metrics;
+
+  private final long slowNanos;
+
+  private final double slowProbability;
+
+  SoakListenerFactory(final SoakConfig config, final SoakMetrics metrics) {
+    this.metrics = metrics;
+    this.slowProbability = config.getDouble("slowProbability");
+    this.slowNanos = TimeUnit.MICROSECONDS.toNanos(config.getLong("slowMicros"));
+    this.failureProbability = config.getDouble("failureProbability");
+  }
+
+  SoakListener createListener() {
+    return new SoakListener(this.metrics, this.slowProbability, this.slowNanos,
+        this.failureProbability);
+  }
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.eventdispatcher.soak;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The measurements of a soak test run that are recorded concurrently by the producers, the
+ * listeners and the churner.
+ */
+final class SoakMetrics {
+
+  /**
+   * The latency of the events from their intended dispatch to their arrival to a live listener.
+   */
+  final LatencyHistogram deliveryLatency = new LatencyHistogram();
+
+  /**
+   * The number of exceptions thrown by the listeners.
+   */
+  final AtomicLong listenerFailures = new AtomicLong();
+
+  /**
+   * The latency of the dispatcher calls from their intended start to their return.
+   */
+  final LatencyHistogram operationLatency = new LatencyHistogram();
+
+  /**
+   * The number of dispatcher calls of the producers.
+   */
+  final AtomicLong operations = new AtomicLong();
+
+  /**
+   * The number of replay events that the new listeners received.
+   */
+  final AtomicLong receivedReplayEvents = new AtomicLong();
+
+  /**
+   * The latency of replacing a churning listener, including the replay to the new listener.
+   */
+  final LatencyHistogram registrationLatency = new LatencyHistogram();
+
+  /**
+   * How late the producers started the operations compared to their schedule. A growing lag means
+   * that the dispatcher cannot keep up with the arrival rate.
+   */
+  final LatencyHistogram scheduleLag = new LatencyHistogram();
+}
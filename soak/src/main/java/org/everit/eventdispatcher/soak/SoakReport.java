@@ -0,0 +1,321 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.eventdispatcher.soak;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Map.Entry;
+
+/**
+ * Writes the measurements of a soak test run. Every interval is a line in
+ * <code>&lt;implementation&gt;-intervals.csv</code> to see the trends, and the whole run is
+ * summarized in <code>&lt;implementation&gt;-summary.properties</code>. The summaries of runs with
+ * different implementations can be compared with {@link #compare(List)}.
+ */
+final class SoakReport implements AutoCloseable {
+
+  private static final double BYTES_PER_MEGABYTE = 1024 * 1024;
+
+  private static final String CONFIG_PREFIX = "config.";
+
+  static final String INTERVAL_HEADER = "elapsed_s,operations,operations_per_s,"
+      + "listener_failures,replayed_events,key_space,"
+      + "operation_p50_us,operation_p99_us,operation_p999_us,operation_max_us,"
+      + "delivery_p50_us,delivery_p99_us,delivery_p999_us,delivery_max_us,"
+      + "registration_max_ms,schedule_lag_max_us,"
+      + "gc_count,gc_time_ms,heap_used_mb,heap_after_gc_mb";
+
+  private static final double NANOS_PER_MICROSECOND = 1000;
+
+  private static final double NANOS_PER_MILLISECOND = 1000000;
+
+  private static final String[] SUMMARY_PERCENTILE_NAMES =
+      { "p50", "p90", "p99", "p999", "p9999" };
+
+  private static final double[] SUMMARY_PERCENTILES = { 50, 90, 99, 99.9, 99.99 };
+
+  /**
+   * Printing the summaries of several runs side by side.
+   *
+   * @param summaryFiles
+   *          The summary files of the runs.
+   * @throws IOException
+   *           if a file cannot be read.
+   */
+  static void compare(final List<File> summaryFiles) throws IOException {
+    List<Map<String, String>> summaries = new ArrayList<>();
+    for (File summaryFile : summaryFiles) {
+      summaries.add(readSummary(summaryFile));
+    }
+    if (summaries.isEmpty()) {
+      return;
+    }
+
+    StringBuilder sb = new StringBuilder();
+    for (String key : summaries.get(0).keySet()) {
+      if (key.startsWith(CONFIG_PREFIX)) {
+        continue;
+      }
+      sb.append(String.format(Locale.ROOT, "%-40s", key));
+      for (Map<String, String> summary : summaries) {
+        String value = summary.get(key);
+        sb.append(String.format(Locale.ROOT, " %20s", (value != null) ? value : "-"));
+      }
+      sb.append('\n');
+    }
+    System.out.print(sb);
+  }
+
+  private static String format(final double value) {
+    return String.format(Locale.ROOT, "%.1f", value);
+  }
+
+  /**
+   * Reading a summary file keeping the order of its lines.
+   */
+  private static Map<String, String> readSummary(final File summaryFile) throws IOException {
+    Map<String, String> result = new LinkedHashMap<>();
+    try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+        new FileInputStream(summaryFile), StandardCharsets.UTF_8))) {
+      String line = reader.readLine();
+      while (line != null) {
+        int separatorIndex = line.indexOf('=');
+        if (!line.startsWith("#") && separatorIndex > 0) {
+          result.put(line.substring(0, separatorIndex), line.substring(separatorIndex + 1));
+        }
+        line = reader.readLine();
+      }
+    }
+    return result;
+  }
+
+  private final SoakConfig config;
+
+  private final JvmMonitor.Sample firstSample;
+
+  /**
+   * The elapsed seconds and the heap after GC in megabytes of the intervals after the first
+   * collection.
+   */
+  private final List<double[]> heapAfterGcTrend = new ArrayList<>();
+
+  private final String implementation;
+
+  private final PrintWriter intervalWriter;
+
+  private final SoakMetrics metrics;
+
+  private final File outputDirectory;
+
+  private long previousFailures = 0;
+
+  private long previousOperations = 0;
+
+  private long previousReplayedEvents = 0;
+
+  private JvmMonitor.Sample previousSample;
+
+  private final LatencyHistogram totalDeliveryLatency = new LatencyHistogram();
+
+  private final LatencyHistogram totalOperationLatency = new LatencyHistogram();
+
+  private final LatencyHistogram totalRegistrationLatency = new LatencyHistogram();
+
+  private final LatencyHistogram totalScheduleLag = new LatencyHistogram();
+
+  SoakReport(final SoakConfig config, final SoakMetrics metrics,
+      final JvmMonitor.Sample firstSample) throws IOException {
+    this.config = config;
+    this.metrics = metrics;
+    this.firstSample = firstSample;
+    this.previousSample = firstSample;
+    this.implementation = config.getString("implementation");
+    this.outputDirectory = new File(config.getString("output"));
+    if (!this.outputDirectory.isDirectory() && !this.outputDirectory.mkdirs()) {
+      throw new IOException("Cannot create output directory " + this.outputDirectory);
+    }
+    this.intervalWriter = new PrintWriter(new OutputStreamWriter(
+        new FileOutputStream(new File(this.outputDirectory,
+            this.implementation + "-intervals.csv")),
+        StandardCharsets.UTF_8));
+    this.intervalWriter.println(INTERVAL_HEADER);
+  }
+
+  @Override
+  public void close() {
+    this.intervalWriter.close();
+  }
+
+  /**
+   * The slope of the linear regression of the heap after GC in megabytes per hour. A positive
+   * slope in a long run with a constant key space suggests a leak.
+   */
+  private double getHeapAfterGcSlope() {
+    int n = this.heapAfterGcTrend.size();
+    if (n < 2) {
+      return 0;
+    }
+    double sumX = 0;
+    double sumY = 0;
+    for (double[] point : this.heapAfterGcTrend) {
+      sumX += point[0];
+      sumY += point[1];
+    }
+    double meanX = sumX / n;
+    double meanY = sumY / n;
+    double covariance = 0;
+    double variance = 0;
+    for (double[] point : this.heapAfterGcTrend) {
+      covariance += (point[0] - meanX) * (point[1] - meanY);
+      variance += (point[0] - meanX) * (point[0] - meanX);
+    }
+    return (variance == 0) ? 0 : covariance / variance * 3600;
+  }
+
+  private void putLatencies(final Map<String, String> summary, final String name,
+      final LatencyHistogram histogram, final double unitNanos, final String unit) {
+    for (int i = 0; i < SUMMARY_PERCENTILES.length; i++) {
+      summary.put(name + "." + SUMMARY_PERCENTILE_NAMES[i] + "_" + unit,
+          format(histogram.getValueAtPercentile(SUMMARY_PERCENTILES[i]) / unitNanos));
+    }
+    summary.put(name + ".max_" + unit, format(histogram.getMax() / unitNanos));
+    summary.put(name + ".count", String.valueOf(histogram.getCount()));
+  }
+
+  /**
+   * Writing the line of an interval and adding its latencies to the summary.
+   *
+   * @param elapsedSeconds
+   *          The seconds since the start of the run.
+   * @param intervalSeconds
+   *          The length of the interval in seconds.
+   * @param keySpace
+   *          The number of keys the producers used at the end of the interval.
+   * @param sample
+   *          The state of the JVM at the end of the interval.
+   * @return The line that was written.
+   */
+  String recordInterval(final double elapsedSeconds, final double intervalSeconds,
+      final int keySpace, final JvmMonitor.Sample sample) {
+    LatencyHistogram operationLatency = this.metrics.operationLatency.takeInterval();
+    LatencyHistogram deliveryLatency = this.metrics.deliveryLatency.takeInterval();
+    LatencyHistogram registrationLatency = this.metrics.registrationLatency.takeInterval();
+    LatencyHistogram scheduleLag = this.metrics.scheduleLag.takeInterval();
+    this.totalOperationLatency.add(operationLatency);
+    this.totalDeliveryLatency.add(deliveryLatency);
+    this.totalRegistrationLatency.add(registrationLatency);
+    this.totalScheduleLag.add(scheduleLag);
+
+    long operations = this.metrics.operations.get();
+    long failures = this.metrics.listenerFailures.get();
+    long replayedEvents = this.metrics.receivedReplayEvents.get();
+    double heapAfterGcMegabytes = sample.heapAfterGcBytes / BYTES_PER_MEGABYTE;
+    // The heap after GC is not known until the first collection of the run.
+    if (sample.gcCount > this.firstSample.gcCount) {
+      this.heapAfterGcTrend.add(new double[] { elapsedSeconds, heapAfterGcMegabytes });
+    }
+
+    String line = format(elapsedSeconds)
+        + "," + (operations - this.previousOperations)
+        + "," + format((operations - this.previousOperations) / intervalSeconds)
+        + "," + (failures - this.previousFailures)
+        + "," + (replayedEvents - this.previousReplayedEvents)
+        + "," + keySpace
+        + "," + format(operationLatency.getValueAtPercentile(50) / NANOS_PER_MICROSECOND)
+        + "," + format(operationLatency.getValueAtPercentile(99) / NANOS_PER_MICROSECOND)
+        + "," + format(operationLatency.getValueAtPercentile(99.9) / NANOS_PER_MICROSECOND)
+        + "," + format(operationLatency.getMax() / NANOS_PER_MICROSECOND)
+        + "," + format(deliveryLatency.getValueAtPercentile(50) / NANOS_PER_MICROSECOND)
+        + "," + format(deliveryLatency.getValueAtPercentile(99) / NANOS_PER_MICROSECOND)
+        + "," + format(deliveryLatency.getValueAtPercentile(99.9) / NANOS_PER_MICROSECOND)
+        + "," + format(deliveryLatency.getMax() / NANOS_PER_MICROSECOND)
+        + "," + format(registrationLatency.getMax() / NANOS_PER_MILLISECOND)
+        + "," + format(scheduleLag.getMax() / NANOS_PER_MICROSECOND)
+        + "," + (sample.gcCount - this.previousSample.gcCount)
+        + "," + (sample.gcTimeMillis - this.previousSample.gcTimeMillis)
+        + "," + format(sample.heapUsedBytes / BYTES_PER_MEGABYTE)
+        + "," + format(heapAfterGcMegabytes);
+    this.intervalWriter.println(line);
+    this.intervalWriter.flush();
+
+    this.previousOperations = operations;
+    this.previousFailures = failures;
+    this.previousReplayedEvents = replayedEvents;
+    this.previousSample = sample;
+    return line;
+  }
+
+  /**
+   * Writing the summary of the run.
+   *
+   * @param elapsedSeconds
+   *          The length of the run in seconds.
+   * @return The summary file.
+   * @throws IOException
+   *           if the file cannot be written.
+   */
+  File writeSummary(final double elapsedSeconds) throws IOException {
+    Map<String, String> summary = new LinkedHashMap<>();
+    summary.put("implementation", this.implementation);
+    for (Entry<String, String> entry : this.config.getValues().entrySet()) {
+      summary.put(CONFIG_PREFIX + entry.getKey(), entry.getValue());
+    }
+    summary.put("elapsed_s", format(elapsedSeconds));
+    summary.put("operations", String.valueOf(this.previousOperations));
+    summary.put("throughput_ops_per_s", format(this.previousOperations / elapsedSeconds));
+    summary.put("listener_failures", String.valueOf(this.previousFailures));
+    summary.put("replayed_events", String.valueOf(this.previousReplayedEvents));
+    putLatencies(summary, "operation", this.totalOperationLatency, NANOS_PER_MICROSECOND, "us");
+    putLatencies(summary, "delivery", this.totalDeliveryLatency, NANOS_PER_MICROSECOND, "us");
+    putLatencies(summary, "registration", this.totalRegistrationLatency, NANOS_PER_MILLISECOND,
+        "ms");
+    putLatencies(summary, "schedule_lag", this.totalScheduleLag, NANOS_PER_MICROSECOND, "us");
+
+    long gcTimeMillis = this.previousSample.gcTimeMillis - this.firstSample.gcTimeMillis;
+    summary.put("gc.count",
+        String.valueOf(this.previousSample.gcCount - this.firstSample.gcCount));
+    summary.put("gc.time_ms", String.valueOf(gcTimeMillis));
+    summary.put("gc.time_percent", format(gcTimeMillis / 10.0 / elapsedSeconds));
+    if (!this.heapAfterGcTrend.isEmpty()) {
+      summary.put("heap.after_gc_first_mb", format(this.heapAfterGcTrend.get(0)[1]));
+      summary.put("heap.after_gc_last_mb",
+          format(this.heapAfterGcTrend.get(this.heapAfterGcTrend.size() - 1)[1]));
+      summary.put("heap.after_gc_slope_mb_per_hour", format(getHeapAfterGcSlope()));
+    }
+
+    File summaryFile = new File(this.outputDirectory, this.implementation + "-summary.properties");
+    try (PrintWriter writer = new PrintWriter(new OutputStreamWriter(
+        new FileOutputStream(summaryFile), StandardCharsets.UTF_8))) {
+      writer.println("# Soak test summary, latencies are measured from the intended start");
+      for (Entry<String, String> entry : summary.entrySet()) {
+        writer.println(entry.getKey() + "=" + entry.getValue());
+      }
+    }
+    return summaryFile;
+  }
+}
@@ -0,0 +1,203 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.eventdispatcher.soak;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.everit.eventdispatcher.CloseableEventDispatcher;
+import org.everit.eventdispatcher.DispatcherRuntime;
+import org.everit.eventdispatcher.EventDispatcher;
+import org.everit.eventdispatcher.EventDispatcherImpl;
+import org.everit.eventdispatcher.ExceptionHandler;
+import org.everit.eventdispatcher.KeyAffinityEventDispatcher;
+
+/**
+ * Long-running load test of the event dispatcher. The producers dispatch events at a fixed
+ * arrival rate with a mix of {@link EventDispatcher#dispatchEvent(Object)},
+ * {@link EventDispatcher#dispatchAndRemoveEvent(Object)} and
+ * {@link EventDispatcher#removeEvent(Object)} over a key space that grows during the run, while
+ * the churner replaces listeners that receive the growing replay queue. The listeners are
+ * occasionally slow or failing. The latencies are measured from the intended start of the
+ * operations, so they are not distorted by coordinated omission.
+ *
+ * <p>
+ * Usage: <code>java -jar soak.jar --implementation=long --duration=3600</code> runs a test, and
+ * <code>java -jar soak.jar compare a-summary.properties b-summary.properties</code> compares the
+ * summaries of runs. The implementations are:
+ * </p>
+ * <ul>
+ * <li><b>map</b>: {@link EventDispatcherImpl} with boxed keys.</li>
+ * <li><b>long</b>: {@link EventDispatcherImpl} with primitive <code>long</code> keys.</li>
+ * <li><b>runtime</b>: {@link EventDispatcherImpl} with primitive keys attached to a
+ * {@link DispatcherRuntime} of <code>workers</code> threads that calls the listeners in parallel
+ * and limits the replay queue to <code>replayBudget</code> events.</li>
+ * <li><b>key-affinity</b>: {@link KeyAffinityEventDispatcher} with <code>workers</code>
+ * threads.</li>
+ * </ul>
+ */
+public final class SoakTest {
+
+  private static final long DRAIN_TIMEOUT_SECONDS = 30;
+
+  private static final double NANOS_PER_SECOND = 1000000000;
+
+  /**
+   * Running a soak test or comparing the summaries of runs.
+   *
+   * @param args
+   *          The <code>--name=value</code> parameters of the run or <code>compare</code> and the
+   *          summary files.
+   * @throws Exception
+   *           if the run fails.
+   */
+  public static void main(final String[] args) throws Exception {
+    if (args.length > 0 && "compare".equals(args[0])) {
+      List<File> summaryFiles = new ArrayList<>();
+      for (int i = 1; i < args.length; i++) {
+        summaryFiles.add(new File(args[i]));
+      }
+      SoakReport.compare(summaryFiles);
+      return;
+    }
+
+    SoakConfig config;
+    try {
+      config = SoakConfig.parse(args);
+    } catch (IllegalArgumentException e) {
+      System.err.println(e.getMessage());
+      System.err.println(SoakConfig.usage());
+      System.exit(1);
+      return;
+    }
+    new SoakTest(config).run();
+  }
+
+  private final SoakConfig config;
+
+  private final SoakMetrics metrics = new SoakMetrics();
+
+  private DispatcherRuntime runtime;
+
+  private SoakTest(final SoakConfig config) {
+    this.config = config;
+  }
+
+  private CloseableEventDispatcher<SoakEvent, Long, SoakListener, String> createDispatcher() {
+    ExceptionHandler<String, SoakEvent> exceptionHandler =
+        new ExceptionHandler<String, SoakEvent>() {
+
+          @Override
+          public void handleException(final String listenerKey, final SoakEvent event,
+              final Throwable e) {
+            SoakTest.this.metrics.listenerFailures.incrementAndGet();
+          }
+        };
+
+    String implementation = this.config.getString("implementation");
+    switch (implementation) {
+      case "map":
+        return new EventDispatcherImpl<>(new SoakEventUtil(), exceptionHandler);
+      case "long":
+        return new EventDispatcherImpl<>(new LongSoakEventUtil(), exceptionHandler);
+      case "runtime":
+        this.runtime = new DispatcherRuntime(this.config.getInt("workers"),
+            this.config.getLong("replayBudget"));
+        return new EventDispatcherImpl<>(new LongSoakEventUtil(), exceptionHandler,
+            this.runtime, "soak");
+      case "key-affinity":
+        return new KeyAffinityEventDispatcher<>(new LongSoakEventUtil(), exceptionHandler,
+            this.config.getInt("workers"));
+      default:
+        throw new IllegalArgumentException("Unknown implementation: " + implementation);
+    }
+  }
+
+  private void run() throws IOException, InterruptedException {
+    CloseableEventDispatcher<SoakEvent, Long, SoakListener, String> dispatcher =
+        createDispatcher();
+    SoakListenerFactory listenerFactory = new SoakListenerFactory(this.config, this.metrics);
+
+    long prefillNanos = System.nanoTime();
+    for (long key = 0; key < this.config.getInt("initialKeys"); key++) {
+      dispatcher.dispatchEvent(
+          new SoakEvent(key, prefillNanos, new byte[this.config.getInt("payloadSize")], false));
+    }
+    for (int i = 0; i < this.config.getInt("listeners"); i++) {
+      dispatcher.addListener("permanent-" + i, listenerFactory.createListener());
+    }
+
+    JvmMonitor jvmMonitor = new JvmMonitor();
+    long startNanos = System.nanoTime();
+    List<LoadGenerator> generators = new ArrayList<>();
+    List<Thread> threads = new ArrayList<>();
+    for (int i = 0; i < this.config.getInt("producers"); i++) {
+      LoadGenerator generator =
+          new LoadGenerator(dispatcher, this.config, i, startNanos, this.metrics);
+      generators.add(generator);
+      threads.add(new Thread(generator, "soak-producer-" + i));
+    }
+    ListenerChurner churner =
+        new ListenerChurner(dispatcher, listenerFactory, this.config, startNanos, this.metrics);
+    threads.add(new Thread(churner, "soak-churner"));
+
+    try (SoakReport report = new SoakReport(this.config, this.metrics, jvmMonitor.sample())) {
+      System.out.println(SoakReport.INTERVAL_HEADER);
+      for (Thread thread : threads) {
+        thread.start();
+      }
+
+      long durationNanos = TimeUnit.SECONDS.toNanos(this.config.getLong("duration"));
+      long intervalNanos = TimeUnit.SECONDS.toNanos(this.config.getLong("reportInterval"));
+      long previousReportNanos = startNanos;
+      long nextReportNanos = startNanos + intervalNanos;
+      while (previousReportNanos - startNanos < durationNanos) {
+        nextReportNanos = Math.min(nextReportNanos, startNanos + durationNanos);
+        long now = System.nanoTime();
+        if (now < nextReportNanos) {
+          TimeUnit.NANOSECONDS.sleep(nextReportNanos - now);
+          continue;
+        }
+        System.out.println(report.recordInterval((now - startNanos) / NANOS_PER_SECOND,
+            (now - previousReportNanos) / NANOS_PER_SECOND, generators.get(0).getKeySpace(now),
+            jvmMonitor.sample()));
+        previousReportNanos = now;
+        nextReportNanos += intervalNanos;
+      }
+
+      for (LoadGenerator generator : generators) {
+        generator.stop();
+      }
+      churner.stop();
+      for (Thread thread : threads) {
+        thread.join();
+      }
+      dispatcher.close();
+      if (!dispatcher.drain(DRAIN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+        System.err.println("Deliveries did not finish in " + DRAIN_TIMEOUT_SECONDS + " seconds");
+      }
+      if (this.runtime != null) {
+        this.runtime.close();
+      }
+
+      File summaryFile = report.writeSummary((previousReportNanos - startNanos) / NANOS_PER_SECOND);
+      System.out.println("Summary written to " + summaryFile);
+    }
+  }
+}
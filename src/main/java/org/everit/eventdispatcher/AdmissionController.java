@@ -0,0 +1,53 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.eventdispatcher;
+
+/**
+ * Decides whether a dispatched event is passed to the listeners or it is only stored in the replay
+ * queue. An event that is not admitted still overrides the previous event of its key in the replay
+ * queue, so the listeners can recover the latest state of the key via
+ * {@link ReplayEventQuery#getReplayEvent(Object)} when the load is over, and new listeners receive
+ * it as usual. The events of {@link EventDispatcher#dispatchAndRemoveEvent(Object)} are always
+ * passed to the listeners, as they cannot be recovered from the replay queue. The controller is
+ * called without holding any lock of the dispatcher.
+ *
+ * @param <E>
+ *          The type of the events.
+ */
+public interface AdmissionController<E> {
+
+  /**
+   * Deciding about an event before it is dispatched.
+   *
+   * @param event
+   *          The event that is dispatched.
+   * @param activeDispatches
+   *          The number of dispatches that are in progress including the current one.
+   * @return True if the event should be passed to the listeners, false if it should only be stored
+   *         in the replay queue.
+   */
+  boolean admit(E event, int activeDispatches);
+
+  /**
+   * Called after an event was dispatched, regardless of whether it was admitted.
+   *
+   * @param event
+   *          The event.
+   * @param durationNanos
+   *          The time of dispatching the event.
+   */
+  void dispatchFinished(E event, long durationNanos);
+}
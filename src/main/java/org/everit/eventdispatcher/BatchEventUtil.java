@@ -0,0 +1,45 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.eventdispatcher;
+
+import java.util.List;
+
+/**
+ * Optional interface of {@link EventUtil} implementations that can pass several events to a
+ * listener in one call. Listeners that are registered via
+ * {@link EventDispatcherImpl#addBatchingListener} receive their events via this interface. It can
+ * be implemented together with {@link LongEventUtil} as well.
+ *
+ * @param <E>
+ *          The type of the event.
+ * @param <L>
+ *          The type of the listeners.
+ */
+public interface BatchEventUtil<E, L> {
+
+  /**
+   * Calling the listener with several events. The same as calling
+   * {@link EventUtil#callListener(Object, Object)} with each event in order, but the listener can
+   * process the events at once, e.g. in one database transaction.
+   *
+   * @param listener
+   *          The listener that is waiting for events.
+   * @param events
+   *          The original or the replayed event objects in the order of dispatching. The list must
+   *          not be modified or used after the function returns.
+   */
+  void callListenerWithBatch(L listener, List<E> events);
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.eventdispatcher;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link EventDispatcher} that can be closed and drained. Closing stops accepting new work, while
+ * draining waits for the work that was accepted before.
+ *
+ * @param <E>
+ *          The type of the events.
+ * @param <EK>
+ *          The type of the event keys that identify the events based on the
+ *          {@link Object#hashCode()} and {@link Object#equals(Object)} functions. Events are
+ *          overridden by new events based on their key.
+ * @param <L>
+ *          The type of the listeners.
+ * @param <LK>
+ *          The type of the listener keys that identify the listener based on the
+ *          {@link Object#hashCode()} and {@link Object#equals(Object)} functions.
+ */
+public interface CloseableEventDispatcher<E, EK, L, LK>
+    extends EventDispatcher<E, EK, L, LK>, AutoCloseable {
+
+  /**
+   * Closing the dispatcher. The function returns immediately: new events and listeners are
+   * rejected and the replay events are dropped. The events that were dispatched before are still
+   * passed to the listeners and the listeners that were being registered still receive their
+   * replay events. {@link #drain(long, TimeUnit)} waits for them. Calling the function on a closed
+   * dispatcher has no effect.
+   */
+  @Override
+  void close();
+
+  /**
+   * Waiting until the work that was accepted before the dispatcher was closed is finished and
+   * stopping the listeners afterwards. If the timeout elapses before, the listeners are stopped
+   * anyway: the deliveries that are in progress are not interrupted, but the listeners do not
+   * receive the events whose delivery did not start yet. The function must not be called by a
+   * listener of the dispatcher.
+   *
+   * @param timeout
+   *          The maximum time to wait.
+   * @param unit
+   *          The unit of the timeout.
+   * @return True if all accepted work finished, false if the timeout elapsed before.
+   * @throws InterruptedException
+   *           if the current thread is interrupted while waiting. The listeners are not stopped in
+   *           that case.
+   * @throws IllegalStateException
+   *           if the dispatcher is not closed yet.
+   */
+  boolean drain(long timeout, TimeUnit unit) throws InterruptedException, IllegalStateException;
+}
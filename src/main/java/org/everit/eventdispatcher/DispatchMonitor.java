@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.eventdispatcher;
+
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Receives diagnostic measurements of an {@link EventDispatcherImpl}. A monitor can be set via
+ * {@link EventDispatcherImpl#setDispatchMonitor(DispatchMonitor, long, TimeUnit)}. When no monitor
+ * is set, the dispatcher does not even read the clock. The functions are called synchronously in
+ * the thread that does the measured work, without holding any lock of the dispatcher, so they
+ * must return quickly (e.g. by committing a JDK Flight Recorder event or updating a histogram).
+ *
+ * @param <E>
+ *          The type of the events.
+ * @param <EK>
+ *          The type of the event keys.
+ * @param <LK>
+ *          The type of the listener keys.
+ */
+public interface DispatchMonitor<E, EK, LK> {
+
+  /**
+   * Called after an event was passed to all listeners.
+   *
+   * @param eventKey
+   *          The key of the event.
+   * @param listenerCount
+   *          The number of listeners the event was passed to.
+   * @param durationNanos
+   *          The time of dispatching including waiting for the locks and calling the listeners.
+   */
+  void eventDispatched(EK eventKey, int listenerCount, long durationNanos);
+
+  /**
+   * Called after new listeners received the replay events.
+   *
+   * @param listenerKeys
+   *          The keys of the new listeners.
+   * @param replayEventCount
+   *          The number of replay events that were passed to each listener.
+   * @param durationNanos
+   *          The time of the registration including waiting for the locks and the replay.
+   * @param lockHoldNanos
+   *          The time while the listener collection was locked, blocking the dispatching of new
+   *          events.
+   */
+  void listenersReplayed(Collection<LK> listenerKeys, int replayEventCount, long durationNanos,
+      long lockHoldNanos);
+
+  /**
+   * Called when a listener processed an event longer than the threshold.
+   *
+   * @param listenerKey
+   *          The key of the listener.
+   * @param event
+   *          The event that was passed to the listener.
+   * @param durationNanos
+   *          The time the listener spent with processing the event.
+   */
+  void slowListenerCall(LK listenerKey, E event, long durationNanos);
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.eventdispatcher;
+
+/**
+ * Snapshot of the counters of a dispatcher that is attached to a {@link DispatcherRuntime}.
+ */
+public class DispatcherMetrics {
+
+  /**
+   * The number of events that were stored or removed by dispatching since the dispatcher was
+   * created.
+   */
+  private final long dispatchedEvents;
+
+  /**
+   * The number of replay events that were evicted to keep the replay event budget.
+   */
+  private final long evictedReplayEvents;
+
+  /**
+   * The number of tasks of the dispatcher that the shared executor ran.
+   */
+  private final long executedTasks;
+
+  /**
+   * The name of the dispatcher in the runtime.
+   */
+  private final String name;
+
+  /**
+   * The number of tasks of the dispatcher that wait for the shared executor or are being run.
+   */
+  private final int queuedTasks;
+
+  /**
+   * The number of events in the replay queue of the dispatcher.
+   */
+  private final int replayEvents;
+
+  /**
+   * Constructor.
+   *
+   * @param name
+   *          The name of the dispatcher in the runtime.
+   * @param dispatchedEvents
+   *          The number of events that were stored or removed by dispatching.
+   * @param replayEvents
+   *          The number of events in the replay queue of the dispatcher.
+   * @param evictedReplayEvents
+   *          The number of replay events that were evicted to keep the replay event budget.
+   * @param executedTasks
+   *          The number of tasks of the dispatcher that the shared executor ran.
+   * @param queuedTasks
+   *          The number of tasks of the dispatcher that wait for the shared executor.
+   */
+  public DispatcherMetrics(final String name, final long dispatchedEvents,
+      final int replayEvents, final long evictedReplayEvents, final long executedTasks,
+      final int queuedTasks) {
+    this.name = name;
+    this.dispatchedEvents = dispatchedEvents;
+    this.replayEvents = replayEvents;
+    this.evictedReplayEvents = evictedReplayEvents;
+    this.executedTasks = executedTasks;
+    this.queuedTasks = queuedTasks;
+  }
+
+  public long getDispatchedEvents() {
+    return this.dispatchedEvents;
+  }
+
+  public long getEvictedReplayEvents() {
+    return this.evictedReplayEvents;
+  }
+
+  public long getExecutedTasks() {
+    return this.executedTasks;
+  }
+
+  public String getName() {
+    return this.name;
+  }
+
+  public int getQueuedTasks() {
+    return this.queuedTasks;
+  }
+
+  public int getReplayEvents() {
+    return this.replayEvents;
+  }
+
+  @Override
+  public String toString() {
+    return "DispatcherMetrics [name=" + this.name + ", dispatchedEvents=" + this.dispatchedEvents
+        + ", replayEvents=" + this.replayEvents + ", evictedReplayEvents="
+        + this.evictedReplayEvents + ", executedTasks=" + this.executedTasks + ", queuedTasks="
+        + this.queuedTasks + "]";
+  }
+}
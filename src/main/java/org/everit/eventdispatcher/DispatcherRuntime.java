@@ -0,0 +1,397 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.eventdispatcher;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinPool.ForkJoinWorkerThreadFactory;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.everit.eventdispatcher.internal.DispatcherLane;
+import org.everit.eventdispatcher.internal.FifoExecutor;
+import org.everit.eventdispatcher.internal.HashedTimerWheel;
+import org.everit.eventdispatcher.internal.ListenerInvoker;
+
+/**
+ * Resources that are shared by many {@link EventDispatcherImpl} instances, so the number of
+ * threads and the memory of the replay queues do not grow with the number of dispatchers. A
+ * dispatcher is attached to the runtime by passing the runtime to its constructor and it is
+ * detached when it is closed.
+ * <ul>
+ * <li><b>Executor</b>: The runtime has one {@link ForkJoinPool} and every dispatcher gets its own
+ * lane in it. The turns of the lanes are passed to the pool through a single FIFO queue, so they
+ * are run in the order they were submitted. The price is that every turn goes through the same
+ * queue: the pool cannot balance the turns between its threads by stealing, as each thread takes
+ * the oldest turn of the shared queue, and the queue is a point of contention if the turns are
+ * short. A lane runs at most a quantum of its tasks before it goes behind the other waiting
+ * lanes, so a busy dispatcher cannot starve the others. The attached dispatchers call their
+ * listeners in parallel via their lanes, or in the dispatching threads after the runtime was
+ * closed. A {@link KeyAffinityEventDispatcher} that is created with the runtime runs each of its
+ * workers in a lane instead of a thread of its own.</li>
+ * <li><b>Replay event budget</b>: The number of replay events of all attached dispatchers is
+ * limited. Every dispatcher can keep its fair share, the budget divided by the number of
+ * dispatchers, and it can use the unused shares of the others. If the budget is exceeded, the
+ * dispatcher that is over its fair share evicts its oldest replay events: the dispatcher that
+ * stores a new event evicts immediately, the others are trimmed by a task in their lane.</li>
+ * <li><b>Timers</b>: The delayed events, the replay event expirations and the linger timers of the
+ * batching listeners of all attached dispatchers share one timer wheel and its thread.</li>
+ * <li><b>Metrics</b>: The counters of the dispatchers are available via {@link #getMetrics()}.</li>
+ * </ul>
+ */
+public class DispatcherRuntime implements AutoCloseable {
+
+  /**
+   * The registration of a dispatcher in the runtime.
+   */
+  final class Member {
+
+    private final EventDispatcherImpl<?, ?, ?, ?> dispatcher;
+
+    private final AtomicLong dispatchedEvents = new AtomicLong();
+
+    private final AtomicLong evictedReplayEvents = new AtomicLong();
+
+    private final DispatcherLane lane;
+
+    private final String name;
+
+    private final AtomicInteger replayEvents = new AtomicInteger();
+
+    Member(final String name, final EventDispatcherImpl<?, ?, ?, ?> dispatcher,
+        final DispatcherLane lane) {
+      this.name = name;
+      this.dispatcher = dispatcher;
+      this.lane = lane;
+    }
+
+    void eventDispatched() {
+      this.dispatchedEvents.incrementAndGet();
+    }
+
+    /**
+     * The number of replay events the dispatcher should evict to get back to the budget.
+     *
+     * @return The number of events above the fair share of the dispatcher, but at most the number
+     *         of events above the budget.
+     */
+    int getExcessReplayEvents() {
+      long overBudget =
+          DispatcherRuntime.this.usedReplayEvents.get() - DispatcherRuntime.this.replayEventBudget;
+      long overShare = this.replayEvents.get() - getFairShare();
+      return (int) Math.max(Math.min(overBudget, overShare), 0);
+    }
+
+    DispatcherLane getLane() {
+      return this.lane;
+    }
+
+    DispatcherRuntime getRuntime() {
+      return DispatcherRuntime.this;
+    }
+
+    /**
+     * Registering the change of the number of replay events of the dispatcher. Must be called
+     * while the replay queue of the dispatcher is locked for writing.
+     *
+     * @param delta
+     *          The change of the number of replay events.
+     * @return The number of replay events the dispatcher must evict immediately.
+     */
+    int replayEventsChanged(final int delta) {
+      this.replayEvents.addAndGet(delta);
+      long used = DispatcherRuntime.this.usedReplayEvents.addAndGet(delta);
+      if (delta <= 0 || used <= DispatcherRuntime.this.replayEventBudget) {
+        return 0;
+      }
+      int excess = getExcessReplayEvents();
+      if (excess == 0) {
+        reclaimReplayEvents();
+      }
+      return excess;
+    }
+
+    void replayEventsEvicted(final int count) {
+      this.evictedReplayEvents.addAndGet(count);
+    }
+
+    DispatcherMetrics toMetrics() {
+      return new DispatcherMetrics(this.name, this.dispatchedEvents.get(),
+          this.replayEvents.get(), this.evictedReplayEvents.get(),
+          this.lane.getExecutedTaskCount(), this.lane.getQueuedTaskCount());
+    }
+
+    /**
+     * Evicting the excess replay events of the dispatcher in its lane.
+     */
+    void trim() {
+      Runnable trimTask = new Runnable() {
+
+        @Override
+        public void run() {
+          int evictedEvents = 0;
+          try {
+            evictedEvents = Member.this.dispatcher.trimReplayEvents();
+          } finally {
+            DispatcherRuntime.this.reclaiming.set(false);
+          }
+          // Other dispatchers might have exceeded the budget meanwhile. If nothing could be
+          // evicted (e.g. an interceptor denied it), the next stored event tries again.
+          if (evictedEvents > 0 && DispatcherRuntime.this.usedReplayEvents
+              .get() > DispatcherRuntime.this.replayEventBudget) {
+            reclaimReplayEvents();
+          }
+        }
+      };
+      try {
+        this.lane.execute(trimTask);
+      } catch (RejectedExecutionException e) {
+        DispatcherRuntime.this.reclaiming.set(false);
+      }
+    }
+  }
+
+  /**
+   * The default number of tasks a dispatcher can run in one turn of the shared executor.
+   */
+  public static final int DEFAULT_QUANTUM = 16;
+
+  private final ForkJoinPool executor;
+
+  /**
+   * Passes the turns of the lanes to {@link #executor} in FIFO order.
+   */
+  private final FifoExecutor laneExecutor;
+
+  private final ConcurrentMap<String, Member> members = new ConcurrentHashMap<>();
+
+  private final int quantum;
+
+  /**
+   * Flag that shows if a dispatcher was asked to evict its excess replay events and it did not
+   * finish yet. Only one dispatcher is trimmed at a time, so the dispatchers that store new events
+   * while the budget is exceeded do not search for the largest dispatcher again and again.
+   */
+  private final AtomicBoolean reclaiming = new AtomicBoolean();
+
+  private final long replayEventBudget;
+
+  /**
+   * The timer wheel of the attached dispatchers. Its thread is started with the first timer.
+   */
+  private final HashedTimerWheel<TimerKey, Object> timerWheel =
+      TimerKey.createTimerWheel("eventdispatcher-runtime-timers");
+
+  private final AtomicLong usedReplayEvents = new AtomicLong();
+
+  /**
+   * Constructor that uses {@link #DEFAULT_QUANTUM}.
+   *
+   * @param parallelism
+   *          The number of the threads of the shared executor.
+   * @param replayEventBudget
+   *          The maximum number of replay events of all attached dispatchers.
+   */
+  public DispatcherRuntime(final int parallelism, final long replayEventBudget) {
+    this(parallelism, replayEventBudget, DEFAULT_QUANTUM);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param parallelism
+   *          The number of the threads of the shared executor.
+   * @param replayEventBudget
+   *          The maximum number of replay events of all attached dispatchers.
+   * @param quantum
+   *          The maximum number of tasks a dispatcher can run before the other dispatchers get
+   *          their turn.
+   */
+  public DispatcherRuntime(final int parallelism, final long replayEventBudget,
+      final int quantum) {
+    if (parallelism <= 0 || replayEventBudget <= 0 || quantum <= 0) {
+      throw new IllegalArgumentException("Parallelism, replay event budget and quantum must be"
+          + " positive: " + parallelism + ", " + replayEventBudget + ", " + quantum);
+    }
+    this.replayEventBudget = replayEventBudget;
+    this.quantum = quantum;
+    this.executor = new ForkJoinPool(parallelism, new ForkJoinWorkerThreadFactory() {
+
+      private final AtomicInteger threadCount = new AtomicInteger();
+
+      @Override
+      public ForkJoinWorkerThread newThread(final ForkJoinPool pool) {
+        ForkJoinWorkerThread thread =
+            ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+        thread.setName("eventdispatcher-runtime-" + this.threadCount.incrementAndGet());
+        return thread;
+      }
+    }, null, true);
+    this.laneExecutor = new FifoExecutor(this.executor);
+  }
+
+  /**
+   * Shutting down the shared executor and stopping the timer wheel. The attached dispatchers call
+   * their listeners in the dispatching threads afterwards and their replay queues are not trimmed
+   * anymore. Their timers are dropped: the delayed events that are not due yet are not
+   * dispatched, the replay events do not expire and the pending batches of the batching listeners
+   * are delivered when they are full or when the listener is removed.
+   */
+  @Override
+  public void close() {
+    this.executor.shutdown();
+    this.timerWheel.stop();
+  }
+
+  /**
+   * Creating a lane in the shared executor.
+   *
+   * @param listenerInvoker
+   *          The invoker whose exception handler receives the exceptions of the tasks of the lane.
+   * @return The lane.
+   * @throws IllegalStateException
+   *           if the runtime is closed.
+   */
+  DispatcherLane createLane(final ListenerInvoker<?, ?, ?> listenerInvoker) {
+    if (this.executor.isShutdown()) {
+      throw new IllegalStateException("Dispatcher runtime is closed");
+    }
+    return new DispatcherLane(this.laneExecutor, this.quantum, listenerInvoker);
+  }
+
+  private long getFairShare() {
+    return this.replayEventBudget / Math.max(this.members.size(), 1);
+  }
+
+  /**
+   * Getting the counters of the attached dispatchers.
+   *
+   * @return The snapshots of the counters ordered by the names of the dispatchers.
+   */
+  public List<DispatcherMetrics> getMetrics() {
+    List<DispatcherMetrics> result = new ArrayList<>(this.members.size());
+    for (Member member : this.members.values()) {
+      result.add(member.toMetrics());
+    }
+    Collections.sort(result, new Comparator<DispatcherMetrics>() {
+
+      @Override
+      public int compare(final DispatcherMetrics o1, final DispatcherMetrics o2) {
+        return o1.getName().compareTo(o2.getName());
+      }
+    });
+    return result;
+  }
+
+  /**
+   * Getting the counters of an attached dispatcher.
+   *
+   * @param name
+   *          The name of the dispatcher.
+   * @return The snapshot of the counters or null if there is no attached dispatcher with the name.
+   */
+  public DispatcherMetrics getMetrics(final String name) {
+    Member member = this.members.get(name);
+    return (member != null) ? member.toMetrics() : null;
+  }
+
+  public long getReplayEventBudget() {
+    return this.replayEventBudget;
+  }
+
+  /**
+   * The number of tasks that the threads of the shared executor stole from each other. The turns
+   * of the lanes are taken from a shared FIFO queue, so they are rarely stolen and the count stays
+   * low.
+   *
+   * @return An estimate of the number of stolen tasks.
+   */
+  public long getStealCount() {
+    return this.executor.getStealCount();
+  }
+
+  HashedTimerWheel<TimerKey, Object> getTimerWheel() {
+    return this.timerWheel;
+  }
+
+  /**
+   * The number of replay events of all attached dispatchers.
+   *
+   * @return The number of replay events.
+   */
+  public long getUsedReplayEvents() {
+    return this.usedReplayEvents.get();
+  }
+
+  /**
+   * Asking the dispatcher that exceeds its fair share the most to evict its excess replay events.
+   */
+  private void reclaimReplayEvents() {
+    if (!this.reclaiming.compareAndSet(false, true)) {
+      return;
+    }
+    Member largestMember = null;
+    int largestExcess = 0;
+    for (Member member : this.members.values()) {
+      int excess = member.getExcessReplayEvents();
+      if (excess > largestExcess) {
+        largestMember = member;
+        largestExcess = excess;
+      }
+    }
+    if (largestMember != null) {
+      largestMember.trim();
+    } else {
+      this.reclaiming.set(false);
+    }
+  }
+
+  /**
+   * Attaching a dispatcher to the runtime.
+   *
+   * @throws IllegalArgumentException
+   *           if a dispatcher with the same name is already attached.
+   * @throws IllegalStateException
+   *           if the runtime is closed.
+   */
+  Member register(final String name, final EventDispatcherImpl<?, ?, ?, ?> dispatcher,
+      final ListenerInvoker<?, ?, ?> listenerInvoker) {
+    Member member = new Member(name, dispatcher, createLane(listenerInvoker));
+    if (this.members.putIfAbsent(name, member) != null) {
+      throw new IllegalArgumentException(
+          "Dispatcher with name " + name + " is already attached to the runtime");
+    }
+    return member;
+  }
+
+  /**
+   * Detaching a dispatcher from the runtime and releasing its part of the replay event budget.
+   * Must be called while the replay queue of the dispatcher is locked for writing.
+   */
+  void unregister(final Member member) {
+    if (this.members.remove(member.name, member)) {
+      this.usedReplayEvents.addAndGet(-member.replayEvents.getAndSet(0));
+    }
+  }
+}
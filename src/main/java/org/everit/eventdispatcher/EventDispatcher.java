@@ -45,6 +45,8 @@ public interface EventDispatcher<E, EK, L, LK> {
    *          The listener object.
    * @throws ListenerAlreadyRegisteredException
    *           if the listener with the key was already registered.
+   * @throws IllegalStateException
+   *           if the dispatcher is already closed.
    */
   void addListener(LK listenerKey, L listener) throws ListenerAlreadyRegisteredException;
 
@@ -55,7 +57,7 @@ public interface EventDispatcher<E, EK, L, LK> {
    * @param event
    *          The event object.
    * @throws IllegalStateException
-   *           if the dipatcher is already closed.
+   *           if the dispatcher is already closed.
    */
   void dispatchAndRemoveEvent(E event) throws IllegalStateException;
 
@@ -67,7 +69,7 @@ public interface EventDispatcher<E, EK, L, LK> {
    * @param event
    *          The event object.
    * @throws IllegalStateException
-   *           if the dipatcher is already closed.
+   *           if the dispatcher is already closed.
    */
   void dispatchEvent(E event) throws IllegalStateException;
 
@@ -83,7 +85,14 @@ public interface EventDispatcher<E, EK, L, LK> {
   boolean removeEvent(EK eventKey);
 
   /**
-   * Removing a listener based on it's key from the registration.
+   * Removing a listener based on it's key from the registration. When the function returns, the
+   * listener does not receive any more events, unless the function is called by the listener
+   * itself while it processes an event. The function waits for the delivery to the listener that
+   * is in progress in other threads, therefore two listeners must not remove each other while they
+   * process events, as they would wait for each other forever. Removing a member of a listener
+   * group that routes by event key waits for the deliveries to the other members too, so two
+   * members of such a group must not remove members of the group at the same time while they
+   * process events.
    *
    * @param listenerKey
    *          The key of the listener that identifies the listener with it's
@@ -15,20 +15,47 @@
  */
 package org.everit.eventdispatcher;
 
-import java.io.PrintWriter;
-import java.io.StringWriter;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.util.AbstractMap.SimpleImmutableEntry;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock.ReadLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock.WriteLock;
 
-import org.everit.eventdispatcher.internal.DefaultExceptionHandler;
-import org.everit.eventdispatcher.internal.EventWithReplayFlag;
+import org.everit.eventdispatcher.internal.HashedTimerWheel;
+import org.everit.eventdispatcher.internal.HashedTimerWheel.Timer;
+import org.everit.eventdispatcher.internal.LazyEvent;
 import org.everit.eventdispatcher.internal.ListenerData;
+import org.everit.eventdispatcher.internal.ListenerDependencyGraph;
+import org.everit.eventdispatcher.internal.ListenerDependencyGraph.Plan;
+import org.everit.eventdispatcher.internal.ListenerGroupMembers;
+import org.everit.eventdispatcher.internal.ListenerInvoker;
+import org.everit.eventdispatcher.internal.MicroBatcher;
+import org.everit.eventdispatcher.internal.ParallelReplay;
+import org.everit.eventdispatcher.internal.ReplayEventPageCollector;
+import org.everit.eventdispatcher.internal.ReplayStore;
+import org.everit.eventdispatcher.internal.ReplayStoreVisitor;
+import org.everit.eventdispatcher.internal.ReplayStores;
+import org.everit.eventdispatcher.internal.StripedCounter;
+import org.everit.eventdispatcher.internal.TokenBucket;
+import org.everit.eventdispatcher.internal.WeakListenerReference;
 
 /**
  * Helper class to dispatch events to listeners. The dispatcher calls every listener that are
@@ -61,9 +88,9 @@ import org.everit.eventdispatcher.internal.ListenerData;
  * <ul>
  * <li>{@link #addListener(Object, Object)}</li>
  * <ul>
- * <li><b>ls(w)</b>, <b>etr(r)</b></li>
+ * <li><b>etr(r)</b></li>
  * <ul>
- * <li>{@link #listeners}.add()</li>
+ * <li><b>ls(w)</b>: {@link #listeners}.add()</li>
  * <li>{@link #eventsToReplay}.clone()</li>
  * </ul>
  * <li>clonedeventsToReplay.iterate</li>
@@ -71,26 +98,115 @@ import org.everit.eventdispatcher.internal.ListenerData;
  * <li>{@link #callListener(Object, ListenerData, Object)} <b>l(r)+</b></li>
  * </ul>
  * </ul>
+ * <li>{@link #addListeners(Map, Executor)}: the same as above, but {@link #eventsToReplay} is
+ * cloned once for all new listeners. With an executor l(w)+ of each new listener is acquired by
+ * the thread that passes the cloned events to it, before the listeners are added. A thread that
+ * replays several listeners one after the other holds l(w)+ of all of them, so the live events
+ * that it passes to a listener that was not replayed yet are delivered after the replay of that
+ * listener.</li>
  * </ul>
  * <li>{@link #dispatchEvent(Object)}</li>
  * <ul>
+ * <li><b>ls(r)</b></li>
+ * <ul>
  * <li><b>etr(w)</b>: Modify {@link #eventsToReplay} (remove and put if necessary).</li>
- * <li><b>ls(r)</b>: {@link #listeners}.clone()</li>
+ * <li>{@link #listeners}.clone()</li>
+ * </ul>
  * <li>clonedListeners.iterate()</li>
  * <ul>
  * <li>{@link #callListener(Object, ListenerData, Object)} <b>l(r)+</b></li>
  * </ul>
  * </ul>
  * <li><b>etr(w)</b>: {@link #removeEvent(Object)}</li>
- * <li><b>ls(w)</b>: {@link #removeListener(Object)}</li>
+ * <li><b>etr(r)</b>: {@link #getReplayEvent(Object)}, {@link #getReplayEvents(Collection)},
+ * {@link #getReplayEvents(ReplayEventFilter, int, int)} and
+ * {@link #getReplayEventRange(ReplayKeyRange, Object, int)}. The latter builds the ordered index
+ * of the keys with <b>etr(w)</b> at its first call, then the index is maintained with
+ * <b>etr(w)</b> by the modifications of the replay queue.</li>
+ * <li><b>ls(w)</b>, then <b>l(w)+</b>: {@link #removeListener(Object)}. For the member of a
+ * group that routes by event key, <b>l(w)+</b> of the other members is held around it.</li>
+ * <li><b>ls(w)</b>, <b>etr(w)</b>: {@link #close()}</li>
  * <li><b>l(r)+</b>: {@link #callListener(Object, ListenerData, Object)}</li>
  * </ul>
  *
  * Please note that {@link #callListener(Object, ListenerData, Object)} is called from two places.
  * The mentioned l(r)+ lock is placed into the function call. In the
- * {@link #callListener(Object, ListenerData, Object)} it is also checked with a ls(r) lock if the
- * listener is still active to avoid the possibility of calling a listener that was removed until
- * and event is dispatched to other listeners in the queue.
+ * {@link #callListener(Object, ListenerData, Object)} it is also checked with a volatile flag if
+ * the listener is still active to avoid the possibility of calling a listener that was removed
+ * until and event is dispatched to other listeners in the queue. {@link #removeListener(Object)}
+ * clears the flag and waits for the live delivery that is in progress in other threads with
+ * <b>l(w)+</b>.
+ * <h2>Lifecycle</h2> {@link #close()} takes the listeners out of the listener collection with
+ * <b>ls(w)</b> and drops the replay events with <b>etr(w)</b>, but it does not stop the
+ * listeners. The closed state is checked with a single volatile read while <b>etr(w)</b> is held
+ * during dispatching and while <b>ls(w)</b> is held during registration, so no event can get into
+ * the replay queue after it was cleared and no listener can be added. Every dispatch and
+ * registration is counted as an operation, so {@link #drain(long, TimeUnit)} can wait until the
+ * operations that were accepted before closing finish. It delivers the pending batches afterwards
+ * and clears the active flag of the listeners that were registered when the dispatcher was
+ * closed.
+ * <h2>Listener groups</h2> Listeners that are registered with the same {@link ListenerGroup} via
+ * {@link #addListener(Object, Object, ListenerGroup)} share the events: each event is passed to
+ * one member of the group only, at the position of the first member of the group in the
+ * registration order. A new member receives only its own partition of the replay events. With
+ * {@link ListenerGroupRouting#EVENT_KEY} routing the keys are assigned by rendezvous hashing, so
+ * a join or a leave moves only the keys of the joining or leaving member. When a member is
+ * removed, <b>l(w)+</b> of the other members is acquired before <b>ls(w)</b>, the keys that move
+ * are collected with <b>ls(w)</b> and <b>etr(r)</b>, their replay events are built with
+ * <b>etr(r)</b> only, and they are passed to the members that take them over before their locks
+ * are released.
+ * <h2>Listener dependencies</h2> The dependencies declared via
+ * {@link #addDependentListener(Object, Object, Collection)} are checked for cycles with
+ * <b>ls(w)</b>. A dispatch that has dependencies or a listener executor creates a plan of the
+ * cloned listeners with <b>ls(r)</b> and calls the listeners based on the plan without locking
+ * the collection.
+ * <h2>Lazy events</h2> The events dispatched via {@link #dispatchEvent(Object, EventSupplier)} are
+ * stored as a {@link LazyEvent} under <b>etr(w)</b> without building them. The dispatching thread
+ * builds the event after releasing the locks if there are listeners, otherwise the first reader
+ * of the replay queue builds it, which might happen with <b>etr(r)</b>. The replay to a new
+ * listener builds the events that were not built yet after <b>ls(w)</b> is released, but with
+ * <b>etr(r)</b>, so a slow supplier delays the dispatches meanwhile, but not the other
+ * registrations. If a supplier throws an exception or returns null there, the event is skipped in
+ * that replay and the exception is passed to the {@link ExceptionHandler} with a null event. The
+ * listener is registered anyway and the supplier is called again by the next reader.
+ * <h2>Batching listeners</h2> The live events of a listener that is registered via
+ * {@link #addBatchingListener(Object, Object, int, long, TimeUnit)} are collected by a
+ * {@link MicroBatcher} under <b>l(r)+</b>. The batches are delivered in order under the delivery
+ * lock of the batcher, which is acquired with <b>l(r)+</b> as well, so removing the listener waits
+ * for the delivery of the current batch. The pending events are flushed with <b>l(r)+</b> after the
+ * listener was removed and the deliveries in progress finished.
+ * <h2>Weak listeners</h2> Listeners registered via {@link #addWeakListener(Object, Object)} are
+ * referenced weakly. Their references are enqueued to {@link #clearedListenerReferences} by the
+ * garbage collector and {@link #purgeClearedListeners()} removes them in batches with a single
+ * <b>ls(w)</b>.
+ * <h2>Overload protection</h2> The live events of a listener can be limited with
+ * {@link #setListenerRateLimit(Object, double, int)}, and an {@link AdmissionController} set via
+ * {@link #setAdmissionController(AdmissionController)} can decide to only store an event in the
+ * replay queue instead of passing it to the listeners. In both cases the replay queue coalesces
+ * the skipped events by their keys, so the latest state can be recovered from the replay queue.
+ * The keys that a rate limited listener missed are available via
+ * {@link #takeMissedEventKeys(Object)}. The events of {@link #dispatchAndRemoveEvent(Object)} are
+ * neither limited nor shed, as their key is not in the replay queue anymore.
+ * <h2>Shared runtime</h2> A dispatcher that is attached to a {@link DispatcherRuntime} reports
+ * the changes of its replay queue to the runtime with <b>etr(w)</b>. If the dispatcher exceeds
+ * its share of the replay event budget, it evicts its oldest replay events in the same critical
+ * section, otherwise the runtime trims the largest dispatcher in its lane with <b>etr(w)</b>.
+ * <h2>Timers</h2> {@link #dispatchEventDelayed(Object, long, TimeUnit)} and
+ * {@link #dispatchEvent(Object, long, TimeUnit)} use a hashed timer wheel that holds at most one
+ * timer per event key, so dispatching the same key again reschedules the timer in place. The
+ * timers of the replay events are scheduled and removed with <b>etr(w)</b> and an expired timer
+ * removes its event with <b>etr(w)</b> only if no newer event of the key arrived meanwhile. The
+ * delayed events, the replay event expirations and the linger timers of the batching listeners
+ * share one wheel, whose thread is started with the first timer. The dispatchers that are
+ * attached to a {@link DispatcherRuntime} share the wheel of the runtime. The thread of the wheel
+ * passes the delayed dispatches and the deliveries of the lingering batches to the listener
+ * executor, so it does not call listeners if there is an executor. The exceptions of the timer
+ * tasks and of the tasks in the lane of a runtime are passed to the {@link ExceptionHandler}
+ * with a null listener key.
+ * <h2>Monitoring</h2> A {@link DispatchMonitor} can be set via
+ * {@link #setDispatchMonitor(DispatchMonitor, long, TimeUnit)} to measure dispatching, the replay
+ * to new listeners and slow listener calls. Without a monitor the only cost is one volatile read
+ * per dispatch, registration and listener call.
  * <h2>Usage</h2> To use this implementation the programmer must implement the {@link EventUtil}
  * interface and pass it to the constructor of this class. After that listeners can be registered
  * and events can be dispatched via the {@link EventDispatcher} interface. For more information
@@ -108,7 +224,137 @@ import org.everit.eventdispatcher.internal.ListenerData;
  *          The type of the listener keys that identify the listener based on the
  *          {@link Object#hashCode()} and {@link Object#equals(Object)} functions.
  */
-public class EventDispatcherImpl<E, EK, L, LK> implements EventDispatcher<E, EK, L, LK> {
+public class EventDispatcherImpl<E, EK, L, LK>
+    implements CloseableEventDispatcher<E, EK, L, LK>, ReplayEventQuery<E, EK> {
+
+  /**
+   * Key of the timer of an event that is dispatched with a delay.
+   */
+  private final class DelayedEventTimerKey extends TimerKey {
+
+    DelayedEventTimerKey(final EK eventKey) {
+      super(EventDispatcherImpl.this, eventKey);
+    }
+
+    @Override
+    void timerExpired(final Timer<TimerKey, Object> timer) {
+      executeTimerTask(new Runnable() {
+
+        @Override
+        public void run() {
+          dispatchDelayedEvent(timer);
+        }
+      });
+    }
+  }
+
+  /**
+   * Key of the linger timer of the pending batch of a batching listener.
+   */
+  private final class LingerTimerKey extends TimerKey {
+
+    private final LK listenerKey;
+
+    private final ListenerData<L> listenerData;
+
+    LingerTimerKey(final LK listenerKey, final ListenerData<L> listenerData) {
+      super(EventDispatcherImpl.this, listenerData);
+      this.listenerKey = listenerKey;
+      this.listenerData = listenerData;
+    }
+
+    @Override
+    void timerExpired(final Timer<TimerKey, Object> timer) {
+      executeTimerTask(new Runnable() {
+
+        @Override
+        public void run() {
+          deliverLingeringBatch(timer, LingerTimerKey.this.listenerKey,
+              LingerTimerKey.this.listenerData);
+        }
+      });
+    }
+  }
+
+  /**
+   * The listeners of the dispatches when there are no listener groups together with the plan of
+   * calling them. The snapshot is shared by the dispatches until the listeners or their
+   * dependencies change.
+   */
+  private final class ListenerSnapshot {
+
+    private final List<Entry<LK, ListenerData<L>>> listeners;
+
+    private final Plan plan;
+
+    ListenerSnapshot(final List<Entry<LK, ListenerData<L>>> listeners, final Plan plan) {
+      this.listeners = listeners;
+      this.plan = plan;
+    }
+  }
+
+  /**
+   * Key of the expiration timer of a replay event.
+   */
+  private final class ReplayExpirationTimerKey extends TimerKey {
+
+    private final EK eventKey;
+
+    ReplayExpirationTimerKey(final EK eventKey) {
+      super(EventDispatcherImpl.this, eventKey);
+      this.eventKey = eventKey;
+    }
+
+    @Override
+    void timerExpired(final Timer<TimerKey, Object> timer) {
+      removeExpiredReplayEvent(timer, this.eventKey);
+    }
+  }
+
+  /**
+   * The number of dispatches that are in progress. Maintained only while there is an
+   * {@link #admissionController}.
+   */
+  private final AtomicInteger activeDispatches = new AtomicInteger();
+
+  /**
+   * The number of dispatches and listener registrations that are in progress. The dispatcher
+   * rejects new ones after it was closed and {@link #drain(long, TimeUnit)} waits until the ones
+   * that were accepted before finish. The counter is striped, so concurrent dispatches do not
+   * contend on it, and it is summed only after the dispatcher was closed.
+   */
+  private final StripedCounter activeOperations = new StripedCounter();
+
+  /**
+   * Optional controller that decides whether the dispatched events are passed to the listeners.
+   */
+  private volatile AdmissionController<E> admissionController;
+
+  /**
+   * Flag that shows if the dispatcher is closed.
+   */
+  private volatile boolean closed = false;
+
+  /**
+   * The queue of the references of the weakly registered listeners that were garbage collected.
+   */
+  private final ReferenceQueue<L> clearedListenerReferences = new ReferenceQueue<>();
+
+  /**
+   * The listeners that were registered when the dispatcher was closed by their keys. Null until the
+   * dispatcher is closed.
+   */
+  private volatile Map<LK, ListenerData<L>> closedListeners;
+
+  /**
+   * The live events that the current thread passed to the new listeners that it replays later, by
+   * the listeners. Set while {@link #addListeners(Map, Executor)} replays several listeners one
+   * after the other in the current thread, which holds the write locks of all of them, so the
+   * events that a listener dispatches during its replay are delivered to the others after their
+   * replay events.
+   */
+  private final ThreadLocal<Map<ListenerData<L>, List<E>>> deferredLiveEvents =
+      new ThreadLocal<>();
 
   /**
    * Fair read-write locker of the events that should be replayed in case a new listener is
@@ -117,11 +363,21 @@ public class EventDispatcherImpl<E, EK, L, LK> implements EventDispatcher<E, EK,
   private final ReentrantReadWriteLock etrLocker = new ReentrantReadWriteLock(true);
 
   /**
-   * The map of events that should be replayed in case of a new listener registration. The map
-   * contains both
+   * Optional monitor that receives the measurements of dispatching and replaying.
+   */
+  private volatile DispatchMonitor<E, EK, LK> dispatchMonitor;
+
+  /**
+   * Notified when the last operation finishes after the dispatcher was closed.
+   */
+  private final Object drainMonitor = new Object();
+
+  /**
+   * The store of events that should be replayed in case of a new listener registration. The store
+   * contains both the events that were already converted to replay format and the ones that were
+   * not replayed yet.
    */
-  private final LinkedHashMap<EK, EventWithReplayFlag<E>> eventsToReplay =
-      new LinkedHashMap<>();
+  private final ReplayStore<EK, E> eventsToReplay;
 
   /**
    * The util class that must be implemented by the programmer who uses the {@link EventDispatcher}
@@ -129,7 +385,26 @@ public class EventDispatcherImpl<E, EK, L, LK> implements EventDispatcher<E, EK,
    */
   private final EventUtil<E, EK, L> eventUtil;
 
-  private final ExceptionHandler<LK, E> exceptionHandler;
+  /**
+   * The dependencies that the listeners declared on other listeners. Guarded by
+   * {@link #listenersLocker}.
+   */
+  private final ListenerDependencyGraph<LK> listenerDependencies = new ListenerDependencyGraph<>();
+
+  /**
+   * Optional executor that calls the independent listeners of an event in parallel.
+   */
+  private volatile Executor listenerExecutor;
+
+  /**
+   * The members of the listener groups. Guarded by {@link #listenersLocker}.
+   */
+  private final Map<ListenerGroup, ListenerGroupMembers<LK, L>> listenerGroups = new HashMap<>();
+
+  /**
+   * Calls the listeners and passes their exceptions to the exception handler.
+   */
+  private final ListenerInvoker<E, L, LK> listenerInvoker;
 
   /**
    * Listeners based on their key that are currently registered in registration order.
@@ -141,6 +416,43 @@ public class EventDispatcherImpl<E, EK, L, LK> implements EventDispatcher<E, EK,
    */
   private final ReentrantReadWriteLock listenersLocker = new ReentrantReadWriteLock(true);
 
+  /**
+   * The snapshot of the listeners and their plan or null if it was not created since the last
+   * change. Created with <b>ls(r)</b> by the dispatches and cleared with <b>ls(w)</b> by the
+   * changes of the listeners and their dependencies.
+   */
+  private volatile ListenerSnapshot listenerSnapshot;
+
+  /**
+   * The keys of the replay events in their natural order or null if
+   * {@link #getReplayEventRange(ReplayKeyRange, Object, int)} was not called yet. Guarded by
+   * {@link #etrLocker}.
+   */
+  private NavigableSet<EK> replayKeyIndex;
+
+  /**
+   * Flag that shows if a replay event was dispatched with a time to live, so the expiration timers
+   * must be maintained when the replay events change. Guarded by {@link #etrLocker}.
+   */
+  private boolean replayEventsExpire = false;
+
+  /**
+   * Optional interceptor that is called before the replay queue is modified.
+   */
+  private volatile ReplayStoreInterceptor<EK, E> replayStoreInterceptor;
+
+  /**
+   * The registration of the dispatcher in the shared runtime or null if the dispatcher is not
+   * attached to a runtime.
+   */
+  private final DispatcherRuntime.Member runtimeMember;
+
+  /**
+   * The wheel of the delayed events, the replay event expirations and the batch linger timers. The
+   * wheel is shared with the other dispatchers of the runtime if the dispatcher is attached to one.
+   */
+  private final HashedTimerWheel<TimerKey, Object> timerWheel;
+
   /**
    * Simpler constructor that sets the {@link EventDispatcher#DEFAULT_LISTENER_CALL_TIMEOUT} as the
    * timeout for event processing.
@@ -158,7 +470,8 @@ public class EventDispatcherImpl<E, EK, L, LK> implements EventDispatcher<E, EK,
    *
    * @param eventUtil
    *          The object that must be implemented and passed by the programmer to be able to use
-   *          this library.
+   *          this library. In case the object implements {@link LongEventUtil}, the replay events
+   *          are stored by their primitive <code>long</code> keys.
    *
    * @param exceptionHandler
    *          The handler that catches exceptions that come from listeners. If null, the default
@@ -167,55 +480,307 @@ public class EventDispatcherImpl<E, EK, L, LK> implements EventDispatcher<E, EK,
   public EventDispatcherImpl(final EventUtil<E, EK, L> eventUtil,
       final ExceptionHandler<LK, E> exceptionHandler) {
     this.eventUtil = eventUtil;
-    if (exceptionHandler != null) {
-      this.exceptionHandler = exceptionHandler;
-    } else {
-      this.exceptionHandler = new DefaultExceptionHandler<>();
+    this.eventsToReplay = ReplayStores.create(eventUtil);
+    this.listenerInvoker = new ListenerInvoker<>(eventUtil, exceptionHandler);
+    this.runtimeMember = null;
+    this.timerWheel = TimerKey.createTimerWheel("eventdispatcher-timers");
+  }
+
+  /**
+   * Constructor of a dispatcher that is attached to a runtime shared with other dispatchers. The
+   * listeners of an event are called in parallel via the lane of the dispatcher in the executor
+   * of the runtime, unless an other executor is set via {@link #setListenerExecutor(Executor)}.
+   * The replay events of the dispatcher count into the replay event budget of the runtime, so the
+   * oldest replay events might be evicted. The dispatcher is detached from the runtime when it is
+   * closed.
+   *
+   * @param eventUtil
+   *          The object that must be implemented and passed by the programmer to be able to use
+   *          this library.
+   * @param exceptionHandler
+   *          The handler that catches exceptions that come from listeners. If null, the default
+   *          implementation will be used that writes exceptions to the standard error output.
+   * @param runtime
+   *          The runtime the dispatcher is attached to.
+   * @param name
+   *          The name of the dispatcher in the metrics of the runtime.
+   * @throws IllegalArgumentException
+   *           if a dispatcher with the same name is already attached to the runtime.
+   * @throws IllegalStateException
+   *           if the runtime is closed.
+   */
+  public EventDispatcherImpl(final EventUtil<E, EK, L> eventUtil,
+      final ExceptionHandler<LK, E> exceptionHandler, final DispatcherRuntime runtime,
+      final String name) {
+    this.eventUtil = eventUtil;
+    this.eventsToReplay = ReplayStores.create(eventUtil);
+    this.listenerInvoker = new ListenerInvoker<>(eventUtil, exceptionHandler);
+    this.runtimeMember = runtime.register(name, this, this.listenerInvoker);
+    this.listenerExecutor = this.runtimeMember.getLane();
+    this.timerWheel = runtime.getTimerWheel();
+  }
+
+  /**
+   * Adding a listener that receives its events in batches via {@link BatchEventUtil}, which must
+   * be implemented by the event util of the dispatcher. The replay events are passed to the
+   * listener in batches of the maximum size. The live events are collected into batches that are
+   * delivered when the batch is full or when its first event waited for the linger time. The size
+   * of the batches adapts to the speed of the listener: it grows while the events arrive faster
+   * than the listener processes them, up to the maximum size, and it shrinks when the events are
+   * rare. The full batches are delivered by the thread that dispatches the last event of the
+   * batch, the lingering ones by a task of the listener executor, or by the timer thread of the
+   * dispatcher if there is no listener executor. The order of the events is
+   * kept, otherwise the listener behaves the same way as the ones that are registered via
+   * {@link #addListener(Object, Object)}. The pending events are delivered when the listener is
+   * removed, unless the listener removes itself while it processes a batch.
+   *
+   * @param listenerKey
+   *          The key of the listener that identifies the listener object based on it's
+   *          {@link Object#equals(Object)} and {@link Object#hashCode()} functions.
+   * @param listener
+   *          The listener object.
+   * @param maxBatchSize
+   *          The maximum number of events in a batch.
+   * @param maxLinger
+   *          The maximum time an event waits for its batch to be delivered.
+   * @param unit
+   *          The unit of the linger time.
+   * @throws ListenerAlreadyRegisteredException
+   *           if the listener with the key was already registered.
+   * @throws IllegalStateException
+   *           if the dispatcher is already closed or the event util does not implement
+   *           {@link BatchEventUtil}.
+   */
+  public void addBatchingListener(final LK listenerKey, final L listener, final int maxBatchSize,
+      final long maxLinger, final TimeUnit unit) throws ListenerAlreadyRegisteredException {
+    if (!(this.eventUtil instanceof BatchEventUtil)) {
+      throw new IllegalStateException(
+          "Batching listeners need an event util that implements BatchEventUtil");
     }
+    MicroBatcher<E> batcher = new MicroBatcher<>(maxBatchSize, unit.toNanos(maxLinger));
+    addListener(listenerKey, new ListenerData<>(listener, batcher), Collections.<LK> emptyList());
   }
 
   @Override
   public void addListener(final LK listenerKey, final L listener)
       throws ListenerAlreadyRegisteredException {
-    ListenerData<L> listenerData = new ListenerData<>(listener);
-    ReentrantReadWriteLock locker = listenerData.getLocker();
+    addListener(listenerKey, listener, null);
+  }
 
-    WriteLock listenerWriteLock = locker.writeLock();
-    listenerWriteLock.lock();
+  /**
+   * Adding a new listener as a member of a listener group. The members of a group share the
+   * events: each event is passed to exactly one member based on the routing of the group. The new
+   * member first receives its own partition of the replay events the same way as it is described
+   * at {@link #addListener(Object, Object)}.
+   *
+   * @param listenerKey
+   *          The key of the listener that identifies the listener object based on it's
+   *          {@link Object#equals(Object)} and {@link Object#hashCode()} functions.
+   * @param listener
+   *          The listener object.
+   * @param group
+   *          The group of the listener or null if the listener should receive every event.
+   * @throws ListenerAlreadyRegisteredException
+   *           if the listener with the key was already registered.
+   */
+  public void addListener(final LK listenerKey, final L listener, final ListenerGroup group)
+      throws ListenerAlreadyRegisteredException {
+    addListener(listenerKey, new ListenerData<>(listener, group), Collections.<LK> emptyList());
+  }
+
+  /**
+   * Adding a new listener that must receive each event after the listeners it depends on. The
+   * dependencies can reference listener keys that are not registered yet, they take effect when
+   * the listeners are registered. The listeners of an event are called in the order of their
+   * dependencies, or in parallel via the executor that is set by
+   * {@link #setListenerExecutor(Executor)}. Otherwise the listener behaves the same way as it is
+   * described at {@link #addListener(Object, Object)}.
+   *
+   * @param listenerKey
+   *          The key of the listener that identifies the listener object based on it's
+   *          {@link Object#equals(Object)} and {@link Object#hashCode()} functions.
+   * @param listener
+   *          The listener object.
+   * @param dependencies
+   *          The keys of the listeners that must receive each event before this listener.
+   * @throws ListenerAlreadyRegisteredException
+   *           if the listener with the key was already registered.
+   * @throws ListenerDependencyCycleException
+   *           if the dependencies would form a cycle with the dependencies of the other listeners.
+   */
+  public void addDependentListener(final LK listenerKey, final L listener,
+      final Collection<LK> dependencies)
+      throws ListenerAlreadyRegisteredException, ListenerDependencyCycleException {
+    addListener(listenerKey, new ListenerData<>(listener, (ListenerGroup) null), dependencies);
+  }
+
+  private void addListener(final LK listenerKey, final ListenerData<L> listenerData,
+      final Collection<LK> dependencies) throws ListenerAlreadyRegisteredException {
+    operationStarted();
     try {
+      registerListener(listenerKey, listenerData, dependencies);
+    } finally {
+      operationFinished();
+    }
+  }
 
-      Collection<E> cloneOfCurrentReplayEvents;
+  /**
+   * Same as {@link #addListeners(Map, Executor)} with the replay events passed to the listeners one
+   * after the other in the current thread.
+   *
+   * @param newListeners
+   *          The listeners by their keys.
+   * @throws ListenerAlreadyRegisteredException
+   *           if any of the listener keys was already registered. In that case none of the
+   *           listeners are registered.
+   */
+  public void addListeners(final Map<LK, L> newListeners)
+      throws ListenerAlreadyRegisteredException {
+    addListeners(newListeners, null);
+  }
 
-      WriteLock listenersWriteLock = this.listenersLocker.writeLock();
-      listenersWriteLock.lock();
-      try {
-        ReadLock etrReadLock = this.etrLocker.readLock();
-        etrReadLock.lock();
-        try {
+  /**
+   * Adding several listeners at once. The replay events are collected only once and the same event
+   * instances are passed to all new listeners, which is much cheaper than calling
+   * {@link #addListener(Object, Object)} for each listener when there are many replay events. The
+   * function returns when all new listeners received the replay events. The new listeners receive
+   * the events that are dispatched meanwhile after their replay events, the same way as it is
+   * described at {@link #addListener(Object, Object)}.
+   *
+   * @param newListeners
+   *          The listeners by their keys.
+   * @param executor
+   *          The executor that passes the replay events to the new listeners in parallel, one task
+   *          per listener. If null, the replay events are passed in the current thread. The tasks
+   *          that the executor rejects or does not start until the listeners are registered are
+   *          run in the current thread as well.
+   * @throws ListenerAlreadyRegisteredException
+   *           if any of the listener keys was already registered. In that case none of the
+   *           listeners are registered.
+   */
+  public void addListeners(final Map<LK, L> newListeners, final Executor executor)
+      throws ListenerAlreadyRegisteredException {
+    operationStarted();
+    try {
+      registerListeners(newListeners, executor);
+    } finally {
+      operationFinished();
+    }
+  }
 
-          ListenerData<L> alreadyRegisteredListener = this.listeners.put(listenerKey, listenerData);
+  /**
+   * Adding a live event to the pending batch of a listener. Must be called with <b>l(r)+</b>.
+   */
+  private void addToBatch(final LK listenerKey, final ListenerData<L> listenerData,
+      final MicroBatcher<E> batcher, final E event) {
+    int pendingEventCount = batcher.add(event);
+    if (batcher.isFull(pendingEventCount)) {
+      deliverBatches(listenerKey, listenerData, batcher, false);
+    } else if (pendingEventCount == 1) {
+      this.timerWheel.schedule(new LingerTimerKey(listenerKey, listenerData), null,
+          batcher.getLingerNanos());
+    }
+  }
 
-          if (alreadyRegisteredListener != null) {
-            throw new ListenerAlreadyRegisteredException(
-                "Listener with key " + listenerKey.toString()
-                    + " is already registered");
-          }
+  /**
+   * Adding a listener that is referenced weakly, so it can be garbage collected while it is
+   * registered. The listener is removed automatically after it was garbage collected: the cleared
+   * references are collected in batches by the next dispatch or registration, or by calling
+   * {@link #purgeClearedListeners()}. Otherwise the listener behaves the same way as the ones that
+   * are registered via {@link #addListener(Object, Object)}. The listener key is referenced
+   * strongly, so it must not reference the listener object, otherwise the listener is never
+   * garbage collected.
+   *
+   * @param listenerKey
+   *          The key of the listener that identifies the listener object based on it's
+   *          {@link Object#equals(Object)} and {@link Object#hashCode()} functions.
+   * @param listener
+   *          The listener object.
+   * @throws ListenerAlreadyRegisteredException
+   *           if the listener with the key was already registered.
+   */
+  public void addWeakListener(final LK listenerKey, final L listener)
+      throws ListenerAlreadyRegisteredException {
+    addListener(listenerKey, new ListenerData<L>(
+        new WeakListenerReference<>(listener, listenerKey, this.clearedListenerReferences)),
+        Collections.<LK> emptyList());
+  }
 
-          cloneOfCurrentReplayEvents = getCloneOfCurrentReplayEvents();
+  /**
+   * Building the replay events of the passed keys or of all keys in the replay queue. If the
+   * supplier of a lazy event fails, the event is skipped and the exception is passed to the
+   * exception handler with each listener that the events are built for. Must be called with
+   * <b>etr(r)</b>.
+   *
+   * @param listenerKeys
+   *          The keys of the listeners that receive the replay events.
+   * @param eventKeys
+   *          The keys of the events in replay order or null if all events should be built.
+   * @return The replay events in replay order.
+   */
+  private List<E> buildReplayEvents(final Collection<LK> listenerKeys, final List<EK> eventKeys) {
+    final List<EK> keys;
+    if (eventKeys != null) {
+      keys = eventKeys;
+    } else {
+      try {
+        return this.eventsToReplay.getReplayEvents();
+      } catch (RuntimeException e) {
+        // A supplier failed, so the events are built one by one to skip the failing ones. The
+        // events that were built already are not built again.
+        keys = new ArrayList<>(this.eventsToReplay.size());
+        this.eventsToReplay.visit(new ReplayStoreVisitor<EK, E>() {
 
-        } finally {
-          etrReadLock.unlock();
-        }
-      } finally {
-        listenersWriteLock.unlock();
+          @Override
+          public boolean visit(final EK eventKey) {
+            keys.add(eventKey);
+            return true;
+          }
+        });
       }
+    }
 
-      for (E event : cloneOfCurrentReplayEvents) {
-        callListener(listenerKey, listenerData, event);
+    List<E> result = new ArrayList<>(keys.size());
+    for (EK eventKey : keys) {
+      E replayEvent;
+      try {
+        replayEvent = this.eventsToReplay.getReplayEvent(eventKey);
+      } catch (RuntimeException e) {
+        for (LK listenerKey : listenerKeys) {
+          this.listenerInvoker.handleException(listenerKey, null, e);
+        }
+        continue;
+      }
+      if (replayEvent != null) {
+        result.add(replayEvent);
       }
+    }
+    return result;
+  }
+
+  /**
+   * Building the ordered index of the replay event keys with <b>etr(w)</b> if it does not exist
+   * yet. The write lock is downgraded, so the function returns with <b>etr(r)</b>.
+   */
+  private void buildReplayKeyIndex() {
+    WriteLock etrWriteLock = this.etrLocker.writeLock();
+    etrWriteLock.lock();
+    try {
+      if (this.replayKeyIndex == null) {
+        final NavigableSet<EK> keyIndex = new TreeSet<>();
+        this.eventsToReplay.visit(new ReplayStoreVisitor<EK, E>() {
 
+          @Override
+          public boolean visit(final EK eventKey) {
+            keyIndex.add(eventKey);
+            return true;
+          }
+        });
+        this.replayKeyIndex = keyIndex;
+      }
+      this.etrLocker.readLock().lock();
     } finally {
-      listenerWriteLock.unlock();
+      etrWriteLock.unlock();
     }
   }
 
@@ -234,23 +799,26 @@ public class EventDispatcherImpl<E, EK, L, LK> implements EventDispatcher<E, EK,
       final E event) {
 
     ReentrantReadWriteLock listenerLocker = listenerData.getLocker();
+    if (listenerLocker.isWriteLockedByCurrentThread()) {
+      Map<ListenerData<L>, List<E>> deferredEvents = this.deferredLiveEvents.get();
+      List<E> liveEvents = (deferredEvents != null) ? deferredEvents.get(listenerData) : null;
+      if (liveEvents != null) {
+        liveEvents.add(event);
+        return;
+      }
+    }
     ReadLock listenerReadLock = listenerLocker.readLock();
     listenerReadLock.lock();
 
     try {
-      this.eventUtil.callListener(listenerData.getListener(), event);
-    } catch (Throwable e) {
-      try {
-        this.exceptionHandler.handleException(listenerKey, event, e);
-      } catch (RuntimeException handlerE) {
-        e.addSuppressed(handlerE);
-        StringWriter sw = new StringWriter();
-        PrintWriter pw = new PrintWriter(sw);
-        sw.write(
-            "Error during calling exception handler after recieving an exception from listener '"
-                + listenerKey.toString() + "' with the event: " + event.toString() + "\n");
-        e.printStackTrace(pw);
-        System.err.println(sw.toString());
+      L listener = listenerData.getListener();
+      if (listenerData.isActive() && listener != null) {
+        MicroBatcher<E> batcher = listenerData.getBatcher();
+        if (batcher == null) {
+          this.listenerInvoker.invoke(listenerKey, listener, event);
+        } else {
+          addToBatch(listenerKey, listenerData, batcher, event);
+        }
       }
     } finally {
       listenerReadLock.unlock();
@@ -258,88 +826,1375 @@ public class EventDispatcherImpl<E, EK, L, LK> implements EventDispatcher<E, EK,
 
   }
 
-  @Override
-  public void dispatchAndRemoveEvent(final E event) {
-    dispatchEventInternal(event, true);
-  }
-
-  @Override
-  public void dispatchEvent(final E event) {
-    dispatchEventInternal(event, false);
+  /**
+   * Cancelling the delayed dispatching of the event with the key.
+   *
+   * @param eventKey
+   *          The key of the event.
+   * @return True if there was a delayed event with the key that was not dispatched yet.
+   */
+  public boolean cancelDelayedEvent(final EK eventKey) {
+    return this.timerWheel.cancel(new DelayedEventTimerKey(eventKey));
   }
 
-  private void dispatchEventInternal(final E event, final boolean removeAfterDispatch) {
-    EK eventKey = this.eventUtil.getEventKey(event);
-
-    WriteLock etrWriteLock = this.etrLocker.writeLock();
-    etrWriteLock.lock();
-
-    if (removeAfterDispatch) {
-      this.eventsToReplay.remove(eventKey);
-    } else {
-      this.eventsToReplay.remove(eventKey);
-      this.eventsToReplay.put(eventKey, new EventWithReplayFlag<>(event));
+  private void checkNotClosed() {
+    if (this.closed) {
+      throw new IllegalStateException("Event dispatcher is already closed");
     }
+  }
 
-    etrWriteLock.unlock();
-
-    ReadLock listenersReadLock = this.listenersLocker.readLock();
-    listenersReadLock.lock();
+  /**
+   * Removing the rate limit of a registered listener.
+   *
+   * @param listenerKey
+   *          The key of the listener.
+   * @return True if the listener is registered, false otherwise.
+   */
+  public boolean clearListenerRateLimit(final LK listenerKey) {
+    return setListenerRateLimit(listenerKey, null);
+  }
 
-    Collection<Entry<LK, ListenerData<L>>> clonedListneners =
-        new ArrayList<>(
-            this.listeners.entrySet());
+  @Override
+  public void close() {
+    WriteLock listenersWriteLock = this.listenersLocker.writeLock();
+    listenersWriteLock.lock();
+    try {
+      if (this.closed) {
+        return;
+      }
+      // The listeners stay active for the dispatches and registrations that were accepted before,
+      // they are stopped by drain().
+      this.closedListeners = new LinkedHashMap<>(this.listeners);
+      this.listeners.clear();
+      this.listenerGroups.clear();
+      this.listenerSnapshot = null;
 
-    listenersReadLock.unlock();
+      WriteLock etrWriteLock = this.etrLocker.writeLock();
+      etrWriteLock.lock();
+      try {
+        this.closed = true;
+        if (this.runtimeMember != null) {
+          this.runtimeMember.getRuntime().unregister(this.runtimeMember);
+        }
+        this.eventsToReplay.clear();
+        this.replayKeyIndex = null;
+        if (this.runtimeMember != null) {
+          this.timerWheel.removeAll(new HashedTimerWheel.KeyFilter<TimerKey>() {
 
-    for (Entry<LK, ListenerData<L>> listenerEntry : clonedListneners) {
-      LK listenerKey = listenerEntry.getKey();
-      ListenerData<L> listenerData = listenerEntry.getValue();
-      callListener(listenerKey, listenerData, event);
+            @Override
+            public boolean accept(final TimerKey key) {
+              return key.getOwner() == EventDispatcherImpl.this;
+            }
+          });
+        } else {
+          this.timerWheel.stop();
+        }
+      } finally {
+        etrWriteLock.unlock();
+      }
+    } finally {
+      listenersWriteLock.unlock();
     }
-
   }
 
-  private Collection<E> getCloneOfCurrentReplayEvents() {
-    Collection<E> result = new ArrayList<>();
-
-    for (EventWithReplayFlag<E> eventWithReplayFlag : this.eventsToReplay.values()) {
-      if (!eventWithReplayFlag.isReplay()) {
-        eventWithReplayFlag
-            .setEvent(this.eventUtil.createReplayEvent(eventWithReplayFlag.getEvent()));
-        eventWithReplayFlag.setReplay(true);
+  /**
+   * Delivering the pending batches of a listener while they are full and scheduling the linger
+   * timer for the rest. Must be called with <b>l(r)+</b>.
+   */
+  private void deliverBatches(final LK listenerKey, final ListenerData<L> listenerData,
+      final MicroBatcher<E> batcher, final boolean lingerExpired) {
+    ReentrantLock deliveryLock = batcher.getDeliveryLock();
+    deliveryLock.lock();
+    try {
+      boolean deliverNext = true;
+      boolean currentLingerExpired = lingerExpired;
+      while (deliverNext) {
+        // The pending events of a deactivated listener are left for the flush of the removal.
+        L listener = listenerData.getListener();
+        if (!listenerData.isActive() || listener == null) {
+          return;
+        }
+        List<E> batch = batcher.takeBatch();
+        if (batch.isEmpty()) {
+          return;
+        }
+        this.listenerInvoker.invokeBatch(listenerKey, listener, batch);
+        batcher.afterDelivery(batch.size(), currentLingerExpired);
+        currentLingerExpired = false;
+        deliverNext = batcher.isFull(batcher.getPendingEventCount());
       }
-      result.add(eventWithReplayFlag.getEvent());
+      if (batcher.getPendingEventCount() > 0) {
+        this.timerWheel.schedule(new LingerTimerKey(listenerKey, listenerData), null,
+            batcher.getLingerNanos());
+      }
+    } finally {
+      deliveryLock.unlock();
+    }
+  }
+
+  private void deliverLingeringBatch(final Timer<TimerKey, Object> timer, final LK listenerKey,
+      final ListenerData<L> listenerData) {
+    if (!this.timerWheel.complete(timer)) {
+      return;
+    }
+    ReadLock listenerReadLock = listenerData.getLocker().readLock();
+    listenerReadLock.lock();
+    try {
+      if (listenerData.isActive()) {
+        MicroBatcher<E> batcher = listenerData.getBatcher();
+        deliverBatches(listenerKey, listenerData, batcher, true);
+      }
+    } finally {
+      listenerReadLock.unlock();
+    }
+  }
+
+  /**
+   * Passing a live event to a listener if its rate limit allows it, otherwise recording the key of
+   * the missed event. The removal events are always passed, as they cannot be recovered from the
+   * replay queue.
+   */
+  private void deliverToListener(final Entry<LK, ListenerData<L>> listenerEntry, final E event,
+      final boolean removal) {
+    ListenerData<L> listenerData = listenerEntry.getValue();
+    if (removal || listenerData.tryAcquirePermit()) {
+      callListener(listenerEntry.getKey(), listenerData, event);
+    } else {
+      listenerData.eventMissed(this.eventUtil.getEventKey(event));
     }
-    return result;
   }
 
   @Override
-  public boolean removeEvent(final EK eventKey) {
+  public void dispatchAndRemoveEvent(final E event) {
+    dispatchEventInternal(event, true, 0);
+  }
+
+  @Override
+  public void dispatchEvent(final E event) {
+    dispatchEventInternal(event, false, 0);
+  }
+
+  /**
+   * Dispatching an event that is removed from the replay queue automatically after a time. The
+   * expiration is cancelled or rescheduled in place if an event with the same key is dispatched or
+   * removed before.
+   *
+   * @param event
+   *          The event object.
+   * @param timeToLive
+   *          The time after the event is removed from the replay queue.
+   * @param unit
+   *          The unit of the time to live.
+   * @throws IllegalStateException
+   *           if the dispatcher is already closed.
+   */
+  public void dispatchEvent(final E event, final long timeToLive, final TimeUnit unit) {
+    dispatchEventInternal(event, false, Math.max(unit.toNanos(timeToLive), 1));
+  }
+
+  /**
+   * Dispatching an event that is built only when it is needed. The replay queue stores the
+   * supplier until the event is requested by a listener that is registered later or by the replay
+   * event queries, so building the event is avoided if the event is overridden before or nobody
+   * listens to it. If there are listeners, the event is built by the dispatching thread outside of
+   * the locks of the dispatcher. The supplier is called at most once: the live listeners and the
+   * replay queue share the built event. The event is built before dispatching if an
+   * {@link AdmissionController} or a {@link ReplayStoreInterceptor} is set, as they need the event.
+   * If the supplier throws an exception, the exception is propagated to the thread that needed the
+   * event, except for the replay to a new listener, which skips the event and passes the exception
+   * to the {@link ExceptionHandler}. The supplier is called again the next time the event is
+   * needed.
+   *
+   * @param eventKey
+   *          The key of the event that the supplier builds.
+   * @param eventSupplier
+   *          The supplier that builds the event.
+   * @throws IllegalStateException
+   *           if the dispatcher is already closed.
+   */
+  public void dispatchEvent(final EK eventKey, final EventSupplier<E> eventSupplier) {
+    dispatchEventInternal(eventKey, null, new LazyEvent<>(eventSupplier), false, 0);
+  }
+
+  /**
+   * Dispatching an event after a delay via {@link #dispatchEvent(Object)}. If there is a delayed
+   * event with the same key that was not dispatched yet, it is replaced with the new event and its
+   * timer is rescheduled in place. The delayed event can be cancelled with
+   * {@link #cancelDelayedEvent(Object)}. The event is dispatched by a task of the listener
+   * executor or, if there is no listener executor, by the thread of the timer wheel of the
+   * dispatcher. Delayed events that are not dispatched yet are dropped when the dispatcher is
+   * closed.
+   *
+   * @param event
+   *          The event object.
+   * @param delay
+   *          The delay of the dispatching.
+   * @param unit
+   *          The unit of the delay.
+   * @throws IllegalStateException
+   *           if the dispatcher or its {@link DispatcherRuntime} is already closed.
+   */
+  public void dispatchEventDelayed(final E event, final long delay, final TimeUnit unit) {
+    EK eventKey = this.eventUtil.getEventKey(event);
     WriteLock etrWriteLock = this.etrLocker.writeLock();
     etrWriteLock.lock();
-
-    boolean result;
     try {
-      result = this.eventsToReplay.remove(eventKey) != null;
+      checkNotClosed();
+      if (!this.timerWheel.schedule(new DelayedEventTimerKey(eventKey), event,
+          unit.toNanos(delay))) {
+        throw new IllegalStateException("Dispatcher runtime is already closed");
+      }
     } finally {
       etrWriteLock.unlock();
     }
+  }
+
+  private void dispatchDelayedEvent(final Timer<TimerKey, Object> timer) {
+    if (!this.timerWheel.complete(timer)) {
+      return;
+    }
+    // The dispatcher was closed after the timer expired, the event is dropped as the ones that
+    // were not due yet.
+    if (this.closed) {
+      return;
+    }
+    // The values of the delayed event timers are the events.
+    @SuppressWarnings("unchecked")
+    E event = (E) timer.getValue();
+    try {
+      dispatchEventInternal(event, false, 0);
+    } catch (IllegalStateException e) {
+      // Only the rejection of a dispatcher that was closed meanwhile is expected here.
+      if (!this.closed) {
+        throw e;
+      }
+    }
+  }
+
+  private void dispatchEventInternal(final E event, final boolean removeAfterDispatch,
+      final long timeToLiveNanos) {
+    dispatchEventInternal(null, event, null, removeAfterDispatch, timeToLiveNanos);
+  }
+
+  /**
+   * Dispatching an event that is passed either directly or as a {@link LazyEvent} together with
+   * its key. The lazy event is built before dispatching if the admission controller or the replay
+   * store interceptor needs it.
+   */
+  private void dispatchEventInternal(final EK eventKey, final E event,
+      final LazyEvent<E> lazyEvent, final boolean removeAfterDispatch,
+      final long timeToLiveNanos) {
+    operationStarted();
+    try {
+      AdmissionController<E> controller = this.admissionController;
+      E builtEvent = event;
+      if (builtEvent == null && (controller != null || this.replayStoreInterceptor != null)) {
+        builtEvent = lazyEvent.get();
+      }
+
+      if (controller == null) {
+        storeAndDispatchEvent(eventKey, builtEvent, lazyEvent, removeAfterDispatch,
+            timeToLiveNanos, true);
+        return;
+      }
 
+      long startTime = System.nanoTime();
+      int currentActiveDispatches = this.activeDispatches.incrementAndGet();
+      try {
+        // A removal event cannot be recovered from the replay queue, so it is never shed.
+        storeAndDispatchEvent(eventKey, builtEvent, lazyEvent, removeAfterDispatch,
+            timeToLiveNanos,
+            removeAfterDispatch || controller.admit(builtEvent, currentActiveDispatches));
+      } finally {
+        this.activeDispatches.decrementAndGet();
+        controller.dispatchFinished(builtEvent, System.nanoTime() - startTime);
+      }
+    } finally {
+      operationFinished();
+    }
+  }
+
+  /**
+   * Modifying the replay queue based on the event and passing the event to the listeners.
+   *
+   * @param knownEventKey
+   *          The key of the event or null if it should be taken from the event.
+   * @param event
+   *          The event or null if the lazy event was not built yet.
+   * @param lazyEvent
+   *          The event that is built on demand or null if the event was passed directly.
+   * @param admitted
+   *          Whether the event should be passed to the listeners or only the replay queue should
+   *          be modified.
+   */
+  private void storeAndDispatchEvent(final EK knownEventKey, final E event,
+      final LazyEvent<E> lazyEvent, final boolean removeAfterDispatch, final long timeToLiveNanos,
+      final boolean admitted) {
+    purgeClearedListeners();
+
+    DispatchMonitor<E, EK, LK> monitor = this.dispatchMonitor;
+    long startTime = (monitor != null) ? System.nanoTime() : 0;
+
+    // The listeners are collected before the listener collection can change after modifying the
+    // replay queue. Otherwise a listener that is registered in between would get the event both
+    // as a replay event and as a live event.
+    List<Entry<LK, ListenerData<L>>> clonedListneners;
+    Plan plan = null;
+    Executor executor = this.listenerExecutor;
+    EK eventKey = knownEventKey;
+
+    ReadLock listenersReadLock = this.listenersLocker.readLock();
+    listenersReadLock.lock();
+    try {
+      WriteLock etrWriteLock = this.etrLocker.writeLock();
+      etrWriteLock.lock();
+      try {
+        checkNotClosed();
+
+        ReplayStoreInterceptor<EK, E> interceptor = this.replayStoreInterceptor;
+        if (interceptor != null) {
+          if (eventKey == null) {
+            eventKey = this.eventUtil.getEventKey(event);
+          }
+          // The interceptor might have been set after the lazy event was checked.
+          boolean proceed = removeAfterDispatch
+              ? interceptor.beforeRemove(eventKey)
+              : interceptor.beforePut(eventKey, (event != null) ? event : lazyEvent.get());
+          if (!proceed) {
+            return;
+          }
+        }
+
+        int previousReplayEventCount = this.eventsToReplay.size();
+        if (removeAfterDispatch) {
+          this.eventsToReplay.removeByEvent(event);
+        } else if (lazyEvent != null) {
+          this.eventsToReplay.putLazy(eventKey, lazyEvent);
+        } else {
+          this.eventsToReplay.put(event);
+        }
+        if (this.replayKeyIndex != null) {
+          if (eventKey == null) {
+            eventKey = this.eventUtil.getEventKey(event);
+          }
+          if (removeAfterDispatch) {
+            this.replayKeyIndex.remove(eventKey);
+          } else {
+            this.replayKeyIndex.add(eventKey);
+          }
+        }
+
+        if (timeToLiveNanos > 0 || this.replayEventsExpire) {
+          if (eventKey == null) {
+            eventKey = this.eventUtil.getEventKey(event);
+          }
+          scheduleReplayExpiration(eventKey, timeToLiveNanos);
+        }
+
+        if (this.runtimeMember != null) {
+          this.runtimeMember.eventDispatched();
+          replayEventsChanged(this.eventsToReplay.size() - previousReplayEventCount);
+        }
+      } finally {
+        etrWriteLock.unlock();
+      }
+
+      boolean planNeeded = executor != null || !this.listenerDependencies.isEmpty();
+      if (!admitted) {
+        clonedListneners = Collections.emptyList();
+      } else if (this.listenerGroups.isEmpty()) {
+        ListenerSnapshot snapshot = getListenerSnapshot();
+        clonedListneners = snapshot.listeners;
+        plan = (planNeeded) ? snapshot.plan : null;
+      } else {
+        clonedListneners = selectListeners(eventKey, event);
+        if (clonedListneners.size() > 1 && planNeeded) {
+          plan = this.listenerDependencies.createPlan(clonedListneners);
+        }
+      }
+    } finally {
+      listenersReadLock.unlock();
+    }
+
+    // The lazy event is built only if there is a listener to receive it.
+    final E dispatchedEvent =
+        (event == null && !clonedListneners.isEmpty()) ? lazyEvent.get() : event;
+    if (plan == null) {
+      for (Entry<LK, ListenerData<L>> listenerEntry : clonedListneners) {
+        deliverToListener(listenerEntry, dispatchedEvent, removeAfterDispatch);
+      }
+    } else {
+      final List<Entry<LK, ListenerData<L>>> plannedListeners = clonedListneners;
+      plan.execute(new ListenerDependencyGraph.Delivery() {
+
+        @Override
+        public void deliver(final int index) {
+          deliverToListener(plannedListeners.get(index), dispatchedEvent, removeAfterDispatch);
+        }
+      }, executor);
+    }
+
+    if (monitor != null) {
+      monitor.eventDispatched((eventKey != null) ? eventKey : this.eventUtil.getEventKey(event),
+          clonedListneners.size(), System.nanoTime() - startTime);
+    }
+  }
+
+  @Override
+  public boolean drain(final long timeout, final TimeUnit unit) throws InterruptedException {
+    Map<LK, ListenerData<L>> listenerDataMap = this.closedListeners;
+    if (listenerDataMap == null) {
+      throw new IllegalStateException("Event dispatcher must be closed before draining");
+    }
+
+    long deadline = System.nanoTime() + unit.toNanos(timeout);
+    boolean drained = true;
+    synchronized (this.drainMonitor) {
+      while (drained && this.activeOperations.sum() > 0) {
+        long remainingNanos = deadline - System.nanoTime();
+        if (remainingNanos > 0) {
+          TimeUnit.NANOSECONDS.timedWait(this.drainMonitor, remainingNanos);
+        } else {
+          drained = false;
+        }
+      }
+    }
+
+    for (Entry<LK, ListenerData<L>> entry : listenerDataMap.entrySet()) {
+      ListenerData<L> listenerData = entry.getValue();
+      if (drained) {
+        flushBatches(entry.getKey(), listenerData);
+      }
+      listenerData.deactivate();
+    }
+    return drained;
+  }
+
+  /**
+   * Running the handling of an expired timer in the listener executor, so the thread of a timer
+   * wheel that is shared by the dispatchers of a runtime only passes on the work. Without a
+   * listener executor, or if the executor rejects the task, the task runs in the current thread.
+   */
+  private void executeTimerTask(final Runnable task) {
+    Executor executor = this.listenerExecutor;
+    if (executor != null) {
+      try {
+        executor.execute(task);
+        return;
+      } catch (RejectedExecutionException e) {
+        // The task is run below.
+      }
+    }
+    task.run();
+  }
+
+  /**
+   * Evicting the oldest replay events. Must be called with <b>etr(w)</b>.
+   *
+   * @return The number of evicted events, which is less than the requested number if the replay
+   *         queue became empty.
+   */
+  private int evictReplayEvents(final int count) {
+    int evictedEvents = 0;
+    while (evictedEvents < count) {
+      EK eventKey = this.eventsToReplay.getFirstKey();
+      if (eventKey == null || !evictReplayEvent(eventKey, false)) {
+        break;
+      }
+      if (this.replayEventsExpire) {
+        this.timerWheel.remove(new ReplayExpirationTimerKey(eventKey));
+      }
+      evictedEvents++;
+    }
+    this.runtimeMember.replayEventsEvicted(evictedEvents);
+    return evictedEvents;
+  }
+
+  /**
+   * Removing an event from the replay queue that the dispatcher drops by itself, because it
+   * expired or to free memory. The interceptor cannot cancel the removal, it is only notified
+   * afterwards. Must be called with <b>etr(w)</b>.
+   */
+  private boolean evictReplayEvent(final EK eventKey, final boolean expired) {
+    if (!removeStoredReplayEvent(eventKey)) {
+      return false;
+    }
+    ReplayStoreInterceptor<EK, E> interceptor = this.replayStoreInterceptor;
+    if (interceptor != null) {
+      if (expired) {
+        interceptor.afterExpire(eventKey);
+      } else {
+        interceptor.afterEvict(eventKey);
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Delivering all pending events of a batching listener with <b>l(r)+</b>, even if the listener
+   * was deactivated already.
+   */
+  private void flushBatches(final LK listenerKey, final ListenerData<L> listenerData) {
+    MicroBatcher<E> batcher = listenerData.getBatcher();
+    if (batcher == null) {
+      return;
+    }
+    ReadLock listenerReadLock = listenerData.getLocker().readLock();
+    listenerReadLock.lock();
+    try {
+      ReentrantLock deliveryLock = batcher.getDeliveryLock();
+      deliveryLock.lock();
+      try {
+        List<E> batch = batcher.takeBatch();
+        while (!batch.isEmpty()) {
+          L listener = listenerData.getListener();
+          if (listener == null) {
+            return;
+          }
+          this.listenerInvoker.invokeBatch(listenerKey, listener, batch);
+          batch = batcher.takeBatch();
+        }
+      } finally {
+        deliveryLock.unlock();
+      }
+    } finally {
+      listenerReadLock.unlock();
+    }
+  }
+
+  /**
+   * Returns the snapshot of the listeners, creating it if the listeners changed since the last
+   * one. Must be called with <b>ls(r)</b>, so the concurrent dispatches create the same snapshot.
+   */
+  private ListenerSnapshot getListenerSnapshot() {
+    ListenerSnapshot snapshot = this.listenerSnapshot;
+    if (snapshot == null) {
+      List<Entry<LK, ListenerData<L>>> snapshotListeners =
+          Collections.unmodifiableList(new ArrayList<>(this.listeners.entrySet()));
+      Plan plan = (snapshotListeners.size() > 1)
+          ? this.listenerDependencies.createPlan(snapshotListeners)
+          : null;
+      snapshot = new ListenerSnapshot(snapshotListeners, plan);
+      this.listenerSnapshot = snapshot;
+    }
+    return snapshot;
+  }
+
+  @Override
+  public E getReplayEvent(final EK eventKey) {
+    ReadLock etrReadLock = this.etrLocker.readLock();
+    etrReadLock.lock();
+    try {
+      return this.eventsToReplay.getReplayEvent(eventKey);
+    } finally {
+      etrReadLock.unlock();
+    }
+  }
+
+  @Override
+  public ReplayEventPage<EK, E> getReplayEventRange(final ReplayKeyRange<EK> range,
+      final EK afterKey, final int pageSize) {
+    if (pageSize <= 0) {
+      throw new IllegalArgumentException("Page size must be positive: " + pageSize);
+    }
+    Map<EK, E> events = new LinkedHashMap<>();
+    boolean hasMore = false;
+
+    ReadLock etrReadLock = this.etrLocker.readLock();
+    etrReadLock.lock();
+    if (this.replayKeyIndex == null) {
+      etrReadLock.unlock();
+      buildReplayKeyIndex();
+    }
+    try {
+      for (EK eventKey : range.select(this.replayKeyIndex, afterKey)) {
+        if (events.size() == pageSize) {
+          hasMore = true;
+          break;
+        }
+        events.put(eventKey, this.eventsToReplay.getReplayEvent(eventKey));
+      }
+    } finally {
+      etrReadLock.unlock();
+    }
+    return new ReplayEventPage<>(events, 0, hasMore);
+  }
+
+  @Override
+  public Map<EK, E> getReplayEvents(final Collection<EK> eventKeys) {
+    Map<EK, E> result = new LinkedHashMap<>();
+
+    ReadLock etrReadLock = this.etrLocker.readLock();
+    etrReadLock.lock();
+    try {
+      for (EK eventKey : eventKeys) {
+        E replayEvent = this.eventsToReplay.getReplayEvent(eventKey);
+        if (replayEvent != null) {
+          result.put(eventKey, replayEvent);
+        }
+      }
+    } finally {
+      etrReadLock.unlock();
+    }
     return result;
   }
 
   @Override
-  public boolean removeListener(final LK listenerKey) {
+  public ReplayEventPage<EK, E> getReplayEvents(final ReplayEventFilter<EK> filter,
+      final int offset, final int pageSize) {
+    if (offset < 0) {
+      throw new IllegalArgumentException("Offset must not be negative: " + offset);
+    }
+    if (pageSize <= 0) {
+      throw new IllegalArgumentException("Page size must be positive: " + pageSize);
+    }
+
+    ReplayEventPageCollector<EK, E> collector =
+        new ReplayEventPageCollector<>(this.eventsToReplay, filter, offset, pageSize);
+
+    ReadLock etrReadLock = this.etrLocker.readLock();
+    etrReadLock.lock();
+    try {
+      this.eventsToReplay.visit(collector);
+    } finally {
+      etrReadLock.unlock();
+    }
+    return collector.toPage();
+  }
+
+  /**
+   * Passing the exception of a task of the dispatcher that was run by its lane in the runtime or
+   * by the timer wheel to the exception handler, with a null listener key and event.
+   *
+   * @param e
+   *          The exception.
+   */
+  void handleTaskException(final RuntimeException e) {
+    this.listenerInvoker.handleException(null, null, e);
+  }
+
+  /**
+   * Acquiring <b>l(w)+</b> of the other members of the group of a listener if the group routes the
+   * events by their keys, so the members can receive the replay of the keys they take over before
+   * the live events. The locks that the current thread holds for reading are skipped, as they
+   * cannot be upgraded. The members that join the group meanwhile are not locked.
+   *
+   * @return The acquired locks.
+   */
+  private List<WriteLock> lockOtherGroupMembers(final LK listenerKey) {
+    List<ListenerData<L>> otherMembers = new ArrayList<>();
+    ReadLock listenersReadLock = this.listenersLocker.readLock();
+    listenersReadLock.lock();
+    try {
+      ListenerData<L> listenerData = this.listeners.get(listenerKey);
+      ListenerGroup group = (listenerData != null) ? listenerData.getGroup() : null;
+      if (group == null || group.getRouting() != ListenerGroupRouting.EVENT_KEY) {
+        return Collections.emptyList();
+      }
+      for (Entry<LK, ListenerData<L>> member : this.listenerGroups.get(group).getMembers()) {
+        if (member.getValue() != listenerData) {
+          otherMembers.add(member.getValue());
+        }
+      }
+    } finally {
+      listenersReadLock.unlock();
+    }
+
+    List<WriteLock> result = new ArrayList<>(otherMembers.size());
+    for (ListenerData<L> member : otherMembers) {
+      ReentrantReadWriteLock memberLocker = member.getLocker();
+      if (memberLocker.getReadHoldCount() == 0) {
+        WriteLock memberWriteLock = memberLocker.writeLock();
+        memberWriteLock.lock();
+        result.add(memberWriteLock);
+      }
+    }
+    return result;
+  }
+
+  private void operationFinished() {
+    this.activeOperations.decrement();
+    if (this.closed && this.activeOperations.sum() == 0) {
+      synchronized (this.drainMonitor) {
+        this.drainMonitor.notifyAll();
+      }
+    }
+  }
+
+  private void operationStarted() {
+    this.activeOperations.increment();
+  }
+
+  /**
+   * Removing the weakly referenced listeners that were garbage collected. The function is called
+   * by every dispatch and registration, but it can be called explicitly as well to release the
+   * memory of the listener registrations earlier. Checking the cleared references is a single
+   * read if there are none, the listener collection is locked only if there is something to
+   * remove.
+   *
+   * @return The number of removed listeners.
+   */
+  public int purgeClearedListeners() {
+    List<WeakListenerReference<L, LK>> clearedReferences = null;
+    Reference<? extends L> reference = this.clearedListenerReferences.poll();
+    while (reference != null) {
+      if (clearedReferences == null) {
+        clearedReferences = new ArrayList<>();
+      }
+      @SuppressWarnings("unchecked")
+      WeakListenerReference<L, LK> weakListenerReference =
+          (WeakListenerReference<L, LK>) reference;
+      clearedReferences.add(weakListenerReference);
+      reference = this.clearedListenerReferences.poll();
+    }
+    if (clearedReferences == null) {
+      return 0;
+    }
+
+    int result = 0;
     WriteLock listenersWriteLock = this.listenersLocker.writeLock();
     listenersWriteLock.lock();
-
-    boolean result;
     try {
-      result = this.listeners.remove(listenerKey) != null;
+      for (WeakListenerReference<L, LK> clearedReference : clearedReferences) {
+        LK listenerKey = clearedReference.getListenerKey();
+        ListenerData<L> listenerData = this.listeners.get(listenerKey);
+        // The key might be registered again with another listener after the removal of the
+        // garbage collected one.
+        if (listenerData != null && listenerData.getWeakListener() == clearedReference) {
+          this.listeners.remove(listenerKey);
+          removeFromGroup(listenerKey, listenerData);
+          this.listenerDependencies.remove(listenerKey);
+          this.listenerSnapshot = null;
+          listenerData.deactivate();
+          result++;
+        }
+      }
     } finally {
       listenersWriteLock.unlock();
     }
     return result;
   }
+
+  /**
+   * Registering a listener and passing the replay events to it. Must be called as an operation.
+   */
+  private void registerListener(final LK listenerKey, final ListenerData<L> listenerData,
+      final Collection<LK> dependencies) throws ListenerAlreadyRegisteredException {
+    purgeClearedListeners();
+
+    DispatchMonitor<E, EK, LK> monitor = this.dispatchMonitor;
+    long startTime = (monitor != null) ? System.nanoTime() : 0;
+    long lockHoldTime = 0;
+
+    ListenerGroup group = listenerData.getGroup();
+    ReentrantReadWriteLock locker = listenerData.getLocker();
+
+    List<E> cloneOfCurrentReplayEvents;
+
+    WriteLock listenerWriteLock = locker.writeLock();
+    listenerWriteLock.lock();
+    try {
+
+      // The read lock of the replay queue is kept after the listener is published, so the replay
+      // events are built without blocking the other registrations, but no event can be dispatched
+      // to the listener before its replay.
+      ReadLock etrReadLock = this.etrLocker.readLock();
+      List<EK> replayEventKeys = null;
+      WriteLock listenersWriteLock = this.listenersLocker.writeLock();
+      listenersWriteLock.lock();
+      long lockStartTime = (monitor != null) ? System.nanoTime() : 0;
+      try {
+        etrReadLock.lock();
+        try {
+          checkNotClosed();
+
+          if (this.listeners.containsKey(listenerKey)) {
+            throw new ListenerAlreadyRegisteredException(
+                "Listener with key " + listenerKey.toString()
+                    + " is already registered");
+          }
+          if (!dependencies.isEmpty()) {
+            List<LK> cycle = this.listenerDependencies.findCycle(listenerKey, dependencies);
+            if (cycle != null) {
+              throw new ListenerDependencyCycleException("Dependencies of listener with key "
+                  + listenerKey.toString() + " would form a cycle: " + cycle);
+            }
+          }
+
+          if (group != null) {
+            ListenerGroupMembers<LK, L> members = this.listenerGroups.get(group);
+            if (members == null) {
+              members = new ListenerGroupMembers<>(group);
+              this.listenerGroups.put(group, members);
+            }
+            int memberIndex =
+                members.add(new SimpleImmutableEntry<>(listenerKey, listenerData));
+            replayEventKeys = members.getReplayPartitionKeys(this.eventsToReplay, memberIndex);
+          }
+
+          if (!dependencies.isEmpty()) {
+            this.listenerDependencies.put(listenerKey, dependencies);
+          }
+          this.listeners.put(listenerKey, listenerData);
+          this.listenerSnapshot = null;
+
+        } catch (RuntimeException | Error e) {
+          etrReadLock.unlock();
+          throw e;
+        }
+      } finally {
+        listenersWriteLock.unlock();
+        if (monitor != null) {
+          lockHoldTime = System.nanoTime() - lockStartTime;
+        }
+      }
+
+      try {
+        cloneOfCurrentReplayEvents =
+            buildReplayEvents(Collections.singleton(listenerKey), replayEventKeys);
+      } finally {
+        etrReadLock.unlock();
+      }
+
+      replayToListener(listenerKey, listenerData, cloneOfCurrentReplayEvents);
+
+    } finally {
+      listenerWriteLock.unlock();
+    }
+
+    if (monitor != null) {
+      monitor.listenersReplayed(Collections.singleton(listenerKey),
+          cloneOfCurrentReplayEvents.size(), System.nanoTime() - startTime, lockHoldTime);
+    }
+  }
+
+  /**
+   * Registering several listeners and passing the replay events to them. Must be called as an
+   * operation.
+   */
+  private void registerListeners(final Map<LK, L> newListeners, final Executor executor)
+      throws ListenerAlreadyRegisteredException {
+    DispatchMonitor<E, EK, LK> monitor = this.dispatchMonitor;
+    long startTime = (monitor != null) ? System.nanoTime() : 0;
+    long lockHoldTime = 0;
+
+    Map<LK, ListenerData<L>> newListenerDataMap = new LinkedHashMap<>();
+    for (Entry<LK, L> entry : newListeners.entrySet()) {
+      newListenerDataMap.put(entry.getKey(), new ListenerData<>(entry.getValue()));
+    }
+
+    // The write lock of each listener is held during its replay by the thread that replays it, so
+    // the events that are dispatched meanwhile wait until the listener received its replay events.
+    ParallelReplay<LK, L> parallelReplay = null;
+    List<WriteLock> listenerWriteLocks = new ArrayList<>(newListenerDataMap.size());
+    final List<E> cloneOfCurrentReplayEvents;
+    Map<ListenerData<L>, List<E>> previousDeferredEvents = null;
+    boolean deferredEventsSet = false;
+    try {
+      if (executor != null && newListenerDataMap.size() > 1) {
+        parallelReplay = new ParallelReplay<>(newListenerDataMap, executor);
+        parallelReplay.lockListeners();
+      } else {
+        for (ListenerData<L> listenerData : newListenerDataMap.values()) {
+          WriteLock listenerWriteLock = listenerData.getLocker().writeLock();
+          listenerWriteLock.lock();
+          listenerWriteLocks.add(listenerWriteLock);
+        }
+      }
+
+      ReadLock etrReadLock = this.etrLocker.readLock();
+      WriteLock listenersWriteLock = this.listenersLocker.writeLock();
+      listenersWriteLock.lock();
+      long lockStartTime = (monitor != null) ? System.nanoTime() : 0;
+      try {
+        etrReadLock.lock();
+        try {
+          checkNotClosed();
+          for (LK listenerKey : newListenerDataMap.keySet()) {
+            if (this.listeners.containsKey(listenerKey)) {
+              throw new ListenerAlreadyRegisteredException(
+                  "Listener with key " + listenerKey.toString()
+                      + " is already registered");
+            }
+          }
+
+          this.listeners.putAll(newListenerDataMap);
+          this.listenerSnapshot = null;
+
+        } catch (RuntimeException | Error e) {
+          etrReadLock.unlock();
+          throw e;
+        }
+      } finally {
+        listenersWriteLock.unlock();
+        if (monitor != null) {
+          lockHoldTime = System.nanoTime() - lockStartTime;
+        }
+      }
+
+      try {
+        cloneOfCurrentReplayEvents = buildReplayEvents(newListenerDataMap.keySet(), null);
+      } finally {
+        etrReadLock.unlock();
+      }
+
+      Map<ListenerData<L>, List<E>> deferredEvents = new IdentityHashMap<>();
+      for (ListenerData<L> listenerData : newListenerDataMap.values()) {
+        if (listenerData.getLocker().isWriteLockedByCurrentThread()) {
+          deferredEvents.put(listenerData, new ArrayList<E>());
+        }
+      }
+      previousDeferredEvents = this.deferredLiveEvents.get();
+      deferredEventsSet = deferredEvents.size() > 1;
+      if (deferredEventsSet) {
+        this.deferredLiveEvents.set(deferredEvents);
+      }
+
+      if (parallelReplay == null) {
+        for (Entry<LK, ListenerData<L>> entry : newListenerDataMap.entrySet()) {
+          replayToNewListener(entry.getKey(), entry.getValue(), cloneOfCurrentReplayEvents);
+          // Released one by one so removing a replayed listener does not wait for the whole batch
+          listenerWriteLocks.remove(0).unlock();
+        }
+      } else {
+        parallelReplay.replay(new ParallelReplay.ListenerReplay<LK, L>() {
+
+          @Override
+          public void replay(final LK listenerKey, final ListenerData<L> listenerData) {
+            replayToNewListener(listenerKey, listenerData, cloneOfCurrentReplayEvents);
+          }
+        });
+      }
+
+    } finally {
+      if (deferredEventsSet) {
+        this.deferredLiveEvents.set(previousDeferredEvents);
+      }
+      if (parallelReplay != null) {
+        parallelReplay.release();
+      }
+      for (WriteLock listenerWriteLock : listenerWriteLocks) {
+        listenerWriteLock.unlock();
+      }
+    }
+
+    if (monitor != null) {
+      monitor.listenersReplayed(newListenerDataMap.keySet(), cloneOfCurrentReplayEvents.size(),
+          System.nanoTime() - startTime, lockHoldTime);
+    }
+  }
+
+  @Override
+  public boolean removeEvent(final EK eventKey) {
+    WriteLock etrWriteLock = this.etrLocker.writeLock();
+    etrWriteLock.lock();
+
+    try {
+      if (!removeReplayEvent(eventKey)) {
+        return false;
+      }
+      if (this.replayEventsExpire) {
+        this.timerWheel.remove(new ReplayExpirationTimerKey(eventKey));
+      }
+      return true;
+    } finally {
+      etrWriteLock.unlock();
+    }
+  }
+
+  private void removeExpiredReplayEvent(final Timer<TimerKey, Object> timer, final EK eventKey) {
+    WriteLock etrWriteLock = this.etrLocker.writeLock();
+    etrWriteLock.lock();
+    try {
+      if (this.timerWheel.complete(timer)) {
+        evictReplayEvent(eventKey, true);
+      }
+    } finally {
+      etrWriteLock.unlock();
+    }
+  }
+
+  @Override
+  public boolean removeListener(final LK listenerKey) {
+    // The members that take over the keys of an event key routed group member receive the replay
+    // of those keys before the live events of the keys.
+    List<WriteLock> memberWriteLocks = lockOtherGroupMembers(listenerKey);
+    ListenerData<L> listenerData;
+    try {
+      Map<Entry<LK, ListenerData<L>>, List<EK>> reassignedEventKeys = null;
+
+      // The keys that move are collected with the read lock of the replay queue, which is kept
+      // while their replay events are built after the listener collection is released.
+      ReadLock etrReadLock = this.etrLocker.readLock();
+      WriteLock listenersWriteLock = this.listenersLocker.writeLock();
+      listenersWriteLock.lock();
+      try {
+        listenerData = this.listeners.remove(listenerKey);
+        if (listenerData != null) {
+          ListenerGroup group = listenerData.getGroup();
+          if (group != null && group.getRouting() == ListenerGroupRouting.EVENT_KEY) {
+            etrReadLock.lock();
+            try {
+              reassignedEventKeys = this.listenerGroups.get(group)
+                  .getReassignedEventKeys(this.eventsToReplay, listenerKey);
+            } catch (RuntimeException | Error e) {
+              etrReadLock.unlock();
+              throw e;
+            }
+          }
+          removeFromGroup(listenerKey, listenerData);
+          this.listenerDependencies.remove(listenerKey);
+          this.listenerSnapshot = null;
+        }
+      } finally {
+        listenersWriteLock.unlock();
+      }
+
+      Map<Entry<LK, ListenerData<L>>, List<E>> reassignedReplayEvents = Collections.emptyMap();
+      if (reassignedEventKeys != null) {
+        try {
+          reassignedReplayEvents = new LinkedHashMap<>();
+          for (Entry<Entry<LK, ListenerData<L>>, List<EK>> entry : reassignedEventKeys
+              .entrySet()) {
+            reassignedReplayEvents.put(entry.getKey(), buildReplayEvents(
+                Collections.singleton(entry.getKey().getKey()), entry.getValue()));
+          }
+        } finally {
+          etrReadLock.unlock();
+        }
+      }
+
+      if (listenerData != null) {
+        listenerData.deactivate();
+      }
+      for (Entry<Entry<LK, ListenerData<L>>, List<E>> entry : reassignedReplayEvents
+          .entrySet()) {
+        Entry<LK, ListenerData<L>> member = entry.getKey();
+        replayToListener(member.getKey(), member.getValue(), entry.getValue());
+      }
+    } finally {
+      for (WriteLock memberWriteLock : memberWriteLocks) {
+        memberWriteLock.unlock();
+      }
+    }
+
+    if (listenerData == null) {
+      return false;
+    }
+
+    if (listenerData.getBatcher() != null) {
+      this.timerWheel.cancel(new LingerTimerKey(listenerKey, listenerData));
+    }
+
+    // Waiting for the delivery that is in progress, unless the current thread delivers to the
+    // listener, because the listener removes itself or it receives its replay events.
+    ReentrantReadWriteLock listenerLocker = listenerData.getLocker();
+    if (listenerLocker.getReadHoldCount() == 0 && !listenerLocker.isWriteLockedByCurrentThread()) {
+      WriteLock listenerWriteLock = listenerLocker.writeLock();
+      listenerWriteLock.lock();
+      listenerWriteLock.unlock();
+      // The pending batch holds the events that the listener accepted before it was deactivated.
+      flushBatches(listenerKey, listenerData);
+    }
+    return true;
+  }
+
+
+  /**
+   * Removing a listener from its group if it has any. Must be called with <b>ls(w)</b>.
+   */
+  private void removeFromGroup(final LK listenerKey, final ListenerData<L> listenerData) {
+    if (listenerData.getGroup() == null) {
+      return;
+    }
+    ListenerGroupMembers<LK, L> members = this.listenerGroups.get(listenerData.getGroup());
+    members.remove(listenerKey);
+    if (members.isEmpty()) {
+      this.listenerGroups.remove(listenerData.getGroup());
+    }
+  }
+
+  /**
+   * Removing an event from the replay queue if the interceptor allows it. Must be called with
+   * <b>etr(w)</b>.
+   */
+  private boolean removeReplayEvent(final EK eventKey) {
+    ReplayStoreInterceptor<EK, E> interceptor = this.replayStoreInterceptor;
+    if (interceptor != null && !interceptor.beforeRemove(eventKey)) {
+      return false;
+    }
+    return removeStoredReplayEvent(eventKey);
+  }
+
+  /**
+   * Removing an event from the replay store and registering the change in the runtime. Must be
+   * called with <b>etr(w)</b>.
+   */
+  private boolean removeStoredReplayEvent(final EK eventKey) {
+    if (!this.eventsToReplay.removeByKey(eventKey)) {
+      return false;
+    }
+    if (this.replayKeyIndex != null) {
+      this.replayKeyIndex.remove(eventKey);
+    }
+    if (this.runtimeMember != null) {
+      replayEventsChanged(-1);
+    }
+    return true;
+  }
+
+  /**
+   * Registering the change of the number of replay events in the runtime and evicting the oldest
+   * replay events if the dispatcher exceeds its share of the replay event budget. Must be called
+   * with <b>etr(w)</b>.
+   */
+  private void replayEventsChanged(final int delta) {
+    if (delta == 0) {
+      return;
+    }
+    int excess = this.runtimeMember.replayEventsChanged(delta);
+    if (excess > 0) {
+      evictReplayEvents(excess);
+    }
+  }
+
+  /**
+   * Passing the replay events to a batching listener in batches of the maximum size. Must be called
+   * with <b>l(w)+</b>.
+   */
+  private void replayInBatches(final LK listenerKey, final ListenerData<L> listenerData,
+      final MicroBatcher<E> batcher, final List<E> replayEvents) {
+    int maxBatchSize = batcher.getMaxBatchSize();
+    for (int i = 0; i < replayEvents.size(); i += maxBatchSize) {
+      L listener = listenerData.getListener();
+      if (!listenerData.isActive() || listener == null) {
+        return;
+      }
+      this.listenerInvoker.invokeBatch(listenerKey, listener,
+          replayEvents.subList(i, Math.min(i + maxBatchSize, replayEvents.size())));
+    }
+  }
+
+  /**
+   * Passing replay events to a listener, in batches if it is a batching listener. Called with
+   * <b>l(w)+</b> of the listener.
+   */
+  private void replayToListener(final LK listenerKey, final ListenerData<L> listenerData,
+      final List<E> replayEvents) {
+    MicroBatcher<E> batcher = listenerData.getBatcher();
+    if (batcher != null) {
+      replayInBatches(listenerKey, listenerData, batcher, replayEvents);
+    } else {
+      for (E event : replayEvents) {
+        if (!listenerData.isActive()) {
+          break;
+        }
+        callListener(listenerKey, listenerData, event);
+      }
+    }
+  }
+
+  /**
+   * Passing the replay events to one of the listeners that were registered by
+   * {@link #addListeners(Map, Executor)} until the listener is active.
+   */
+  private void replayToNewListener(final LK listenerKey, final ListenerData<L> listenerData,
+      final List<E> replayEvents) {
+    Map<ListenerData<L>, List<E>> deferredEvents = this.deferredLiveEvents.get();
+    List<E> liveEvents = (deferredEvents != null) ? deferredEvents.remove(listenerData) : null;
+    for (E event : replayEvents) {
+      if (!listenerData.isActive()) {
+        return;
+      }
+      this.listenerInvoker.invoke(listenerKey, listenerData.getListener(), event);
+    }
+    if (liveEvents != null) {
+      for (E event : liveEvents) {
+        callListener(listenerKey, listenerData, event);
+      }
+    }
+  }
+
+  /**
+   * Scheduling or cancelling the expiration of the replay event of a key. Must be called with
+   * <b>etr(w)</b>.
+   */
+  private void scheduleReplayExpiration(final EK eventKey, final long timeToLiveNanos) {
+    ReplayExpirationTimerKey timerKey = new ReplayExpirationTimerKey(eventKey);
+    if (timeToLiveNanos <= 0) {
+      this.timerWheel.remove(timerKey);
+      return;
+    }
+    this.replayEventsExpire = true;
+    this.timerWheel.schedule(timerKey, null, timeToLiveNanos);
+  }
+
+  /**
+   * Selecting the listeners that should receive an event when there are listener groups. Must be
+   * called with a read lock on the listener collection.
+   *
+   * @param eventKey
+   *          The key of the event or null if it should be taken from the event.
+   */
+  private List<Entry<LK, ListenerData<L>>> selectListeners(final EK eventKey, final E event) {
+    List<Entry<LK, ListenerData<L>>> result = new ArrayList<>();
+    Integer eventKeyHash = null;
+    for (Entry<LK, ListenerData<L>> listenerEntry : this.listeners.entrySet()) {
+      ListenerGroup group = listenerEntry.getValue().getGroup();
+      if (group == null) {
+        result.add(listenerEntry);
+      } else {
+        ListenerGroupMembers<LK, L> members = this.listenerGroups.get(group);
+        if (members.isFirst(listenerEntry.getKey())) {
+          if (eventKeyHash == null && group.getRouting() == ListenerGroupRouting.EVENT_KEY) {
+            eventKeyHash = ((eventKey != null) ? eventKey : this.eventUtil.getEventKey(event))
+                .hashCode();
+          }
+          result.add(members.select(eventKeyHash == null ? 0 : eventKeyHash));
+        }
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Setting the controller that decides whether the dispatched events are passed to the listeners
+   * or only stored in the replay queue. By default every event is passed to the listeners.
+   *
+   * @param admissionController
+   *          The controller or null to pass every event to the listeners.
+   */
+  public void setAdmissionController(final AdmissionController<E> admissionController) {
+    this.admissionController = admissionController;
+  }
+
+  /**
+   * Setting the monitor that receives the measurements of dispatching, replaying and slow
+   * listener calls. By default there is no monitor and nothing is measured.
+   *
+   * @param monitor
+   *          The monitor or null if measuring should be turned off.
+   * @param slowListenerCallThreshold
+   *          The duration above which a listener call is reported as slow.
+   * @param unit
+   *          The unit of the threshold.
+   */
+  public void setDispatchMonitor(final DispatchMonitor<E, EK, LK> monitor,
+      final long slowListenerCallThreshold, final TimeUnit unit) {
+    this.listenerInvoker.setMonitor(monitor, unit.toNanos(slowListenerCallThreshold));
+    this.dispatchMonitor = monitor;
+  }
+
+  /**
+   * Setting the executor that calls the listeners of an event in parallel. The listeners that
+   * depend on each other via {@link #addDependentListener(Object, Object, Collection)} are still
+   * called in order. The dispatching function returns when all listeners were called, so the
+   * events of a dispatching thread arrive to each listener in order. While the dispatching thread
+   * waits, it calls the listeners that the executor did not start yet, so a saturated executor
+   * (e.g. by listeners that dispatch events themselves) does not block the dispatch. By default
+   * there is no executor, except for the dispatchers that are attached to a
+   * {@link DispatcherRuntime}.
+   *
+   * @param listenerExecutor
+   *          The executor or null to call the listeners one after the other in the dispatching
+   *          thread.
+   */
+  public void setListenerExecutor(final Executor listenerExecutor) {
+    this.listenerExecutor = listenerExecutor;
+  }
+
+  /**
+   * Limiting the rate of the live events that are passed to a registered listener. The events that
+   * exceed the limit are not passed to the listener, but their keys are recorded: the listener can
+   * take them via {@link #takeMissedEventKeys(Object)} and get the latest event of each key via
+   * {@link #getReplayEvents(Collection)}. The events of {@link #dispatchAndRemoveEvent(Object)}
+   * and the replay events of new listeners are not limited.
+   *
+   * @param listenerKey
+   *          The key of the listener.
+   * @param permitsPerSecond
+   *          The number of events per second the listener can receive on average.
+   * @param burst
+   *          The number of events the listener can receive at once after an idle period.
+   * @return True if the limit was set, false if there is no listener registered with the key.
+   * @throws IllegalArgumentException
+   *           if the rate or the burst is not positive.
+   */
+  public boolean setListenerRateLimit(final LK listenerKey, final double permitsPerSecond,
+      final int burst) {
+    return setListenerRateLimit(listenerKey, new TokenBucket(permitsPerSecond, burst));
+  }
+
+  private boolean setListenerRateLimit(final LK listenerKey, final TokenBucket rateLimit) {
+    ReadLock listenersReadLock = this.listenersLocker.readLock();
+    listenersReadLock.lock();
+    try {
+      ListenerData<L> listenerData = this.listeners.get(listenerKey);
+      if (listenerData == null) {
+        return false;
+      }
+      listenerData.setRateLimit(rateLimit);
+      return true;
+    } finally {
+      listenersReadLock.unlock();
+    }
+  }
+
+  /**
+   * Setting an interceptor that is called before the replay queue is modified. The interceptor can
+   * cancel the modification and in that case the event is not dispatched either. Only one
+   * interceptor can be set at a time.
+   *
+   * @param replayStoreInterceptor
+   *          The interceptor or null to remove the current one.
+   */
+  public void setReplayStoreInterceptor(
+      final ReplayStoreInterceptor<EK, E> replayStoreInterceptor) {
+    this.replayStoreInterceptor = replayStoreInterceptor;
+  }
+
+  /**
+   * Returning and forgetting the keys of the live events that a listener did not receive because of
+   * its rate limit. The keys are recorded until they are taken, so a rate limited listener should
+   * take them regularly. A key that is not in the replay queue anymore belongs to an event that
+   * expired or was evicted.
+   *
+   * @param listenerKey
+   *          The key of the listener.
+   * @return The keys of the missed events in the order they were missed first or null if there is
+   *         no listener registered with the key.
+   */
+  public Set<EK> takeMissedEventKeys(final LK listenerKey) {
+    ReadLock listenersReadLock = this.listenersLocker.readLock();
+    listenersReadLock.lock();
+    try {
+      ListenerData<L> listenerData = this.listeners.get(listenerKey);
+      if (listenerData == null) {
+        return null;
+      }
+      return listenerData.takeMissedEventKeys();
+    } finally {
+      listenersReadLock.unlock();
+    }
+  }
+
+  /**
+   * Evicting the replay events that exceed the share of the dispatcher in the replay event budget
+   * of the runtime. Called by the runtime in the lane of the dispatcher.
+   *
+   * @return The number of evicted events.
+   */
+  int trimReplayEvents() {
+    WriteLock etrWriteLock = this.etrLocker.writeLock();
+    etrWriteLock.lock();
+    try {
+      if (this.closed) {
+        return 0;
+      }
+      int excess = this.runtimeMember.getExcessReplayEvents();
+      return (excess > 0) ? evictReplayEvents(excess) : 0;
+    } finally {
+      etrWriteLock.unlock();
+    }
+  }
 }
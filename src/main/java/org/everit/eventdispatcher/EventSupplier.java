@@ -0,0 +1,39 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.eventdispatcher;
+
+/**
+ * Builds an event on demand for {@link EventDispatcherImpl#dispatchEvent(Object, EventSupplier)}.
+ *
+ * @param <E>
+ *          The type of the events.
+ */
+public interface EventSupplier<E> {
+
+  /**
+   * Building the event. The function is called at most once, by the first thread that needs the
+   * event: the dispatching thread if there are listeners or the thread that reads the replay
+   * events otherwise. The key of the returned event must be the same as the key that the supplier
+   * was dispatched with. The replay to a new listener might call the function while the
+   * dispatcher holds the read lock of its replay queue, but not the lock of its listeners. If the
+   * function throws an exception or returns null there, the event is skipped in the replay and
+   * the exception is passed to the {@link ExceptionHandler} of the dispatcher, while the listener
+   * is registered anyway. The function is called again by the next reader of the event.
+   *
+   * @return The event, never null.
+   */
+  E get();
+}
@@ -26,12 +26,16 @@ package org.everit.eventdispatcher;
 public interface ExceptionHandler<LK, E> {
 
   /**
-   * Catches an exception that was thrown by a listener.
+   * Catches an exception that was thrown by a listener. The exceptions of the
+   * {@link EventSupplier}s that build the events of the replay to a listener are passed here as
+   * well, with a null event, and the event is skipped in that replay. The exceptions of the tasks
+   * that the dispatcher runs in the executor of a {@link DispatcherRuntime} or in the thread of its
+   * timers are passed here with a null listener key and a null event.
    *
    * @param listenerKey
-   *          The key of the listener.
+   *          The key of the listener or null if the exception does not come from a listener.
    * @param event
-   *          The event instance.
+   *          The event instance or null if the event could not be built.
    * @param e
    *          The throwable. Please note, that all throwable are passed to the exception handler and
    *          it is the decision of the developer of ExceptionHandler implementation to re-throw
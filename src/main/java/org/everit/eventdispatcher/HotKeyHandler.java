@@ -0,0 +1,42 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.eventdispatcher;
+
+/**
+ * Notified by {@link KeyAffinityEventDispatcher} when the events of a key overload the worker
+ * thread that the key is pinned to.
+ *
+ * @param <EK>
+ *          The type of the event keys.
+ */
+public interface HotKeyHandler<EK> {
+
+  /**
+   * Called when the number of queued events of a worker exceeds the threshold. The function is
+   * called once per overload: the worker must process its queue below the half of the threshold
+   * before it is reported again. The function is called in the thread that dispatches the event,
+   * so it should return quickly.
+   *
+   * @param eventKey
+   *          The key that has the most events in the queue of the worker when the threshold is
+   *          exceeded.
+   * @param workerIndex
+   *          The index of the overloaded worker.
+   * @param queuedEvents
+   *          The number of events that are waiting in the queue of the worker.
+   */
+  void hotKeyDetected(EK eventKey, int workerIndex, int queuedEvents);
+}
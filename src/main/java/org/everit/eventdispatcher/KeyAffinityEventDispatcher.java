@@ -0,0 +1,345 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.eventdispatcher;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.everit.eventdispatcher.internal.KeyAffinityWorker;
+import org.everit.eventdispatcher.internal.ListenerData;
+import org.everit.eventdispatcher.internal.ListenerInvoker;
+import org.everit.eventdispatcher.internal.ReplayStores;
+
+/**
+ * Event dispatcher that pins every event key to one of a fixed number of workers. Every worker has
+ * its own thread, or its own lane in the executor of a {@link DispatcherRuntime} if the dispatcher
+ * is created with a runtime. The events are dispatched asynchronously:
+ * {@link #dispatchEvent(Object)} only queues the event for the worker of its key. The events of
+ * the same key are passed to the listeners in the order of dispatching, while the events of
+ * different keys are passed concurrently. Therefore listeners must be thread-safe, in exchange
+ * dispatching does not need any lock that is shared between the keys.<br />
+ * <br />
+ * Every worker owns the replay events of its keys and the list of listeners it calls. A new
+ * listener is registered by a task that is queued to every worker: the task passes the replay
+ * events of the worker to the listener and subscribes the listener to the following events of
+ * the worker. As the tasks are processed in order, the listener receives the replay events of a
+ * key before the new events of the same key.<br />
+ * <br />
+ * If the queue of a worker grows above the hot key threshold, the {@link HotKeyHandler} is
+ * notified, so the application can detect keys that receive too many events to be processed by
+ * one thread.
+ *
+ * @param <E>
+ *          The type of the events.
+ * @param <EK>
+ *          The type of the event keys.
+ * @param <L>
+ *          The type of the listeners.
+ * @param <LK>
+ *          The type of the listener keys.
+ */
+public class KeyAffinityEventDispatcher<E, EK, L, LK>
+    implements CloseableEventDispatcher<E, EK, L, LK> {
+
+  private volatile boolean closed = false;
+
+  private final EventUtil<E, EK, L> eventUtil;
+
+  private final ConcurrentMap<LK, ListenerData<L>> listeners = new ConcurrentHashMap<>();
+
+  private final KeyAffinityWorker<E, EK, L, LK>[] workers;
+
+  /**
+   * Constructor that does not detect hot keys.
+   *
+   * @param eventUtil
+   *          The util that calls the listeners and computes the keys of the events.
+   * @param exceptionHandler
+   *          The handler that catches exceptions that come from listeners. If null, the default
+   *          implementation will be used that writes exceptions to the standard error output.
+   * @param workerCount
+   *          The number of worker threads.
+   */
+  public KeyAffinityEventDispatcher(final EventUtil<E, EK, L> eventUtil,
+      final ExceptionHandler<LK, E> exceptionHandler, final int workerCount) {
+    this(eventUtil, exceptionHandler, null, workerCount, Integer.MAX_VALUE, null);
+  }
+
+  /**
+   * Constructor of a dispatcher whose workers run in lanes of the executor of a runtime and that
+   * does not detect hot keys.
+   *
+   * @param eventUtil
+   *          The util that calls the listeners and computes the keys of the events.
+   * @param exceptionHandler
+   *          The handler that catches exceptions that come from listeners. If null, the default
+   *          implementation will be used that writes exceptions to the standard error output.
+   * @param runtime
+   *          The runtime whose executor runs the workers.
+   * @param workerCount
+   *          The number of workers.
+   * @throws IllegalStateException
+   *           if the runtime is closed.
+   */
+  public KeyAffinityEventDispatcher(final EventUtil<E, EK, L> eventUtil,
+      final ExceptionHandler<LK, E> exceptionHandler, final DispatcherRuntime runtime,
+      final int workerCount) {
+    this(eventUtil, exceptionHandler, runtime, workerCount, Integer.MAX_VALUE, null);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param eventUtil
+   *          The util that calls the listeners and computes the keys of the events.
+   * @param exceptionHandler
+   *          The handler that catches exceptions that come from listeners. If null, the default
+   *          implementation will be used that writes exceptions to the standard error output.
+   * @param workerCount
+   *          The number of worker threads.
+   * @param hotKeyThreshold
+   *          The number of queued tasks of a worker above which the hot key handler is notified.
+   * @param hotKeyHandler
+   *          The handler that is notified if the queue of a worker exceeds the threshold or null
+   *          if hot keys should not be detected.
+   * @throws IllegalArgumentException
+   *           if the worker count or the threshold is not positive.
+   */
+  public KeyAffinityEventDispatcher(final EventUtil<E, EK, L> eventUtil,
+      final ExceptionHandler<LK, E> exceptionHandler, final int workerCount,
+      final int hotKeyThreshold, final HotKeyHandler<EK> hotKeyHandler) {
+    this(eventUtil, exceptionHandler, null, workerCount, hotKeyThreshold, hotKeyHandler);
+  }
+
+  /**
+   * Constructor. The workers of a dispatcher that is created with a runtime run in lanes of the
+   * executor of the runtime, so they take turns with the other dispatchers of the runtime. After
+   * the runtime was closed, the tasks of the workers are processed by the threads that queue them.
+   *
+   * @param eventUtil
+   *          The util that calls the listeners and computes the keys of the events.
+   * @param exceptionHandler
+   *          The handler that catches exceptions that come from listeners. If null, the default
+   *          implementation will be used that writes exceptions to the standard error output.
+   * @param runtime
+   *          The runtime whose executor runs the workers or null if every worker should have its
+   *          own thread.
+   * @param workerCount
+   *          The number of workers.
+   * @param hotKeyThreshold
+   *          The number of queued tasks of a worker above which the hot key handler is notified.
+   * @param hotKeyHandler
+   *          The handler that is notified if the queue of a worker exceeds the threshold or null
+   *          if hot keys should not be detected.
+   * @throws IllegalArgumentException
+   *           if the worker count or the threshold is not positive.
+   * @throws IllegalStateException
+   *           if the runtime is closed.
+   */
+  public KeyAffinityEventDispatcher(final EventUtil<E, EK, L> eventUtil,
+      final ExceptionHandler<LK, E> exceptionHandler, final DispatcherRuntime runtime,
+      final int workerCount, final int hotKeyThreshold, final HotKeyHandler<EK> hotKeyHandler) {
+    if (workerCount <= 0) {
+      throw new IllegalArgumentException("Worker count must be positive: " + workerCount);
+    }
+    if (hotKeyThreshold <= 0) {
+      throw new IllegalArgumentException("Hot key threshold must be positive: " + hotKeyThreshold);
+    }
+    this.eventUtil = eventUtil;
+
+    ListenerInvoker<E, L, LK> listenerInvoker = new ListenerInvoker<>(eventUtil, exceptionHandler);
+
+    @SuppressWarnings("unchecked")
+    KeyAffinityWorker<E, EK, L, LK>[] workerArray =
+        (KeyAffinityWorker<E, EK, L, LK>[]) new KeyAffinityWorker<?, ?, ?, ?>[workerCount];
+    this.workers = workerArray;
+    for (int i = 0; i < workerCount; i++) {
+      Executor lane = (runtime != null) ? runtime.createLane(listenerInvoker) : null;
+      this.workers[i] = new KeyAffinityWorker<>(i, ReplayStores.create(eventUtil),
+          listenerInvoker, hotKeyThreshold, hotKeyHandler, lane);
+    }
+    if (runtime == null) {
+      for (int i = 0; i < workerCount; i++) {
+        Thread workerThread = new Thread(this.workers[i], "eventdispatcher-worker-" + i);
+        workerThread.setDaemon(true);
+        workerThread.start();
+      }
+    }
+  }
+
+  @Override
+  public void addListener(final LK listenerKey, final L listener)
+      throws ListenerAlreadyRegisteredException {
+    checkNotClosed();
+    ListenerData<L> listenerData = new ListenerData<>(listener);
+    if (this.listeners.putIfAbsent(listenerKey, listenerData) != null) {
+      throw new ListenerAlreadyRegisteredException(
+          "Listener with key " + listenerKey.toString() + " is already registered");
+    }
+
+    CountDownLatch finishedLatch = new CountDownLatch(this.workers.length);
+    for (KeyAffinityWorker<E, EK, L, LK> worker : this.workers) {
+      if (!worker.register(listenerKey, listenerData, finishedLatch)) {
+        finishedLatch.countDown();
+      }
+    }
+    awaitWorkers(finishedLatch);
+  }
+
+  /**
+   * Waiting until the tasks that count down the latch are processed by all workers. If the
+   * function is called from a worker thread (e.g. by a listener), it does not wait as the worker
+   * could not process its own task.
+   */
+  private void awaitWorkers(final CountDownLatch finishedLatch) {
+    if (isWorkerThread()) {
+      return;
+    }
+    boolean interrupted = false;
+    try {
+      while (true) {
+        try {
+          finishedLatch.await();
+          return;
+        } catch (InterruptedException e) {
+          interrupted = true;
+        }
+      }
+    } finally {
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  private void checkNotClosed() {
+    if (this.closed) {
+      throw new IllegalStateException("Event dispatcher is closed");
+    }
+  }
+
+  @Override
+  public void close() {
+    synchronized (this.listeners) {
+      if (this.closed) {
+        return;
+      }
+      this.closed = true;
+    }
+    for (KeyAffinityWorker<E, EK, L, LK> worker : this.workers) {
+      worker.stop();
+    }
+  }
+
+  @Override
+  public void dispatchAndRemoveEvent(final E event) {
+    dispatchEventInternal(event, true);
+  }
+
+  @Override
+  public void dispatchEvent(final E event) {
+    dispatchEventInternal(event, false);
+  }
+
+  private void dispatchEventInternal(final E event, final boolean removeAfterDispatch) {
+    checkNotClosed();
+    EK eventKey = this.eventUtil.getEventKey(event);
+    if (!getWorker(eventKey).dispatch(eventKey, event, removeAfterDispatch)) {
+      throw new IllegalStateException("Event dispatcher is closed");
+    }
+  }
+
+  /**
+   * Waiting until the workers process the tasks that were queued before the dispatcher was closed
+   * and stopping the listeners afterwards.
+   */
+  @Override
+  public boolean drain(final long timeout, final TimeUnit unit) throws InterruptedException {
+    if (!this.closed) {
+      throw new IllegalStateException("Event dispatcher must be closed before draining");
+    }
+    long deadline = System.nanoTime() + unit.toNanos(timeout);
+    boolean drained = true;
+    for (KeyAffinityWorker<E, EK, L, LK> worker : this.workers) {
+      if (worker.isProcessingThread()) {
+        continue;
+      }
+      if (!worker.awaitStopped(deadline - System.nanoTime())) {
+        drained = false;
+        break;
+      }
+    }
+
+    for (ListenerData<L> listenerData : this.listeners.values()) {
+      listenerData.deactivate();
+    }
+    this.listeners.clear();
+    return drained;
+  }
+
+  private KeyAffinityWorker<E, EK, L, LK> getWorker(final EK eventKey) {
+    int hash = eventKey.hashCode();
+    hash ^= hash >>> 16;
+    return this.workers[(hash & Integer.MAX_VALUE) % this.workers.length];
+  }
+
+  private boolean isWorkerThread() {
+    for (KeyAffinityWorker<E, EK, L, LK> worker : this.workers) {
+      if (worker.isProcessingThread()) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Removing the event from the replay events of the worker of the key. The removal is done after
+   * the events that were dispatched before. If the function is called from a worker thread (e.g.
+   * by a listener), the removal is only queued and the function returns false.
+   */
+  @Override
+  public boolean removeEvent(final EK eventKey) {
+    AtomicBoolean result = new AtomicBoolean(false);
+    CountDownLatch finishedLatch = new CountDownLatch(1);
+    if (!getWorker(eventKey).removeEvent(eventKey, result, finishedLatch)) {
+      return false;
+    }
+    awaitWorkers(finishedLatch);
+    return result.get();
+  }
+
+  @Override
+  public boolean removeListener(final LK listenerKey) {
+    ListenerData<L> listenerData = this.listeners.remove(listenerKey);
+    if (listenerData == null) {
+      return false;
+    }
+    listenerData.deactivate();
+
+    CountDownLatch finishedLatch = new CountDownLatch(this.workers.length);
+    for (KeyAffinityWorker<E, EK, L, LK> worker : this.workers) {
+      if (!worker.unregister(listenerKey, finishedLatch)) {
+        finishedLatch.countDown();
+      }
+    }
+    awaitWorkers(finishedLatch);
+    return true;
+  }
+}
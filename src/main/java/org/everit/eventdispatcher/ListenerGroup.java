@@ -0,0 +1,69 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.eventdispatcher;
+
+/**
+ * Identifies a group of listeners that share the stream of events. Each event is passed to exactly
+ * one member of the group and the replay events are partitioned among the members, so N listeners
+ * registered in the same group can process the events of the dispatcher in parallel. Groups are
+ * identified by the instance of this class.
+ *
+ * @see EventDispatcherImpl#addListener(Object, Object, ListenerGroup)
+ */
+public final class ListenerGroup {
+
+  /**
+   * The name of the group that is used in {@link #toString()}.
+   */
+  private final String name;
+
+  /**
+   * The way the group selects the member that receives an event.
+   */
+  private final ListenerGroupRouting routing;
+
+  /**
+   * Constructor.
+   *
+   * @param name
+   *          The name of the group that is used in {@link #toString()}.
+   * @param routing
+   *          The way the group selects the member that receives an event.
+   * @throws NullPointerException
+   *           if routing is null.
+   */
+  public ListenerGroup(final String name, final ListenerGroupRouting routing) {
+    if (routing == null) {
+      throw new NullPointerException("Routing of the listener group must be specified");
+    }
+    this.name = name;
+    this.routing = routing;
+  }
+
+  public String getName() {
+    return this.name;
+  }
+
+  public ListenerGroupRouting getRouting() {
+    return this.routing;
+  }
+
+  @Override
+  public String toString() {
+    return "ListenerGroup [name=" + this.name + ", routing=" + this.routing + "]";
+  }
+
+}
@@ -0,0 +1,38 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.eventdispatcher;
+
+/**
+ * The way a {@link ListenerGroup} selects the member that receives an event.
+ */
+public enum ListenerGroupRouting {
+
+  /**
+   * Events are routed by the {@link Object#hashCode()} of their key, so all events with the same
+   * key go to the same member as long as the members of the group do not change. The keys are
+   * assigned with rendezvous hashing, so a change of the members moves only the keys of the
+   * joining or leaving member. When a new member joins, it receives the replay events of the keys
+   * it takes over. When a member leaves, the other members receive the replay events of the keys
+   * they take over from it.
+   */
+  EVENT_KEY,
+
+  /**
+   * Events are passed to the members one after the other. When a new member joins, it receives
+   * every n-th replay event where n is the number of members.
+   */
+  ROUND_ROBIN
+}
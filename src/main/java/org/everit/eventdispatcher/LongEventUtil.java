@@ -0,0 +1,41 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.eventdispatcher;
+
+/**
+ * Specialized {@link EventUtil} for events that are identified by a primitive <code>long</code>
+ * key. If an instance of this interface is passed to {@link EventDispatcherImpl}, the replay
+ * events are stored in an open-addressing hash table of primitive keys instead of a
+ * {@link java.util.LinkedHashMap}, so the keys are not boxed and there is no entry object per
+ * event.
+ *
+ * @param <E>
+ *          The type of the event.
+ * @param <L>
+ *          The type of the listeners.
+ */
+public interface LongEventUtil<E, L> extends EventUtil<E, Long, L> {
+
+  /**
+   * Same as {@link #getEventKey(Object)}, but without boxing the key. The two functions must
+   * return the same key for the same event.
+   *
+   * @param event
+   *          The event that contains the key.
+   * @return The key of the event.
+   */
+  long getLongEventKey(E event);
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.eventdispatcher;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@link AdmissionController} that sheds the low-value events while the dispatcher is overloaded.
+ * The dispatcher is considered overloaded if there are too many dispatches in progress at the same
+ * time or the moving average of the dispatch durations exceeds a threshold. Shed events are
+ * coalesced in the replay queue by their keys, so only the latest event of a key has to be
+ * recovered.
+ *
+ * @param <E>
+ *          The type of the events.
+ * @param <EK>
+ *          The type of the event keys.
+ */
+public class OverloadAdmissionController<E, EK> implements AdmissionController<E> {
+
+  /**
+   * The weight of the latest duration in the moving average is 1 / 2^{@value}.
+   */
+  private static final int AVERAGE_WEIGHT_SHIFT = 3;
+
+  /**
+   * The exponential moving average of the dispatch durations in nanoseconds.
+   */
+  private final AtomicLong averageDurationNanos = new AtomicLong();
+
+  private final EventUtil<E, EK, ?> eventUtil;
+
+  private final long latencyThresholdNanos;
+
+  private final int maxActiveDispatches;
+
+  private final AtomicLong shedEventCount = new AtomicLong();
+
+  private final ReplayEventFilter<EK> sheddableEvents;
+
+  /**
+   * Constructor.
+   *
+   * @param eventUtil
+   *          The util that computes the keys of the events.
+   * @param sheddableEvents
+   *          The filter that accepts the keys of the low-value events that can be shed.
+   * @param maxActiveDispatches
+   *          The number of dispatches that can be in progress at the same time without shedding.
+   * @param latencyThreshold
+   *          The average dispatch duration above which events are shed.
+   * @param unit
+   *          The unit of the latency threshold.
+   */
+  public OverloadAdmissionController(final EventUtil<E, EK, ?> eventUtil,
+      final ReplayEventFilter<EK> sheddableEvents, final int maxActiveDispatches,
+      final long latencyThreshold, final TimeUnit unit) {
+    this.eventUtil = eventUtil;
+    this.sheddableEvents = sheddableEvents;
+    this.maxActiveDispatches = maxActiveDispatches;
+    this.latencyThresholdNanos = unit.toNanos(latencyThreshold);
+  }
+
+  @Override
+  public boolean admit(final E event, final int activeDispatches) {
+    if (!isOverloaded(activeDispatches)
+        || !this.sheddableEvents.accept(this.eventUtil.getEventKey(event))) {
+      return true;
+    }
+    this.shedEventCount.incrementAndGet();
+    return false;
+  }
+
+  @Override
+  public void dispatchFinished(final E event, final long durationNanos) {
+    long average;
+    long newAverage;
+    do {
+      average = this.averageDurationNanos.get();
+      newAverage = average + ((durationNanos - average) >> AVERAGE_WEIGHT_SHIFT);
+    } while (!this.averageDurationNanos.compareAndSet(average, newAverage));
+  }
+
+  public long getAverageDurationNanos() {
+    return this.averageDurationNanos.get();
+  }
+
+  /**
+   * The number of events that were not passed to the listeners since the controller was created.
+   *
+   * @return The number of shed events.
+   */
+  public long getShedEventCount() {
+    return this.shedEventCount.get();
+  }
+
+  private boolean isOverloaded(final int activeDispatches) {
+    return activeDispatches > this.maxActiveDispatches
+        || this.averageDurationNanos.get() > this.latencyThresholdNanos;
+  }
+}
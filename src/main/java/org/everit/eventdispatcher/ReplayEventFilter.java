@@ -0,0 +1,37 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.eventdispatcher;
+
+/**
+ * Decides which events of the replay queue should be part of the result of a
+ * {@link ReplayEventQuery}. The filter is evaluated while the replay queue is locked for reading,
+ * so implementations should be fast and must not call the event dispatcher.
+ *
+ * @param <EK>
+ *          The type of the event keys that identify the events based on the
+ *          {@link Object#hashCode()} and {@link Object#equals(Object)} functions.
+ */
+public interface ReplayEventFilter<EK> {
+
+  /**
+   * Checks whether the event with the specified key should be part of the query result.
+   *
+   * @param eventKey
+   *          The key of an event that is in the replay queue.
+   * @return True if the event should be returned, false otherwise.
+   */
+  boolean accept(EK eventKey);
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.eventdispatcher;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Factory functions for the commonly used {@link ReplayEventFilter} implementations.
+ */
+public final class ReplayEventFilters {
+
+  /**
+   * Filter that accepts every event key.
+   *
+   * @param <EK>
+   *          The type of the event keys.
+   * @return The filter.
+   */
+  public static <EK> ReplayEventFilter<EK> all() {
+    return new ReplayEventFilter<EK>() {
+
+      @Override
+      public boolean accept(final EK eventKey) {
+        return true;
+      }
+    };
+  }
+
+  /**
+   * Filter that accepts the passed event keys only.
+   *
+   * @param eventKeys
+   *          The accepted event keys. The collection is copied.
+   * @param <EK>
+   *          The type of the event keys.
+   * @return The filter.
+   */
+  public static <EK> ReplayEventFilter<EK> keys(final Collection<? extends EK> eventKeys) {
+    final Set<EK> keySet = new HashSet<>(eventKeys);
+    return new ReplayEventFilter<EK>() {
+
+      @Override
+      public boolean accept(final EK eventKey) {
+        return keySet.contains(eventKey);
+      }
+    };
+  }
+
+  /**
+   * Range of the event keys that start with the passed prefix.
+   *
+   * @param prefix
+   *          The prefix of the accepted event keys.
+   * @return The range that can be queried via an ordered index by
+   *         {@link ReplayEventQuery#getReplayEventRange(ReplayKeyRange, Object, int)}.
+   */
+  public static ReplayKeyRange<String> prefix(final String prefix) {
+    // The keys with the prefix are below the prefix that has its last increasable character
+    // incremented.
+    String toKey = null;
+    for (int i = prefix.length() - 1; i >= 0 && toKey == null; i--) {
+      char c = prefix.charAt(i);
+      if (c != Character.MAX_VALUE) {
+        toKey = prefix.substring(0, i) + (char) (c + 1);
+      }
+    }
+    return new ReplayKeyRange<>(prefix, toKey);
+  }
+
+  /**
+   * Range of the event keys based on their natural ordering.
+   *
+   * @param fromKey
+   *          The lowest accepted key (inclusive) or null if the range has no lower bound.
+   * @param toKey
+   *          The highest key (exclusive) or null if the range has no upper bound.
+   * @param <EK>
+   *          The type of the event keys.
+   * @return The range that can be queried via an ordered index by
+   *         {@link ReplayEventQuery#getReplayEventRange(ReplayKeyRange, Object, int)}.
+   */
+  public static <EK extends Comparable<? super EK>> ReplayKeyRange<EK> range(final EK fromKey,
+      final EK toKey) {
+    return new ReplayKeyRange<>(fromKey, toKey);
+  }
+
+  private ReplayEventFilters() {
+  }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.eventdispatcher;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * One page of the result of a filtered {@link ReplayEventQuery}.
+ *
+ * @param <EK>
+ *          The type of the event keys.
+ * @param <E>
+ *          The type of the events.
+ */
+public class ReplayEventPage<EK, E> {
+
+  /**
+   * The events on the page by their keys in replay order.
+   */
+  private final Map<EK, E> events;
+
+  /**
+   * Flag that shows if there were more accepted events in the replay queue after the last event of
+   * this page.
+   */
+  private final boolean hasMore;
+
+  /**
+   * The offset of the first event of this page.
+   */
+  private final int offset;
+
+  /**
+   * Constructor.
+   *
+   * @param events
+   *          The events on the page by their keys in replay order.
+   * @param offset
+   *          The offset of the first event of this page.
+   * @param hasMore
+   *          Whether there are more accepted events after the last event of this page.
+   */
+  public ReplayEventPage(final Map<EK, E> events, final int offset, final boolean hasMore) {
+    this.events = Collections.unmodifiableMap(events);
+    this.offset = offset;
+    this.hasMore = hasMore;
+  }
+
+  public Map<EK, E> getEvents() {
+    return this.events;
+  }
+
+  /**
+   * The key that should be passed to
+   * {@link ReplayEventQuery#getReplayEventRange(ReplayKeyRange, Object, int)} to get the next
+   * page.
+   *
+   * @return The key of the last event on this page or null if the page is empty.
+   */
+  public EK getLastKey() {
+    EK lastKey = null;
+    for (EK eventKey : this.events.keySet()) {
+      lastKey = eventKey;
+    }
+    return lastKey;
+  }
+
+  /**
+   * The offset that should be passed to get the next page.
+   *
+   * @return The offset of this page plus the number of events on this page.
+   */
+  public int getNextOffset() {
+    return this.offset + this.events.size();
+  }
+
+  public int getOffset() {
+    return this.offset;
+  }
+
+  public boolean hasMore() {
+    return this.hasMore;
+  }
+
+}
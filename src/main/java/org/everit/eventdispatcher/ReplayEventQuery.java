@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.eventdispatcher;
+
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Read access to the events that would be replayed to a newly registered listener. All functions
+ * return the replay format of the events (see {@link EventUtil#createReplayEvent(Object)}) and
+ * read a consistent snapshot of the replay queue without blocking each other.
+ *
+ * @param <E>
+ *          The type of the events.
+ * @param <EK>
+ *          The type of the event keys that identify the events based on the
+ *          {@link Object#hashCode()} and {@link Object#equals(Object)} functions.
+ */
+public interface ReplayEventQuery<E, EK> {
+
+  /**
+   * Getting the current replay state of one event key.
+   *
+   * @param eventKey
+   *          The key of the event.
+   * @return The replay format of the last event that was dispatched with the key or null if there
+   *         is no such event in the replay queue.
+   */
+  E getReplayEvent(EK eventKey);
+
+  /**
+   * Getting one page of the replay events whose keys are in a range, in the natural order of the
+   * keys. The first call builds an ordered index of the keys that is maintained by the later
+   * modifications of the replay queue, so the cost of a page depends on the page size and not on
+   * the number of the replay events. The next page is requested by passing the last key of the
+   * previous page, so the pages do not skip or repeat events if the replay queue changes between
+   * two calls.
+   *
+   * @param range
+   *          The range of the keys, created via {@link ReplayEventFilters#range(Comparable,
+   *          Comparable)} or {@link ReplayEventFilters#prefix(String)}.
+   * @param afterKey
+   *          The last key of the previous page (see {@link ReplayEventPage#getLastKey()}) or null
+   *          to get the first page.
+   * @param pageSize
+   *          The maximum number of events on the page.
+   * @return The page of the events. The offset of the page is always zero.
+   * @throws ClassCastException
+   *           if the event keys do not implement {@link Comparable}.
+   * @throws IllegalArgumentException
+   *           if the page size is not positive.
+   */
+  ReplayEventPage<EK, E> getReplayEventRange(ReplayKeyRange<EK> range, EK afterKey, int pageSize);
+
+  /**
+   * Getting the current replay state of several event keys.
+   *
+   * @param eventKeys
+   *          The keys of the events.
+   * @return The events in replay format in the order of the passed keys. Keys that do not have an
+   *         event in the replay queue are not part of the result.
+   */
+  Map<EK, E> getReplayEvents(Collection<EK> eventKeys);
+
+  /**
+   * Getting one page of the replay events whose key is accepted by the filter. The events are
+   * returned in the same order as they would be replayed to a new listener. As the replay queue
+   * may change between two calls, the pages of a query are consistent one by one, but not with
+   * each other. Every call walks the replay queue from its beginning, so frequent range and
+   * prefix queries should use {@link #getReplayEventRange(ReplayKeyRange, Object, int)}.
+   *
+   * @param filter
+   *          The filter that selects the event keys. See {@link ReplayEventFilters} for the common
+   *          implementations.
+   * @param offset
+   *          The number of accepted events that should be skipped.
+   * @param pageSize
+   *          The maximum number of events on the page.
+   * @return The page of the events.
+   * @throws IllegalArgumentException
+   *           if the offset is negative or the page size is not positive.
+   */
+  ReplayEventPage<EK, E> getReplayEvents(ReplayEventFilter<EK> filter, int offset, int pageSize);
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.eventdispatcher;
+
+import java.util.NavigableSet;
+
+/**
+ * A range of event keys based on their natural ordering. A range can be passed to
+ * {@link ReplayEventQuery#getReplayEventRange(ReplayKeyRange, Object, int)} that reads the keys
+ * from an ordered index, or to any function that accepts a {@link ReplayEventFilter}. Instances
+ * are created via {@link ReplayEventFilters#range(Comparable, Comparable)} and
+ * {@link ReplayEventFilters#prefix(String)}.
+ *
+ * @param <EK>
+ *          The type of the event keys. The keys must implement {@link Comparable}.
+ */
+public final class ReplayKeyRange<EK> implements ReplayEventFilter<EK> {
+
+  @SuppressWarnings("unchecked")
+  private static int compare(final Object key1, final Object key2) {
+    return ((Comparable<Object>) key1).compareTo(key2);
+  }
+
+  /**
+   * The lowest key of the range (inclusive) or null if the range has no lower bound.
+   */
+  private final EK fromKey;
+
+  /**
+   * The key above the range (exclusive) or null if the range has no upper bound.
+   */
+  private final EK toKey;
+
+  ReplayKeyRange(final EK fromKey, final EK toKey) {
+    this.fromKey = fromKey;
+    this.toKey = toKey;
+  }
+
+  @Override
+  public boolean accept(final EK eventKey) {
+    return (this.fromKey == null || compare(this.fromKey, eventKey) <= 0)
+        && (this.toKey == null || compare(this.toKey, eventKey) > 0);
+  }
+
+  public EK getFromKey() {
+    return this.fromKey;
+  }
+
+  public EK getToKey() {
+    return this.toKey;
+  }
+
+  /**
+   * Selecting the keys of the range from an ordered set.
+   *
+   * @param keys
+   *          The keys in their natural order.
+   * @param afterKey
+   *          The key after which the selection starts or null if it starts at the beginning of
+   *          the range.
+   * @return A view of the keys that are in the range and after the passed key.
+   */
+  NavigableSet<EK> select(final NavigableSet<EK> keys, final EK afterKey) {
+    EK lowerKey = this.fromKey;
+    boolean lowerInclusive = true;
+    if (afterKey != null && (lowerKey == null || compare(afterKey, lowerKey) >= 0)) {
+      lowerKey = afterKey;
+      lowerInclusive = false;
+    }
+    if (lowerKey != null && this.toKey != null && compare(lowerKey, this.toKey) >= 0) {
+      return keys.subSet(lowerKey, true, lowerKey, false);
+    }
+    NavigableSet<EK> result = keys;
+    if (lowerKey != null) {
+      result = result.tailSet(lowerKey, lowerInclusive);
+    }
+    if (this.toKey != null) {
+      result = result.headSet(this.toKey, false);
+    }
+    return result;
+  }
+}
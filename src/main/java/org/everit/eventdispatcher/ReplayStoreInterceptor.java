@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.eventdispatcher;
+
+/**
+ * Interceptor that is notified before the events that should be replayed are modified. The
+ * functions are called while the replay queue is locked for writing, so they see the modifications
+ * in the same order as the replay queue and they must return quickly without calling the event
+ * dispatcher.
+ *
+ * @param <EK>
+ *          The type of the event keys.
+ * @param <E>
+ *          The type of the events.
+ * @see EventDispatcherImpl#setReplayStoreInterceptor(ReplayStoreInterceptor)
+ */
+public interface ReplayStoreInterceptor<EK, E> {
+
+  /**
+   * Called before an event is stored in the replay queue by {@link EventDispatcher#dispatchEvent}.
+   *
+   * @param eventKey
+   *          The key of the event.
+   * @param event
+   *          The event in its original format.
+   * @return True if the event should be stored and dispatched, false if the dispatching should be
+   *         cancelled.
+   */
+  boolean beforePut(EK eventKey, E event);
+
+  /**
+   * Called before an event is removed from the replay queue by
+   * {@link EventDispatcher#dispatchAndRemoveEvent(Object)} or
+   * {@link EventDispatcher#removeEvent(Object)}. The function is called even if there is no event
+   * with the key in the replay queue.
+   *
+   * @param eventKey
+   *          The key of the event.
+   * @return True if the event should be removed (and dispatched in case of
+   *         {@link EventDispatcher#dispatchAndRemoveEvent(Object)}), false if the call should be
+   *         cancelled.
+   */
+  boolean beforeRemove(EK eventKey);
+
+  /**
+   * Called after the dispatcher removed an event from the replay queue by itself, because the
+   * dispatcher exceeded its share of the replay event budget of its {@link DispatcherRuntime}. The
+   * removal cannot be cancelled and it concerns only the local replay queue.
+   *
+   * @param eventKey
+   *          The key of the removed event.
+   */
+  void afterEvict(EK eventKey);
+
+  /**
+   * Called after the dispatcher removed an event from the replay queue by itself, because the time
+   * to live of the event expired. The removal cannot be cancelled. Unlike an eviction, the
+   * expiration belongs to the event, so it concerns every copy of the event.
+   *
+   * @param eventKey
+   *          The key of the expired event.
+   */
+  void afterExpire(EK eventKey);
+}
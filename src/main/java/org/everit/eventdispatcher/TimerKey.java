@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.eventdispatcher;
+
+import java.util.concurrent.TimeUnit;
+
+import org.everit.eventdispatcher.internal.HashedTimerWheel;
+import org.everit.eventdispatcher.internal.HashedTimerWheel.Timer;
+
+/**
+ * Key of a timer in a wheel that is shared by the different timers of a dispatcher and by the
+ * dispatchers of a {@link DispatcherRuntime}. The key identifies the timer by the dispatcher that
+ * owns it, the type of the key and the timed object, and it handles the expiration of the timer.
+ * The exceptions of the expiration are passed to the {@link ExceptionHandler} of the dispatcher.
+ */
+abstract class TimerKey {
+
+  /**
+   * The number of buckets of the timer wheels.
+   */
+  private static final int TIMER_BUCKET_COUNT = 512;
+
+  /**
+   * The resolution of the timer wheels in milliseconds.
+   */
+  private static final long TIMER_TICK_MILLIS = 10;
+
+  /**
+   * Creating a timer wheel that passes the expired timers to their keys. The thread of the wheel
+   * is started with the first timer.
+   *
+   * @param threadName
+   *          The name of the thread of the wheel.
+   * @return The timer wheel.
+   */
+  static HashedTimerWheel<TimerKey, Object> createTimerWheel(final String threadName) {
+    return new HashedTimerWheel<>(TIMER_TICK_MILLIS, TimeUnit.MILLISECONDS, TIMER_BUCKET_COUNT,
+        threadName, new HashedTimerWheel.Handler<TimerKey, Object>() {
+
+          @Override
+          public void timerExpired(final Timer<TimerKey, Object> timer) {
+            timer.getKey().timerExpired(timer);
+          }
+
+          @Override
+          public void timerFailed(final Timer<TimerKey, Object> timer,
+              final RuntimeException e) {
+            timer.getKey().getOwner().handleTaskException(e);
+          }
+        });
+  }
+
+  private final Object key;
+
+  private final EventDispatcherImpl<?, ?, ?, ?> owner;
+
+  TimerKey(final EventDispatcherImpl<?, ?, ?, ?> owner, final Object key) {
+    this.owner = owner;
+    this.key = key;
+  }
+
+  @Override
+  public boolean equals(final Object obj) {
+    if (this == obj) {
+      return true;
+    }
+    if (obj == null || obj.getClass() != getClass()) {
+      return false;
+    }
+    TimerKey other = (TimerKey) obj;
+    return this.owner == other.owner && this.key.equals(other.key);
+  }
+
+  EventDispatcherImpl<?, ?, ?, ?> getOwner() {
+    return this.owner;
+  }
+
+  @Override
+  public int hashCode() {
+    return (31 * System.identityHashCode(this.owner) + getClass().hashCode()) * 31
+        + this.key.hashCode();
+  }
+
+  /**
+   * Handling the expiration of the timer in the thread of the wheel.
+   *
+   * @param timer
+   *          The expired timer.
+   */
+  abstract void timerExpired(Timer<TimerKey, Object> timer);
+}
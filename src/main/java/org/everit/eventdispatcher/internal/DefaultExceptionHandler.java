@@ -36,9 +36,12 @@ public class DefaultExceptionHandler<LK, E> implements ExceptionHandler<LK, E> {
   public void handleException(final LK listenerKey, final E event, final Throwable e) {
     StringWriter stringWriter = new StringWriter();
     PrintWriter printWriter = new PrintWriter(stringWriter);
-    stringWriter.write(
-        "Exception during calling listener: [listener key='" + listenerKey.toString() + "', event='"
-            + event.toString() + "']\n");
+    if (listenerKey == null) {
+      stringWriter.write("Exception during running a task of the dispatcher\n");
+    } else {
+      stringWriter.write("Exception during calling listener: [listener key='"
+          + listenerKey.toString() + "', event='" + String.valueOf(event) + "']\n");
+    }
     e.printStackTrace(printWriter);
     System.err.println(stringWriter.toString());
   }
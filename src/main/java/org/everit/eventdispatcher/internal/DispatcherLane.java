@@ -0,0 +1,177 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.eventdispatcher.internal;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The queue of the tasks of one dispatcher in an executor that is shared by many dispatchers. The
+ * lane is submitted to the shared executor as a single task while it has queued tasks. It runs at
+ * most a quantum of its tasks and then submits itself again, so a dispatcher that produces many
+ * tasks cannot starve the others if the shared executor processes its submissions in FIFO order,
+ * like a {@link FifoExecutor}. If the shared executor rejects the lane, the lane rejects every
+ * task afterwards and the tasks that it already accepted are run by the thread that noticed the
+ * rejection. The exceptions of the tasks are passed to the exception handler of the dispatcher.
+ */
+public class DispatcherLane implements Executor {
+
+  private final AtomicLong executedTaskCount = new AtomicLong();
+
+  /**
+   * The invoker whose exception handler receives the exceptions of the tasks.
+   */
+  private final ListenerInvoker<?, ?, ?> listenerInvoker;
+
+  private final int quantum;
+
+  private final AtomicInteger queuedTaskCount = new AtomicInteger();
+
+  /**
+   * Flag that shows if the shared executor rejected the lane.
+   */
+  private volatile boolean rejected = false;
+
+  private final Executor sharedExecutor;
+
+  private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+
+  /**
+   * The task that runs the next quantum of the lane in the shared executor.
+   */
+  private final Runnable turn = new Runnable() {
+
+    @Override
+    public void run() {
+      runTurn();
+    }
+  };
+
+  /**
+   * Constructor.
+   *
+   * @param sharedExecutor
+   *          The executor that is shared by the lanes.
+   * @param quantum
+   *          The maximum number of tasks that are run in a turn of the lane.
+   * @param listenerInvoker
+   *          The invoker whose exception handler receives the exceptions of the tasks with a null
+   *          listener key and event.
+   */
+  public DispatcherLane(final Executor sharedExecutor, final int quantum,
+      final ListenerInvoker<?, ?, ?> listenerInvoker) {
+    this.sharedExecutor = sharedExecutor;
+    this.quantum = quantum;
+    this.listenerInvoker = listenerInvoker;
+  }
+
+  /**
+   * Queueing a task in the lane.
+   *
+   * @throws RejectedExecutionException
+   *           if the shared executor rejected the lane. The task is not run by the lane then, so
+   *           the caller can run it.
+   */
+  @Override
+  public void execute(final Runnable task) {
+    if (this.rejected) {
+      throw new RejectedExecutionException("The shared executor of the lane is shut down");
+    }
+    this.tasks.add(task);
+    if (this.queuedTaskCount.getAndIncrement() == 0) {
+      try {
+        this.sharedExecutor.execute(this.turn);
+        return;
+      } catch (RejectedExecutionException e) {
+        this.rejected = true;
+      }
+    }
+    if (this.rejected) {
+      // The other threads that queued a task meanwhile might rely on the turn that was rejected,
+      // so their tasks are run here.
+      boolean taskRemoved = this.tasks.remove(task);
+      if (taskRemoved) {
+        this.queuedTaskCount.decrementAndGet();
+      }
+      runRemainingTasks();
+      if (taskRemoved) {
+        throw new RejectedExecutionException("The shared executor of the lane is shut down");
+      }
+    }
+  }
+
+  /**
+   * The number of tasks that were run by the lane.
+   *
+   * @return The number of executed tasks.
+   */
+  public long getExecutedTaskCount() {
+    return this.executedTaskCount.get();
+  }
+
+  /**
+   * The number of tasks that wait in the lane or are being run.
+   *
+   * @return The number of queued tasks.
+   */
+  public int getQueuedTaskCount() {
+    return this.queuedTaskCount.get();
+  }
+
+  private void runRemainingTasks() {
+    Runnable task = this.tasks.poll();
+    while (task != null) {
+      runTask(task);
+      this.queuedTaskCount.decrementAndGet();
+      task = this.tasks.poll();
+    }
+  }
+
+  private void runTask(final Runnable task) {
+    try {
+      task.run();
+    } catch (RuntimeException e) {
+      this.listenerInvoker.handleException(null, null, e);
+    } finally {
+      this.executedTaskCount.incrementAndGet();
+    }
+  }
+
+  private void runTurn() {
+    for (int i = 0; i < this.quantum; i++) {
+      Runnable task = this.tasks.poll();
+      if (task == null) {
+        // The tasks were taken by a thread that noticed the rejection of the lane.
+        return;
+      }
+      runTask(task);
+      if (this.queuedTaskCount.decrementAndGet() == 0) {
+        return;
+      }
+    }
+    // Going behind the other lanes that wait for their turn.
+    try {
+      this.sharedExecutor.execute(this.turn);
+    } catch (RejectedExecutionException e) {
+      this.rejected = true;
+      runRemainingTasks();
+    }
+  }
+}
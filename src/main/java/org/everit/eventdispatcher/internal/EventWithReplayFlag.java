@@ -15,9 +15,11 @@
  */
 package org.everit.eventdispatcher.internal;
 
+import org.everit.eventdispatcher.EventUtil;
+
 /**
  * Internal class that holds an event object and the flag that shows if the event is already
- * converted to replay format.
+ * converted to replay format. The event object can be built on demand via a {@link LazyEvent}.
  *
  * @param <E>
  *          The type of the event.
@@ -30,28 +32,67 @@ public class EventWithReplayFlag<E> {
   private E event;
 
   /**
-   * A flag that shows if the event is converted to replay format.
+   * The event that is built on demand or null if the event object was passed directly. It is
+   * released when the event is converted to replay format, so the supplier and the original event
+   * can be garbage collected.
+   */
+  private LazyEvent<E> lazyEvent;
+
+  /**
+   * A flag that shows if the event is converted to replay format. The flag is written after the
+   * event so readers that see the flag set can read the event without locking.
    */
-  private boolean replay = false;
+  private volatile boolean replay = false;
 
   public EventWithReplayFlag(final E event) {
     this.event = event;
+    this.lazyEvent = null;
   }
 
-  public E getEvent() {
-    return this.event;
+  public EventWithReplayFlag(final LazyEvent<E> lazyEvent) {
+    this.lazyEvent = lazyEvent;
   }
 
-  public boolean isReplay() {
-    return this.replay;
+  /**
+   * Getting the event object. An event that is built on demand is returned in its original format
+   * until it is converted to replay format.
+   *
+   * @return The event object.
+   */
+  public E getEvent() {
+    if (this.replay) {
+      return this.event;
+    }
+    synchronized (this) {
+      return (this.lazyEvent != null) ? this.lazyEvent.get() : this.event;
+    }
   }
 
-  public void setEvent(final E event) {
-    this.event = event;
+  /**
+   * Getting the replay format of the event. The event is converted only once, even if the function
+   * is called by several threads that hold the read lock of the replay queue.
+   *
+   * @param eventUtil
+   *          The util that converts the original event to replay format.
+   * @return The replay format of the event.
+   */
+  public E getReplayEvent(final EventUtil<E, ?, ?> eventUtil) {
+    if (this.replay) {
+      return this.event;
+    }
+    synchronized (this) {
+      if (!this.replay) {
+        E originalEvent = (this.lazyEvent != null) ? this.lazyEvent.get() : this.event;
+        this.event = eventUtil.createReplayEvent(originalEvent);
+        this.lazyEvent = null;
+        this.replay = true;
+      }
+      return this.event;
+    }
   }
 
-  public void setReplay(final boolean replay) {
-    this.replay = replay;
+  public boolean isReplay() {
+    return this.replay;
   }
 
 }
@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.eventdispatcher.internal;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Runs its tasks in the threads of another executor in the order of their submission. Every
+ * submission passes the same runner to the other executor and the runner takes the oldest task, so
+ * the order does not depend on the queue that the runner gets into. A
+ * {@link java.util.concurrent.ForkJoinPool} puts the tasks that its own workers submit into the
+ * local queue of the worker, which is processed before the other submissions. The order has a
+ * price: every task goes through the same queue, so the tasks are not balanced by the work
+ * stealing of a {@link java.util.concurrent.ForkJoinPool} and all submitting and running threads
+ * contend on one queue.
+ */
+public class FifoExecutor implements Executor {
+
+  private final Executor executor;
+
+  /**
+   * Runs the oldest task. Each runner in the other executor belongs to a task in the queue, but it
+   * might find the queue empty if the submission of its task was rejected.
+   */
+  private final Runnable runner = new Runnable() {
+
+    @Override
+    public void run() {
+      Runnable task = FifoExecutor.this.tasks.poll();
+      if (task != null) {
+        task.run();
+      }
+    }
+  };
+
+  private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+
+  /**
+   * Constructor.
+   *
+   * @param executor
+   *          The executor whose threads run the tasks.
+   */
+  public FifoExecutor(final Executor executor) {
+    this.executor = executor;
+  }
+
+  /**
+   * Queueing a task.
+   *
+   * @throws RejectedExecutionException
+   *           if the other executor rejected the runner of the task. The task is not run then.
+   */
+  @Override
+  public void execute(final Runnable task) {
+    this.tasks.add(task);
+    try {
+      this.executor.execute(this.runner);
+    } catch (RejectedExecutionException e) {
+      if (this.tasks.remove(task)) {
+        throw e;
+      }
+      // A runner of an older task took this one, so the older task is run by the current thread.
+      this.runner.run();
+    }
+  }
+}
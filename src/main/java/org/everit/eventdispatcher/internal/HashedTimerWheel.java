@@ -0,0 +1,457 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.eventdispatcher.internal;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hashed timer wheel that holds at most one timer per key. Scheduling, rescheduling and cancelling
+ * a timer are O(1): the timers are kept in doubly linked lists of the buckets of the wheel and in
+ * a map by their keys. Timers that are due later than one turn of the wheel carry the number of
+ * remaining turns. The wheel is advanced by a daemon thread that is started with the first timer
+ * and calls the {@link Handler} of the expired timers without holding the lock of the wheel. The
+ * thread sleeps until the first tick that has an expiring timer, at most one turn of the wheel,
+ * and it exits when no timer is scheduled, so an idle wheel does not wake up at every tick. The
+ * next timer starts the thread again.
+ *
+ * @param <K>
+ *          The type of the keys of the timers.
+ * @param <V>
+ *          The type of the values that are passed to the handler when the timer expires.
+ */
+public class HashedTimerWheel<K, V> {
+
+  /**
+   * Called by the thread of the wheel when a timer expires.
+   *
+   * @param <K>
+   *          The type of the keys of the timers.
+   * @param <V>
+   *          The type of the values of the timers.
+   */
+  public interface Handler<K, V> {
+
+    /**
+     * Handling an expired timer. The handler should call {@link HashedTimerWheel#complete(Timer)}
+     * under the same lock that is held while the timers of the key are scheduled and removed, to
+     * ignore the expirations that were overtaken by a removal or a new timer.
+     *
+     * @param timer
+     *          The expired timer.
+     */
+    void timerExpired(Timer<K, V> timer);
+
+    /**
+     * Handling the exception that {@link #timerExpired(Timer)} threw. The thread of the wheel
+     * continues with the next expired timer afterwards.
+     *
+     * @param timer
+     *          The expired timer.
+     * @param e
+     *          The exception.
+     */
+    void timerFailed(Timer<K, V> timer, RuntimeException e);
+  }
+
+  /**
+   * Selects the timers that are removed by {@link HashedTimerWheel#removeAll(KeyFilter)}.
+   *
+   * @param <K>
+   *          The type of the keys of the timers.
+   */
+  public interface KeyFilter<K> {
+
+    /**
+     * Checking a key.
+     *
+     * @param key
+     *          The key of a timer.
+     * @return True if the timer of the key should be removed.
+     */
+    boolean accept(K key);
+  }
+
+  /**
+   * A timer of the wheel.
+   *
+   * @param <K>
+   *          The type of the key of the timer.
+   * @param <V>
+   *          The type of the value of the timer.
+   */
+  public static final class Timer<K, V> {
+
+    private int bucketIndex;
+
+    private long deadline;
+
+    private boolean expired = false;
+
+    private final K key;
+
+    private Timer<K, V> next;
+
+    private Timer<K, V> previous;
+
+    private long remainingRounds;
+
+    private V value;
+
+    Timer(final K key) {
+      this.key = key;
+    }
+
+    public K getKey() {
+      return this.key;
+    }
+
+    public V getValue() {
+      return this.value;
+    }
+  }
+
+  private final Timer<K, V>[] buckets;
+
+  private final Handler<K, V> handler;
+
+  private final int mask;
+
+  /**
+   * The number of timers that are linked into the buckets.
+   */
+  private int scheduledCount = 0;
+
+  private final String threadName;
+
+  /**
+   * The start time of the wheel thread. Ticks are counted from this time.
+   */
+  private long startTime;
+
+  private boolean stopped = false;
+
+  private Thread thread;
+
+  /**
+   * The number of ticks that were processed.
+   */
+  private long tick = 0;
+
+  private final long tickNanos;
+
+  /**
+   * The tick until the thread of the wheel sleeps. A new timer that expires earlier wakes the
+   * thread up.
+   */
+  private long wakeTick = Long.MAX_VALUE;
+
+  /**
+   * The timers that are scheduled or expired but not completed yet by their keys.
+   */
+  private final Map<K, Timer<K, V>> timers = new HashMap<>();
+
+  /**
+   * Constructor.
+   *
+   * @param tickDuration
+   *          The resolution of the wheel.
+   * @param unit
+   *          The unit of the tick duration.
+   * @param bucketCount
+   *          The number of the buckets that is rounded up to the next power of two.
+   * @param threadName
+   *          The name of the thread that advances the wheel.
+   * @param handler
+   *          The handler of the expired timers.
+   */
+  public HashedTimerWheel(final long tickDuration, final TimeUnit unit, final int bucketCount,
+      final String threadName, final Handler<K, V> handler) {
+    if (tickDuration <= 0 || bucketCount <= 0) {
+      throw new IllegalArgumentException(
+          "Tick duration and bucket count must be positive: " + tickDuration + ", " + bucketCount);
+    }
+    int normalizedBucketCount = Integer.highestOneBit(bucketCount);
+    if (normalizedBucketCount < bucketCount) {
+      normalizedBucketCount <<= 1;
+    }
+    @SuppressWarnings("unchecked")
+    Timer<K, V>[] bucketArray = (Timer<K, V>[]) new Timer<?, ?>[normalizedBucketCount];
+    this.buckets = bucketArray;
+    this.mask = normalizedBucketCount - 1;
+    this.tickNanos = unit.toNanos(tickDuration);
+    this.threadName = threadName;
+    this.handler = handler;
+  }
+
+  /**
+   * Cancelling the timer of a key if it did not expire yet. A timer that expired already is left in
+   * place, so its handler can still complete it.
+   *
+   * @param key
+   *          The key of the timer.
+   * @return True if there was a timer of the key that did not expire yet.
+   */
+  public synchronized boolean cancel(final K key) {
+    Timer<K, V> timer = this.timers.get(key);
+    if (timer == null || timer.expired) {
+      return false;
+    }
+    this.timers.remove(key);
+    unlink(timer);
+    return true;
+  }
+
+  /**
+   * Completing an expired timer.
+   *
+   * @param timer
+   *          The timer that was passed to the handler.
+   * @return True if the timer is still the current timer of its key, false if it was cancelled or
+   *         a new timer was scheduled for the key after the expiration.
+   */
+  public synchronized boolean complete(final Timer<K, V> timer) {
+    if (this.timers.get(timer.key) != timer) {
+      return false;
+    }
+    this.timers.remove(timer.key);
+    return true;
+  }
+
+  private long currentTick() {
+    return (System.nanoTime() - this.startTime) / this.tickNanos;
+  }
+
+  /**
+   * Finding the first tick that has a timer to expire within the next turn of the wheel.
+   *
+   * @return The tick or the tick one turn later if no timer expires in the next turn.
+   */
+  private long findNextExpirationTick() {
+    for (long nextTick = this.tick + 1; nextTick <= this.tick + this.buckets.length; nextTick++) {
+      Timer<K, V> timer = this.buckets[(int) (nextTick & this.mask)];
+      while (timer != null) {
+        if (timer.remainingRounds <= 0) {
+          return nextTick;
+        }
+        timer = timer.next;
+      }
+    }
+    return this.tick + this.buckets.length;
+  }
+
+  private void expireBucket(final long bucketIndex, final List<Timer<K, V>> expiredTimers) {
+    Timer<K, V> timer = this.buckets[(int) bucketIndex];
+    while (timer != null) {
+      Timer<K, V> next = timer.next;
+      if (timer.remainingRounds <= 0) {
+        unlink(timer);
+        timer.expired = true;
+        expiredTimers.add(timer);
+      } else {
+        timer.remainingRounds--;
+      }
+      timer = next;
+    }
+  }
+
+  /**
+   * Linking a timer into the bucket of its deadline.
+   *
+   * @return The tick when the timer expires.
+   */
+  private long link(final Timer<K, V> timer) {
+    // The bucket of the current tick was already processed, so the earliest tick is the next one.
+    long expirationTick = Math.max((timer.deadline - this.startTime + this.tickNanos - 1)
+        / this.tickNanos, this.tick + 1);
+    timer.remainingRounds = (expirationTick - this.tick - 1) / this.buckets.length;
+    timer.bucketIndex = (int) (expirationTick & this.mask);
+
+    Timer<K, V> head = this.buckets[timer.bucketIndex];
+    timer.previous = null;
+    timer.next = head;
+    if (head != null) {
+      head.previous = timer;
+    }
+    this.buckets[timer.bucketIndex] = timer;
+    this.scheduledCount++;
+    return expirationTick;
+  }
+
+  /**
+   * Removing the timer of a key, even if it expired already. The handler of an expired timer fails
+   * to complete it afterwards.
+   *
+   * @param key
+   *          The key of the timer.
+   */
+  public synchronized void remove(final K key) {
+    Timer<K, V> timer = this.timers.remove(key);
+    if (timer != null && !timer.expired) {
+      unlink(timer);
+    }
+  }
+
+  /**
+   * Removing the timers whose keys are accepted by a filter, even if they expired already.
+   *
+   * @param filter
+   *          The filter of the keys.
+   */
+  public synchronized void removeAll(final KeyFilter<K> filter) {
+    Iterator<Entry<K, Timer<K, V>>> iterator = this.timers.entrySet().iterator();
+    while (iterator.hasNext()) {
+      Timer<K, V> timer = iterator.next().getValue();
+      if (filter.accept(timer.key)) {
+        iterator.remove();
+        if (!timer.expired) {
+          unlink(timer);
+        }
+      }
+    }
+  }
+
+  private void run() {
+    List<Timer<K, V>> expiredTimers = new ArrayList<>();
+    while (true) {
+      synchronized (this) {
+        while (!this.stopped && this.scheduledCount > 0) {
+          long nextTick = findNextExpirationTick();
+          long waitNanos = nextTick * this.tickNanos - (System.nanoTime() - this.startTime);
+          if (waitNanos <= 0) {
+            break;
+          }
+          this.wakeTick = nextTick;
+          try {
+            TimeUnit.NANOSECONDS.timedWait(this, waitNanos);
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            this.thread = null;
+            return;
+          } finally {
+            this.wakeTick = Long.MAX_VALUE;
+          }
+        }
+        if (this.stopped || this.scheduledCount == 0) {
+          // The next timer starts a new thread.
+          this.thread = null;
+          return;
+        }
+        long currentTick = currentTick();
+        while (this.tick < currentTick) {
+          this.tick++;
+          expireBucket(this.tick & this.mask, expiredTimers);
+        }
+      }
+
+      for (Timer<K, V> timer : expiredTimers) {
+        try {
+          this.handler.timerExpired(timer);
+        } catch (RuntimeException e) {
+          this.handler.timerFailed(timer, e);
+        }
+      }
+      expiredTimers.clear();
+    }
+  }
+
+  /**
+   * Scheduling a timer for a key. If the key already has a timer that did not expire yet, the
+   * timer is moved to its new bucket and its value is replaced.
+   *
+   * @param key
+   *          The key of the timer.
+   * @param value
+   *          The value that is passed to the handler.
+   * @param delayNanos
+   *          The delay of the expiration in nanoseconds.
+   * @return False if the wheel is stopped and the timer was not scheduled.
+   */
+  public synchronized boolean schedule(final K key, final V value, final long delayNanos) {
+    if (this.stopped) {
+      return false;
+    }
+    if (this.thread == null) {
+      // No timer is linked when there is no thread, so the ticks can be counted from now on.
+      this.startTime = System.nanoTime();
+      this.tick = 0;
+      this.thread = new Thread(new Runnable() {
+
+        @Override
+        public void run() {
+          HashedTimerWheel.this.run();
+        }
+      }, this.threadName);
+      this.thread.setDaemon(true);
+      this.thread.start();
+    }
+
+    Timer<K, V> timer = this.timers.get(key);
+    if (timer == null || timer.expired) {
+      timer = new Timer<>(key);
+      this.timers.put(key, timer);
+    } else {
+      unlink(timer);
+    }
+    timer.value = value;
+    timer.deadline = System.nanoTime() + Math.max(delayNanos, 0);
+    if (link(timer) < this.wakeTick) {
+      notifyAll();
+    }
+    return true;
+  }
+
+  /**
+   * The number of timers that did not expire yet or were not completed after their expiration.
+   *
+   * @return The number of timers.
+   */
+  public synchronized int size() {
+    return this.timers.size();
+  }
+
+  /**
+   * Stopping the thread of the wheel and dropping all timers.
+   */
+  public synchronized void stop() {
+    this.stopped = true;
+    this.timers.clear();
+    for (int i = 0; i < this.buckets.length; i++) {
+      this.buckets[i] = null;
+    }
+    this.scheduledCount = 0;
+    notifyAll();
+  }
+
+  private void unlink(final Timer<K, V> timer) {
+    if (timer.previous != null) {
+      timer.previous.next = timer.next;
+    } else {
+      this.buckets[timer.bucketIndex] = timer.next;
+    }
+    if (timer.next != null) {
+      timer.next.previous = timer.previous;
+    }
+    timer.previous = null;
+    timer.next = null;
+    this.scheduledCount--;
+  }
+}
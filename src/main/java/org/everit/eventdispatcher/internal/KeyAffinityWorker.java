@@ -0,0 +1,482 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.eventdispatcher.internal;
+
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.everit.eventdispatcher.HotKeyHandler;
+
+/**
+ * Worker of a key affinity dispatcher. The worker processes its queue in its own thread or in a
+ * lane of a shared executor, and it is the only one that accesses its replay store and listener
+ * list, so none of them needs locking. In a lane every queued task is processed by a step that is
+ * passed to the lane, and the steps are run one after the other.
+ *
+ * @param <E>
+ *          The type of the events.
+ * @param <EK>
+ *          The type of the event keys.
+ * @param <L>
+ *          The type of the listeners.
+ * @param <LK>
+ *          The type of the listener keys.
+ */
+public class KeyAffinityWorker<E, EK, L, LK> implements Runnable {
+
+  /**
+   * Flag that shows if an overload of this worker was already reported to the
+   * {@link #hotKeyHandler}.
+   */
+  private final AtomicBoolean hotKeyDetected = new AtomicBoolean(false);
+
+  /**
+   * The handler that is notified about overloads or null if overloads should not be detected.
+   */
+  private final HotKeyHandler<EK> hotKeyHandler;
+
+  /**
+   * The number of queued tasks above which the worker is considered overloaded.
+   */
+  private final int hotKeyThreshold;
+
+  private final int index;
+
+  /**
+   * The lane of the worker in a shared executor or null if the worker runs in its own thread.
+   */
+  private final Executor lane;
+
+  private final ListenerInvoker<E, L, LK> listenerInvoker;
+
+  /**
+   * The listeners of this worker in registration order. Accessed by the worker thread only.
+   */
+  private final List<Entry<LK, ListenerData<L>>> listeners = new ArrayList<>();
+
+  private final LinkedBlockingDeque<Runnable> queue = new LinkedBlockingDeque<>();
+
+  /**
+   * The number of events per key that are queued or being processed. Maintained only if hot keys
+   * are detected, so the overload can be attributed to the key that has the most events instead of
+   * the key whose event exceeded the threshold. Guarded by the queue.
+   */
+  private final Map<EK, int[]> queuedEventsOfKeys = new HashMap<>();
+
+  /**
+   * The thread that processes the tasks of the worker or null if no task is being processed in a
+   * lane.
+   */
+  private volatile Thread processingThread;
+
+  /**
+   * The number of tasks that are queued or being processed.
+   */
+  private final AtomicInteger queuedTasks = new AtomicInteger();
+
+  /**
+   * The events of the keys that are pinned to this worker. Accessed by the worker thread only.
+   */
+  private final ReplayStore<EK, E> replayStore;
+
+  /**
+   * Processes the oldest task of the queue in the lane. The monitor of the step is held while the
+   * task is processed, as the steps are run by the threads that queue them after the shared
+   * executor rejected the lane.
+   */
+  private final Runnable step = new Runnable() {
+
+    @Override
+    public void run() {
+      processStep();
+    }
+  };
+
+  /**
+   * Flag that shows if the worker does not accept tasks anymore. Guarded by the queue.
+   */
+  private boolean stopped = false;
+
+  /**
+   * Counted down when the worker processed its stopping task.
+   */
+  private final CountDownLatch stoppedLatch = new CountDownLatch(1);
+
+  /**
+   * Flag that shows if the worker processed its stopping task. Accessed by the worker thread only.
+   */
+  private boolean stopping = false;
+
+  /**
+   * Constructor.
+   *
+   * @param index
+   *          The index of the worker.
+   * @param replayStore
+   *          The store of the events of the keys that are pinned to this worker.
+   * @param listenerInvoker
+   *          The invoker of the listeners.
+   * @param hotKeyThreshold
+   *          The number of queued tasks above which the worker is considered overloaded.
+   * @param hotKeyHandler
+   *          The handler that is notified about overloads or null if overloads should not be
+   *          detected.
+   * @param lane
+   *          The lane of the worker in a shared executor or null if the worker is run by its own
+   *          thread via {@link #run()}.
+   */
+  public KeyAffinityWorker(final int index, final ReplayStore<EK, E> replayStore,
+      final ListenerInvoker<E, L, LK> listenerInvoker, final int hotKeyThreshold,
+      final HotKeyHandler<EK> hotKeyHandler, final Executor lane) {
+    this.index = index;
+    this.lane = lane;
+    this.replayStore = replayStore;
+    this.listenerInvoker = listenerInvoker;
+    this.hotKeyThreshold = hotKeyThreshold;
+    this.hotKeyHandler = hotKeyHandler;
+  }
+
+  /**
+   * Waiting until the worker processed the tasks that were queued before it was stopped.
+   *
+   * @param timeoutNanos
+   *          The maximum time to wait in nanoseconds.
+   * @return True if the worker processed its stopping task.
+   * @throws InterruptedException
+   *           if the current thread is interrupted while waiting.
+   */
+  public boolean awaitStopped(final long timeoutNanos) throws InterruptedException {
+    return this.stoppedLatch.await(timeoutNanos, TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * Queueing the dispatching of an event.
+   *
+   * @param eventKey
+   *          The key of the event.
+   * @param event
+   *          The event.
+   * @param removeAfterDispatch
+   *          Whether the event should be removed from the replay store instead of being stored.
+   * @return False if the worker is stopped.
+   */
+  public boolean dispatch(final EK eventKey, final E event, final boolean removeAfterDispatch) {
+    Runnable task = new Runnable() {
+
+      @Override
+      public void run() {
+        try {
+          dispatchInWorker(event, removeAfterDispatch);
+        } finally {
+          eventProcessed(eventKey);
+        }
+      }
+    };
+
+    EK hotKey = null;
+    int queuedTaskCount;
+    synchronized (this.queue) {
+      if (this.stopped) {
+        return false;
+      }
+      queuedTaskCount = this.queuedTasks.incrementAndGet();
+      this.queue.add(task);
+      if (this.hotKeyHandler != null) {
+        int[] queuedEventsOfKey = this.queuedEventsOfKeys.get(eventKey);
+        if (queuedEventsOfKey == null) {
+          queuedEventsOfKey = new int[1];
+          this.queuedEventsOfKeys.put(eventKey, queuedEventsOfKey);
+        }
+        queuedEventsOfKey[0]++;
+        if (queuedTaskCount > this.hotKeyThreshold
+            && this.hotKeyDetected.compareAndSet(false, true)) {
+          hotKey = getHottestKey();
+        }
+      }
+    }
+
+    scheduleStep();
+    if (hotKey != null) {
+      this.hotKeyHandler.hotKeyDetected(hotKey, this.index, queuedTaskCount);
+    }
+    return true;
+  }
+
+  private void dispatchInWorker(final E event, final boolean removeAfterDispatch) {
+    if (removeAfterDispatch) {
+      this.replayStore.removeByEvent(event);
+    } else {
+      this.replayStore.put(event);
+    }
+    for (Entry<LK, ListenerData<L>> listenerEntry : this.listeners) {
+      ListenerData<L> listenerData = listenerEntry.getValue();
+      if (listenerData.isActive()) {
+        this.listenerInvoker.invoke(listenerEntry.getKey(), listenerData.getListener(), event);
+      }
+    }
+  }
+
+  private boolean enqueue(final Runnable task) {
+    synchronized (this.queue) {
+      if (this.stopped) {
+        return false;
+      }
+      this.queuedTasks.incrementAndGet();
+      this.queue.add(task);
+    }
+    scheduleStep();
+    return true;
+  }
+
+  /**
+   * Decrementing the number of queued events of a key after its event was processed.
+   */
+  private void eventProcessed(final EK eventKey) {
+    if (this.hotKeyHandler == null) {
+      return;
+    }
+    synchronized (this.queue) {
+      int[] queuedEventsOfKey = this.queuedEventsOfKeys.get(eventKey);
+      if (--queuedEventsOfKey[0] == 0) {
+        this.queuedEventsOfKeys.remove(eventKey);
+      }
+    }
+  }
+
+  /**
+   * Returns the key that has the most queued events. Must be called with the monitor of the
+   * queue.
+   */
+  private EK getHottestKey() {
+    EK hottestKey = null;
+    int hottestKeyEvents = 0;
+    for (Entry<EK, int[]> entry : this.queuedEventsOfKeys.entrySet()) {
+      if (entry.getValue()[0] > hottestKeyEvents) {
+        hottestKey = entry.getKey();
+        hottestKeyEvents = entry.getValue()[0];
+      }
+    }
+    return hottestKey;
+  }
+
+  /**
+   * Checking if the current thread processes a task of the worker, e.g. a listener of the worker
+   * calls the dispatcher.
+   *
+   * @return True if the current thread processes a task of the worker.
+   */
+  public boolean isProcessingThread() {
+    return this.processingThread == Thread.currentThread();
+  }
+
+  private void processStep() {
+    synchronized (this.step) {
+      Runnable task = this.queue.poll();
+      if (task == null) {
+        return;
+      }
+      Thread previousProcessingThread = this.processingThread;
+      this.processingThread = Thread.currentThread();
+      try {
+        processTask(task);
+      } finally {
+        this.processingThread = previousProcessingThread;
+      }
+    }
+  }
+
+  private void processTask(final Runnable task) {
+    try {
+      task.run();
+    } finally {
+      int queuedTaskCount = this.queuedTasks.decrementAndGet();
+      if (this.hotKeyDetected.get() && queuedTaskCount < this.hotKeyThreshold / 2) {
+        this.hotKeyDetected.set(false);
+      }
+    }
+  }
+
+  /**
+   * Queueing the registration of a listener. The listener receives the replay events of this
+   * worker before it is added to the listeners of the worker.
+   *
+   * @param listenerKey
+   *          The key of the listener.
+   * @param listenerData
+   *          The listener.
+   * @param finishedLatch
+   *          The latch that is counted down when the replay events were passed to the listener.
+   * @return False if the worker is stopped.
+   */
+  public boolean register(final LK listenerKey, final ListenerData<L> listenerData,
+      final CountDownLatch finishedLatch) {
+    return enqueue(new Runnable() {
+
+      @Override
+      public void run() {
+        try {
+          registerInWorker(listenerKey, listenerData);
+        } finally {
+          finishedLatch.countDown();
+        }
+      }
+    });
+  }
+
+  private void registerInWorker(final LK listenerKey, final ListenerData<L> listenerData) {
+    for (E replayEvent : this.replayStore.getReplayEvents()) {
+      if (!listenerData.isActive()) {
+        return;
+      }
+      this.listenerInvoker.invoke(listenerKey, listenerData.getListener(), replayEvent);
+    }
+    this.listeners.add(new SimpleImmutableEntry<>(listenerKey, listenerData));
+  }
+
+  /**
+   * Queueing the removal of an event from the replay store.
+   *
+   * @param eventKey
+   *          The key of the event.
+   * @param result
+   *          The holder of the result that is set before the latch is counted down. The result is
+   *          true if the event was in the replay store.
+   * @param finishedLatch
+   *          The latch that is counted down when the event is removed.
+   * @return False if the worker is stopped.
+   */
+  public boolean removeEvent(final EK eventKey, final AtomicBoolean result,
+      final CountDownLatch finishedLatch) {
+    return enqueue(new Runnable() {
+
+      @Override
+      public void run() {
+        try {
+          result.set(KeyAffinityWorker.this.replayStore.removeByKey(eventKey));
+        } finally {
+          finishedLatch.countDown();
+        }
+      }
+    });
+  }
+
+  /**
+   * Processing the queue in the current thread until the worker is stopped. Used if the worker
+   * does not have a lane.
+   */
+  @Override
+  public void run() {
+    this.processingThread = Thread.currentThread();
+    while (true) {
+      Runnable task;
+      try {
+        task = this.queue.take();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return;
+      }
+      processTask(task);
+      if (this.stopping) {
+        return;
+      }
+    }
+  }
+
+  /**
+   * Passing a step to the lane for a task that was queued. If the shared executor rejects the
+   * lane, the step is run by the current thread.
+   */
+  private void scheduleStep() {
+    if (this.lane == null) {
+      return;
+    }
+    try {
+      this.lane.execute(this.step);
+    } catch (RejectedExecutionException e) {
+      processStep();
+    }
+  }
+
+  /**
+   * Stopping the worker. The worker does not accept new tasks, but it processes the tasks that
+   * were queued before, so the events that were accepted are still passed to the listeners.
+   * Afterwards the replay store is cleared and the worker thread exits, if the worker has its own
+   * thread.
+   */
+  public void stop() {
+    synchronized (this.queue) {
+      if (this.stopped) {
+        return;
+      }
+      this.stopped = true;
+      this.queuedTasks.incrementAndGet();
+      this.queue.add(new Runnable() {
+
+        @Override
+        public void run() {
+          KeyAffinityWorker.this.stopping = true;
+          KeyAffinityWorker.this.replayStore.clear();
+          KeyAffinityWorker.this.listeners.clear();
+          KeyAffinityWorker.this.stoppedLatch.countDown();
+        }
+      });
+    }
+    scheduleStep();
+  }
+
+  /**
+   * Queueing the removal of a listener from the listeners of this worker.
+   *
+   * @param listenerKey
+   *          The key of the listener.
+   * @param finishedLatch
+   *          The latch that is counted down when the listener is removed.
+   * @return False if the worker is stopped.
+   */
+  public boolean unregister(final LK listenerKey, final CountDownLatch finishedLatch) {
+    return enqueue(new Runnable() {
+
+      @Override
+      public void run() {
+        try {
+          Iterator<Entry<LK, ListenerData<L>>> iterator =
+              KeyAffinityWorker.this.listeners.iterator();
+          while (iterator.hasNext()) {
+            if (iterator.next().getKey().equals(listenerKey)) {
+              iterator.remove();
+              return;
+            }
+          }
+        } finally {
+          finishedLatch.countDown();
+        }
+      }
+    });
+  }
+
+}
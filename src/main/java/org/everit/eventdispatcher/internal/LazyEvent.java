@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.eventdispatcher.internal;
+
+import org.everit.eventdispatcher.EventSupplier;
+
+/**
+ * Internal class that builds an event with its supplier when it is needed the first time and
+ * remembers the result, so the live listeners and the replay store share the same event object.
+ *
+ * @param <E>
+ *          The type of the event.
+ */
+public class LazyEvent<E> {
+
+  /**
+   * The built event.
+   */
+  private E event;
+
+  /**
+   * The supplier of the event. It is released after the event is built.
+   */
+  private EventSupplier<E> eventSupplier;
+
+  /**
+   * A flag that shows if the event is built. The flag is written after the event so readers that
+   * see the flag set can read the event without locking.
+   */
+  private volatile boolean built = false;
+
+  public LazyEvent(final EventSupplier<E> eventSupplier) {
+    this.eventSupplier = eventSupplier;
+  }
+
+  /**
+   * Getting the event. The supplier is called only once, even if the function is called by
+   * several threads. If the supplier throws an exception, the next call tries again.
+   *
+   * @return The event.
+   * @throws NullPointerException
+   *           if the supplier returns null.
+   */
+  public E get() {
+    if (this.built) {
+      return this.event;
+    }
+    synchronized (this) {
+      if (!this.built) {
+        E suppliedEvent = this.eventSupplier.get();
+        if (suppliedEvent == null) {
+          throw new NullPointerException("Event supplier returned null");
+        }
+        this.event = suppliedEvent;
+        this.eventSupplier = null;
+        this.built = true;
+      }
+      return this.event;
+    }
+  }
+
+  public boolean isBuilt() {
+    return this.built;
+  }
+}
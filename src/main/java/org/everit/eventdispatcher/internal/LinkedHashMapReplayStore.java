@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.eventdispatcher.internal;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import org.everit.eventdispatcher.EventUtil;
+
+/**
+ * {@link ReplayStore} implementation for any kind of event keys that keeps the events in a
+ * {@link LinkedHashMap}.
+ *
+ * @param <EK>
+ *          The type of the event keys.
+ * @param <E>
+ *          The type of the events.
+ */
+public class LinkedHashMapReplayStore<EK, E> implements ReplayStore<EK, E> {
+
+  /**
+   * The util that provides the event keys and the replay format of the events.
+   */
+  private final EventUtil<E, EK, ?> eventUtil;
+
+  /**
+   * The events by their keys in replay order.
+   */
+  private LinkedHashMap<EK, EventWithReplayFlag<E>> eventsToReplay = new LinkedHashMap<>();
+
+  /**
+   * Constructor.
+   *
+   * @param eventUtil
+   *          The util that provides the event keys and the replay format of the events.
+   */
+  public LinkedHashMapReplayStore(final EventUtil<E, EK, ?> eventUtil) {
+    this.eventUtil = eventUtil;
+  }
+
+  @Override
+  public void clear() {
+    // A new map is created as clear() would keep the allocated hash table.
+    this.eventsToReplay = new LinkedHashMap<>();
+  }
+
+  @Override
+  public EK getFirstKey() {
+    if (this.eventsToReplay.isEmpty()) {
+      return null;
+    }
+    return this.eventsToReplay.keySet().iterator().next();
+  }
+
+  @Override
+  public E getReplayEvent(final EK eventKey) {
+    EventWithReplayFlag<E> eventWithReplayFlag = this.eventsToReplay.get(eventKey);
+    if (eventWithReplayFlag == null) {
+      return null;
+    }
+    return eventWithReplayFlag.getReplayEvent(this.eventUtil);
+  }
+
+  @Override
+  public List<E> getReplayEvents() {
+    List<E> result = new ArrayList<>(this.eventsToReplay.size());
+    for (EventWithReplayFlag<E> eventWithReplayFlag : this.eventsToReplay.values()) {
+      result.add(eventWithReplayFlag.getReplayEvent(this.eventUtil));
+    }
+    return result;
+  }
+
+  @Override
+  public void put(final E event) {
+    EK eventKey = this.eventUtil.getEventKey(event);
+    this.eventsToReplay.remove(eventKey);
+    this.eventsToReplay.put(eventKey, new EventWithReplayFlag<>(event));
+  }
+
+  @Override
+  public void putLazy(final EK eventKey, final LazyEvent<E> lazyEvent) {
+    this.eventsToReplay.remove(eventKey);
+    this.eventsToReplay.put(eventKey, new EventWithReplayFlag<>(lazyEvent));
+  }
+
+  @Override
+  public void removeByEvent(final E event) {
+    this.eventsToReplay.remove(this.eventUtil.getEventKey(event));
+  }
+
+  @Override
+  public boolean removeByKey(final EK eventKey) {
+    return this.eventsToReplay.remove(eventKey) != null;
+  }
+
+  @Override
+  public int size() {
+    return this.eventsToReplay.size();
+  }
+
+  @Override
+  public void visit(final ReplayStoreVisitor<EK, E> visitor) {
+    for (EK eventKey : this.eventsToReplay.keySet()) {
+      if (!visitor.visit(eventKey)) {
+        return;
+      }
+    }
+  }
+
+}
@@ -15,8 +15,13 @@
  */
 package org.everit.eventdispatcher.internal;
 
+import java.lang.ref.WeakReference;
+import java.util.LinkedHashSet;
+import java.util.Set;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
+import org.everit.eventdispatcher.ListenerGroup;
+
 /**
  * Each listener must have an own fair read-write locker assigned to be able to ensure event queuing
  * and thread safety. This is an internal helper class to be able to store the listeners with their
@@ -28,7 +33,25 @@ import java.util.concurrent.locks.ReentrantReadWriteLock;
 public class ListenerData<L> {
 
   /**
-   * The listener object.
+   * Flag that shows if the listener is still registered. The flag is checked before each call of
+   * the listener, so a listener that is removed does not receive the events that were dispatched
+   * before the removal but were not passed to it yet.
+   */
+  private volatile boolean active = true;
+
+  /**
+   * The batcher of the live events of the listener or null if the listener receives the events one
+   * by one.
+   */
+  private final MicroBatcher<?> batcher;
+
+  /**
+   * The group of the listener or null if the listener receives all events.
+   */
+  private final ListenerGroup group;
+
+  /**
+   * The listener object or null if the listener is referenced weakly.
    */
   private final L listener;
 
@@ -38,6 +61,22 @@ public class ListenerData<L> {
    */
   private final ReentrantReadWriteLock locker = new ReentrantReadWriteLock(true);
 
+  /**
+   * The keys of the live events that were not passed to the listener because of its rate limit
+   * since the last {@link #takeMissedEventKeys()}. Guarded by itself.
+   */
+  private final Set<Object> missedEventKeys = new LinkedHashSet<>();
+
+  /**
+   * The rate limit of the live events of the listener or null if the listener is not limited.
+   */
+  private volatile TokenBucket rateLimit;
+
+  /**
+   * The weak reference of the listener object or null if the listener is referenced strongly.
+   */
+  private final WeakReference<L> weakListener;
+
   /**
    * Constructor.
    *
@@ -45,10 +84,98 @@ public class ListenerData<L> {
    *          The listener object.
    */
   public ListenerData(final L listener) {
+    this(listener, (ListenerGroup) null);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param listener
+   *          The listener object.
+   * @param group
+   *          The group of the listener or null if the listener receives all events.
+   */
+  public ListenerData(final L listener, final ListenerGroup group) {
     this.listener = listener;
+    this.weakListener = null;
+    this.group = group;
+    this.batcher = null;
   }
 
+  /**
+   * Constructor of a listener that receives its events in batches.
+   *
+   * @param listener
+   *          The listener object.
+   * @param batcher
+   *          The batcher of the live events of the listener.
+   */
+  public ListenerData(final L listener, final MicroBatcher<?> batcher) {
+    this.listener = listener;
+    this.weakListener = null;
+    this.group = null;
+    this.batcher = batcher;
+  }
+
+  /**
+   * Constructor of a listener that can be garbage collected while it is registered.
+   *
+   * @param weakListener
+   *          The weak reference of the listener object.
+   */
+  public ListenerData(final WeakReference<L> weakListener) {
+    this.listener = null;
+    this.weakListener = weakListener;
+    this.group = null;
+    this.batcher = null;
+  }
+
+  /**
+   * Marks the listener as not registered, so it will not receive any more events.
+   */
+  public void deactivate() {
+    this.active = false;
+  }
+
+  /**
+   * Records the key of a live event that was not passed to the listener because of its rate
+   * limit.
+   *
+   * @param eventKey
+   *          The key of the event.
+   */
+  public void eventMissed(final Object eventKey) {
+    synchronized (this.missedEventKeys) {
+      this.missedEventKeys.add(eventKey);
+    }
+  }
+
+  /**
+   * Returns the batcher of the listener.
+   *
+   * @param <E>
+   *          The type of the events.
+   * @return The batcher or null if the listener receives the events one by one.
+   */
+  @SuppressWarnings("unchecked")
+  public <E> MicroBatcher<E> getBatcher() {
+    return (MicroBatcher<E>) this.batcher;
+  }
+
+  public ListenerGroup getGroup() {
+    return this.group;
+  }
+
+  /**
+   * Returns the listener object.
+   *
+   * @return The listener object or null if the listener is referenced weakly and it was garbage
+   *         collected.
+   */
   public L getListener() {
+    if (this.weakListener != null) {
+      return this.weakListener.get();
+    }
     return this.listener;
   }
 
@@ -56,4 +183,43 @@ public class ListenerData<L> {
     return this.locker;
   }
 
+  public WeakReference<L> getWeakListener() {
+    return this.weakListener;
+  }
+
+  public boolean isActive() {
+    return this.active;
+  }
+
+  public void setRateLimit(final TokenBucket rateLimit) {
+    this.rateLimit = rateLimit;
+  }
+
+  /**
+   * Returns and forgets the keys of the live events that were not passed to the listener because
+   * of its rate limit.
+   *
+   * @param <EK>
+   *          The type of the event keys.
+   * @return The keys in the order they were missed first.
+   */
+  @SuppressWarnings("unchecked")
+  public <EK> Set<EK> takeMissedEventKeys() {
+    synchronized (this.missedEventKeys) {
+      Set<EK> result = new LinkedHashSet<>((Set<EK>) (Set<?>) this.missedEventKeys);
+      this.missedEventKeys.clear();
+      return result;
+    }
+  }
+
+  /**
+   * Checks whether the rate limit of the listener allows passing a live event to the listener.
+   *
+   * @return True if the listener has no rate limit or the limit is not exceeded.
+   */
+  public boolean tryAcquirePermit() {
+    TokenBucket currentRateLimit = this.rateLimit;
+    return currentRateLimit == null || currentRateLimit.tryAcquire();
+  }
+
 }
@@ -0,0 +1,390 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.eventdispatcher.internal;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The dependencies that the listeners declared on other listeners by their keys. A dependency can
+ * reference a key that is not registered yet; it takes effect when the key is registered. The
+ * class does not do any locking.
+ *
+ * @param <LK>
+ *          The type of the listener keys.
+ */
+public class ListenerDependencyGraph<LK> {
+
+  /**
+   * Calls a listener of a dispatch.
+   */
+  public interface Delivery {
+
+    /**
+     * Calling the listener.
+     *
+     * @param index
+     *          The index of the listener in the list that was passed to
+     *          {@link ListenerDependencyGraph#createPlan(List)}.
+     */
+    void deliver(int index);
+  }
+
+  /**
+   * The order in which the listeners of a dispatch can be called.
+   */
+  public static final class Plan {
+
+    private final int[] dependencyCounts;
+
+    private final int[][] dependents;
+
+    Plan(final int[] dependencyCounts, final int[][] dependents) {
+      this.dependencyCounts = dependencyCounts;
+      this.dependents = dependents;
+    }
+
+    /**
+     * Calling the listeners in the order of their dependencies. The function returns when all
+     * listeners were called.
+     *
+     * @param delivery
+     *          The delivery that calls the listeners.
+     * @param executor
+     *          The executor that calls the independent listeners in parallel. If null, the
+     *          listeners are called one after the other in the current thread: a listener is
+     *          called after its dependencies, otherwise in the order of the listener list. If the
+     *          executor rejects a task, it is run in the current thread.
+     */
+    public void execute(final Delivery delivery, final Executor executor) {
+      if (executor == null) {
+        executeSequentially(delivery);
+      } else {
+        new ParallelExecution(this, delivery, executor).execute();
+      }
+    }
+
+    private void executeSequentially(final Delivery delivery) {
+      int[] pendingDependencyCounts = this.dependencyCounts.clone();
+      PriorityQueue<Integer> readyListeners = new PriorityQueue<>();
+      for (int i = 0; i < pendingDependencyCounts.length; i++) {
+        if (pendingDependencyCounts[i] == 0) {
+          readyListeners.add(i);
+        }
+      }
+      Integer index = readyListeners.poll();
+      while (index != null) {
+        delivery.deliver(index);
+        for (int dependent : this.dependents[index]) {
+          pendingDependencyCounts[dependent]--;
+          if (pendingDependencyCounts[dependent] == 0) {
+            readyListeners.add(dependent);
+          }
+        }
+        index = readyListeners.poll();
+      }
+    }
+  }
+
+  /**
+   * Calling the listeners of a plan in parallel. A listener is called by the thread that finished
+   * its last dependency, the further listeners that become ready at the same time are passed to the
+   * executor. The dispatching thread runs the submitted tasks that the executor did not start yet
+   * while it waits, so the dispatch finishes even if the threads of a shared executor are all busy
+   * with dispatches that wait the same way.
+   */
+  private static final class ParallelExecution {
+
+    /**
+     * Calls a chain of listeners once, either in the executor or in the dispatching thread,
+     * whichever claims it first.
+     */
+    private final class ChainTask extends AtomicBoolean implements Runnable {
+
+      private static final long serialVersionUID = 1L;
+
+      private final int index;
+
+      ChainTask(final int index) {
+        this.index = index;
+      }
+
+      @Override
+      public void run() {
+        if (compareAndSet(false, true)) {
+          runChain(this.index);
+        }
+      }
+    }
+
+    private final Delivery delivery;
+
+    private final Thread dispatchingThread;
+
+    private final Executor executor;
+
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+    private final Plan plan;
+
+    private final AtomicIntegerArray pendingDependencyCounts;
+
+    private final AtomicInteger remainingDeliveries;
+
+    private final Queue<ChainTask> submittedTasks = new ConcurrentLinkedQueue<>();
+
+    ParallelExecution(final Plan plan, final Delivery delivery, final Executor executor) {
+      this.plan = plan;
+      this.delivery = delivery;
+      this.executor = executor;
+      this.dispatchingThread = Thread.currentThread();
+      this.pendingDependencyCounts = new AtomicIntegerArray(plan.dependencyCounts);
+      this.remainingDeliveries = new AtomicInteger(plan.dependencyCounts.length);
+    }
+
+    void execute() {
+      int firstRoot = -1;
+      for (int i = 0; i < this.plan.dependencyCounts.length; i++) {
+        if (this.plan.dependencyCounts[i] == 0) {
+          if (firstRoot < 0) {
+            firstRoot = i;
+          } else {
+            submit(i);
+          }
+        }
+      }
+      if (firstRoot >= 0) {
+        runChain(firstRoot);
+      }
+
+      boolean interrupted = false;
+      while (this.remainingDeliveries.get() > 0) {
+        ChainTask task = this.submittedTasks.poll();
+        if (task != null) {
+          task.run();
+        } else {
+          LockSupport.park(this);
+          if (Thread.interrupted()) {
+            interrupted = true;
+          }
+        }
+      }
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+
+      Throwable throwable = this.failure.get();
+      if (throwable instanceof Error) {
+        throw (Error) throwable;
+      } else if (throwable != null) {
+        throw (RuntimeException) throwable;
+      }
+    }
+
+    private void runChain(final int index) {
+      int next = index;
+      while (next >= 0) {
+        int current = next;
+        next = -1;
+        try {
+          this.delivery.deliver(current);
+        } catch (RuntimeException | Error e) {
+          this.failure.compareAndSet(null, e);
+        }
+        for (int dependent : this.plan.dependents[current]) {
+          if (this.pendingDependencyCounts.decrementAndGet(dependent) == 0) {
+            if (next < 0) {
+              next = dependent;
+            } else {
+              submit(dependent);
+            }
+          }
+        }
+        if (this.remainingDeliveries.decrementAndGet() == 0) {
+          LockSupport.unpark(this.dispatchingThread);
+        }
+      }
+    }
+
+    private void submit(final int index) {
+      ChainTask task = new ChainTask(index);
+      this.submittedTasks.add(task);
+      LockSupport.unpark(this.dispatchingThread);
+      try {
+        this.executor.execute(task);
+      } catch (RejectedExecutionException e) {
+        task.run();
+      }
+    }
+  }
+
+  private static final int[] NO_DEPENDENTS = new int[0];
+
+  private final Map<LK, Set<LK>> dependencies = new HashMap<>();
+
+  /**
+   * Creating the plan of calling the listeners of a dispatch. Dependencies on listeners that are
+   * not part of the dispatch are ignored.
+   *
+   * @param listeners
+   *          The listeners of the dispatch by their keys.
+   * @param <T>
+   *          The type of the listener data.
+   * @return The plan with the same indexes as the passed list.
+   */
+  public <T> Plan createPlan(final List<Entry<LK, T>> listeners) {
+    int listenerCount = listeners.size();
+    Map<LK, Integer> indexes = new HashMap<>();
+    for (int i = 0; i < listenerCount; i++) {
+      indexes.put(listeners.get(i).getKey(), i);
+    }
+
+    int[] dependencyCounts = new int[listenerCount];
+    List<List<Integer>> dependentLists = new ArrayList<>(listenerCount);
+    for (int i = 0; i < listenerCount; i++) {
+      dependentLists.add(null);
+    }
+    for (int i = 0; i < listenerCount; i++) {
+      Set<LK> listenerDependencies = this.dependencies.get(listeners.get(i).getKey());
+      if (listenerDependencies == null) {
+        continue;
+      }
+      for (LK dependency : listenerDependencies) {
+        Integer dependencyIndex = indexes.get(dependency);
+        if (dependencyIndex != null) {
+          dependencyCounts[i]++;
+          List<Integer> dependentList = dependentLists.get(dependencyIndex);
+          if (dependentList == null) {
+            dependentList = new ArrayList<>();
+            dependentLists.set(dependencyIndex, dependentList);
+          }
+          dependentList.add(i);
+        }
+      }
+    }
+
+    int[][] dependents = new int[listenerCount][];
+    for (int i = 0; i < listenerCount; i++) {
+      List<Integer> dependentList = dependentLists.get(i);
+      if (dependentList == null) {
+        dependents[i] = NO_DEPENDENTS;
+      } else {
+        dependents[i] = new int[dependentList.size()];
+        for (int j = 0; j < dependents[i].length; j++) {
+          dependents[i][j] = dependentList.get(j);
+        }
+      }
+    }
+    return new Plan(dependencyCounts, dependents);
+  }
+
+  /**
+   * Searching for a cycle that the dependencies of a listener would form.
+   *
+   * @param listenerKey
+   *          The key of the listener.
+   * @param listenerDependencies
+   *          The keys of the listeners the listener depends on.
+   * @return The keys of the listeners in the cycle starting and ending with the passed key or null
+   *         if there is no cycle.
+   */
+  public List<LK> findCycle(final LK listenerKey, final Collection<LK> listenerDependencies) {
+    Map<LK, LK> dependentOf = new HashMap<>();
+    Set<LK> visited = new HashSet<>();
+    Deque<LK> stack = new ArrayDeque<>();
+    for (LK dependency : listenerDependencies) {
+      if (visited.add(dependency)) {
+        dependentOf.put(dependency, listenerKey);
+        stack.push(dependency);
+      }
+    }
+
+    while (!stack.isEmpty()) {
+      LK current = stack.pop();
+      if (current.equals(listenerKey)) {
+        List<LK> cycle = new ArrayList<>();
+        LK cycleMember = current;
+        do {
+          cycle.add(cycleMember);
+          cycleMember = dependentOf.get(cycleMember);
+        } while (!cycleMember.equals(listenerKey));
+        cycle.add(listenerKey);
+        Collections.reverse(cycle);
+        return cycle;
+      }
+      Set<LK> currentDependencies = this.dependencies.get(current);
+      if (currentDependencies != null) {
+        for (LK dependency : currentDependencies) {
+          if (visited.add(dependency)) {
+            dependentOf.put(dependency, current);
+            stack.push(dependency);
+          }
+        }
+      }
+    }
+    return null;
+  }
+
+  public boolean isEmpty() {
+    return this.dependencies.isEmpty();
+  }
+
+  /**
+   * Storing the dependencies of a listener. {@link #findCycle(Object, Collection)} must be called
+   * before.
+   *
+   * @param listenerKey
+   *          The key of the listener.
+   * @param listenerDependencies
+   *          The keys of the listeners the listener depends on.
+   */
+  public void put(final LK listenerKey, final Collection<LK> listenerDependencies) {
+    if (!listenerDependencies.isEmpty()) {
+      this.dependencies.put(listenerKey, new LinkedHashSet<>(listenerDependencies));
+    }
+  }
+
+  /**
+   * Removing the dependencies of a listener. The dependencies of other listeners on the listener
+   * are kept, so they take effect again if the key is registered again.
+   *
+   * @param listenerKey
+   *          The key of the listener.
+   */
+  public void remove(final LK listenerKey) {
+    this.dependencies.remove(listenerKey);
+  }
+}
@@ -0,0 +1,262 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.eventdispatcher.internal;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.everit.eventdispatcher.ListenerGroup;
+import org.everit.eventdispatcher.ListenerGroupRouting;
+
+/**
+ * The registered members of a {@link ListenerGroup} in registration order. Instances are modified
+ * with a write lock on the listener collection of the dispatcher and read with a read lock.
+ * <br>
+ * <br>
+ * {@link ListenerGroupRouting#EVENT_KEY} routing uses rendezvous hashing: every member gets a score
+ * for the key that is computed from the hash codes of the event key and the listener key, and the
+ * member with the highest score receives the event. If a member joins, only the keys for which the
+ * new member has the highest score move to it, and if a member leaves, only its own keys move to
+ * the members with the next highest score.
+ *
+ * @param <LK>
+ *          The type of the listener keys.
+ * @param <L>
+ *          The type of the listeners.
+ */
+public class ListenerGroupMembers<LK, L> {
+
+  /**
+   * The score of a member for an event key in rendezvous hashing.
+   */
+  private static long score(final int eventKeyHash, final int listenerKeyHash) {
+    long h = ((long) eventKeyHash << Integer.SIZE) ^ (listenerKeyHash & 0xFFFFFFFFL);
+    h ^= h >>> 33;
+    h *= 0xFF51AFD7ED558CCDL;
+    h ^= h >>> 33;
+    h *= 0xC4CEB9FE1A85EC53L;
+    h ^= h >>> 33;
+    return h;
+  }
+
+  private final ListenerGroup group;
+
+  /**
+   * The members of the group in registration order.
+   */
+  private final List<Entry<LK, ListenerData<L>>> members = new ArrayList<>();
+
+  /**
+   * Counter of the dispatched events for {@link ListenerGroupRouting#ROUND_ROBIN} routing.
+   */
+  private final AtomicInteger roundRobinCounter = new AtomicInteger();
+
+  public ListenerGroupMembers(final ListenerGroup group) {
+    this.group = group;
+  }
+
+  /**
+   * Adding a new member to the end of the group.
+   *
+   * @param member
+   *          The key and data of the new member.
+   * @return The index of the new member.
+   */
+  public int add(final Entry<LK, ListenerData<L>> member) {
+    this.members.add(member);
+    return this.members.size() - 1;
+  }
+
+  /**
+   * Collecting the keys of the replay events that belong to a member of the group. The events are
+   * not converted to replay format.
+   *
+   * @param replayStore
+   *          The store of the replay events.
+   * @param memberIndex
+   *          The index of the member.
+   * @param <EK>
+   *          The type of the event keys.
+   * @param <E>
+   *          The type of the events.
+   * @return The keys of the replay events of the member in replay order.
+   */
+  public <EK, E> List<EK> getReplayPartitionKeys(final ReplayStore<EK, E> replayStore,
+      final int memberIndex) {
+    final List<EK> result = new ArrayList<>();
+    final int memberCount = this.members.size();
+    replayStore.visit(new ReplayStoreVisitor<EK, E>() {
+
+      private int position = 0;
+
+      @Override
+      public boolean visit(final EK eventKey) {
+        int selectedIndex;
+        if (ListenerGroupMembers.this.group.getRouting() == ListenerGroupRouting.EVENT_KEY) {
+          selectedIndex = selectOwnerIndex(eventKey.hashCode(), -1);
+        } else {
+          selectedIndex = (this.position & Integer.MAX_VALUE) % memberCount;
+        }
+        this.position++;
+        if (selectedIndex == memberIndex) {
+          result.add(eventKey);
+        }
+        return true;
+      }
+    });
+    return result;
+  }
+
+  /**
+   * Collecting the keys of the replay events that move from a leaving member to the other members
+   * of a group with {@link ListenerGroupRouting#EVENT_KEY} routing. The events are not converted
+   * to replay format. Must be called before the leaving member is removed.
+   *
+   * @param replayStore
+   *          The store of the replay events.
+   * @param leavingKey
+   *          The key of the member that leaves the group.
+   * @param <EK>
+   *          The type of the event keys.
+   * @param <E>
+   *          The type of the events.
+   * @return The event keys in replay order by the members that take them over. Empty if the group
+   *         has other routing or the leaving member is the last one.
+   */
+  public <EK, E> Map<Entry<LK, ListenerData<L>>, List<EK>> getReassignedEventKeys(
+      final ReplayStore<EK, E> replayStore, final LK leavingKey) {
+    if (this.group.getRouting() != ListenerGroupRouting.EVENT_KEY || this.members.size() < 2) {
+      return Collections.emptyMap();
+    }
+    int leavingIndex = 0;
+    while (!this.members.get(leavingIndex).getKey().equals(leavingKey)) {
+      leavingIndex++;
+    }
+    final int leavingMemberIndex = leavingIndex;
+    final Map<Entry<LK, ListenerData<L>>, List<EK>> result = new LinkedHashMap<>();
+    replayStore.visit(new ReplayStoreVisitor<EK, E>() {
+
+      @Override
+      public boolean visit(final EK eventKey) {
+        int eventKeyHash = eventKey.hashCode();
+        if (selectOwnerIndex(eventKeyHash, -1) == leavingMemberIndex) {
+          Entry<LK, ListenerData<L>> newOwner =
+              ListenerGroupMembers.this.members.get(
+                  selectOwnerIndex(eventKeyHash, leavingMemberIndex));
+          List<EK> eventKeys = result.get(newOwner);
+          if (eventKeys == null) {
+            eventKeys = new ArrayList<>();
+            result.put(newOwner, eventKeys);
+          }
+          eventKeys.add(eventKey);
+        }
+        return true;
+      }
+    });
+    return result;
+  }
+
+  /**
+   * Getting the members of the group.
+   *
+   * @return The keys and the data of the members in registration order.
+   */
+  public List<Entry<LK, ListenerData<L>>> getMembers() {
+    return Collections.unmodifiableList(this.members);
+  }
+
+  public boolean isEmpty() {
+    return this.members.isEmpty();
+  }
+
+  /**
+   * Checks whether the passed listener is the first member of the group. The dispatcher passes the
+   * event of the group at the position of the first member.
+   *
+   * @param listenerKey
+   *          The key of the listener.
+   * @return True if the listener is the first member.
+   */
+  public boolean isFirst(final LK listenerKey) {
+    return !this.members.isEmpty() && this.members.get(0).getKey().equals(listenerKey);
+  }
+
+  /**
+   * Removing a member from the group.
+   *
+   * @param listenerKey
+   *          The key of the member.
+   */
+  public void remove(final LK listenerKey) {
+    Iterator<Entry<LK, ListenerData<L>>> iterator = this.members.iterator();
+    while (iterator.hasNext()) {
+      if (iterator.next().getKey().equals(listenerKey)) {
+        iterator.remove();
+        return;
+      }
+    }
+  }
+
+  /**
+   * Selecting the member that should receive an event.
+   *
+   * @param eventKeyHash
+   *          The hash code of the key of the event. Ignored if the routing of the group is
+   *          {@link ListenerGroupRouting#ROUND_ROBIN}.
+   * @return The key and the data of the member.
+   */
+  public Entry<LK, ListenerData<L>> select(final int eventKeyHash) {
+    int selectedIndex;
+    if (this.group.getRouting() == ListenerGroupRouting.EVENT_KEY) {
+      selectedIndex = selectOwnerIndex(eventKeyHash, -1);
+    } else {
+      selectedIndex =
+          (this.roundRobinCounter.getAndIncrement() & Integer.MAX_VALUE) % this.members.size();
+    }
+    return this.members.get(selectedIndex);
+  }
+
+  /**
+   * Selecting the member with the highest rendezvous hashing score for an event key.
+   *
+   * @param eventKeyHash
+   *          The hash code of the event key.
+   * @param excludedIndex
+   *          The index of the member that should not be selected or -1.
+   * @return The index of the selected member.
+   */
+  private int selectOwnerIndex(final int eventKeyHash, final int excludedIndex) {
+    int selectedIndex = -1;
+    long highestScore = 0;
+    for (int i = 0, n = this.members.size(); i < n; i++) {
+      if (i != excludedIndex) {
+        long score = score(eventKeyHash, this.members.get(i).getKey().hashCode());
+        if (selectedIndex == -1 || score > highestScore) {
+          selectedIndex = i;
+          highestScore = score;
+        }
+      }
+    }
+    return selectedIndex;
+  }
+
+}
@@ -0,0 +1,185 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.eventdispatcher.internal;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.List;
+
+import org.everit.eventdispatcher.BatchEventUtil;
+import org.everit.eventdispatcher.DispatchMonitor;
+import org.everit.eventdispatcher.EventUtil;
+import org.everit.eventdispatcher.ExceptionHandler;
+
+/**
+ * Calls the listeners via the {@link EventUtil} and passes the exceptions they throw to the
+ * {@link ExceptionHandler}. The class does not do any locking.
+ *
+ * @param <E>
+ *          The type of the events.
+ * @param <L>
+ *          The type of the listeners.
+ * @param <LK>
+ *          The type of the listener keys.
+ */
+public class ListenerInvoker<E, L, LK> {
+
+  private final EventUtil<E, ?, L> eventUtil;
+
+  private final ExceptionHandler<LK, E> exceptionHandler;
+
+  /**
+   * The monitor that is notified about slow listener calls or null if listener calls are not
+   * measured.
+   */
+  private volatile DispatchMonitor<E, ?, LK> monitor;
+
+  /**
+   * The duration above which listener calls are reported to the {@link #monitor}. Written before
+   * the monitor field, so it is visible to the threads that read the monitor.
+   */
+  private long slowCallThresholdNanos;
+
+  /**
+   * Constructor.
+   *
+   * @param eventUtil
+   *          The util that calls the listeners.
+   * @param exceptionHandler
+   *          The handler that catches exceptions that come from listeners. If null, the default
+   *          implementation will be used that writes exceptions to the standard error output.
+   */
+  public ListenerInvoker(final EventUtil<E, ?, L> eventUtil,
+      final ExceptionHandler<LK, E> exceptionHandler) {
+    this.eventUtil = eventUtil;
+    if (exceptionHandler != null) {
+      this.exceptionHandler = exceptionHandler;
+    } else {
+      this.exceptionHandler = new DefaultExceptionHandler<>();
+    }
+  }
+
+  /**
+   * Calling a listener with an event. Any exception of the listener is passed to the exception
+   * handler. If the exception handler throws a {@link RuntimeException}, both exceptions are
+   * written to the standard error output.
+   *
+   * @param listenerKey
+   *          The key of the listener.
+   * @param listener
+   *          The listener object.
+   * @param event
+   *          The event.
+   */
+  public void invoke(final LK listenerKey, final L listener, final E event) {
+    DispatchMonitor<E, ?, LK> currentMonitor = this.monitor;
+    if (currentMonitor == null) {
+      invokeWithExceptionHandling(listenerKey, listener, event);
+      return;
+    }
+
+    long startTime = System.nanoTime();
+    invokeWithExceptionHandling(listenerKey, listener, event);
+    long duration = System.nanoTime() - startTime;
+    if (duration >= this.slowCallThresholdNanos) {
+      currentMonitor.slowListenerCall(listenerKey, event, duration);
+    }
+  }
+
+  private void invokeWithExceptionHandling(final LK listenerKey, final L listener,
+      final E event) {
+    try {
+      this.eventUtil.callListener(listener, event);
+    } catch (Throwable e) {
+      handleException(listenerKey, event, e);
+    }
+  }
+
+  /**
+   * Passing an exception to the exception handler. If the exception handler throws a
+   * {@link RuntimeException}, both exceptions are written to the standard error output.
+   *
+   * @param listenerKey
+   *          The key of the listener or null if the exception comes from a task of the dispatcher.
+   * @param event
+   *          The event or null if the exception was thrown while the event was built or by a task
+   *          of the dispatcher.
+   * @param e
+   *          The exception.
+   */
+  public void handleException(final LK listenerKey, final E event, final Throwable e) {
+    try {
+      this.exceptionHandler.handleException(listenerKey, event, e);
+    } catch (RuntimeException handlerE) {
+      e.addSuppressed(handlerE);
+      StringWriter sw = new StringWriter();
+      PrintWriter pw = new PrintWriter(sw);
+      sw.write(
+          "Error during calling exception handler after recieving an exception from listener '"
+              + String.valueOf(listenerKey) + "' with the event: " + String.valueOf(event) + "\n");
+      e.printStackTrace(pw);
+      System.err.println(sw.toString());
+    }
+  }
+
+  /**
+   * Calling a listener with a batch of events via {@link BatchEventUtil}. Any exception of the
+   * listener is passed to the exception handler together with the first event of the batch. A
+   * batch call that takes longer than the threshold is reported to the monitor with the first
+   * event of the batch.
+   *
+   * @param listenerKey
+   *          The key of the listener.
+   * @param listener
+   *          The listener object.
+   * @param events
+   *          The events.
+   * @throws ClassCastException
+   *           if the event util does not implement {@link BatchEventUtil}.
+   */
+  public void invokeBatch(final LK listenerKey, final L listener, final List<E> events) {
+    @SuppressWarnings("unchecked")
+    BatchEventUtil<E, L> batchEventUtil = (BatchEventUtil<E, L>) this.eventUtil;
+    DispatchMonitor<E, ?, LK> currentMonitor = this.monitor;
+    long startTime = (currentMonitor != null) ? System.nanoTime() : 0;
+    try {
+      batchEventUtil.callListenerWithBatch(listener, events);
+    } catch (Throwable e) {
+      handleException(listenerKey, events.get(0), e);
+    }
+    if (currentMonitor != null) {
+      long duration = System.nanoTime() - startTime;
+      if (duration >= this.slowCallThresholdNanos) {
+        currentMonitor.slowListenerCall(listenerKey, events.get(0), duration);
+      }
+    }
+  }
+
+  /**
+   * Setting the monitor that is notified about slow listener calls.
+   *
+   * @param monitor
+   *          The monitor or null if listener calls should not be measured.
+   * @param slowCallThresholdNanos
+   *          The duration above which listener calls are reported.
+   */
+  public void setMonitor(final DispatchMonitor<E, ?, LK> monitor,
+      final long slowCallThresholdNanos) {
+    this.slowCallThresholdNanos = slowCallThresholdNanos;
+    this.monitor = monitor;
+  }
+
+}
@@ -0,0 +1,378 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.eventdispatcher.internal;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.everit.eventdispatcher.LongEventUtil;
+
+/**
+ * {@link ReplayStore} implementation for primitive <code>long</code> event keys. The entries are
+ * stored in insertion order in parallel arrays (key and event) and an open-addressing index with
+ * linear probing points from the hash of the keys to the positions of the entries. The event
+ * slot holds the original event until it is converted, then the replay format replaces it, so
+ * only one of them is kept in memory, like in {@link EventWithReplayFlag}. Removed entries leave
+ * a hole in the arrays that is reclaimed when the arrays are compacted. Neither the keys are boxed
+ * nor is there an entry object per event, except for the {@link LazyEvent}s that are stored in
+ * place of the original events until they are built.
+ *
+ * @param <E>
+ *          The type of the events.
+ */
+public class LongKeyReplayStore<E> implements ReplayStore<Long, E> {
+
+  /**
+   * The number of locks that guard the conversion of the events to replay format. Must be a power
+   * of two.
+   */
+  private static final int CONVERSION_LOCK_COUNT = 16;
+
+  /**
+   * Marks an empty slot of the index.
+   */
+  private static final int EMPTY = -1;
+
+  /**
+   * The initial capacity of the entry arrays.
+   */
+  private static final int INITIAL_CAPACITY = 16;
+
+  /**
+   * The locks that make sure that an event is converted to replay format only once by the readers
+   * of the store, the same way as {@link EventWithReplayFlag} does. The lock of an entry is
+   * selected by its position, which does not change while there are readers.
+   */
+  private final Object[] conversionLocks = new Object[CONVERSION_LOCK_COUNT];
+
+  /**
+   * One bit per entry position that shows if the event of the entry is converted to replay
+   * format. The bit is set after the replay format is stored in {@link #events}, so readers that
+   * see the bit set can read the replay format without locking.
+   */
+  private AtomicIntegerArray convertedFlags;
+
+  /**
+   * The position after the last entry. New entries are appended here.
+   */
+  private int end = 0;
+
+  /**
+   * No entry is stored before this position. The holes before it are skipped when searching for
+   * the first entry, as entries are only appended until the arrays are rebuilt.
+   */
+  private int start = 0;
+
+  /**
+   * The util that provides the event keys and the replay format of the events.
+   */
+  private final LongEventUtil<E, ?> eventUtil;
+
+  /**
+   * The original events, {@link LazyEvent}s or the replay format of the events by entry position.
+   * Null means that the entry was removed. The slots are replaced by the threads that read the
+   * store and convert the events under {@link #conversionLocks}.
+   */
+  private AtomicReferenceArray<Object> events;
+
+  /**
+   * The open addressing index that holds entry positions. The length of the index is always the
+   * double of the length of the entry arrays, so its load factor is at most 0.5.
+   */
+  private int[] index;
+
+  /**
+   * The keys by entry position.
+   */
+  private long[] keys;
+
+  /**
+   * The number of stored events.
+   */
+  private int size = 0;
+
+  /**
+   * Constructor.
+   *
+   * @param eventUtil
+   *          The util that provides the event keys and the replay format of the events.
+   */
+  public LongKeyReplayStore(final LongEventUtil<E, ?> eventUtil) {
+    this.eventUtil = eventUtil;
+    for (int i = 0; i < CONVERSION_LOCK_COUNT; i++) {
+      this.conversionLocks[i] = new Object();
+    }
+    allocate(INITIAL_CAPACITY);
+  }
+
+  private void allocate(final int capacity) {
+    this.keys = new long[capacity];
+    this.events = new AtomicReferenceArray<>(capacity);
+    this.convertedFlags = new AtomicIntegerArray((capacity + Integer.SIZE - 1) / Integer.SIZE);
+    this.index = new int[capacity * 2];
+    Arrays.fill(this.index, EMPTY);
+  }
+
+  @Override
+  public void clear() {
+    allocate(INITIAL_CAPACITY);
+    this.start = 0;
+    this.end = 0;
+    this.size = 0;
+  }
+
+  /**
+   * Finds the slot of the index that points to the entry of a key.
+   *
+   * @return The slot or {@link #EMPTY} if the key is not stored.
+   */
+  private int findSlot(final long key) {
+    int mask = this.index.length - 1;
+    int slot = hash(key) & mask;
+    int position = this.index[slot];
+    while (position != EMPTY) {
+      if (this.keys[position] == key) {
+        return slot;
+      }
+      slot = (slot + 1) & mask;
+      position = this.index[slot];
+    }
+    return EMPTY;
+  }
+
+  @Override
+  public Long getFirstKey() {
+    while (this.start < this.end && this.events.get(this.start) == null) {
+      this.start++;
+    }
+    if (this.start == this.end) {
+      return null;
+    }
+    return this.keys[this.start];
+  }
+
+  @Override
+  public E getReplayEvent(final Long eventKey) {
+    return getReplayEvent(eventKey.longValue());
+  }
+
+  /**
+   * Same as {@link #getReplayEvent(Long)} without boxing the key.
+   *
+   * @param eventKey
+   *          The key of the event.
+   * @return The replay format of the event or null if there is no event with the key.
+   */
+  public E getReplayEvent(final long eventKey) {
+    int slot = findSlot(eventKey);
+    if (slot == EMPTY) {
+      return null;
+    }
+    return getReplayEventAt(this.index[slot]);
+  }
+
+  @SuppressWarnings("unchecked")
+  private E getReplayEventAt(final int position) {
+    if (isConverted(position)) {
+      return (E) this.events.get(position);
+    }
+    synchronized (this.conversionLocks[position & (CONVERSION_LOCK_COUNT - 1)]) {
+      if (!isConverted(position)) {
+        Object event = this.events.get(position);
+        if (event instanceof LazyEvent) {
+          event = ((LazyEvent<E>) event).get();
+        }
+        this.events.set(position, this.eventUtil.createReplayEvent((E) event));
+        setConverted(position, true);
+      }
+      return (E) this.events.get(position);
+    }
+  }
+
+  @Override
+  public List<E> getReplayEvents() {
+    List<E> result = new ArrayList<>(this.size);
+    for (int i = 0; i < this.end; i++) {
+      if (this.events.get(i) != null) {
+        result.add(getReplayEventAt(i));
+      }
+    }
+    return result;
+  }
+
+  private static int hash(final long key) {
+    long h = key * 0x9E3779B97F4A7C15L;
+    return (int) (h ^ (h >>> 32));
+  }
+
+  private boolean isConverted(final int position) {
+    return (this.convertedFlags.get(position / Integer.SIZE) & (1 << position)) != 0;
+  }
+
+  private void insertIntoIndex(final long key, final int position) {
+    int mask = this.index.length - 1;
+    int slot = hash(key) & mask;
+    while (this.index[slot] != EMPTY) {
+      slot = (slot + 1) & mask;
+    }
+    this.index[slot] = position;
+  }
+
+  @Override
+  public void put(final E event) {
+    put(this.eventUtil.getLongEventKey(event), event);
+  }
+
+  private void put(final long key, final Object event) {
+    removeByKey(key);
+
+    if (this.end == this.keys.length) {
+      // Compacting if at least the quarter of the entries are holes, otherwise growing.
+      int capacity = this.keys.length;
+      if (this.size > capacity - (capacity >> 2)) {
+        capacity = capacity * 2;
+      }
+      rebuild(capacity);
+    }
+
+    int position = this.end;
+    this.end++;
+    this.keys[position] = key;
+    this.events.set(position, event);
+    setConverted(position, false);
+    insertIntoIndex(key, position);
+    this.size++;
+  }
+
+  @Override
+  public void putLazy(final Long eventKey, final LazyEvent<E> lazyEvent) {
+    put(eventKey.longValue(), lazyEvent);
+  }
+
+  /**
+   * Copies the live entries in order into new arrays and rebuilds the index.
+   */
+  private void rebuild(final int capacity) {
+    long[] oldKeys = this.keys;
+    AtomicReferenceArray<Object> oldEvents = this.events;
+    AtomicIntegerArray oldConvertedFlags = this.convertedFlags;
+    int oldEnd = this.end;
+
+    allocate(capacity);
+    int position = 0;
+    for (int i = 0; i < oldEnd; i++) {
+      Object event = oldEvents.get(i);
+      if (event != null) {
+        this.keys[position] = oldKeys[i];
+        this.events.set(position, event);
+        if ((oldConvertedFlags.get(i / Integer.SIZE) & (1 << i)) != 0) {
+          setConverted(position, true);
+        }
+        insertIntoIndex(oldKeys[i], position);
+        position++;
+      }
+    }
+    this.start = 0;
+    this.end = position;
+  }
+
+  @Override
+  public void removeByEvent(final E event) {
+    removeByKey(this.eventUtil.getLongEventKey(event));
+  }
+
+  /**
+   * Same as {@link #removeByKey(Long)} without boxing the key.
+   *
+   * @param eventKey
+   *          The key of the event.
+   * @return True if there was an event with the key.
+   */
+  public boolean removeByKey(final long eventKey) {
+    int slot = findSlot(eventKey);
+    if (slot == EMPTY) {
+      return false;
+    }
+    int position = this.index[slot];
+    this.events.set(position, null);
+    setConverted(position, false);
+    this.size--;
+    if (position == this.end - 1) {
+      this.end--;
+    }
+    removeFromIndex(slot);
+    return true;
+  }
+
+  @Override
+  public boolean removeByKey(final Long eventKey) {
+    return removeByKey(eventKey.longValue());
+  }
+
+  /**
+   * Removes a slot from the index by shifting back the following slots of the probe sequence, so no
+   * tombstones are necessary.
+   */
+  private void removeFromIndex(final int slot) {
+    int mask = this.index.length - 1;
+    int hole = slot;
+    int current = (slot + 1) & mask;
+    while (this.index[current] != EMPTY) {
+      int home = hash(this.keys[this.index[current]]) & mask;
+      boolean movable;
+      if (hole <= current) {
+        movable = home <= hole || home > current;
+      } else {
+        movable = home <= hole && home > current;
+      }
+      if (movable) {
+        this.index[hole] = this.index[current];
+        hole = current;
+      }
+      current = (current + 1) & mask;
+    }
+    this.index[hole] = EMPTY;
+  }
+
+  private void setConverted(final int position, final boolean converted) {
+    int flagIndex = position / Integer.SIZE;
+    int bit = 1 << position;
+    int flags;
+    int newFlags;
+    do {
+      flags = this.convertedFlags.get(flagIndex);
+      newFlags = converted ? (flags | bit) : (flags & ~bit);
+    } while (!this.convertedFlags.compareAndSet(flagIndex, flags, newFlags));
+  }
+
+  @Override
+  public int size() {
+    return this.size;
+  }
+
+  @Override
+  public void visit(final ReplayStoreVisitor<Long, E> visitor) {
+    for (int i = 0; i < this.end; i++) {
+      if (this.events.get(i) != null && !visitor.visit(this.keys[i])) {
+        return;
+      }
+    }
+  }
+
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.eventdispatcher.internal;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Collects the live events of a listener into batches. The size at which a batch is delivered
+ * adapts to the listener: it starts from one event, it is doubled when the events that arrived
+ * while the previous batch was delivered already fill a batch, and it is halved when the linger
+ * time expires before the batch is half full. The events are added under the monitor of the
+ * batcher while the batches are delivered under the {@link #getDeliveryLock()}, so the batches are
+ * delivered in order without blocking the threads that only add events.
+ *
+ * @param <E>
+ *          The type of the events.
+ */
+public class MicroBatcher<E> {
+
+  private final ReentrantLock deliveryLock = new ReentrantLock();
+
+  private final long lingerNanos;
+
+  private final int maxBatchSize;
+
+  private List<E> pendingEvents = new ArrayList<>();
+
+  private int targetBatchSize = 1;
+
+  /**
+   * Constructor.
+   *
+   * @param maxBatchSize
+   *          The maximum number of events in a batch.
+   * @param lingerNanos
+   *          The maximum time an event can wait for the delivery of its batch.
+   * @throws IllegalArgumentException
+   *           if the maximum batch size or the linger time is not positive.
+   */
+  public MicroBatcher(final int maxBatchSize, final long lingerNanos) {
+    if (maxBatchSize <= 0 || lingerNanos <= 0) {
+      throw new IllegalArgumentException(
+          "Batch size and linger time must be positive: " + maxBatchSize + ", " + lingerNanos);
+    }
+    this.maxBatchSize = maxBatchSize;
+    this.lingerNanos = lingerNanos;
+  }
+
+  /**
+   * Adding an event to the pending batch.
+   *
+   * @param event
+   *          The event.
+   * @return The number of pending events after adding the event. If the result is one, a new batch
+   *         was started and the linger timer should be scheduled.
+   */
+  public synchronized int add(final E event) {
+    this.pendingEvents.add(event);
+    return this.pendingEvents.size();
+  }
+
+  /**
+   * Adapting the batch size after a batch was delivered.
+   *
+   * @param deliveredBatchSize
+   *          The size of the delivered batch.
+   * @param lingerExpired
+   *          Whether the batch was delivered because the linger time expired.
+   */
+  public synchronized void afterDelivery(final int deliveredBatchSize,
+      final boolean lingerExpired) {
+    if (this.pendingEvents.size() >= this.targetBatchSize) {
+      this.targetBatchSize = Math.min(this.maxBatchSize, this.targetBatchSize * 2);
+    } else if (lingerExpired && deliveredBatchSize < this.targetBatchSize / 2) {
+      this.targetBatchSize = Math.max(1, this.targetBatchSize / 2);
+    }
+  }
+
+  public ReentrantLock getDeliveryLock() {
+    return this.deliveryLock;
+  }
+
+  public synchronized int getPendingEventCount() {
+    return this.pendingEvents.size();
+  }
+
+  public long getLingerNanos() {
+    return this.lingerNanos;
+  }
+
+  public int getMaxBatchSize() {
+    return this.maxBatchSize;
+  }
+
+  public synchronized int getTargetBatchSize() {
+    return this.targetBatchSize;
+  }
+
+  /**
+   * Checks whether the pending events fill a batch.
+   *
+   * @param pendingEventCount
+   *          The number of pending events that was returned by {@link #add(Object)}.
+   * @return True if the batch should be delivered without waiting for the linger time.
+   */
+  public synchronized boolean isFull(final int pendingEventCount) {
+    return pendingEventCount >= this.targetBatchSize;
+  }
+
+  /**
+   * Taking the pending events. Must be called with the delivery lock held.
+   *
+   * @return The pending events in the order they were added, at most the maximum batch size.
+   */
+  public synchronized List<E> takeBatch() {
+    if (this.pendingEvents.isEmpty()) {
+      return Collections.emptyList();
+    }
+    List<E> batch;
+    if (this.pendingEvents.size() <= this.maxBatchSize) {
+      batch = this.pendingEvents;
+      this.pendingEvents = new ArrayList<>();
+    } else {
+      List<E> head = this.pendingEvents.subList(0, this.maxBatchSize);
+      batch = new ArrayList<>(head);
+      head.clear();
+    }
+    return batch;
+  }
+}
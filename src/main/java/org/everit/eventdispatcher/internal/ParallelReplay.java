@@ -0,0 +1,246 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.eventdispatcher.internal;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantReadWriteLock.WriteLock;
+
+/**
+ * Passing the replay events to several new listeners in parallel. Each listener is replayed by the
+ * thread that holds the write lock of the listener, so the listener is in the same position as if
+ * it was registered alone: the events that are dispatched by the listeners during the replay wait
+ * only for the replay of the listeners they are passed to, and not for the replay of all new
+ * listeners.
+ * <br>
+ * <br>
+ * The write locks are acquired by the tasks that are passed to the executor before the listeners
+ * are registered, so the new listeners cannot receive live events before their replay events. The
+ * registering thread claims the tasks that the executor did not start yet, so it does not depend on
+ * free threads in the executor.
+ *
+ * @param <LK>
+ *          The type of the listener keys.
+ * @param <L>
+ *          The type of the listeners.
+ */
+public final class ParallelReplay<LK, L> {
+
+  /**
+   * Passes the replay events to one listener.
+   *
+   * @param <LK>
+   *          The type of the listener keys.
+   * @param <L>
+   *          The type of the listeners.
+   */
+  public interface ListenerReplay<LK, L> {
+
+    /**
+     * Passing the replay events to the listener. Called with the write lock of the listener.
+     *
+     * @param listenerKey
+     *          The key of the listener.
+     * @param listenerData
+     *          The listener.
+     */
+    void replay(LK listenerKey, ListenerData<L> listenerData);
+  }
+
+  /**
+   * Locks and replays one listener, either in the executor or in the registering thread,
+   * whichever claims it first.
+   */
+  private final class ReplayTask extends AtomicBoolean implements Runnable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Entry<LK, ListenerData<L>> listenerEntry;
+
+    ReplayTask(final Entry<LK, ListenerData<L>> listenerEntry) {
+      this.listenerEntry = listenerEntry;
+    }
+
+    WriteLock getWriteLock() {
+      return this.listenerEntry.getValue().getLocker().writeLock();
+    }
+
+    void replay() {
+      try {
+        ParallelReplay.this.listenerReplay.replay(this.listenerEntry.getKey(),
+            this.listenerEntry.getValue());
+      } catch (RuntimeException | Error e) {
+        ParallelReplay.this.failure.compareAndSet(null, e);
+      }
+    }
+
+    @Override
+    public void run() {
+      if (!compareAndSet(false, true)) {
+        return;
+      }
+      WriteLock writeLock = getWriteLock();
+      writeLock.lock();
+      try {
+        ParallelReplay.this.lockedLatch.countDown();
+        awaitUninterruptibly(ParallelReplay.this.startLatch);
+        if (ParallelReplay.this.listenerReplay != null) {
+          replay();
+        }
+      } finally {
+        writeLock.unlock();
+        ParallelReplay.this.finishedLatch.countDown();
+      }
+    }
+  }
+
+  private static void awaitUninterruptibly(final CountDownLatch latch) {
+    boolean interrupted = false;
+    while (latch.getCount() > 0) {
+      try {
+        latch.await();
+      } catch (InterruptedException e) {
+        interrupted = true;
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private final Executor executor;
+
+  private final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+  /**
+   * Counted down by the tasks that ran in the executor when they finished.
+   */
+  private CountDownLatch finishedLatch;
+
+  /**
+   * The replay or null if the registration failed. Written before {@link #startLatch} is counted
+   * down.
+   */
+  private ListenerReplay<LK, L> listenerReplay;
+
+  /**
+   * Counted down when the write lock of a listener is acquired.
+   */
+  private final CountDownLatch lockedLatch;
+
+  /**
+   * The tasks that were claimed by the registering thread.
+   */
+  private final List<ReplayTask> ownTasks = new ArrayList<>();
+
+  /**
+   * Counted down when the listeners are registered or the registration failed.
+   */
+  private final CountDownLatch startLatch = new CountDownLatch(1);
+
+  private final List<ReplayTask> tasks;
+
+  /**
+   * Constructor.
+   *
+   * @param newListeners
+   *          The new listeners by their keys.
+   * @param executor
+   *          The executor that passes the replay events to the listeners in parallel.
+   */
+  public ParallelReplay(final Map<LK, ListenerData<L>> newListeners, final Executor executor) {
+    this.executor = executor;
+    this.tasks = new ArrayList<>(newListeners.size());
+    for (Entry<LK, ListenerData<L>> listenerEntry : newListeners.entrySet()) {
+      this.tasks.add(new ReplayTask(listenerEntry));
+    }
+    this.lockedLatch = new CountDownLatch(this.tasks.size());
+  }
+
+  /**
+   * Acquiring the write locks of all new listeners. The function returns when every lock is held
+   * either by a task of the executor or by the current thread. {@link #release()} must be called
+   * afterwards in a finally block.
+   */
+  public void lockListeners() {
+    for (ReplayTask task : this.tasks) {
+      try {
+        this.executor.execute(task);
+      } catch (RejectedExecutionException e) {
+        // The task is claimed by the current thread below.
+      }
+    }
+    for (ReplayTask task : this.tasks) {
+      if (task.compareAndSet(false, true)) {
+        task.getWriteLock().lock();
+        this.ownTasks.add(task);
+        this.lockedLatch.countDown();
+      }
+    }
+    this.finishedLatch = new CountDownLatch(this.tasks.size() - this.ownTasks.size());
+    awaitUninterruptibly(this.lockedLatch);
+  }
+
+  /**
+   * Releasing the write locks that are still held by the current thread and letting the tasks of
+   * the executor finish without replaying if {@link #replay(ListenerReplay)} was not called.
+   */
+  public void release() {
+    this.startLatch.countDown();
+    for (ReplayTask task : this.ownTasks) {
+      WriteLock writeLock = task.getWriteLock();
+      if (writeLock.isHeldByCurrentThread()) {
+        writeLock.unlock();
+      }
+    }
+  }
+
+  /**
+   * Passing the replay events to the new listeners after they were registered. The listeners that
+   * are replayed by the current thread are released one by one after their replay. The function
+   * returns when all listeners received the replay events.
+   *
+   * @param replay
+   *          The replay of a listener.
+   */
+  public void replay(final ListenerReplay<LK, L> replay) {
+    this.listenerReplay = replay;
+    this.startLatch.countDown();
+
+    for (ReplayTask task : this.ownTasks) {
+      try {
+        task.replay();
+      } finally {
+        task.getWriteLock().unlock();
+      }
+    }
+    awaitUninterruptibly(this.finishedLatch);
+
+    Throwable throwable = this.failure.get();
+    if (throwable instanceof Error) {
+      throw (Error) throwable;
+    } else if (throwable != null) {
+      throw (RuntimeException) throwable;
+    }
+  }
+}
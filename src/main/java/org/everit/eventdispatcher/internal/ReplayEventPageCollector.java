@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.eventdispatcher.internal;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.everit.eventdispatcher.ReplayEventFilter;
+import org.everit.eventdispatcher.ReplayEventPage;
+
+/**
+ * {@link ReplayStoreVisitor} that collects one page of the events that are accepted by a
+ * {@link ReplayEventFilter}. Only the events on the page are converted to replay format.
+ *
+ * @param <EK>
+ *          The type of the event keys.
+ * @param <E>
+ *          The type of the events.
+ */
+public class ReplayEventPageCollector<EK, E> implements ReplayStoreVisitor<EK, E> {
+
+  private final Map<EK, E> events = new LinkedHashMap<>();
+
+  private final ReplayEventFilter<EK> filter;
+
+  private boolean hasMore = false;
+
+  private final int offset;
+
+  private final int pageSize;
+
+  private final ReplayStore<EK, E> replayStore;
+
+  private int skipped = 0;
+
+  /**
+   * Constructor.
+   *
+   * @param replayStore
+   *          The store that is visited by the collector.
+   * @param filter
+   *          The filter that selects the event keys.
+   * @param offset
+   *          The number of accepted events that should be skipped.
+   * @param pageSize
+   *          The maximum number of events on the page.
+   */
+  public ReplayEventPageCollector(final ReplayStore<EK, E> replayStore,
+      final ReplayEventFilter<EK> filter, final int offset, final int pageSize) {
+    this.replayStore = replayStore;
+    this.filter = filter;
+    this.offset = offset;
+    this.pageSize = pageSize;
+  }
+
+  public ReplayEventPage<EK, E> toPage() {
+    return new ReplayEventPage<>(this.events, this.offset, this.hasMore);
+  }
+
+  @Override
+  public boolean visit(final EK eventKey) {
+    if (!this.filter.accept(eventKey)) {
+      return true;
+    }
+    if (this.skipped < this.offset) {
+      this.skipped++;
+      return true;
+    }
+    if (this.events.size() < this.pageSize) {
+      this.events.put(eventKey, this.replayStore.getReplayEvent(eventKey));
+      return true;
+    }
+    this.hasMore = true;
+    return false;
+  }
+
+}
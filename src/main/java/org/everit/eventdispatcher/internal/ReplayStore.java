@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.eventdispatcher.internal;
+
+import java.util.List;
+
+/**
+ * The storage of the events that should be replayed in case a new listener is registered. The
+ * implementations are not thread safe, the caller must ensure that modifications are done with
+ * exclusive access while reading functions can be called concurrently with each other.
+ *
+ * @param <EK>
+ *          The type of the event keys.
+ * @param <E>
+ *          The type of the events.
+ */
+public interface ReplayStore<EK, E> {
+
+  /**
+   * Removing all events and releasing the memory that was allocated for them.
+   */
+  void clear();
+
+  /**
+   * Getting the key of the event that is replayed first without converting any event to replay
+   * format. The function needs exclusive access as the modifying functions, because the
+   * implementations may tidy up their internal state while searching.
+   *
+   * @return The key of the first event or null if the store is empty.
+   */
+  EK getFirstKey();
+
+  /**
+   * Getting the replay format of an event.
+   *
+   * @param eventKey
+   *          The key of the event.
+   * @return The replay format of the event or null if there is no event with the key.
+   */
+  E getReplayEvent(EK eventKey);
+
+  /**
+   * Getting all events in replay format in the order they should be replayed.
+   *
+   * @return A new list of the events.
+   */
+  List<E> getReplayEvents();
+
+  /**
+   * Storing an event so it is the last that will be replayed. Any previous event with the same key
+   * is removed.
+   *
+   * @param event
+   *          The event.
+   */
+  void put(E event);
+
+  /**
+   * Storing an event that is not built yet so it is the last that will be replayed. Any previous
+   * event with the same key is removed. The event is built when the replay format is requested
+   * the first time.
+   *
+   * @param eventKey
+   *          The key of the event.
+   * @param lazyEvent
+   *          The event that is built on demand.
+   */
+  void putLazy(EK eventKey, LazyEvent<E> lazyEvent);
+
+  /**
+   * Removing the event that has the same key as the passed event.
+   *
+   * @param event
+   *          The event whose key should be removed.
+   */
+  void removeByEvent(E event);
+
+  /**
+   * Removing an event based on its key.
+   *
+   * @param eventKey
+   *          The key of the event.
+   * @return True if there was an event with the key.
+   */
+  boolean removeByKey(EK eventKey);
+
+  /**
+   * The number of stored events.
+   *
+   * @return The number of stored events.
+   */
+  int size();
+
+  /**
+   * Passing the keys of the events to a visitor in the order they should be replayed. The events
+   * are not converted to replay format by the iteration.
+   *
+   * @param visitor
+   *          The visitor.
+   */
+  void visit(ReplayStoreVisitor<EK, E> visitor);
+}
@@ -0,0 +1,39 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.eventdispatcher.internal;
+
+/**
+ * Callback interface to iterate over the event keys of a {@link ReplayStore}. Only the keys are
+ * passed, so the visitor can skip events without converting them to replay format. The replay
+ * format of the selected events can be requested via {@link ReplayStore#getReplayEvent(Object)}
+ * during the iteration.
+ *
+ * @param <EK>
+ *          The type of the event keys.
+ * @param <E>
+ *          The type of the events.
+ */
+public interface ReplayStoreVisitor<EK, E> {
+
+  /**
+   * Called for every event of the store until false is returned.
+   *
+   * @param eventKey
+   *          The key of the event.
+   * @return True if the iteration should continue, false otherwise.
+   */
+  boolean visit(EK eventKey);
+}
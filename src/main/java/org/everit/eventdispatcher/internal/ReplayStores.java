@@ -0,0 +1,48 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.eventdispatcher.internal;
+
+import org.everit.eventdispatcher.EventUtil;
+import org.everit.eventdispatcher.LongEventUtil;
+
+/**
+ * Factory of the {@link ReplayStore} implementations.
+ */
+public final class ReplayStores {
+
+  /**
+   * Creating the store that fits the passed util the best.
+   *
+   * @param eventUtil
+   *          The util of the dispatcher.
+   * @param <EK>
+   *          The type of the event keys.
+   * @param <E>
+   *          The type of the events.
+   * @return A {@link LongKeyReplayStore} if the util is a {@link LongEventUtil}, otherwise a
+   *         {@link LinkedHashMapReplayStore}.
+   */
+  @SuppressWarnings({ "rawtypes", "unchecked" })
+  public static <EK, E> ReplayStore<EK, E> create(final EventUtil<E, EK, ?> eventUtil) {
+    if (eventUtil instanceof LongEventUtil) {
+      return new LongKeyReplayStore((LongEventUtil) eventUtil);
+    }
+    return new LinkedHashMapReplayStore<>(eventUtil);
+  }
+
+  private ReplayStores() {
+  }
+}
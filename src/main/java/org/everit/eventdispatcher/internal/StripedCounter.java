@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.eventdispatcher.internal;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counter of the operations that are in progress that is spread over several cells, so the
+ * threads that count their operations at the same time do not contend on the same memory. A thread
+ * always uses the same cell, so the value of each cell is the number of operations of the threads
+ * of that cell and the sum of the cells never drops below the number of operations that did not
+ * finish yet, even if the threads modify the cells while they are summed.
+ */
+public class StripedCounter {
+
+  /**
+   * The distance of the used cells in the array, so two used cells are not on the same cache line.
+   */
+  private static final int CELL_SPACING = 16;
+
+  private final AtomicLongArray cells;
+
+  private final int mask;
+
+  /**
+   * Constructor with a cell count based on the number of the available processors.
+   */
+  public StripedCounter() {
+    int cellCount = Integer.highestOneBit(Runtime.getRuntime().availableProcessors()) * 2;
+    this.mask = cellCount - 1;
+    this.cells = new AtomicLongArray(cellCount * CELL_SPACING);
+  }
+
+  private int cellIndex() {
+    long threadId = Thread.currentThread().getId();
+    int hash = (int) (threadId ^ (threadId >>> 32)) * 0x9E3779B9;
+    return ((hash ^ (hash >>> 16)) & this.mask) * CELL_SPACING;
+  }
+
+  /**
+   * Counting an operation that finished in the current thread.
+   */
+  public void decrement() {
+    this.cells.decrementAndGet(cellIndex());
+  }
+
+  /**
+   * Counting an operation that started in the current thread.
+   */
+  public void increment() {
+    this.cells.incrementAndGet(cellIndex());
+  }
+
+  /**
+   * Summing the cells.
+   *
+   * @return The number of operations that are in progress.
+   */
+  public long sum() {
+    long sum = 0;
+    for (int i = 0; i < this.cells.length(); i += CELL_SPACING) {
+      sum += this.cells.get(i);
+    }
+    return sum;
+  }
+}
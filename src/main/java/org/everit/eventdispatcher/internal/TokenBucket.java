@@ -0,0 +1,71 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.eventdispatcher.internal;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token bucket rate limiter. The bucket is refilled continuously based on the elapsed time, so no
+ * timer is needed.
+ */
+public class TokenBucket {
+
+  private final double capacity;
+
+  private long lastRefillTime;
+
+  private final double nanosPerToken;
+
+  private double tokens;
+
+  /**
+   * Constructor. The bucket is full initially.
+   *
+   * @param permitsPerSecond
+   *          The rate of refilling the bucket.
+   * @param burst
+   *          The capacity of the bucket.
+   * @throws IllegalArgumentException
+   *           if the rate or the burst is not positive.
+   */
+  public TokenBucket(final double permitsPerSecond, final int burst) {
+    if (!(permitsPerSecond > 0) || burst <= 0) {
+      throw new IllegalArgumentException(
+          "Rate and burst must be positive: " + permitsPerSecond + ", " + burst);
+    }
+    this.capacity = burst;
+    this.tokens = burst;
+    this.nanosPerToken = TimeUnit.SECONDS.toNanos(1) / permitsPerSecond;
+    this.lastRefillTime = System.nanoTime();
+  }
+
+  /**
+   * Taking a token from the bucket if there is any.
+   *
+   * @return True if a token was taken, false if the bucket is empty.
+   */
+  public synchronized boolean tryAcquire() {
+    long now = System.nanoTime();
+    this.tokens = Math.min(this.capacity,
+        this.tokens + (now - this.lastRefillTime) / this.nanosPerToken);
+    this.lastRefillTime = now;
+    if (this.tokens < 1) {
+      return false;
+    }
+    this.tokens--;
+    return true;
+  }
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.eventdispatcher.internal;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+
+/**
+ * Weak reference of a listener that knows the key of the listener, so the listener can be removed
+ * from the registry when the reference is cleared and enqueued.
+ *
+ * @param <L>
+ *          The type of the listeners.
+ * @param <LK>
+ *          The type of the listener keys.
+ */
+public class WeakListenerReference<L, LK> extends WeakReference<L> {
+
+  private final LK listenerKey;
+
+  /**
+   * Constructor.
+   *
+   * @param listener
+   *          The listener object.
+   * @param listenerKey
+   *          The key of the listener.
+   * @param queue
+   *          The queue that receives the reference when the listener is garbage collected.
+   */
+  public WeakListenerReference(final L listener, final LK listenerKey,
+      final ReferenceQueue<? super L> queue) {
+    super(listener, queue);
+    this.listenerKey = listenerKey;
+  }
+
+  public LK getListenerKey() {
+    return this.listenerKey;
+  }
+}
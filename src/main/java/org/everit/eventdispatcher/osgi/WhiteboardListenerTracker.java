@@ -0,0 +1,315 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.eventdispatcher.osgi;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.everit.eventdispatcher.EventDispatcherImpl;
+import org.everit.eventdispatcher.ListenerAlreadyRegisteredException;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.Filter;
+import org.osgi.framework.ServiceReference;
+import org.osgi.util.tracker.ServiceTracker;
+import org.osgi.util.tracker.ServiceTrackerCustomizer;
+
+/**
+ * Registers the listener services that match a filter to an {@link EventDispatcherImpl} according
+ * to the whiteboard pattern. The listeners are identified by their {@link ServiceReference}s.
+ * <br>
+ * <br>
+ * The services that appear at the same time are registered in batches via
+ * {@link EventDispatcherImpl#addListeners(Map, Executor)}, so the replay events are collected once
+ * per batch instead of once per service. All services that are available when the tracker is
+ * opened form one batch. The services that appear later form a batch with the services that
+ * appear until the batch executor runs the registration. If no batch executor is specified, these
+ * services are registered one by one in the thread of the service event. Unregistered services
+ * are removed from the dispatcher by their key if the tracker registered them. The services that
+ * appear after the dispatcher was closed are not tracked.
+ *
+ * @param <E>
+ *          The type of the events.
+ * @param <EK>
+ *          The type of the event keys.
+ * @param <L>
+ *          The type of the listeners.
+ */
+public class WhiteboardListenerTracker<E, EK, L> implements Closeable {
+
+  /**
+   * Customizer that collects the new services into the pending batch and removes the unregistered
+   * ones from the dispatcher.
+   */
+  private class ListenerTrackerCustomizer implements ServiceTrackerCustomizer<L, L> {
+
+    @Override
+    public L addingService(final ServiceReference<L> reference) {
+      L listener = WhiteboardListenerTracker.this.context.getService(reference);
+      if (listener == null) {
+        return null;
+      }
+      synchronized (WhiteboardListenerTracker.this.pendingListeners) {
+        WhiteboardListenerTracker.this.pendingListeners.put(reference, listener);
+      }
+      if (!WhiteboardListenerTracker.this.opening) {
+        try {
+          scheduleBatch();
+        } catch (IllegalStateException e) {
+          // The dispatcher is closed, so the service is not tracked.
+          synchronized (WhiteboardListenerTracker.this.pendingListeners) {
+            WhiteboardListenerTracker.this.pendingListeners.remove(reference);
+          }
+          WhiteboardListenerTracker.this.context.ungetService(reference);
+          return null;
+        }
+      }
+      return listener;
+    }
+
+    @Override
+    public void modifiedService(final ServiceReference<L> reference, final L listener) {
+      // Nothing to do as the key of the listener does not change.
+    }
+
+    @Override
+    public void removedService(final ServiceReference<L> reference, final L listener) {
+      boolean registered;
+      synchronized (WhiteboardListenerTracker.this.pendingListeners) {
+        WhiteboardListenerTracker.this.pendingListeners.remove(reference);
+        if (WhiteboardListenerTracker.this.registeringListeners.contains(reference)) {
+          WhiteboardListenerTracker.this.removedRegisteringListeners.add(reference);
+        }
+        registered = WhiteboardListenerTracker.this.registeredListeners.remove(reference);
+      }
+      if (registered) {
+        WhiteboardListenerTracker.this.eventDispatcher.removeListener(reference);
+      }
+      WhiteboardListenerTracker.this.context.ungetService(reference);
+    }
+  }
+
+  /**
+   * The executor that registers the pending listeners or null if the listeners that appear after
+   * opening the tracker should be registered one by one.
+   */
+  private final Executor batchExecutor;
+
+  /**
+   * Flag that shows if there is a registration task passed to the {@link #batchExecutor} that did
+   * not start yet.
+   */
+  private final AtomicBoolean batchScheduled = new AtomicBoolean(false);
+
+  private final BundleContext context;
+
+  private final EventDispatcherImpl<E, EK, L, ServiceReference<L>> eventDispatcher;
+
+  /**
+   * Flag that shows if the tracker is being opened. The services that are found meanwhile are
+   * registered in one batch at the end of {@link #open()}.
+   */
+  private volatile boolean opening = false;
+
+  /**
+   * The listeners that are tracked but not registered to the dispatcher yet. Guarded by itself.
+   */
+  private final Map<ServiceReference<L>, L> pendingListeners = new LinkedHashMap<>();
+
+  /**
+   * The listeners of the batches that are being registered. Guarded by {@link #pendingListeners}.
+   */
+  private final Set<ServiceReference<L>> registeringListeners = new HashSet<>();
+
+  /**
+   * The listeners that the tracker registered to the dispatcher. The listeners that were registered
+   * by someone else with the same key are not removed by the tracker. Guarded by
+   * {@link #pendingListeners}.
+   */
+  private final Set<ServiceReference<L>> registeredListeners = new HashSet<>();
+
+  /**
+   * The listeners of the batches that are being registered and that were removed meanwhile. The
+   * ones that the tracker registered are removed from the dispatcher after the registration of
+   * their batch finished, as the removal might have happened before they were added. Guarded by
+   * {@link #pendingListeners}.
+   */
+  private final Set<ServiceReference<L>> removedRegisteringListeners = new HashSet<>();
+
+  /**
+   * The executor that passes the replay events to the listeners of a batch in parallel or null if
+   * the replay events should be passed in the registering thread.
+   */
+  private final Executor replayExecutor;
+
+  private final ServiceTracker<L, L> serviceTracker;
+
+  /**
+   * Constructor.
+   *
+   * @param context
+   *          The context of the bundle that tracks the listeners.
+   * @param filter
+   *          The filter of the listener services.
+   * @param eventDispatcher
+   *          The dispatcher that the listeners are registered to.
+   * @param batchExecutor
+   *          The executor that registers the listeners that appear after opening the tracker in
+   *          batches. If null, the listeners are registered one by one. If the executor rejects a
+   *          batch, it is registered in the thread of the service event.
+   * @param replayExecutor
+   *          The executor that passes the replay events to the listeners of a batch in parallel.
+   *          If null, the replay events are passed in the registering thread.
+   */
+  public WhiteboardListenerTracker(final BundleContext context, final Filter filter,
+      final EventDispatcherImpl<E, EK, L, ServiceReference<L>> eventDispatcher,
+      final Executor batchExecutor, final Executor replayExecutor) {
+    this.context = context;
+    this.eventDispatcher = eventDispatcher;
+    this.batchExecutor = batchExecutor;
+    this.replayExecutor = replayExecutor;
+    this.serviceTracker = new ServiceTracker<>(context, filter, new ListenerTrackerCustomizer());
+  }
+
+  /**
+   * Stops tracking the listener services and removes them from the dispatcher.
+   */
+  @Override
+  public void close() {
+    this.serviceTracker.close();
+  }
+
+  /**
+   * Removes the listeners of a batch from the ones being registered. The listeners that the
+   * tracker registered are remembered, or removed from the dispatcher if their service was
+   * removed during the registration. The listeners that could not be registered are put back to
+   * the pending listeners.
+   */
+  private void finishRegistration(final Set<ServiceReference<L>> batchKeys,
+      final Set<ServiceReference<L>> registeredKeys,
+      final Map<ServiceReference<L>, L> unregisteredListeners) {
+    List<ServiceReference<L>> removedListeners = new ArrayList<>();
+    synchronized (this.pendingListeners) {
+      this.registeringListeners.removeAll(batchKeys);
+      for (ServiceReference<L> reference : batchKeys) {
+        boolean registered = registeredKeys.contains(reference);
+        if (this.removedRegisteringListeners.remove(reference)) {
+          if (registered) {
+            removedListeners.add(reference);
+          }
+        } else if (registered) {
+          this.registeredListeners.add(reference);
+        } else if (unregisteredListeners.containsKey(reference)) {
+          this.pendingListeners.put(reference, unregisteredListeners.get(reference));
+        }
+      }
+    }
+    for (ServiceReference<L> reference : removedListeners) {
+      this.eventDispatcher.removeListener(reference);
+    }
+  }
+
+  /**
+   * Starts tracking the listener services. The services that are available already are registered
+   * to the dispatcher in one batch before the function returns.
+   */
+  public void open() {
+    this.opening = true;
+    try {
+      this.serviceTracker.open();
+    } finally {
+      this.opening = false;
+    }
+    registerPendingListeners();
+  }
+
+  /**
+   * Registers the listeners that were collected since the last batch. If the batch cannot be
+   * registered as one of its listeners is registered already, the listeners are registered one by
+   * one. If the dispatcher is closed, the listeners are put back to the pending ones.
+   *
+   * @throws IllegalStateException
+   *           if the dispatcher is closed.
+   */
+  private void registerPendingListeners() {
+    Map<ServiceReference<L>, L> batch;
+    synchronized (this.pendingListeners) {
+      if (this.pendingListeners.isEmpty()) {
+        return;
+      }
+      batch = new LinkedHashMap<>(this.pendingListeners);
+      this.pendingListeners.clear();
+      this.registeringListeners.addAll(batch.keySet());
+    }
+
+    Set<ServiceReference<L>> registeredKeys = new HashSet<>();
+    Map<ServiceReference<L>, L> unregisteredListeners = batch;
+    try {
+      try {
+        this.eventDispatcher.addListeners(batch, this.replayExecutor);
+        registeredKeys = batch.keySet();
+        unregisteredListeners = Collections.emptyMap();
+      } catch (ListenerAlreadyRegisteredException e) {
+        unregisteredListeners = new LinkedHashMap<>(batch);
+        Iterator<Entry<ServiceReference<L>, L>> iterator =
+            unregisteredListeners.entrySet().iterator();
+        while (iterator.hasNext()) {
+          Entry<ServiceReference<L>, L> entry = iterator.next();
+          try {
+            this.eventDispatcher.addListener(entry.getKey(), entry.getValue());
+            registeredKeys.add(entry.getKey());
+          } catch (ListenerAlreadyRegisteredException alreadyRegisteredException) {
+            // The reference was registered by someone else that is responsible for removing it.
+          }
+          iterator.remove();
+        }
+      }
+    } finally {
+      finishRegistration(batch.keySet(), registeredKeys, unregisteredListeners);
+    }
+  }
+
+  private void scheduleBatch() {
+    if (this.batchExecutor == null) {
+      registerPendingListeners();
+    } else if (this.batchScheduled.compareAndSet(false, true)) {
+      try {
+        this.batchExecutor.execute(new Runnable() {
+
+          @Override
+          public void run() {
+            WhiteboardListenerTracker.this.batchScheduled.set(false);
+            registerPendingListeners();
+          }
+        });
+      } catch (RejectedExecutionException e) {
+        this.batchScheduled.set(false);
+        registerPendingListeners();
+      }
+    }
+  }
+
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.eventdispatcher.replication;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Connects the {@link ReplicationTransport}s that are created by the same hub within one JVM. The
+ * messages are delivered synchronously in the thread of the sender, which makes the hub useful in
+ * tests and for replicating between dispatchers of the same process.
+ */
+public class InProcessReplicationHub {
+
+  /**
+   * Transport that delivers the messages to the other transports of the hub.
+   */
+  private class InProcessTransport implements ReplicationTransport {
+
+    private volatile ReplicationReceiver receiver;
+
+    @Override
+    public void close() {
+      InProcessReplicationHub.this.transports.remove(this);
+      this.receiver = null;
+    }
+
+    @Override
+    public void open(final ReplicationReceiver receiver) {
+      this.receiver = receiver;
+      InProcessReplicationHub.this.transports.add(this);
+    }
+
+    @Override
+    public void send(final byte[] message) {
+      for (InProcessTransport transport : InProcessReplicationHub.this.transports) {
+        ReplicationReceiver peerReceiver = transport.receiver;
+        if (transport != this && peerReceiver != null) {
+          peerReceiver.receive(message);
+        }
+      }
+    }
+  }
+
+  /**
+   * The transports that are opened.
+   */
+  private final List<InProcessTransport> transports = new CopyOnWriteArrayList<>();
+
+  /**
+   * Creating a new transport that is connected to the other transports of this hub after it is
+   * opened.
+   *
+   * @return The transport.
+   */
+  public ReplicationTransport createTransport() {
+    return new InProcessTransport();
+  }
+}
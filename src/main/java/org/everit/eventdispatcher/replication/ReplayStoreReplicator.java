@@ -0,0 +1,452 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.eventdispatcher.replication;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.everit.eventdispatcher.EventDispatcherImpl;
+import org.everit.eventdispatcher.ReplayStoreInterceptor;
+
+/**
+ * Replicates the replay queue of an {@link EventDispatcherImpl} to the dispatchers of the peer
+ * nodes. The events that are dispatched or removed on the local dispatcher are collected into
+ * batches and sent compressed via a {@link ReplicationTransport}. The events that arrive from the
+ * peers are dispatched to the local dispatcher, so local listeners receive them as well.
+ * <br>
+ * <br>
+ * Every event key has a version that is incremented by each modification. A modification that
+ * arrives from a peer is applied only if its version is newer than the local one, so the nodes
+ * converge to the same state even if the same key is modified concurrently on several nodes.
+ * Removed keys are remembered with their version for the tombstone time to live, so a late put
+ * that arrives within that time cannot revive them. The replicator references the events of the
+ * keys that are in the replay queue, so it holds no copy of the events.
+ * <br>
+ * <br>
+ * The events that the dispatcher evicts by itself, because it exceeded its share of the replay
+ * event budget, are dropped only locally. The peers keep them and the evicted keys are not part of
+ * the snapshot of this node any more. The events that expire are removed from the peers as well,
+ * because the peers store the events without their time to live.
+ * <br>
+ * <br>
+ * The mutations are collected while the replay queue of the dispatcher is locked, so the batches
+ * that are full are sent by a task of the flush executor after the dispatcher released its locks.
+ * A flush task that the executor runs in the thread that passed it is skipped, so the pending
+ * mutations of that thread are sent by the next flush.
+ * <br>
+ * <br>
+ * When the replicator is opened, it asks the peers for a snapshot of their state, so a node that
+ * joins later gets the events that were dispatched before. The replicator knows only the events
+ * that were dispatched after it was opened, so it should be opened before the first event is
+ * dispatched.
+ *
+ * @param <E>
+ *          The type of the events.
+ * @param <EK>
+ *          The type of the event keys.
+ */
+public class ReplayStoreReplicator<E, EK>
+    implements ReplayStoreInterceptor<EK, E>, ReplicationReceiver, Closeable {
+
+  /**
+   * The version of a key that is not in the replay queue any more.
+   */
+  private static final class Tombstone {
+
+    /**
+     * The time when the tombstone can be dropped based on {@link System#nanoTime()}.
+     */
+    final long expirationTime;
+
+    /**
+     * Whether the key was removed on purpose, so the peers should remove it as well. False if the
+     * event was evicted locally.
+     */
+    final boolean removed;
+
+    final ReplicationVersion version;
+
+    Tombstone(final ReplicationVersion version, final boolean removed,
+        final long expirationTime) {
+      this.version = version;
+      this.removed = removed;
+      this.expirationTime = expirationTime;
+    }
+  }
+
+  /**
+   * The default time to live of the tombstones in minutes.
+   */
+  public static final long DEFAULT_TOMBSTONE_TIME_TO_LIVE_MINUTES = 10;
+
+  private final ReplicationCodec<E, EK> codec;
+
+  private final EventDispatcherImpl<E, EK, ?, ?> eventDispatcher;
+
+  /**
+   * The executor that sends the batches that are full or null if batches are sent only by calling
+   * {@link #flush()}.
+   */
+  private final Executor flushExecutor;
+
+  /**
+   * Serializes the sending of batches so the peers receive them in the order of the modifications.
+   */
+  private final Object flushLock = new Object();
+
+  /**
+   * Flag that shows if there is a flush task passed to the {@link #flushExecutor} that did not
+   * start yet.
+   */
+  private final AtomicBoolean flushScheduled = new AtomicBoolean(false);
+
+  /**
+   * Flag that shows if the current thread is passing a flush task to the {@link #flushExecutor}, so
+   * the task can detect if the executor runs it in the same thread while the dispatcher is locked.
+   */
+  private final ThreadLocal<Boolean> flushScheduling = new ThreadLocal<>();
+
+  /**
+   * The maximum number of mutations that are sent in one message.
+   */
+  private final int maxBatchSize;
+
+  /**
+   * The identifier of this node. Must be unique among the peers.
+   */
+  private final String nodeId;
+
+  private final AtomicInteger pendingMutationCount = new AtomicInteger();
+
+  /**
+   * The local mutations that are not sent yet.
+   */
+  private final ConcurrentLinkedQueue<ReplicationMutation<EK, E>> pendingMutations =
+      new ConcurrentLinkedQueue<>();
+
+  /**
+   * The version of the peer mutation that is being applied to the local dispatcher by the current
+   * thread. The interceptor functions consume it, so events that are dispatched by the listeners
+   * during the apply are handled as local events.
+   */
+  private final ThreadLocal<ReplicationVersion> remoteVersion = new ThreadLocal<>();
+
+  /**
+   * The last mutation of each event key that is in the replay queue in modification order.
+   * Guarded by itself.
+   */
+  private final LinkedHashMap<EK, ReplicationMutation<EK, E>> state = new LinkedHashMap<>();
+
+  /**
+   * The tombstones of the removed and evicted keys in the order of their expiration. Guarded by
+   * {@link #state}.
+   */
+  private final LinkedHashMap<EK, Tombstone> tombstones = new LinkedHashMap<>();
+
+  /**
+   * The time in nanoseconds the tombstones are kept.
+   */
+  private final long tombstoneTimeToLiveNanos;
+
+  private final ReplicationTransport transport;
+
+  /**
+   * Constructor that keeps the tombstones for {@link #DEFAULT_TOMBSTONE_TIME_TO_LIVE_MINUTES}.
+   *
+   * @param nodeId
+   *          The identifier of this node. Must be unique among the peers.
+   * @param eventDispatcher
+   *          The dispatcher whose replay queue is replicated.
+   * @param codec
+   *          The codec of the events and event keys.
+   * @param transport
+   *          The transport that delivers the messages to the peers.
+   * @param maxBatchSize
+   *          The maximum number of mutations that are sent in one message.
+   * @param flushExecutor
+   *          The executor that sends a batch as soon as it is full in another thread. If null,
+   *          batches are sent only when {@link #flush()} is called.
+   */
+  public ReplayStoreReplicator(final String nodeId,
+      final EventDispatcherImpl<E, EK, ?, ?> eventDispatcher,
+      final ReplicationCodec<E, EK> codec, final ReplicationTransport transport,
+      final int maxBatchSize, final Executor flushExecutor) {
+    this(nodeId, eventDispatcher, codec, transport, maxBatchSize, flushExecutor,
+        DEFAULT_TOMBSTONE_TIME_TO_LIVE_MINUTES, TimeUnit.MINUTES);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param nodeId
+   *          The identifier of this node. Must be unique among the peers.
+   * @param eventDispatcher
+   *          The dispatcher whose replay queue is replicated.
+   * @param codec
+   *          The codec of the events and event keys.
+   * @param transport
+   *          The transport that delivers the messages to the peers.
+   * @param maxBatchSize
+   *          The maximum number of mutations that are sent in one message.
+   * @param flushExecutor
+   *          The executor that sends a batch as soon as it is full in another thread. If null,
+   *          batches are sent only when {@link #flush()} is called.
+   * @param tombstoneTimeToLive
+   *          The time the versions of the removed keys are kept. It should be longer than the
+   *          time a message needs to reach the peers.
+   * @param unit
+   *          The unit of the tombstone time to live.
+   */
+  public ReplayStoreReplicator(final String nodeId,
+      final EventDispatcherImpl<E, EK, ?, ?> eventDispatcher,
+      final ReplicationCodec<E, EK> codec, final ReplicationTransport transport,
+      final int maxBatchSize, final Executor flushExecutor, final long tombstoneTimeToLive,
+      final TimeUnit unit) {
+    if (maxBatchSize <= 0) {
+      throw new IllegalArgumentException("Batch size must be positive: " + maxBatchSize);
+    }
+    this.tombstoneTimeToLiveNanos = unit.toNanos(tombstoneTimeToLive);
+    this.nodeId = nodeId;
+    this.eventDispatcher = eventDispatcher;
+    this.codec = codec;
+    this.transport = transport;
+    this.maxBatchSize = maxBatchSize;
+    this.flushExecutor = flushExecutor;
+  }
+
+  private void apply(final ReplicationMutation<EK, E> mutation) {
+    this.remoteVersion.set(mutation.version);
+    try {
+      if (mutation.event != null) {
+        this.eventDispatcher.dispatchEvent(mutation.event);
+      } else {
+        this.eventDispatcher.removeEvent(mutation.eventKey);
+      }
+    } finally {
+      this.remoteVersion.remove();
+    }
+  }
+
+  @Override
+  public void afterEvict(final EK eventKey) {
+    synchronized (this.state) {
+      ReplicationMutation<EK, E> mutation = this.state.remove(eventKey);
+      if (mutation != null) {
+        this.tombstones.put(eventKey, new Tombstone(mutation.version, false,
+            System.nanoTime() + this.tombstoneTimeToLiveNanos));
+      }
+    }
+  }
+
+  @Override
+  public void afterExpire(final EK eventKey) {
+    intercept(eventKey, null, null);
+  }
+
+  @Override
+  public boolean beforePut(final EK eventKey, final E event) {
+    return intercept(eventKey, event, takeRemoteVersion());
+  }
+
+  @Override
+  public boolean beforeRemove(final EK eventKey) {
+    return intercept(eventKey, null, takeRemoteVersion());
+  }
+
+  /**
+   * Detaching from the event dispatcher, sending the pending mutations and closing the transport.
+   */
+  @Override
+  public void close() {
+    this.eventDispatcher.setReplayStoreInterceptor(null);
+    flush();
+    this.transport.close();
+  }
+
+  /**
+   * Sending all pending local mutations to the peers.
+   */
+  public void flush() {
+    synchronized (this.flushLock) {
+      List<ReplicationMutation<EK, E>> batch = pollBatch();
+      while (!batch.isEmpty()) {
+        send(ReplicationMessage.TYPE_MUTATIONS, batch);
+        batch = pollBatch();
+      }
+    }
+  }
+
+  private boolean intercept(final EK eventKey, final E event,
+      final ReplicationVersion peerVersion) {
+    ReplicationMutation<EK, E> mutation;
+    synchronized (this.state) {
+      long now = System.nanoTime();
+      purgeTombstones(now);
+
+      ReplicationVersion currentVersion = null;
+      ReplicationMutation<EK, E> current = this.state.get(eventKey);
+      if (current != null) {
+        currentVersion = current.version;
+      } else {
+        Tombstone tombstone = this.tombstones.get(eventKey);
+        if (tombstone != null) {
+          currentVersion = tombstone.version;
+        }
+      }
+      ReplicationVersion version;
+      if (peerVersion == null) {
+        version = ReplicationVersion.next(currentVersion, this.nodeId);
+      } else if (currentVersion == null || peerVersion.compareTo(currentVersion) > 0) {
+        version = peerVersion;
+      } else {
+        return false;
+      }
+      mutation = new ReplicationMutation<>(eventKey, event, version);
+      this.state.remove(eventKey);
+      this.tombstones.remove(eventKey);
+      if (event != null) {
+        this.state.put(eventKey, mutation);
+      } else {
+        this.tombstones.put(eventKey,
+            new Tombstone(version, true, now + this.tombstoneTimeToLiveNanos));
+      }
+    }
+
+    if (peerVersion == null) {
+      this.pendingMutations.add(mutation);
+      if (this.pendingMutationCount.incrementAndGet() >= this.maxBatchSize) {
+        scheduleFlush();
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Attaching to the event dispatcher, starting to receive the messages of the peers and asking
+   * them for a snapshot of their state.
+   */
+  public void open() {
+    this.eventDispatcher.setReplayStoreInterceptor(this);
+    this.transport.open(this);
+    send(ReplicationMessage.TYPE_SNAPSHOT_REQUEST,
+        Collections.<ReplicationMutation<EK, E>> emptyList());
+  }
+
+  private List<ReplicationMutation<EK, E>> pollBatch() {
+    List<ReplicationMutation<EK, E>> batch = new ArrayList<>();
+    ReplicationMutation<EK, E> mutation = this.pendingMutations.poll();
+    while (mutation != null) {
+      batch.add(mutation);
+      if (batch.size() == this.maxBatchSize) {
+        break;
+      }
+      mutation = this.pendingMutations.poll();
+    }
+    this.pendingMutationCount.addAndGet(-batch.size());
+    return batch;
+  }
+
+  /**
+   * Dropping the tombstones that expired. Must be called with the monitor of {@link #state}.
+   */
+  private void purgeTombstones(final long now) {
+    Iterator<Tombstone> iterator = this.tombstones.values().iterator();
+    while (iterator.hasNext() && iterator.next().expirationTime - now <= 0) {
+      iterator.remove();
+    }
+  }
+
+  @Override
+  public void receive(final byte[] message) {
+    ReplicationMessage<EK, E> replicationMessage = ReplicationMessage.decode(message, this.codec);
+    if (this.nodeId.equals(replicationMessage.senderNodeId)) {
+      return;
+    }
+    if (replicationMessage.type == ReplicationMessage.TYPE_SNAPSHOT_REQUEST) {
+      sendSnapshot();
+    } else {
+      for (ReplicationMutation<EK, E> mutation : replicationMessage.mutations) {
+        apply(mutation);
+      }
+    }
+  }
+
+  private void scheduleFlush() {
+    if (this.flushExecutor == null || !this.flushScheduled.compareAndSet(false, true)) {
+      return;
+    }
+    this.flushScheduling.set(Boolean.TRUE);
+    try {
+      this.flushExecutor.execute(new Runnable() {
+
+        @Override
+        public void run() {
+          ReplayStoreReplicator.this.flushScheduled.set(false);
+          // Sending from the thread that holds the locks of the dispatcher would block it.
+          if (ReplayStoreReplicator.this.flushScheduling.get() == null) {
+            flush();
+          }
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      // The pending mutations are sent by the next flush.
+      this.flushScheduled.set(false);
+    } finally {
+      this.flushScheduling.remove();
+    }
+  }
+
+  private void send(final byte type, final List<ReplicationMutation<EK, E>> mutations) {
+    ReplicationMessage<EK, E> message = new ReplicationMessage<>(type, this.nodeId, mutations);
+    this.transport.send(message.encode(this.codec));
+  }
+
+  private void sendSnapshot() {
+    List<ReplicationMutation<EK, E>> snapshot;
+    synchronized (this.state) {
+      purgeTombstones(System.nanoTime());
+      snapshot = new ArrayList<>(this.state.values());
+      for (Entry<EK, Tombstone> entry : this.tombstones.entrySet()) {
+        Tombstone tombstone = entry.getValue();
+        if (tombstone.removed) {
+          snapshot.add(new ReplicationMutation<EK, E>(entry.getKey(), null, tombstone.version));
+        }
+      }
+    }
+    for (int i = 0; i < snapshot.size(); i += this.maxBatchSize) {
+      int end = Math.min(snapshot.size(), i + this.maxBatchSize);
+      send(ReplicationMessage.TYPE_SNAPSHOT, snapshot.subList(i, end));
+    }
+  }
+
+  private ReplicationVersion takeRemoteVersion() {
+    ReplicationVersion version = this.remoteVersion.get();
+    this.remoteVersion.remove();
+    return version;
+  }
+
+}
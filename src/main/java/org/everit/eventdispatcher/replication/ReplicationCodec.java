@@ -0,0 +1,64 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.eventdispatcher.replication;
+
+/**
+ * Converts the events and their keys to bytes and back, so they can be sent to the peer nodes. The
+ * serialized forms are compressed by the {@link ReplayStoreReplicator}.
+ *
+ * @param <E>
+ *          The type of the events.
+ * @param <EK>
+ *          The type of the event keys.
+ */
+public interface ReplicationCodec<E, EK> {
+
+  /**
+   * Deserializing an event.
+   *
+   * @param data
+   *          The serialized form of the event.
+   * @return The event.
+   */
+  E decodeEvent(byte[] data);
+
+  /**
+   * Deserializing an event key.
+   *
+   * @param data
+   *          The serialized form of the event key.
+   * @return The event key.
+   */
+  EK decodeKey(byte[] data);
+
+  /**
+   * Serializing an event.
+   *
+   * @param event
+   *          The event in its original format.
+   * @return The serialized form of the event.
+   */
+  byte[] encodeEvent(E event);
+
+  /**
+   * Serializing an event key.
+   *
+   * @param eventKey
+   *          The event key.
+   * @return The serialized form of the event key.
+   */
+  byte[] encodeKey(EK eventKey);
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.eventdispatcher.replication;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * A message that is sent between the nodes. The binary format is a deflate compressed stream of the
+ * type, the sender and the mutations of the message.
+ *
+ * @param <EK>
+ *          The type of the event keys.
+ * @param <E>
+ *          The type of the events.
+ */
+final class ReplicationMessage<EK, E> {
+
+  /**
+   * A batch of mutations that happened on the sender node.
+   */
+  static final byte TYPE_MUTATIONS = 1;
+
+  /**
+   * All known event keys of the sender node as a response to a {@link #TYPE_SNAPSHOT_REQUEST}.
+   */
+  static final byte TYPE_SNAPSHOT = 2;
+
+  /**
+   * A request of a new node to get a snapshot from its peers.
+   */
+  static final byte TYPE_SNAPSHOT_REQUEST = 3;
+
+  private static final byte OPERATION_PUT = 1;
+
+  private static final byte OPERATION_REMOVE = 2;
+
+  /**
+   * Decoding a message.
+   *
+   * @param data
+   *          The binary format of the message.
+   * @param codec
+   *          The codec of the events and event keys.
+   * @return The message.
+   * @throws IllegalArgumentException
+   *           if the data is not a valid message.
+   */
+  static <EK, E> ReplicationMessage<EK, E> decode(final byte[] data,
+      final ReplicationCodec<E, EK> codec) {
+    try (DataInputStream in = new DataInputStream(
+        new InflaterInputStream(new ByteArrayInputStream(data)))) {
+
+      byte type = in.readByte();
+      String senderNodeId = in.readUTF();
+      int mutationCount = in.readInt();
+      List<ReplicationMutation<EK, E>> mutations = new ArrayList<>(mutationCount);
+      for (int i = 0; i < mutationCount; i++) {
+        byte operation = in.readByte();
+        ReplicationVersion version = new ReplicationVersion(in.readLong(), in.readUTF());
+        EK eventKey = codec.decodeKey(readBytes(in));
+        E event = null;
+        if (operation == OPERATION_PUT) {
+          event = codec.decodeEvent(readBytes(in));
+        }
+        mutations.add(new ReplicationMutation<>(eventKey, event, version));
+      }
+      return new ReplicationMessage<>(type, senderNodeId, mutations);
+    } catch (IOException e) {
+      throw new IllegalArgumentException("Invalid replication message", e);
+    }
+  }
+
+  private static byte[] readBytes(final DataInputStream in) throws IOException {
+    byte[] result = new byte[in.readInt()];
+    in.readFully(result);
+    return result;
+  }
+
+  private static void writeBytes(final DataOutputStream out, final byte[] data)
+      throws IOException {
+    out.writeInt(data.length);
+    out.write(data);
+  }
+
+  final List<ReplicationMutation<EK, E>> mutations;
+
+  final String senderNodeId;
+
+  final byte type;
+
+  ReplicationMessage(final byte type, final String senderNodeId,
+      final List<ReplicationMutation<EK, E>> mutations) {
+    this.type = type;
+    this.senderNodeId = senderNodeId;
+    this.mutations = Collections.unmodifiableList(mutations);
+  }
+
+  /**
+   * Encoding the message.
+   *
+   * @param codec
+   *          The codec of the events and event keys.
+   * @return The binary format of the message.
+   */
+  byte[] encode(final ReplicationCodec<E, EK> codec) {
+    ByteArrayOutputStream bout = new ByteArrayOutputStream();
+    try (DataOutputStream out = new DataOutputStream(new DeflaterOutputStream(bout))) {
+      out.writeByte(this.type);
+      out.writeUTF(this.senderNodeId);
+      out.writeInt(this.mutations.size());
+      for (ReplicationMutation<EK, E> mutation : this.mutations) {
+        out.writeByte(mutation.event != null ? OPERATION_PUT : OPERATION_REMOVE);
+        out.writeLong(mutation.version.counter);
+        out.writeUTF(mutation.version.nodeId);
+        writeBytes(out, codec.encodeKey(mutation.eventKey));
+        if (mutation.event != null) {
+          writeBytes(out, codec.encodeEvent(mutation.event));
+        }
+      }
+    } catch (IOException e) {
+      throw new IllegalStateException("Cannot encode replication message", e);
+    }
+    return bout.toByteArray();
+  }
+
+}
@@ -0,0 +1,43 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.eventdispatcher.replication;
+
+/**
+ * A put or a remove of an event key in the replay queue together with its version.
+ *
+ * @param <EK>
+ *          The type of the event keys.
+ * @param <E>
+ *          The type of the events.
+ */
+final class ReplicationMutation<EK, E> {
+
+  /**
+   * The event in original format or null if the mutation is a remove.
+   */
+  final E event;
+
+  final EK eventKey;
+
+  final ReplicationVersion version;
+
+  ReplicationMutation(final EK eventKey, final E event, final ReplicationVersion version) {
+    this.eventKey = eventKey;
+    this.event = event;
+    this.version = version;
+  }
+
+}
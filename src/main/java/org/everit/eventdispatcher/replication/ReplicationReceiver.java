@@ -0,0 +1,31 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.eventdispatcher.replication;
+
+/**
+ * Receives the messages that arrive from the peer nodes via a {@link ReplicationTransport}.
+ */
+public interface ReplicationReceiver {
+
+  /**
+   * Processing a message that was sent by a peer node.
+   *
+   * @param message
+   *          The message exactly as it was passed to {@link ReplicationTransport#send(byte[])} on
+   *          the peer node.
+   */
+  void receive(byte[] message);
+}
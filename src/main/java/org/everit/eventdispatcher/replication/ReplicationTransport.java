@@ -0,0 +1,46 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.eventdispatcher.replication;
+
+/**
+ * Service provider interface of the technology that delivers the replication messages between the
+ * nodes. Implementations must deliver the messages of one sender in the same order as they were
+ * sent. Messages may be delivered to the sender node as well, those are ignored by the
+ * {@link ReplayStoreReplicator}.
+ */
+public interface ReplicationTransport {
+
+  /**
+   * Stopping the delivery of messages to the receiver that was passed to {@link #open}.
+   */
+  void close();
+
+  /**
+   * Starting the delivery of the messages that are sent by the peer nodes.
+   *
+   * @param receiver
+   *          The receiver of the messages.
+   */
+  void open(ReplicationReceiver receiver);
+
+  /**
+   * Sending a message to all peer nodes.
+   *
+   * @param message
+   *          The message. The transport must not modify the array.
+   */
+  void send(byte[] message);
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.eventdispatcher.replication;
+
+/**
+ * The version of the replicated state of an event key. Versions are ordered by their counter
+ * first and by the identifier of the node that created them in case of concurrent modifications.
+ */
+final class ReplicationVersion implements Comparable<ReplicationVersion> {
+
+  /**
+   * Creates the version of a local modification.
+   *
+   * @param current
+   *          The current version of the event key or null if the key was never modified.
+   * @param nodeId
+   *          The identifier of the local node.
+   * @return The new version.
+   */
+  static ReplicationVersion next(final ReplicationVersion current, final String nodeId) {
+    long counter = current == null ? 1 : current.counter + 1;
+    return new ReplicationVersion(counter, nodeId);
+  }
+
+  final long counter;
+
+  final String nodeId;
+
+  ReplicationVersion(final long counter, final String nodeId) {
+    this.counter = counter;
+    this.nodeId = nodeId;
+  }
+
+  @Override
+  public int compareTo(final ReplicationVersion other) {
+    if (this.counter != other.counter) {
+      return this.counter < other.counter ? -1 : 1;
+    }
+    return this.nodeId.compareTo(other.nodeId);
+  }
+
+  @Override
+  public String toString() {
+    return this.counter + "@" + this.nodeId;
+  }
+
+}
@@ -0,0 +1,307 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.eventdispatcher.test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.everit.eventdispatcher.BatchEventUtil;
+import org.everit.eventdispatcher.EventDispatcherImpl;
+import org.everit.eventdispatcher.EventUtil;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class BatchingListenerTest {
+
+  /**
+   * Listener that records the batches it receives.
+   */
+  private static class BatchListener {
+
+    private final List<List<Integer>> batches =
+        Collections.synchronizedList(new ArrayList<List<Integer>>());
+
+    private final long processingMillis;
+
+    BatchListener(final long processingMillis) {
+      this.processingMillis = processingMillis;
+    }
+
+    int eventCount() {
+      synchronized (this.batches) {
+        int result = 0;
+        for (List<Integer> batch : this.batches) {
+          result += batch.size();
+        }
+        return result;
+      }
+    }
+
+    void receiveBatch(final List<Integer> events) {
+      this.batches.add(new ArrayList<>(events));
+      if (this.processingMillis > 0) {
+        try {
+          Thread.sleep(this.processingMillis);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    }
+  }
+
+  /**
+   * Event util that supports batches.
+   */
+  private static class BatchTestEventUtil implements EventUtil<Integer, Integer, BatchListener>,
+      BatchEventUtil<Integer, BatchListener> {
+
+    @Override
+    public void callListener(final BatchListener listener, final Integer event) {
+      listener.receiveBatch(Collections.singletonList(event));
+    }
+
+    @Override
+    public void callListenerWithBatch(final BatchListener listener, final List<Integer> events) {
+      listener.receiveBatch(events);
+    }
+
+    @Override
+    public Integer createReplayEvent(final Integer originalEvent) {
+      return originalEvent * -1;
+    }
+
+    @Override
+    public Integer getEventKey(final Integer event) {
+      return Math.abs(event);
+    }
+  }
+
+  private static final long TIMEOUT = 5000;
+
+  private static Thread startThread(final Runnable runnable) {
+    Thread thread = new Thread(runnable);
+    thread.start();
+    return thread;
+  }
+
+  @Test
+  public void testAdaptiveBatchSize() throws InterruptedException {
+    final EventDispatcherImpl<Integer, Integer, BatchListener, String> dispatcher =
+        new EventDispatcherImpl<>(new BatchTestEventUtil());
+    BatchListener listener = new BatchListener(5);
+    dispatcher.addBatchingListener("batching", listener, 16, 20, TimeUnit.MILLISECONDS);
+
+    List<Thread> threads = new ArrayList<>();
+    for (int i = 0; i < 4; i++) {
+      final int threadIndex = i;
+      Thread thread = new Thread(new Runnable() {
+
+        @Override
+        public void run() {
+          for (int j = 0; j < 50; j++) {
+            dispatcher.dispatchEvent(threadIndex * 1000 + j + 1);
+          }
+        }
+      });
+      thread.start();
+      threads.add(thread);
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+
+    long deadline = System.currentTimeMillis() + TIMEOUT;
+    while (listener.eventCount() < 200 && System.currentTimeMillis() < deadline) {
+      Thread.sleep(5);
+    }
+    Assert.assertEquals(200, listener.eventCount());
+
+    int maxBatchSize = 0;
+    int[] lastEventOfThreads = new int[4];
+    for (List<Integer> batch : listener.batches) {
+      maxBatchSize = Math.max(maxBatchSize, batch.size());
+      for (Integer event : batch) {
+        int threadIndex = event / 1000;
+        Assert.assertTrue(lastEventOfThreads[threadIndex] < event);
+        lastEventOfThreads[threadIndex] = event;
+      }
+    }
+    Assert.assertTrue(maxBatchSize > 1);
+    Assert.assertTrue(maxBatchSize <= 16);
+    dispatcher.close();
+  }
+
+  @Test
+  public void testLingeringBatchIsDeliveredByListenerExecutor() throws InterruptedException {
+    final EventDispatcherImpl<Integer, Integer, BatchListener, String> dispatcher =
+        new EventDispatcherImpl<>(new BatchTestEventUtil());
+    final AtomicInteger executedTasks = new AtomicInteger();
+    dispatcher.setListenerExecutor(new Executor() {
+
+      @Override
+      public void execute(final Runnable command) {
+        executedTasks.incrementAndGet();
+        startThread(command);
+      }
+    });
+    final CountDownLatch releaseLatch = new CountDownLatch(1);
+    BatchListener listener = new BatchListener(0) {
+
+      @Override
+      void receiveBatch(final List<Integer> events) {
+        super.receiveBatch(events);
+        try {
+          releaseLatch.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    };
+    dispatcher.addBatchingListener("batching", listener, 10, 20, TimeUnit.MILLISECONDS);
+
+    // The events that arrive while the listener is busy grow the batch size, so the next single
+    // event lingers.
+    List<Thread> threads = new ArrayList<>();
+    for (int i = 1; i <= 3; i++) {
+      final int event = i;
+      threads.add(startThread(new Runnable() {
+
+        @Override
+        public void run() {
+          dispatcher.dispatchEvent(event);
+        }
+      }));
+      long deadline = System.currentTimeMillis() + TIMEOUT;
+      while (threads.get(i - 1).getState() != Thread.State.WAITING
+          && System.currentTimeMillis() < deadline) {
+        Thread.sleep(1);
+      }
+    }
+    releaseLatch.countDown();
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    Assert.assertEquals(Arrays.asList(Arrays.asList(1), Arrays.asList(2, 3)), listener.batches);
+
+    dispatcher.dispatchEvent(4);
+    Assert.assertEquals(3, listener.eventCount());
+    long deadline = System.currentTimeMillis() + TIMEOUT;
+    while (listener.eventCount() < 4 && System.currentTimeMillis() < deadline) {
+      Thread.sleep(5);
+    }
+    Assert.assertEquals(Arrays.asList(4), listener.batches.get(2));
+    Assert.assertEquals(1, executedTasks.get());
+    dispatcher.close();
+  }
+
+  @Test
+  public void testRemoveListenerDeliversPendingBatch() throws InterruptedException {
+    final EventDispatcherImpl<Integer, Integer, BatchListener, String> dispatcher =
+        new EventDispatcherImpl<>(new BatchTestEventUtil());
+    final CountDownLatch blockedLatch = new CountDownLatch(1);
+    final CountDownLatch releaseLatch = new CountDownLatch(1);
+    BatchListener listener = new BatchListener(0) {
+
+      @Override
+      void receiveBatch(final List<Integer> events) {
+        super.receiveBatch(events);
+        blockedLatch.countDown();
+        try {
+          releaseLatch.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    };
+    dispatcher.addBatchingListener("batching", listener, 10, 1, TimeUnit.HOURS);
+
+    // The second event waits in the pending batch while the first one is being delivered.
+    Thread firstDispatcher = startThread(new Runnable() {
+
+      @Override
+      public void run() {
+        dispatcher.dispatchEvent(1);
+      }
+    });
+    Assert.assertTrue(blockedLatch.await(TIMEOUT, TimeUnit.MILLISECONDS));
+    Thread secondDispatcher = startThread(new Runnable() {
+
+      @Override
+      public void run() {
+        dispatcher.dispatchEvent(2);
+      }
+    });
+    Thread.sleep(50);
+    Thread remover = startThread(new Runnable() {
+
+      @Override
+      public void run() {
+        dispatcher.removeListener("batching");
+      }
+    });
+    Thread.sleep(50);
+
+    releaseLatch.countDown();
+    firstDispatcher.join(TIMEOUT);
+    secondDispatcher.join(TIMEOUT);
+    remover.join(TIMEOUT);
+    Assert.assertEquals(Arrays.asList(Arrays.asList(1), Arrays.asList(2)), listener.batches);
+
+    dispatcher.dispatchEvent(3);
+    Assert.assertEquals(2, listener.eventCount());
+    dispatcher.close();
+  }
+
+  @Test
+  public void testReplayAndLinger() throws InterruptedException {
+    EventDispatcherImpl<Integer, Integer, BatchListener, String> dispatcher =
+        new EventDispatcherImpl<>(new BatchTestEventUtil());
+    for (int i = 1; i <= 5; i++) {
+      dispatcher.dispatchEvent(i);
+    }
+
+    BatchListener listener = new BatchListener(0);
+    dispatcher.addBatchingListener("batching", listener, 2, 20, TimeUnit.MILLISECONDS);
+    Assert.assertEquals(Arrays.asList(Arrays.asList(-1, -2), Arrays.asList(-3, -4),
+        Arrays.asList(-5)), listener.batches);
+
+    listener.batches.clear();
+    dispatcher.dispatchEvent(6);
+    long deadline = System.currentTimeMillis() + TIMEOUT;
+    while (listener.eventCount() < 1 && System.currentTimeMillis() < deadline) {
+      Thread.sleep(5);
+    }
+    Assert.assertEquals(Arrays.asList(Arrays.asList(6)), listener.batches);
+
+    Assert.assertTrue(dispatcher.removeListener("batching"));
+    dispatcher.dispatchEvent(7);
+    Assert.assertEquals(1, listener.eventCount());
+    dispatcher.close();
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testWithoutBatchEventUtil() {
+    EventDispatcherImpl<Integer, Integer, Listener<Integer>, String> dispatcher =
+        new EventDispatcherImpl<>(new TestEventUtil());
+    dispatcher.addBatchingListener("batching", null, 2, 20, TimeUnit.MILLISECONDS);
+  }
+}
@@ -0,0 +1,223 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.eventdispatcher.test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.everit.eventdispatcher.EventDispatcherImpl;
+import org.everit.eventdispatcher.ExceptionHandler;
+import org.everit.eventdispatcher.ReplayStoreInterceptor;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class DelayedEventTest {
+
+  private static final long TIMEOUT = 5000;
+
+  private static void waitUntil(final List<?> list, final int size) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + TIMEOUT;
+    while (list.size() < size && System.currentTimeMillis() < deadline) {
+      Thread.sleep(5);
+    }
+  }
+
+  @Test
+  public void testCancelAfterExpiration() throws InterruptedException {
+    EventDispatcherImpl<Integer, Integer, Listener<Integer>, Listener<Integer>> dispatcher =
+        new EventDispatcherImpl<>(new TestEventUtil());
+    final List<Integer> events = Collections.synchronizedList(new ArrayList<Integer>());
+    final CountDownLatch blockedLatch = new CountDownLatch(1);
+    final CountDownLatch releaseLatch = new CountDownLatch(1);
+    Listener<Integer> blockingListener = new Listener<Integer>() {
+
+      @Override
+      public void receiveEvent(final Integer event) {
+        events.add(event);
+        blockedLatch.countDown();
+        try {
+          releaseLatch.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    };
+    dispatcher.addListener(blockingListener, blockingListener);
+
+    dispatcher.dispatchEventDelayed(1, 20, TimeUnit.MILLISECONDS);
+    dispatcher.dispatchEventDelayed(2, 20, TimeUnit.MILLISECONDS);
+    Assert.assertTrue(blockedLatch.await(TIMEOUT, TimeUnit.MILLISECONDS));
+
+    // The timer that expired together with the blocked one cannot be cancelled anymore.
+    boolean cancelled1 = dispatcher.cancelDelayedEvent(1);
+    boolean cancelled2 = dispatcher.cancelDelayedEvent(2);
+    releaseLatch.countDown();
+    int expectedEvents = (cancelled1 ? 0 : 1) + (cancelled2 ? 0 : 1);
+    waitUntil(events, expectedEvents);
+    Thread.sleep(50);
+
+    Assert.assertEquals(expectedEvents, events.size());
+    Assert.assertEquals(!cancelled1, events.contains(1));
+    Assert.assertEquals(!cancelled2, events.contains(2));
+    dispatcher.close();
+  }
+
+  @Test
+  public void testDelayedDispatch() throws InterruptedException {
+    EventDispatcherImpl<Integer, Integer, Listener<Integer>, Listener<Integer>> dispatcher =
+        new EventDispatcherImpl<>(new TestEventUtil());
+    List<ListenerWithEventEntry> collectedEvents =
+        Collections.synchronizedList(new ArrayList<ListenerWithEventEntry>());
+    TestListener listener = new TestListener(collectedEvents);
+    dispatcher.addListener(listener, listener);
+
+    long startTime = System.nanoTime();
+    dispatcher.dispatchEventDelayed(1, 50, TimeUnit.MILLISECONDS);
+    // Rescheduling the same key replaces the pending event.
+    dispatcher.dispatchEventDelayed(-1, 50, TimeUnit.MILLISECONDS);
+    dispatcher.dispatchEventDelayed(2, 1, TimeUnit.HOURS);
+    Assert.assertTrue(collectedEvents.isEmpty());
+
+    waitUntil(collectedEvents, 1);
+    Assert.assertTrue(System.nanoTime() - startTime >= TimeUnit.MILLISECONDS.toNanos(50));
+    Assert.assertEquals(1, collectedEvents.size());
+    Assert.assertEquals(Integer.valueOf(-1), collectedEvents.get(0).getEvent());
+    Assert.assertNotNull(dispatcher.getReplayEvent(1));
+
+    Assert.assertTrue(dispatcher.cancelDelayedEvent(2));
+    Assert.assertFalse(dispatcher.cancelDelayedEvent(2));
+    Assert.assertFalse(dispatcher.cancelDelayedEvent(1));
+
+    dispatcher.dispatchEventDelayed(3, 1, TimeUnit.HOURS);
+    dispatcher.close();
+    Assert.assertFalse(dispatcher.cancelDelayedEvent(3));
+    try {
+      dispatcher.dispatchEventDelayed(4, 1, TimeUnit.MILLISECONDS);
+      Assert.fail("Dispatching must fail after closing");
+    } catch (IllegalStateException e) {
+      Assert.assertNotNull(e.getMessage());
+    }
+  }
+
+  @Test
+  public void testTimerExceptionIsPassedToExceptionHandler() throws InterruptedException {
+    final List<String> failures = Collections.synchronizedList(new ArrayList<String>());
+    ExceptionHandler<String, Integer> exceptionHandler = new ExceptionHandler<String, Integer>() {
+
+      @Override
+      public void handleException(final String listenerKey, final Integer event,
+          final Throwable e) {
+        failures.add(listenerKey + ":" + event + ":" + e.getMessage());
+      }
+    };
+    EventDispatcherImpl<Integer, Integer, Listener<Integer>, String> dispatcher =
+        new EventDispatcherImpl<>(new TestEventUtil(), exceptionHandler);
+    dispatcher.setReplayStoreInterceptor(new ReplayStoreInterceptor<Integer, Integer>() {
+
+      @Override
+      public void afterEvict(final Integer eventKey) {
+      }
+
+      @Override
+      public void afterExpire(final Integer eventKey) {
+      }
+
+      @Override
+      public boolean beforePut(final Integer eventKey, final Integer event) {
+        throw new UnsupportedOperationException("Rejected by interceptor");
+      }
+
+      @Override
+      public boolean beforeRemove(final Integer eventKey) {
+        return true;
+      }
+    });
+
+    // Without a listener executor the delayed dispatch fails in the thread of the timer wheel.
+    dispatcher.dispatchEventDelayed(1, 10, TimeUnit.MILLISECONDS);
+    waitUntil(failures, 1);
+    Assert.assertEquals(Collections.singletonList("null:null:Rejected by interceptor"), failures);
+
+    // The thread of the wheel continues with the next timers.
+    dispatcher.setReplayStoreInterceptor(null);
+    dispatcher.dispatchEventDelayed(2, 10, TimeUnit.MILLISECONDS);
+    long deadline = System.currentTimeMillis() + TIMEOUT;
+    while (dispatcher.getReplayEvent(2) == null && System.currentTimeMillis() < deadline) {
+      Thread.sleep(5);
+    }
+    Assert.assertEquals(Integer.valueOf(-2), dispatcher.getReplayEvent(2));
+    Assert.assertEquals(1, failures.size());
+    dispatcher.close();
+  }
+
+  @Test
+  public void testTimerThreadStopsWhenIdle() throws InterruptedException {
+    EventDispatcherImpl<Integer, Integer, Listener<Integer>, Listener<Integer>> dispatcher =
+        new EventDispatcherImpl<>(new TestEventUtil());
+    final List<Thread> threads = Collections.synchronizedList(new ArrayList<Thread>());
+    Listener<Integer> listener = new Listener<Integer>() {
+
+      @Override
+      public void receiveEvent(final Integer event) {
+        threads.add(Thread.currentThread());
+      }
+    };
+    dispatcher.addListener(listener, listener);
+
+    dispatcher.dispatchEventDelayed(1, 10, TimeUnit.MILLISECONDS);
+    waitUntil(threads, 1);
+    Thread timerThread = threads.get(0);
+    timerThread.join(TIMEOUT);
+    Assert.assertFalse(timerThread.isAlive());
+
+    // The next timer starts the thread again.
+    dispatcher.dispatchEventDelayed(2, 10, TimeUnit.MILLISECONDS);
+    waitUntil(threads, 2);
+    Assert.assertEquals(2, threads.size());
+    Assert.assertFalse(timerThread == threads.get(1));
+    dispatcher.close();
+  }
+
+  @Test
+  public void testTimeToLive() throws InterruptedException {
+    EventDispatcherImpl<Integer, Integer, Listener<Integer>, Listener<Integer>> dispatcher =
+        new EventDispatcherImpl<>(new TestEventUtil());
+
+    dispatcher.dispatchEvent(1, 30, TimeUnit.MILLISECONDS);
+    dispatcher.dispatchEvent(2, 30, TimeUnit.MILLISECONDS);
+    dispatcher.dispatchEvent(3, 30, TimeUnit.MILLISECONDS);
+    // A new event of the key without time to live cancels the expiration.
+    dispatcher.dispatchEvent(2);
+    // A new event of the key with time to live reschedules the expiration.
+    dispatcher.dispatchEvent(3, 1, TimeUnit.HOURS);
+    Assert.assertNotNull(dispatcher.getReplayEvent(1));
+
+    long deadline = System.currentTimeMillis() + TIMEOUT;
+    while (dispatcher.getReplayEvent(1) != null && System.currentTimeMillis() < deadline) {
+      Thread.sleep(5);
+    }
+    Thread.sleep(50);
+    Assert.assertNull(dispatcher.getReplayEvent(1));
+    Assert.assertNotNull(dispatcher.getReplayEvent(2));
+    Assert.assertNotNull(dispatcher.getReplayEvent(3));
+
+    Assert.assertTrue(dispatcher.removeEvent(3));
+    dispatcher.close();
+  }
+}
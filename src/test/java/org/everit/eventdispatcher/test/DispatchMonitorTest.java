@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.eventdispatcher.test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.everit.eventdispatcher.DispatchMonitor;
+import org.everit.eventdispatcher.EventDispatcherImpl;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class DispatchMonitorTest {
+
+  /**
+   * Monitor that records the calls as strings.
+   */
+  private static final class RecordingMonitor
+      implements DispatchMonitor<Integer, Integer, Listener<Integer>> {
+
+    private final List<String> records = new ArrayList<>();
+
+    @Override
+    public void eventDispatched(final Integer eventKey, final int listenerCount,
+        final long durationNanos) {
+      Assert.assertTrue(durationNanos >= 0);
+      this.records.add("dispatched " + eventKey + " to " + listenerCount);
+    }
+
+    @Override
+    public void listenersReplayed(final Collection<Listener<Integer>> listenerKeys,
+        final int replayEventCount, final long durationNanos, final long lockHoldNanos) {
+      Assert.assertTrue(lockHoldNanos >= 0);
+      Assert.assertTrue(durationNanos >= lockHoldNanos);
+      this.records.add("replayed " + replayEventCount + " to " + listenerKeys.size());
+    }
+
+    @Override
+    public void slowListenerCall(final Listener<Integer> listenerKey, final Integer event,
+        final long durationNanos) {
+      Assert.assertTrue(durationNanos >= TimeUnit.MILLISECONDS.toNanos(10));
+      this.records.add("slow " + event);
+    }
+  }
+
+  @Test
+  public void testMonitor() {
+    EventDispatcherImpl<Integer, Integer, Listener<Integer>, Listener<Integer>> dispatcher =
+        new EventDispatcherImpl<>(new TestEventUtil());
+    RecordingMonitor monitor = new RecordingMonitor();
+    dispatcher.setDispatchMonitor(monitor, 10, TimeUnit.MILLISECONDS);
+
+    dispatcher.dispatchEvent(1);
+    dispatcher.dispatchEvent(2);
+
+    Listener<Integer> slowListener = new Listener<Integer>() {
+
+      @Override
+      public void receiveEvent(final Integer event) {
+        if (event == 3) {
+          try {
+            Thread.sleep(20);
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+        }
+      }
+    };
+    dispatcher.addListener(slowListener, slowListener);
+
+    Map<Listener<Integer>, Listener<Integer>> newListeners = new LinkedHashMap<>();
+    for (int i = 0; i < 2; i++) {
+      TestListener listener = new TestListener(new ArrayList<ListenerWithEventEntry>());
+      newListeners.put(listener, listener);
+    }
+    dispatcher.addListeners(newListeners);
+    dispatcher.dispatchEvent(3);
+
+    dispatcher.setDispatchMonitor(null, 0, TimeUnit.MILLISECONDS);
+    dispatcher.dispatchEvent(4);
+
+    Assert.assertEquals(Arrays.asList("dispatched 1 to 0", "dispatched 2 to 0",
+        "replayed 2 to 1", "replayed 2 to 2", "slow 3", "dispatched 3 to 3"), monitor.records);
+  }
+}
@@ -0,0 +1,349 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.eventdispatcher.test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.everit.eventdispatcher.DispatcherMetrics;
+import org.everit.eventdispatcher.DispatcherRuntime;
+import org.everit.eventdispatcher.EventDispatcherImpl;
+import org.everit.eventdispatcher.ExceptionHandler;
+import org.everit.eventdispatcher.ReplayStoreInterceptor;
+import org.everit.eventdispatcher.internal.DispatcherLane;
+import org.everit.eventdispatcher.internal.FifoExecutor;
+import org.everit.eventdispatcher.internal.ListenerInvoker;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class DispatcherRuntimeTest {
+
+  private static final long TIMEOUT = 5000;
+
+  private static Runnable createRecordingTask(final String name, final List<String> calls,
+      final CountDownLatch finished) {
+    return new Runnable() {
+
+      @Override
+      public void run() {
+        calls.add(name);
+        finished.countDown();
+      }
+    };
+  }
+
+  private static EventDispatcherImpl<Integer, Integer, Listener<Integer>, String> createDispatcher(
+      final DispatcherRuntime runtime, final String name) {
+    return new EventDispatcherImpl<>(new TestEventUtil(), null, runtime, name);
+  }
+
+  private static void waitForUsedReplayEvents(final DispatcherRuntime runtime,
+      final long expected) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + TIMEOUT;
+    while (runtime.getUsedReplayEvents() != expected && System.currentTimeMillis() < deadline) {
+      Thread.sleep(1);
+    }
+    Assert.assertEquals(expected, runtime.getUsedReplayEvents());
+  }
+
+  @Test
+  public void testClosedRuntimeCallsListenersInDispatchingThread() {
+    DispatcherRuntime runtime = new DispatcherRuntime(1, 1000);
+    EventDispatcherImpl<Integer, Integer, Listener<Integer>, String> dispatcher =
+        createDispatcher(runtime, "dispatcher");
+    final List<String> threadNames = Collections.synchronizedList(new ArrayList<String>());
+    for (int i = 0; i < 3; i++) {
+      dispatcher.addListener("listener" + i, new Listener<Integer>() {
+
+        @Override
+        public void receiveEvent(final Integer event) {
+          threadNames.add(Thread.currentThread().getName());
+        }
+      });
+    }
+    runtime.close();
+
+    for (int i = 1; i <= 100; i++) {
+      dispatcher.dispatchEvent(i);
+    }
+    Assert.assertEquals(
+        Collections.nCopies(300, Thread.currentThread().getName()), threadNames);
+    Assert.assertEquals(0, runtime.getMetrics("dispatcher").getQueuedTasks());
+    dispatcher.close();
+  }
+
+  @Test
+  public void testClosedRuntimeStopsTimerWheel() {
+    DispatcherRuntime runtime = new DispatcherRuntime(1, 1000);
+    EventDispatcherImpl<Integer, Integer, Listener<Integer>, String> dispatcher =
+        createDispatcher(runtime, "dispatcher");
+    dispatcher.dispatchEventDelayed(1, 1, TimeUnit.HOURS);
+    runtime.close();
+
+    Assert.assertFalse(dispatcher.cancelDelayedEvent(1));
+    try {
+      dispatcher.dispatchEventDelayed(2, 1, TimeUnit.MILLISECONDS);
+      Assert.fail("Delayed dispatching must fail after closing the runtime");
+    } catch (IllegalStateException e) {
+      Assert.assertNotNull(e.getMessage());
+    }
+    dispatcher.close();
+  }
+
+  @Test
+  public void testDispatchersShareReplayEventBudget() throws InterruptedException {
+    try (DispatcherRuntime runtime = new DispatcherRuntime(2, 100)) {
+      EventDispatcherImpl<Integer, Integer, Listener<Integer>, String> large =
+          createDispatcher(runtime, "large");
+      EventDispatcherImpl<Integer, Integer, Listener<Integer>, String> small =
+          createDispatcher(runtime, "small");
+
+      // The large dispatcher can use the unused share of the small one.
+      for (int i = 1; i <= 100; i++) {
+        large.dispatchEvent(i);
+      }
+      Assert.assertEquals(100, runtime.getUsedReplayEvents());
+
+      // The small dispatcher is below its share, so the large one is trimmed in its lane.
+      for (int i = 1; i <= 10; i++) {
+        small.dispatchEvent(i);
+      }
+      waitForUsedReplayEvents(runtime, 100);
+      DispatcherMetrics largeMetrics = runtime.getMetrics("large");
+      Assert.assertEquals(90, largeMetrics.getReplayEvents());
+      Assert.assertEquals(10, largeMetrics.getEvictedReplayEvents());
+      Assert.assertNull(large.getReplayEvent(10));
+      Assert.assertEquals(Integer.valueOf(-11), large.getReplayEvent(11));
+
+      // The large dispatcher is above its share, so it evicts its oldest event immediately.
+      large.dispatchEvent(101);
+      Assert.assertEquals(100, runtime.getUsedReplayEvents());
+      Assert.assertNull(large.getReplayEvent(11));
+      Assert.assertEquals(Integer.valueOf(-101), large.getReplayEvent(101));
+
+      // Overriding an event does not change the number of replay events.
+      small.dispatchEvent(1);
+      Assert.assertEquals(100, runtime.getUsedReplayEvents());
+      Assert.assertEquals(10, runtime.getMetrics("small").getReplayEvents());
+      Assert.assertEquals(11, runtime.getMetrics("small").getDispatchedEvents());
+
+      // Closing the dispatcher releases its part of the budget.
+      large.close();
+      Assert.assertNull(runtime.getMetrics("large"));
+      Assert.assertEquals(10, runtime.getUsedReplayEvents());
+      small.close();
+    }
+  }
+
+  @Test
+  public void testDispatchersShareTimerWheel() throws InterruptedException {
+    try (DispatcherRuntime runtime = new DispatcherRuntime(1, 100)) {
+      EventDispatcherImpl<Integer, Integer, Listener<Integer>, String> closed =
+          createDispatcher(runtime, "closed");
+      EventDispatcherImpl<Integer, Integer, Listener<Integer>, String> open =
+          createDispatcher(runtime, "open");
+      final List<Integer> events = Collections.synchronizedList(new ArrayList<Integer>());
+      final List<String> threadNames = Collections.synchronizedList(new ArrayList<String>());
+      Listener<Integer> listener = new Listener<Integer>() {
+
+        @Override
+        public void receiveEvent(final Integer event) {
+          threadNames.add(Thread.currentThread().getName());
+          events.add(event);
+        }
+      };
+      closed.addListener("listener", listener);
+      open.addListener("listener", listener);
+
+      closed.dispatchEventDelayed(1, 20, TimeUnit.MILLISECONDS);
+      open.dispatchEventDelayed(1, 20, TimeUnit.MILLISECONDS);
+      open.dispatchEventDelayed(2, 1, TimeUnit.HOURS);
+      // Closing a dispatcher drops only its own timers from the shared wheel.
+      closed.close();
+
+      long deadline = System.currentTimeMillis() + TIMEOUT;
+      while (events.isEmpty() && System.currentTimeMillis() < deadline) {
+        Thread.sleep(1);
+      }
+      Thread.sleep(50);
+      Assert.assertEquals(Collections.singletonList(1), events);
+      // The thread of the shared wheel passes the dispatch to the lane of the dispatcher.
+      Assert.assertFalse("eventdispatcher-runtime-timers".equals(threadNames.get(0)));
+      Assert.assertTrue(open.cancelDelayedEvent(2));
+      open.close();
+    }
+  }
+
+  @Test
+  public void testLaneExceptionIsPassedToExceptionHandler() throws InterruptedException {
+    DispatcherRuntime runtime = new DispatcherRuntime(1, 1000);
+    final List<String> failures = Collections.synchronizedList(new ArrayList<String>());
+    ExceptionHandler<String, Integer> exceptionHandler = new ExceptionHandler<String, Integer>() {
+
+      @Override
+      public void handleException(final String listenerKey, final Integer event,
+          final Throwable e) {
+        failures.add(listenerKey + ":" + event + ":" + e.getMessage());
+      }
+    };
+    EventDispatcherImpl<Integer, Integer, Listener<Integer>, String> dispatcher =
+        new EventDispatcherImpl<>(new TestEventUtil(), exceptionHandler, runtime, "dispatcher");
+    dispatcher.setReplayStoreInterceptor(new ReplayStoreInterceptor<Integer, Integer>() {
+
+      @Override
+      public void afterEvict(final Integer eventKey) {
+      }
+
+      @Override
+      public void afterExpire(final Integer eventKey) {
+      }
+
+      @Override
+      public boolean beforePut(final Integer eventKey, final Integer event) {
+        throw new UnsupportedOperationException("Rejected by interceptor");
+      }
+
+      @Override
+      public boolean beforeRemove(final Integer eventKey) {
+        return true;
+      }
+    });
+
+    // The thread of the timer wheel passes the delayed dispatch to the lane, where it fails.
+    dispatcher.dispatchEventDelayed(1, 10, TimeUnit.MILLISECONDS);
+    long deadline = System.currentTimeMillis() + TIMEOUT;
+    while (runtime.getMetrics("dispatcher").getExecutedTasks() == 0
+        && System.currentTimeMillis() < deadline) {
+      Thread.sleep(1);
+    }
+    Assert.assertEquals(Collections.singletonList("null:null:Rejected by interceptor"), failures);
+    Assert.assertEquals(1, runtime.getMetrics("dispatcher").getExecutedTasks());
+    dispatcher.close();
+    runtime.close();
+  }
+
+  @Test
+  public void testLanesTakeTurns() throws InterruptedException {
+    ForkJoinPool pool =
+        new ForkJoinPool(1, ForkJoinPool.defaultForkJoinWorkerThreadFactory, null, true);
+    try {
+      FifoExecutor laneExecutor = new FifoExecutor(pool);
+      ListenerInvoker<Integer, Listener<Integer>, String> listenerInvoker =
+          new ListenerInvoker<>(new TestEventUtil(), null);
+      DispatcherLane busyLane =
+          new DispatcherLane(laneExecutor, DispatcherRuntime.DEFAULT_QUANTUM, listenerInvoker);
+      DispatcherLane otherLane =
+          new DispatcherLane(laneExecutor, DispatcherRuntime.DEFAULT_QUANTUM, listenerInvoker);
+      final List<String> calls = Collections.synchronizedList(new ArrayList<String>());
+      final CountDownLatch started = new CountDownLatch(1);
+      final CountDownLatch released = new CountDownLatch(1);
+      CountDownLatch finished = new CountDownLatch(201);
+
+      final Runnable firstTask = createRecordingTask("busy", calls, finished);
+      busyLane.execute(new Runnable() {
+
+        @Override
+        public void run() {
+          started.countDown();
+          try {
+            released.await();
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+          firstTask.run();
+        }
+      });
+      Assert.assertTrue(started.await(TIMEOUT, TimeUnit.MILLISECONDS));
+      for (int i = 1; i < 200; i++) {
+        busyLane.execute(createRecordingTask("busy", calls, finished));
+      }
+      otherLane.execute(createRecordingTask("other", calls, finished));
+      released.countDown();
+
+      // The turn of the busy lane is resubmitted by the worker of the pool, which would run it
+      // before the other lane without the FIFO order of the turns.
+      Assert.assertTrue(finished.await(TIMEOUT, TimeUnit.MILLISECONDS));
+      Assert.assertEquals(DispatcherRuntime.DEFAULT_QUANTUM, calls.indexOf("other"));
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  @Test
+  public void testListenersAreCalledInSharedExecutor() throws InterruptedException {
+    try (DispatcherRuntime runtime = new DispatcherRuntime(1, 1000)) {
+      final EventDispatcherImpl<Integer, Integer, Listener<Integer>, String> inner =
+          createDispatcher(runtime, "inner");
+      EventDispatcherImpl<Integer, Integer, Listener<Integer>, String> outer =
+          createDispatcher(runtime, "outer");
+
+      final AtomicInteger innerCalls = new AtomicInteger();
+      for (int i = 0; i < 3; i++) {
+        inner.addListener("inner" + i, new Listener<Integer>() {
+
+          @Override
+          public void receiveEvent(final Integer event) {
+            innerCalls.incrementAndGet();
+          }
+        });
+      }
+
+      // The listeners of the outer dispatcher dispatch on the inner one, which waits for the
+      // single thread of the runtime that might be busy with an outer listener.
+      final List<String> threadNames = Collections.synchronizedList(new ArrayList<String>());
+      for (int i = 0; i < 3; i++) {
+        outer.addListener("outer" + i, new Listener<Integer>() {
+
+          @Override
+          public void receiveEvent(final Integer event) {
+            threadNames.add(Thread.currentThread().getName());
+            inner.dispatchEvent(event);
+          }
+        });
+      }
+
+      for (int i = 1; i <= 100; i++) {
+        outer.dispatchEvent(i);
+      }
+      Assert.assertEquals(300, threadNames.size());
+      Assert.assertEquals(900, innerCalls.get());
+
+      List<DispatcherMetrics> metrics = runtime.getMetrics();
+      Assert.assertEquals(2, metrics.size());
+      Assert.assertEquals("inner", metrics.get(0).getName());
+      Assert.assertEquals(300, metrics.get(0).getDispatchedEvents());
+      Assert.assertEquals("outer", metrics.get(1).getName());
+      Assert.assertEquals(100, metrics.get(1).getDispatchedEvents());
+      Assert.assertTrue(metrics.get(1).getExecutedTasks() > 0);
+
+      outer.close();
+      inner.close();
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testNameMustBeUnique() {
+    try (DispatcherRuntime runtime = new DispatcherRuntime(1, 10)) {
+      createDispatcher(runtime, "dispatcher");
+      createDispatcher(runtime, "dispatcher");
+    }
+  }
+}
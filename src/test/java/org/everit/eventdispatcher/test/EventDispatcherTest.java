@@ -16,7 +16,16 @@
 package org.everit.eventdispatcher.test;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 
 import org.everit.eventdispatcher.EventDispatcher;
@@ -29,6 +38,236 @@ import org.junit.Test;
 
 public class EventDispatcherTest {
 
+  private static void addListenersWithDispatchDuringReplay(final ExecutorService executor)
+      throws InterruptedException {
+    final EventDispatcherImpl<Integer, Integer, Listener<Integer>, String> eventDispatcher =
+        new EventDispatcherImpl<>(new TestEventUtil());
+    for (int i = 1; i <= 3; i++) {
+      eventDispatcher.dispatchEvent(i);
+    }
+
+    final Map<String, Listener<Integer>> newListeners = new LinkedHashMap<>();
+    // The first listener dispatches an event during its replay that is passed to the other new
+    // listeners as well.
+    newListeners.put("dispatching", new Listener<Integer>() {
+
+      @Override
+      public void receiveEvent(final Integer event) {
+        if (event == -1) {
+          eventDispatcher.dispatchEvent(1000);
+        }
+      }
+    });
+    Map<String, List<Integer>> receivedEventsByListener = new LinkedHashMap<>();
+    for (int i = 0; i < 3; i++) {
+      final List<Integer> receivedEvents = new ArrayList<>();
+      receivedEventsByListener.put("receiving" + i, receivedEvents);
+      newListeners.put("receiving" + i, new Listener<Integer>() {
+
+        @Override
+        public void receiveEvent(final Integer event) {
+          receivedEvents.add(event);
+        }
+      });
+    }
+
+    Thread registeringThread = new Thread(new Runnable() {
+
+      @Override
+      public void run() {
+        eventDispatcher.addListeners(newListeners, executor);
+      }
+    });
+    registeringThread.start();
+    registeringThread.join(TimeUnit.SECONDS.toMillis(10));
+    Assert.assertFalse("Registration deadlocked", registeringThread.isAlive());
+
+    // Each receiving listener got its replay events before the event dispatched meanwhile.
+    for (List<Integer> receivedEvents : receivedEventsByListener.values()) {
+      Assert.assertEquals(Arrays.asList(-1, -2, -3, 1000), receivedEvents);
+    }
+  }
+
+  @Test
+  public void testAddListeners() {
+    EventDispatcherImpl<Integer, Integer, Listener<Integer>, Listener<Integer>> eventDispatcher =
+        new EventDispatcherImpl<>(new TestEventUtil());
+
+    for (int i = 1; i <= 100; i++) {
+      eventDispatcher.dispatchEvent(i);
+    }
+
+    ExecutorService executor = Executors.newFixedThreadPool(3);
+    try {
+      Map<Listener<Integer>, List<ListenerWithEventEntry>> collectedEventsByListener =
+          new LinkedHashMap<>();
+      Map<Listener<Integer>, Listener<Integer>> newListeners = new LinkedHashMap<>();
+      for (int i = 0; i < 10; i++) {
+        List<ListenerWithEventEntry> collectedEvents =
+            Collections.synchronizedList(new ArrayList<ListenerWithEventEntry>());
+        TestListener listener = new TestListener(collectedEvents);
+        collectedEventsByListener.put(listener, collectedEvents);
+        newListeners.put(listener, listener);
+      }
+
+      eventDispatcher.addListeners(newListeners, executor);
+      eventDispatcher.dispatchEvent(101);
+
+      for (List<ListenerWithEventEntry> collectedEvents : collectedEventsByListener.values()) {
+        Assert.assertEquals(101, collectedEvents.size());
+        for (int i = 0; i < 100; i++) {
+          Assert.assertEquals(Integer.valueOf(-(i + 1)), collectedEvents.get(i).getEvent());
+        }
+        Assert.assertEquals(Integer.valueOf(101), collectedEvents.get(100).getEvent());
+      }
+
+      // None of the listeners are registered if any of the keys is already registered.
+      Listener<Integer> alreadyRegistered = newListeners.keySet().iterator().next();
+      TestListener newListener = new TestListener(new ArrayList<ListenerWithEventEntry>());
+      Map<Listener<Integer>, Listener<Integer>> conflictingListeners = new LinkedHashMap<>();
+      conflictingListeners.put(newListener, newListener);
+      conflictingListeners.put(alreadyRegistered, alreadyRegistered);
+      try {
+        eventDispatcher.addListeners(conflictingListeners);
+        Assert.fail();
+      } catch (ListenerAlreadyRegisteredException e) {
+        Assert.assertFalse(eventDispatcher.removeListener(newListener));
+      }
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void testAddListenersWithDispatchDuringReplay() throws InterruptedException {
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      addListenersWithDispatchDuringReplay(executor);
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void testAddListenersWithDispatchDuringSequentialReplay() throws InterruptedException {
+    // The registering thread replays all listeners, so it holds the locks of the receiving ones
+    // while the first listener dispatches.
+    addListenersWithDispatchDuringReplay(null);
+  }
+
+  @Test
+  public void testCloseAndDrain() throws InterruptedException {
+    final EventDispatcherImpl<Integer, Integer, Listener<Integer>, Listener<Integer>> dispatcher =
+        new EventDispatcherImpl<>(new TestEventUtil());
+
+    final CountDownLatch deliveryStarted = new CountDownLatch(1);
+    final CountDownLatch releaseDelivery = new CountDownLatch(1);
+    final AtomicInteger receivedEvents = new AtomicInteger();
+    Listener<Integer> slowListener = new Listener<Integer>() {
+
+      @Override
+      public void receiveEvent(final Integer event) {
+        receivedEvents.incrementAndGet();
+        deliveryStarted.countDown();
+        try {
+          releaseDelivery.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    };
+    dispatcher.addListener(slowListener, slowListener);
+
+    try {
+      dispatcher.drain(1, TimeUnit.MILLISECONDS);
+      Assert.fail();
+    } catch (IllegalStateException e) {
+      Assert.assertNotNull(e.getMessage());
+    }
+
+    Thread dispatcherThread = new Thread(new Runnable() {
+
+      @Override
+      public void run() {
+        dispatcher.dispatchEvent(1);
+      }
+    });
+    dispatcherThread.start();
+    deliveryStarted.await();
+
+    // Closing does not wait for the slow listener.
+    dispatcher.close();
+    dispatcher.close();
+    Assert.assertNull(dispatcher.getReplayEvent(1));
+    Assert.assertFalse(dispatcher.drain(10, TimeUnit.MILLISECONDS));
+
+    try {
+      dispatcher.dispatchEvent(2);
+      Assert.fail();
+    } catch (IllegalStateException e) {
+      Assert.assertNotNull(e.getMessage());
+    }
+    try {
+      TestListener listener = new TestListener(new ArrayList<ListenerWithEventEntry>());
+      dispatcher.addListener(listener, listener);
+      Assert.fail();
+    } catch (IllegalStateException e) {
+      Assert.assertNotNull(e.getMessage());
+    }
+
+    releaseDelivery.countDown();
+    Assert.assertTrue(dispatcher.drain(10, TimeUnit.SECONDS));
+    dispatcherThread.join();
+    Assert.assertEquals(1, receivedEvents.get());
+  }
+
+  @Test
+  public void testCloseFinishesAcceptedDispatch() throws InterruptedException {
+    final EventDispatcherImpl<Integer, Integer, Listener<Integer>, String> dispatcher =
+        new EventDispatcherImpl<>(new TestEventUtil());
+
+    final CountDownLatch deliveryStarted = new CountDownLatch(1);
+    final CountDownLatch releaseDelivery = new CountDownLatch(1);
+    dispatcher.addListener("slow", new Listener<Integer>() {
+
+      @Override
+      public void receiveEvent(final Integer event) {
+        deliveryStarted.countDown();
+        try {
+          releaseDelivery.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    });
+    final AtomicInteger receivedEvents = new AtomicInteger();
+    dispatcher.addListener("next", new Listener<Integer>() {
+
+      @Override
+      public void receiveEvent(final Integer event) {
+        receivedEvents.incrementAndGet();
+      }
+    });
+
+    Thread dispatcherThread = new Thread(new Runnable() {
+
+      @Override
+      public void run() {
+        dispatcher.dispatchEvent(1);
+      }
+    });
+    dispatcherThread.start();
+    deliveryStarted.await();
+
+    // The dispatch that was accepted before closing reaches the listener after the slow one.
+    dispatcher.close();
+    Assert.assertFalse(dispatcher.removeListener("next"));
+    releaseDelivery.countDown();
+    Assert.assertTrue(dispatcher.drain(10, TimeUnit.SECONDS));
+    dispatcherThread.join();
+    Assert.assertEquals(1, receivedEvents.get());
+  }
+
   @Test
   public void testExceptionHandler() {
     final AtomicReference<Throwable> caughedException = new AtomicReference<>();
@@ -118,6 +357,86 @@ public class EventDispatcherTest {
     }
   }
 
+  @Test
+  public void testRemoveListenerWaitsForDelivery() throws InterruptedException {
+    final EventDispatcherImpl<Integer, Integer, Listener<Integer>, Listener<Integer>> dispatcher =
+        new EventDispatcherImpl<>(new TestEventUtil());
+
+    final CountDownLatch deliveryStarted = new CountDownLatch(1);
+    final AtomicInteger finishedDeliveries = new AtomicInteger();
+    Listener<Integer> slowListener = new Listener<Integer>() {
+
+      @Override
+      public void receiveEvent(final Integer event) {
+        deliveryStarted.countDown();
+        try {
+          Thread.sleep(50);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        finishedDeliveries.incrementAndGet();
+      }
+    };
+    dispatcher.addListener(slowListener, slowListener);
+
+    Thread dispatcherThread = new Thread(new Runnable() {
+
+      @Override
+      public void run() {
+        dispatcher.dispatchEvent(1);
+      }
+    });
+    dispatcherThread.start();
+    deliveryStarted.await();
+
+    Assert.assertTrue(dispatcher.removeListener(slowListener));
+    Assert.assertEquals(1, finishedDeliveries.get());
+
+    dispatcher.dispatchEvent(2);
+    Assert.assertEquals(1, finishedDeliveries.get());
+    dispatcherThread.join();
+  }
+
+  @Test
+  public void testRemoveListenerWaitsForReplay() throws InterruptedException {
+    final EventDispatcherImpl<Integer, Integer, Listener<Integer>, Listener<Integer>> dispatcher =
+        new EventDispatcherImpl<>(new TestEventUtil());
+    dispatcher.dispatchEvent(1);
+    dispatcher.dispatchEvent(2);
+
+    final CountDownLatch deliveryStarted = new CountDownLatch(1);
+    final AtomicInteger finishedDeliveries = new AtomicInteger();
+    final Listener<Integer> slowListener = new Listener<Integer>() {
+
+      @Override
+      public void receiveEvent(final Integer event) {
+        deliveryStarted.countDown();
+        try {
+          Thread.sleep(50);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        finishedDeliveries.incrementAndGet();
+      }
+    };
+
+    Thread registeringThread = new Thread(new Runnable() {
+
+      @Override
+      public void run() {
+        dispatcher.addListener(slowListener, slowListener);
+      }
+    });
+    registeringThread.start();
+    deliveryStarted.await();
+
+    // The replay is in progress in another thread, so the removal waits for the current event.
+    Assert.assertTrue(dispatcher.removeListener(slowListener));
+    Assert.assertEquals(1, finishedDeliveries.get());
+    registeringThread.join();
+    Assert.assertEquals(1, finishedDeliveries.get());
+  }
+
   @Test
   public void testOneThread() {
     EventUtil<Integer, Integer, Listener<Integer>> eventUtil =
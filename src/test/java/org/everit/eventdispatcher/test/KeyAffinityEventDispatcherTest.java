@@ -0,0 +1,307 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.eventdispatcher.test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.everit.eventdispatcher.DispatcherRuntime;
+import org.everit.eventdispatcher.EventUtil;
+import org.everit.eventdispatcher.HotKeyHandler;
+import org.everit.eventdispatcher.KeyAffinityEventDispatcher;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class KeyAffinityEventDispatcherTest {
+
+  /**
+   * Event util where the key of an event is the last digit of the event, so the order of the
+   * events of the same key can be checked.
+   */
+  private static final class LastDigitEventUtil
+      implements EventUtil<Integer, Integer, Listener<Integer>> {
+
+    @Override
+    public void callListener(final Listener<Integer> listener, final Integer event) {
+      listener.receiveEvent(event);
+    }
+
+    @Override
+    public Integer createReplayEvent(final Integer originalEvent) {
+      return originalEvent * -1;
+    }
+
+    @Override
+    public Integer getEventKey(final Integer event) {
+      return Math.abs(event) % 10;
+    }
+  }
+
+  @Test
+  public void testCloseAndDrain() throws InterruptedException {
+    KeyAffinityEventDispatcher<Integer, Integer, Listener<Integer>, Listener<Integer>> dispatcher =
+        new KeyAffinityEventDispatcher<>(new LastDigitEventUtil(), null, 2);
+
+    try {
+      dispatcher.drain(1, TimeUnit.SECONDS);
+      Assert.fail("Draining must fail before closing");
+    } catch (IllegalStateException e) {
+      Assert.assertNotNull(e.getMessage());
+    }
+
+    dispatcher.dispatchEvent(1);
+    Assert.assertTrue(dispatcher.removeEvent(1));
+    Assert.assertFalse(dispatcher.removeEvent(1));
+
+    dispatcher.close();
+    Assert.assertTrue(dispatcher.drain(1, TimeUnit.SECONDS));
+    try {
+      dispatcher.dispatchEvent(2);
+      Assert.fail("Dispatching must fail after closing");
+    } catch (IllegalStateException e) {
+      Assert.assertNotNull(e.getMessage());
+    }
+    Assert.assertFalse(dispatcher.removeEvent(2));
+  }
+
+  @Test
+  public void testCloseDeliversAcceptedEvents() throws InterruptedException {
+    KeyAffinityEventDispatcher<Integer, Integer, Listener<Integer>, Listener<Integer>> dispatcher =
+        new KeyAffinityEventDispatcher<>(new LastDigitEventUtil(), null, 2);
+
+    final CountDownLatch releaseLatch = new CountDownLatch(1);
+    final List<Integer> events = Collections.synchronizedList(new ArrayList<Integer>());
+    Listener<Integer> blockingListener = new Listener<Integer>() {
+
+      @Override
+      public void receiveEvent(final Integer event) {
+        try {
+          releaseLatch.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        events.add(event);
+      }
+    };
+    dispatcher.addListener(blockingListener, blockingListener);
+
+    for (int i = 1; i <= 10; i++) {
+      dispatcher.dispatchEvent(i);
+    }
+    dispatcher.close();
+    releaseLatch.countDown();
+    Assert.assertTrue(dispatcher.drain(5, TimeUnit.SECONDS));
+    Assert.assertEquals(10, events.size());
+    Assert.assertFalse(dispatcher.removeListener(blockingListener));
+  }
+
+  @Test
+  public void testHotKeyDetection() throws InterruptedException {
+    final List<Integer> hotKeys = Collections.synchronizedList(new ArrayList<Integer>());
+    HotKeyHandler<Integer> hotKeyHandler = new HotKeyHandler<Integer>() {
+
+      @Override
+      public void hotKeyDetected(final Integer eventKey, final int workerIndex,
+          final int queuedEvents) {
+        hotKeys.add(eventKey);
+      }
+    };
+    KeyAffinityEventDispatcher<Integer, Integer, Listener<Integer>, Listener<Integer>> dispatcher =
+        new KeyAffinityEventDispatcher<>(new LastDigitEventUtil(), null, 2, 5, hotKeyHandler);
+
+    final CountDownLatch releaseLatch = new CountDownLatch(1);
+    Listener<Integer> blockingListener = new Listener<Integer>() {
+
+      @Override
+      public void receiveEvent(final Integer event) {
+        try {
+          releaseLatch.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    };
+    dispatcher.addListener(blockingListener, blockingListener);
+
+    for (int i = 0; i < 20; i++) {
+      dispatcher.dispatchEvent(i * 10 + 7);
+    }
+    releaseLatch.countDown();
+    dispatcher.close();
+    Assert.assertTrue(dispatcher.drain(5, TimeUnit.SECONDS));
+
+    Assert.assertEquals(Collections.singletonList(7), hotKeys);
+  }
+
+  @Test
+  public void testHotKeyIsKeyWithMostQueuedEvents() throws InterruptedException {
+    final List<Integer> hotKeys = Collections.synchronizedList(new ArrayList<Integer>());
+    HotKeyHandler<Integer> hotKeyHandler = new HotKeyHandler<Integer>() {
+
+      @Override
+      public void hotKeyDetected(final Integer eventKey, final int workerIndex,
+          final int queuedEvents) {
+        hotKeys.add(eventKey);
+      }
+    };
+    KeyAffinityEventDispatcher<Integer, Integer, Listener<Integer>, Listener<Integer>> dispatcher =
+        new KeyAffinityEventDispatcher<>(new LastDigitEventUtil(), null, 1, 5, hotKeyHandler);
+
+    final CountDownLatch releaseLatch = new CountDownLatch(1);
+    Listener<Integer> blockingListener = new Listener<Integer>() {
+
+      @Override
+      public void receiveEvent(final Integer event) {
+        try {
+          releaseLatch.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    };
+    dispatcher.addListener(blockingListener, blockingListener);
+
+    // The event of key 1 exceeds the threshold, but key 2 has the most events in the queue.
+    for (int i = 0; i < 5; i++) {
+      dispatcher.dispatchEvent(i * 10 + 2);
+    }
+    dispatcher.dispatchEvent(1);
+    releaseLatch.countDown();
+    dispatcher.close();
+    Assert.assertTrue(dispatcher.drain(5, TimeUnit.SECONDS));
+
+    Assert.assertEquals(Collections.singletonList(2), hotKeys);
+  }
+
+  @Test
+  public void testOrderPerKeyAndReplay() {
+    KeyAffinityEventDispatcher<Integer, Integer, Listener<Integer>, Listener<Integer>> dispatcher =
+        new KeyAffinityEventDispatcher<>(new LastDigitEventUtil(), null, 4);
+
+    for (int i = 1; i <= 10; i++) {
+      dispatcher.dispatchEvent(i);
+    }
+
+    List<ListenerWithEventEntry> collectedEvents =
+        Collections.synchronizedList(new ArrayList<ListenerWithEventEntry>());
+    TestListener listener = new TestListener(collectedEvents);
+    dispatcher.addListener(listener, listener);
+
+    // The replay events are passed before addListener returns.
+    Assert.assertEquals(10, collectedEvents.size());
+
+    for (int i = 11; i <= 200; i++) {
+      dispatcher.dispatchEvent(i);
+    }
+    // Removing the events waits until the workers process the events that were dispatched before.
+    for (int i = 0; i < 10; i++) {
+      Assert.assertTrue(dispatcher.removeEvent(i));
+    }
+    dispatcher.close();
+
+    Assert.assertEquals(200, collectedEvents.size());
+    Map<Integer, Integer> lastEventOfKeys = new HashMap<>();
+    synchronized (collectedEvents) {
+      for (ListenerWithEventEntry entry : collectedEvents) {
+        int event = Math.abs(entry.getEvent());
+        Integer lastEvent = lastEventOfKeys.put(event % 10, event);
+        if (lastEvent != null) {
+          Assert.assertTrue(lastEvent < event);
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testRemoveListener() {
+    KeyAffinityEventDispatcher<Integer, Integer, Listener<Integer>, Listener<Integer>> dispatcher =
+        new KeyAffinityEventDispatcher<>(new LastDigitEventUtil(), null, 2);
+
+    List<ListenerWithEventEntry> collectedEvents =
+        Collections.synchronizedList(new ArrayList<ListenerWithEventEntry>());
+    TestListener listener = new TestListener(collectedEvents);
+    dispatcher.addListener(listener, listener);
+    Assert.assertTrue(dispatcher.removeListener(listener));
+    Assert.assertFalse(dispatcher.removeListener(listener));
+
+    dispatcher.dispatchEvent(1);
+    dispatcher.addListener(listener, listener);
+    Assert.assertEquals(1, collectedEvents.size());
+    Assert.assertEquals(Integer.valueOf(-1), collectedEvents.get(0).getEvent());
+    dispatcher.close();
+  }
+
+  @Test
+  public void testWorkersRunInRuntimeLanes() throws InterruptedException {
+    DispatcherRuntime runtime = new DispatcherRuntime(2, 1000);
+    KeyAffinityEventDispatcher<Integer, Integer, Listener<Integer>, Listener<Integer>> dispatcher =
+        new KeyAffinityEventDispatcher<>(new LastDigitEventUtil(), null, runtime, 4);
+
+    for (int i = 1; i <= 10; i++) {
+      dispatcher.dispatchEvent(i);
+    }
+    final List<Integer> events = Collections.synchronizedList(new ArrayList<Integer>());
+    final Set<String> threadNames = Collections.synchronizedSet(new HashSet<String>());
+    Listener<Integer> listener = new Listener<Integer>() {
+
+      @Override
+      public void receiveEvent(final Integer event) {
+        events.add(Math.abs(event));
+        threadNames.add(Thread.currentThread().getName());
+      }
+    };
+    dispatcher.addListener(listener, listener);
+    Assert.assertEquals(10, events.size());
+
+    for (int i = 11; i <= 200; i++) {
+      dispatcher.dispatchEvent(i);
+    }
+    for (int i = 0; i < 10; i++) {
+      Assert.assertTrue(dispatcher.removeEvent(i));
+    }
+    dispatcher.close();
+    Assert.assertTrue(dispatcher.drain(5, TimeUnit.SECONDS));
+
+    Assert.assertEquals(200, events.size());
+    Map<Integer, Integer> lastEventOfKeys = new HashMap<>();
+    synchronized (events) {
+      for (Integer event : events) {
+        Integer lastEvent = lastEventOfKeys.put(event % 10, event);
+        if (lastEvent != null) {
+          Assert.assertTrue(lastEvent < event);
+        }
+      }
+    }
+    for (String threadName : threadNames) {
+      Assert.assertTrue(threadName, threadName.startsWith("eventdispatcher-runtime-"));
+    }
+
+    runtime.close();
+    try {
+      new KeyAffinityEventDispatcher<>(new LastDigitEventUtil(), null, runtime, 4);
+      Assert.fail("Creating a dispatcher must fail after closing the runtime");
+    } catch (IllegalStateException e) {
+      Assert.assertNotNull(e.getMessage());
+    }
+  }
+}
@@ -0,0 +1,215 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.eventdispatcher.test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.everit.eventdispatcher.EventDispatcherImpl;
+import org.everit.eventdispatcher.EventSupplier;
+import org.everit.eventdispatcher.ExceptionHandler;
+import org.everit.eventdispatcher.ListenerGroup;
+import org.everit.eventdispatcher.ListenerGroupRouting;
+import org.everit.eventdispatcher.ReplayEventFilters;
+import org.everit.eventdispatcher.ReplayEventPage;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class LazyEventTest {
+
+  /**
+   * Supplies the event that equals to its key and counts the calls.
+   */
+  private static final class CountingSupplier implements EventSupplier<Integer> {
+
+    private final AtomicInteger builtEvents;
+
+    private final int eventKey;
+
+    CountingSupplier(final int eventKey, final AtomicInteger builtEvents) {
+      this.eventKey = eventKey;
+      this.builtEvents = builtEvents;
+    }
+
+    @Override
+    public Integer get() {
+      this.builtEvents.incrementAndGet();
+      return this.eventKey;
+    }
+  }
+
+  private static List<Integer> toEvents(final List<ListenerWithEventEntry> entries) {
+    List<Integer> result = new ArrayList<>();
+    for (ListenerWithEventEntry entry : entries) {
+      result.add(entry.getEvent());
+    }
+    return result;
+  }
+
+  @Test
+  public void testEventIsBuiltOnceForLiveAndReplay() {
+    EventDispatcherImpl<Integer, Integer, Listener<Integer>, String> dispatcher =
+        new EventDispatcherImpl<>(new TestEventUtil());
+    AtomicInteger builtEvents = new AtomicInteger();
+
+    List<ListenerWithEventEntry> collectedEvents = new ArrayList<>();
+    dispatcher.addListener("live", new TestListener(collectedEvents));
+
+    dispatcher.dispatchEvent(1, new CountingSupplier(1, builtEvents));
+    Assert.assertEquals(1, builtEvents.get());
+    Assert.assertEquals(Arrays.asList(1), toEvents(collectedEvents));
+
+    collectedEvents.clear();
+    dispatcher.addListener("replay", new TestListener(collectedEvents));
+    Assert.assertEquals(Arrays.asList(-1), toEvents(collectedEvents));
+    Assert.assertEquals(Integer.valueOf(-1), dispatcher.getReplayEvent(1));
+    Assert.assertEquals(1, builtEvents.get());
+  }
+
+  @Test
+  public void testEventIsNotBuiltWithoutListeners() {
+    EventDispatcherImpl<Integer, Integer, Listener<Integer>, String> dispatcher =
+        new EventDispatcherImpl<>(new TestEventUtil());
+    AtomicInteger builtEvents = new AtomicInteger();
+
+    dispatcher.dispatchEvent(1, new CountingSupplier(1, builtEvents));
+    dispatcher.dispatchEvent(2, new CountingSupplier(2, builtEvents));
+    // Overriding the first event before anybody needed it.
+    dispatcher.dispatchEvent(1, new CountingSupplier(1, builtEvents));
+    dispatcher.dispatchEvent(3, new CountingSupplier(3, builtEvents));
+    Assert.assertTrue(dispatcher.removeEvent(3));
+    Assert.assertEquals(0, builtEvents.get());
+
+    List<ListenerWithEventEntry> collectedEvents = new ArrayList<>();
+    dispatcher.addListener("first", new TestListener(collectedEvents));
+    Assert.assertEquals(Arrays.asList(-2, -1), toEvents(collectedEvents));
+    Assert.assertEquals(2, builtEvents.get());
+
+    collectedEvents.clear();
+    dispatcher.addListener("second", new TestListener(collectedEvents));
+    Assert.assertEquals(Arrays.asList(-2, -1), toEvents(collectedEvents));
+    Assert.assertEquals(2, builtEvents.get());
+  }
+
+  @Test
+  public void testFilteredPageBuildsOnlyPageEvents() {
+    EventDispatcherImpl<Integer, Integer, Listener<Integer>, String> dispatcher =
+        new EventDispatcherImpl<>(new TestEventUtil());
+    AtomicInteger builtEvents = new AtomicInteger();
+    for (int i = 1; i <= 10; i++) {
+      dispatcher.dispatchEvent(i, new CountingSupplier(i, builtEvents));
+    }
+
+    ReplayEventPage<Integer, Integer> page =
+        dispatcher.getReplayEvents(ReplayEventFilters.range(3, 9), 1, 2);
+    Assert.assertEquals(Arrays.asList(-4, -5), new ArrayList<>(page.getEvents().values()));
+    Assert.assertTrue(page.hasMore());
+    Assert.assertEquals(2, builtEvents.get());
+  }
+
+  @Test
+  public void testFailingSupplierIsCalledAgain() {
+    EventDispatcherImpl<Integer, Integer, Listener<Integer>, String> dispatcher =
+        new EventDispatcherImpl<>(new TestEventUtil());
+    final AtomicInteger calls = new AtomicInteger();
+
+    dispatcher.dispatchEvent(1, new EventSupplier<Integer>() {
+
+      @Override
+      public Integer get() {
+        if (calls.incrementAndGet() == 1) {
+          throw new IllegalStateException("Not available yet");
+        }
+        return 1;
+      }
+    });
+
+    try {
+      dispatcher.getReplayEvent(1);
+      Assert.fail("Exception of the supplier should have been propagated");
+    } catch (IllegalStateException e) {
+      Assert.assertEquals("Not available yet", e.getMessage());
+    }
+    Assert.assertEquals(Integer.valueOf(-1), dispatcher.getReplayEvent(1));
+    Assert.assertEquals(Integer.valueOf(-1), dispatcher.getReplayEvent(1));
+    Assert.assertEquals(2, calls.get());
+  }
+
+  @Test
+  public void testFailingSupplierIsSkippedInReplay() {
+    final List<String> failures = new ArrayList<>();
+    ExceptionHandler<String, Integer> exceptionHandler = new ExceptionHandler<String, Integer>() {
+
+      @Override
+      public void handleException(final String listenerKey, final Integer event,
+          final Throwable e) {
+        Assert.assertNull(event);
+        failures.add(listenerKey + ":" + e.getClass().getSimpleName());
+      }
+    };
+    EventDispatcherImpl<Integer, Integer, Listener<Integer>, String> dispatcher =
+        new EventDispatcherImpl<>(new TestEventUtil(), exceptionHandler);
+    final AtomicBoolean available = new AtomicBoolean();
+
+    dispatcher.dispatchEvent(1, new EventSupplier<Integer>() {
+
+      @Override
+      public Integer get() {
+        if (!available.get()) {
+          throw new IllegalStateException("Not available yet");
+        }
+        return 1;
+      }
+    });
+    dispatcher.dispatchEvent(2);
+    dispatcher.dispatchEvent(3, new EventSupplier<Integer>() {
+
+      @Override
+      public Integer get() {
+        return available.get() ? 3 : null;
+      }
+    });
+
+    // The listeners are registered and receive the events that could be built.
+    List<ListenerWithEventEntry> collectedEvents = new ArrayList<>();
+    ListenerGroup group = new ListenerGroup("workers", ListenerGroupRouting.ROUND_ROBIN);
+    dispatcher.addListener("plain", new TestListener(collectedEvents));
+    dispatcher.addListener("member", new TestListener(collectedEvents), group);
+    Map<String, Listener<Integer>> newListeners = new LinkedHashMap<>();
+    newListeners.put("first", new TestListener(collectedEvents));
+    newListeners.put("second", new TestListener(collectedEvents));
+    dispatcher.addListeners(newListeners, null);
+    Assert.assertEquals(Arrays.asList(-2, -2, -2, -2), toEvents(collectedEvents));
+    Assert.assertEquals(Arrays.asList("plain:IllegalStateException",
+        "plain:NullPointerException", "member:IllegalStateException",
+        "member:NullPointerException", "first:IllegalStateException",
+        "second:IllegalStateException", "first:NullPointerException",
+        "second:NullPointerException"), failures);
+
+    // The suppliers are called again by the next replay.
+    available.set(true);
+    collectedEvents.clear();
+    failures.clear();
+    dispatcher.addListener("late", new TestListener(collectedEvents));
+    Assert.assertEquals(Arrays.asList(-1, -2, -3), toEvents(collectedEvents));
+    Assert.assertTrue(failures.isEmpty());
+  }
+}
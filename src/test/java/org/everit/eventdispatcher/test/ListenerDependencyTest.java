@@ -0,0 +1,163 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.eventdispatcher.test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.everit.eventdispatcher.EventDispatcherImpl;
+import org.everit.eventdispatcher.ListenerDependencyCycleException;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ListenerDependencyTest {
+
+  private static final class OrderRecordingListener implements Listener<Integer> {
+
+    private final String name;
+
+    private final List<String> calls;
+
+    OrderRecordingListener(final String name, final List<String> calls) {
+      this.name = name;
+      this.calls = calls;
+    }
+
+    @Override
+    public void receiveEvent(final Integer event) {
+      synchronized (this.calls) {
+        this.calls.add(this.name + event);
+      }
+    }
+  }
+
+  private static final int EVENT_COUNT = 200;
+
+  private EventDispatcherImpl<Integer, Integer, Listener<Integer>, String> createDispatcher() {
+    return new EventDispatcherImpl<>(new TestEventUtil());
+  }
+
+  @Test
+  public void testCycleIsRejected() {
+    EventDispatcherImpl<Integer, Integer, Listener<Integer>, String> dispatcher =
+        createDispatcher();
+    List<String> calls = new ArrayList<>();
+
+    // The dependency on "c" is registered before "c" itself.
+    dispatcher.addDependentListener("a", new OrderRecordingListener("a", calls),
+        Collections.singleton("c"));
+    dispatcher.addDependentListener("b", new OrderRecordingListener("b", calls),
+        Collections.singleton("a"));
+    try {
+      dispatcher.addDependentListener("c", new OrderRecordingListener("c", calls),
+          Collections.singleton("b"));
+      Assert.fail("Cycle should have been detected");
+    } catch (ListenerDependencyCycleException e) {
+      Assert.assertFalse(dispatcher.removeListener("c"));
+    }
+
+    try {
+      dispatcher.addDependentListener("d", new OrderRecordingListener("d", calls),
+          Collections.singleton("d"));
+      Assert.fail("Self dependency should have been detected");
+    } catch (ListenerDependencyCycleException e) {
+      Assert.assertFalse(dispatcher.removeListener("d"));
+    }
+
+    // Removing a listener removes its dependencies, so the cycle is broken.
+    Assert.assertTrue(dispatcher.removeListener("a"));
+    dispatcher.addDependentListener("c", new OrderRecordingListener("c", calls),
+        Collections.singleton("b"));
+  }
+
+  @Test
+  public void testParallelDispatchKeepsDependencyOrder() throws InterruptedException {
+    EventDispatcherImpl<Integer, Integer, Listener<Integer>, String> dispatcher =
+        createDispatcher();
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    dispatcher.setListenerExecutor(executor);
+
+    List<String> calls = new ArrayList<>();
+    dispatcher.addDependentListener("store", new OrderRecordingListener("store", calls),
+        Collections.<String> emptyList());
+    dispatcher.addDependentListener("index", new OrderRecordingListener("index", calls),
+        Collections.singleton("store"));
+    dispatcher.addDependentListener("audit", new OrderRecordingListener("audit", calls),
+        Collections.<String> emptyList());
+    dispatcher.addDependentListener("notify", new OrderRecordingListener("notify", calls),
+        Arrays.asList("index", "audit"));
+
+    for (int i = 0; i < EVENT_COUNT; i++) {
+      dispatcher.dispatchEvent(i);
+    }
+    executor.shutdown();
+    Assert.assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+
+    // Dispatching waits for the listeners, so every call is visible here.
+    Assert.assertEquals(EVENT_COUNT * 4, calls.size());
+    for (int i = 0; i < EVENT_COUNT; i++) {
+      Assert.assertTrue(calls.indexOf("store" + i) < calls.indexOf("index" + i));
+      Assert.assertTrue(calls.indexOf("index" + i) < calls.indexOf("notify" + i));
+      Assert.assertTrue(calls.indexOf("audit" + i) < calls.indexOf("notify" + i));
+    }
+  }
+
+  @Test
+  public void testPlanFollowsListenerChanges() {
+    EventDispatcherImpl<Integer, Integer, Listener<Integer>, String> dispatcher =
+        createDispatcher();
+    List<String> calls = new ArrayList<>();
+
+    dispatcher.addDependentListener("b", new OrderRecordingListener("b", calls),
+        Collections.singleton("a"));
+    dispatcher.addListener("c", new OrderRecordingListener("c", calls));
+    dispatcher.dispatchEvent(1);
+    Assert.assertEquals(Arrays.asList("b1", "c1"), calls);
+
+    // The plan of the previous dispatch must not be reused after a registration.
+    dispatcher.addListener("a", new OrderRecordingListener("a", calls));
+    calls.clear();
+    dispatcher.dispatchEvent(2);
+    Assert.assertEquals(Arrays.asList("c2", "a2", "b2"), calls);
+  }
+
+  @Test
+  public void testSequentialDispatchFollowsDependencies() {
+    EventDispatcherImpl<Integer, Integer, Listener<Integer>, String> dispatcher =
+        createDispatcher();
+    List<String> calls = new ArrayList<>();
+
+    dispatcher.addDependentListener("c", new OrderRecordingListener("c", calls),
+        Collections.singleton("b"));
+    dispatcher.addDependentListener("b", new OrderRecordingListener("b", calls),
+        Collections.singleton("a"));
+    dispatcher.addListener("a", new OrderRecordingListener("a", calls));
+
+    dispatcher.dispatchEvent(1);
+    Assert.assertEquals(Arrays.asList("a1", "b1", "c1"), calls);
+
+    // Without the middle listener the rest are called in registration order.
+    calls.clear();
+    Assert.assertTrue(dispatcher.removeListener("b"));
+    dispatcher.dispatchEvent(2);
+    Assert.assertEquals(Arrays.asList("c2", "a2"), calls);
+  }
+}
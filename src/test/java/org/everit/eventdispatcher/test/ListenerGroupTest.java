@@ -0,0 +1,190 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.eventdispatcher.test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.everit.eventdispatcher.EventDispatcherImpl;
+import org.everit.eventdispatcher.ListenerGroup;
+import org.everit.eventdispatcher.ListenerGroupRouting;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ListenerGroupTest {
+
+  private static final int KEY_COUNT = 60;
+
+  private static void dispatchKeys(
+      final EventDispatcherImpl<Integer, Integer, Listener<Integer>, ?> dispatcher) {
+    for (int i = 1; i <= KEY_COUNT; i++) {
+      dispatcher.dispatchEvent(i);
+    }
+  }
+
+  private static Set<Integer> keysOf(final List<ListenerWithEventEntry> collectedEvents,
+      final Listener<Integer> listener) {
+    Set<Integer> result = new HashSet<>();
+    for (ListenerWithEventEntry entry : collectedEvents) {
+      if (entry.getListener() == listener) {
+        result.add(Math.abs(entry.getEvent()));
+      }
+    }
+    return result;
+  }
+
+  @Test
+  public void testEventKeyRouting() {
+    EventDispatcherImpl<Integer, Integer, Listener<Integer>, Listener<Integer>> eventDispatcher =
+        new EventDispatcherImpl<>(new TestEventUtil());
+    ListenerGroup group = new ListenerGroup("workers", ListenerGroupRouting.EVENT_KEY);
+
+    for (int i = 1; i <= 10; i++) {
+      eventDispatcher.dispatchEvent(i);
+    }
+
+    List<ListenerWithEventEntry> collectedEvents = new ArrayList<>();
+    TestListener worker1 = new TestListener(collectedEvents);
+    TestListener worker2 = new TestListener(collectedEvents);
+    TestListener observer = new TestListener(collectedEvents);
+
+    eventDispatcher.addListener(worker1, worker1, group);
+    Assert.assertEquals(10, keysOf(collectedEvents, worker1).size());
+
+    collectedEvents.clear();
+    eventDispatcher.addListener(observer, observer);
+    eventDispatcher.addListener(worker2, worker2, group);
+
+    // The new member receives the replay events of the keys that are routed to it.
+    Set<Integer> worker2ReplayKeys = keysOf(collectedEvents, worker2);
+
+    collectedEvents.clear();
+    for (int i = 1; i <= 10; i++) {
+      eventDispatcher.dispatchEvent(i);
+      eventDispatcher.dispatchEvent(i);
+    }
+
+    Assert.assertEquals(40, collectedEvents.size());
+    Assert.assertEquals(worker2ReplayKeys, keysOf(collectedEvents, worker2));
+    Set<Integer> allKeys = new HashSet<>(keysOf(collectedEvents, worker1));
+    Assert.assertFalse(allKeys.removeAll(worker2ReplayKeys));
+    allKeys.addAll(worker2ReplayKeys);
+    Assert.assertEquals(10, allKeys.size());
+    Assert.assertEquals(10, keysOf(collectedEvents, observer).size());
+
+    // After removing a member the rest of the group gets all events.
+    collectedEvents.clear();
+    eventDispatcher.removeListener(worker1);
+    Assert.assertEquals(10 - worker2ReplayKeys.size(), collectedEvents.size());
+    collectedEvents.clear();
+    eventDispatcher.dispatchEvent(3);
+    Assert.assertEquals(2, collectedEvents.size());
+    Assert.assertEquals(worker2, collectedEvents.get(1).getListener());
+  }
+
+  @Test
+  public void testJoiningMemberTakesOverKeysOfExistingMembers() {
+    EventDispatcherImpl<Integer, Integer, Listener<Integer>, Listener<Integer>> eventDispatcher =
+        new EventDispatcherImpl<>(new TestEventUtil());
+    ListenerGroup group = new ListenerGroup("workers", ListenerGroupRouting.EVENT_KEY);
+
+    List<ListenerWithEventEntry> collectedEvents = new ArrayList<>();
+    TestListener worker1 = new TestListener(collectedEvents);
+    TestListener worker2 = new TestListener(collectedEvents);
+    eventDispatcher.addListener(worker1, worker1, group);
+    eventDispatcher.addListener(worker2, worker2, group);
+    dispatchKeys(eventDispatcher);
+    Set<Integer> worker1Keys = keysOf(collectedEvents, worker1);
+    Set<Integer> worker2Keys = keysOf(collectedEvents, worker2);
+
+    collectedEvents.clear();
+    TestListener worker3 = new TestListener(collectedEvents);
+    eventDispatcher.addListener(worker3, worker3, group);
+    Set<Integer> worker3ReplayKeys = keysOf(collectedEvents, worker3);
+    Assert.assertEquals(worker3ReplayKeys.size(), collectedEvents.size());
+
+    // The existing members keep their keys except the ones that moved to the new member.
+    collectedEvents.clear();
+    dispatchKeys(eventDispatcher);
+    Assert.assertEquals(worker3ReplayKeys, keysOf(collectedEvents, worker3));
+    worker1Keys.removeAll(worker3ReplayKeys);
+    worker2Keys.removeAll(worker3ReplayKeys);
+    Assert.assertEquals(worker1Keys, keysOf(collectedEvents, worker1));
+    Assert.assertEquals(worker2Keys, keysOf(collectedEvents, worker2));
+  }
+
+  @Test
+  public void testLeavingMemberKeysAreReplayedToNewOwners() {
+    EventDispatcherImpl<Integer, Integer, Listener<Integer>, Listener<Integer>> eventDispatcher =
+        new EventDispatcherImpl<>(new TestEventUtil());
+    ListenerGroup group = new ListenerGroup("workers", ListenerGroupRouting.EVENT_KEY);
+
+    List<ListenerWithEventEntry> collectedEvents = new ArrayList<>();
+    TestListener worker1 = new TestListener(collectedEvents);
+    TestListener worker2 = new TestListener(collectedEvents);
+    TestListener worker3 = new TestListener(collectedEvents);
+    eventDispatcher.addListener(worker1, worker1, group);
+    eventDispatcher.addListener(worker2, worker2, group);
+    eventDispatcher.addListener(worker3, worker3, group);
+    dispatchKeys(eventDispatcher);
+    Set<Integer> worker1Keys = keysOf(collectedEvents, worker1);
+    Set<Integer> worker2Keys = keysOf(collectedEvents, worker2);
+    Set<Integer> worker3Keys = keysOf(collectedEvents, worker3);
+
+    // Only the keys of the removed member are replayed, each to the member that takes it over.
+    collectedEvents.clear();
+    Assert.assertTrue(eventDispatcher.removeListener(worker1));
+    Set<Integer> worker2GainedKeys = keysOf(collectedEvents, worker2);
+    Set<Integer> worker3GainedKeys = keysOf(collectedEvents, worker3);
+    Assert.assertEquals(worker1Keys.size(), collectedEvents.size());
+    Set<Integer> gainedKeys = new HashSet<>(worker2GainedKeys);
+    gainedKeys.addAll(worker3GainedKeys);
+    Assert.assertEquals(worker1Keys, gainedKeys);
+
+    collectedEvents.clear();
+    dispatchKeys(eventDispatcher);
+    worker2Keys.addAll(worker2GainedKeys);
+    worker3Keys.addAll(worker3GainedKeys);
+    Assert.assertEquals(worker2Keys, keysOf(collectedEvents, worker2));
+    Assert.assertEquals(worker3Keys, keysOf(collectedEvents, worker3));
+  }
+
+  @Test
+  public void testRoundRobinRouting() {
+    EventDispatcherImpl<Integer, Integer, Listener<Integer>, Listener<Integer>> eventDispatcher =
+        new EventDispatcherImpl<>(new TestEventUtil());
+    ListenerGroup group = new ListenerGroup("workers", ListenerGroupRouting.ROUND_ROBIN);
+
+    List<ListenerWithEventEntry> collectedEvents = new ArrayList<>();
+    TestListener worker1 = new TestListener(collectedEvents);
+    TestListener worker2 = new TestListener(collectedEvents);
+    TestListener worker3 = new TestListener(collectedEvents);
+    eventDispatcher.addListener(worker1, worker1, group);
+    eventDispatcher.addListener(worker2, worker2, group);
+    eventDispatcher.addListener(worker3, worker3, group);
+
+    for (int i = 1; i <= 9; i++) {
+      eventDispatcher.dispatchEvent(i);
+    }
+
+    Assert.assertEquals(9, collectedEvents.size());
+    Assert.assertEquals(3, keysOf(collectedEvents, worker1).size());
+    Assert.assertEquals(3, keysOf(collectedEvents, worker2).size());
+    Assert.assertEquals(3, keysOf(collectedEvents, worker3).size());
+  }
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.eventdispatcher.test;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.everit.eventdispatcher.EventDispatcherImpl;
+import org.everit.eventdispatcher.EventSupplier;
+import org.everit.eventdispatcher.LongEventUtil;
+import org.everit.eventdispatcher.ReplayEventFilters;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class LongEventDispatcherTest {
+
+  /**
+   * Events are arrays of two longs: the key and a value. The replay format has a negated value.
+   */
+  private static final class TestLongEventUtil implements LongEventUtil<long[], List<long[]>> {
+
+    @Override
+    public void callListener(final List<long[]> listener, final long[] event) {
+      listener.add(event);
+    }
+
+    @Override
+    public long[] createReplayEvent(final long[] originalEvent) {
+      return new long[] { originalEvent[0], -originalEvent[1] };
+    }
+
+    @Override
+    public Long getEventKey(final long[] event) {
+      return event[0];
+    }
+
+    @Override
+    public long getLongEventKey(final long[] event) {
+      return event[0];
+    }
+  }
+
+  @Test
+  public void testLazyEvents() {
+    EventDispatcherImpl<long[], Long, List<long[]>, String> eventDispatcher =
+        new EventDispatcherImpl<>(new TestLongEventUtil());
+    final AtomicInteger builtEvents = new AtomicInteger();
+
+    for (long key = 1; key <= 100; key++) {
+      final long eventKey = key;
+      eventDispatcher.dispatchEvent(eventKey, new EventSupplier<long[]>() {
+
+        @Override
+        public long[] get() {
+          builtEvents.incrementAndGet();
+          return new long[] { eventKey, eventKey * 10 };
+        }
+      });
+    }
+    // The store was grown with lazy entries and the removals leave holes before them.
+    for (long key = 1; key <= 50; key++) {
+      eventDispatcher.removeEvent(key);
+    }
+    eventDispatcher.dispatchEvent(new long[] { 101, 1010 });
+    Assert.assertEquals(0, builtEvents.get());
+
+    List<long[]> collectedEvents = new ArrayList<>();
+    eventDispatcher.addListener("listener", collectedEvents);
+    Assert.assertEquals(51, collectedEvents.size());
+    Assert.assertEquals(50, builtEvents.get());
+    for (int i = 0; i < collectedEvents.size(); i++) {
+      Assert.assertEquals(51 + i, collectedEvents.get(i)[0]);
+      Assert.assertEquals(-(51 + i) * 10, collectedEvents.get(i)[1]);
+    }
+  }
+
+  @Test
+  public void testRandomOperationsAgainstLinkedHashMap() {
+    EventDispatcherImpl<long[], Long, List<long[]>, String> eventDispatcher =
+        new EventDispatcherImpl<>(new TestLongEventUtil());
+
+    Map<Long, Long> expected = new LinkedHashMap<>();
+    Random random = new Random(42);
+
+    for (int i = 0; i < 100000; i++) {
+      // Small key range with colliding and negative keys to exercise probing and compaction.
+      long key = (random.nextInt(2000) - 1000) * 1024L;
+      int operation = random.nextInt(10);
+      if (operation < 6) {
+        long value = random.nextInt(1000000) + 1;
+        eventDispatcher.dispatchEvent(new long[] { key, value });
+        expected.remove(key);
+        expected.put(key, value);
+      } else if (operation < 8) {
+        Assert.assertEquals(expected.remove(key) != null, eventDispatcher.removeEvent(key));
+      } else if (operation < 9) {
+        eventDispatcher.dispatchAndRemoveEvent(new long[] { key, 1 });
+        expected.remove(key);
+      } else {
+        long[] replayEvent = eventDispatcher.getReplayEvent(key);
+        Long expectedValue = expected.get(key);
+        if (expectedValue == null) {
+          Assert.assertNull(replayEvent);
+        } else {
+          Assert.assertEquals(-expectedValue.longValue(), replayEvent[1]);
+        }
+      }
+    }
+
+    List<long[]> collectedEvents = new ArrayList<>();
+    eventDispatcher.addListener("listener", collectedEvents);
+
+    Assert.assertEquals(expected.size(), collectedEvents.size());
+    int i = 0;
+    for (Map.Entry<Long, Long> entry : expected.entrySet()) {
+      long[] event = collectedEvents.get(i);
+      Assert.assertEquals(entry.getKey().longValue(), event[0]);
+      Assert.assertEquals(-entry.getValue().longValue(), event[1]);
+      i++;
+    }
+
+    Assert.assertEquals(expected.size(), eventDispatcher
+        .getReplayEvents(ReplayEventFilters.<Long> all(), 0, Integer.MAX_VALUE).getEvents().size());
+  }
+
+  @Test
+  public void testReplayOrder() {
+    EventDispatcherImpl<long[], Long, List<long[]>, String> eventDispatcher =
+        new EventDispatcherImpl<>(new TestLongEventUtil());
+
+    eventDispatcher.dispatchEvent(new long[] { 1, 1 });
+    eventDispatcher.dispatchEvent(new long[] { 2, 2 });
+    eventDispatcher.dispatchEvent(new long[] { 3, 3 });
+    eventDispatcher.dispatchEvent(new long[] { 1, 4 });
+    eventDispatcher.removeEvent(2L);
+
+    List<long[]> collectedEvents = new ArrayList<>();
+    eventDispatcher.addListener("listener", collectedEvents);
+    eventDispatcher.dispatchEvent(new long[] { 5, 5 });
+
+    Assert.assertEquals(3, collectedEvents.size());
+    Assert.assertArrayEquals(new Object[] { 3L, -3L },
+        new Object[] { collectedEvents.get(0)[0], collectedEvents.get(0)[1] });
+    Assert.assertArrayEquals(new Object[] { 1L, -4L },
+        new Object[] { collectedEvents.get(1)[0], collectedEvents.get(1)[1] });
+    Assert.assertArrayEquals(new Object[] { 5L, 5L },
+        new Object[] { collectedEvents.get(2)[0], collectedEvents.get(2)[1] });
+  }
+}
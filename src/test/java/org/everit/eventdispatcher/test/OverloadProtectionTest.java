@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.eventdispatcher.test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.everit.eventdispatcher.EventDispatcherImpl;
+import org.everit.eventdispatcher.OverloadAdmissionController;
+import org.everit.eventdispatcher.ReplayEventFilters;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class OverloadProtectionTest {
+
+  @Test
+  public void testListenerRateLimit() {
+    EventDispatcherImpl<Integer, Integer, Listener<Integer>, Listener<Integer>> dispatcher =
+        new EventDispatcherImpl<>(new TestEventUtil());
+    List<ListenerWithEventEntry> collectedEvents = new ArrayList<>();
+    TestListener limitedListener = new TestListener(collectedEvents);
+    List<ListenerWithEventEntry> otherCollectedEvents = new ArrayList<>();
+    TestListener otherListener = new TestListener(otherCollectedEvents);
+
+    Assert.assertFalse(dispatcher.setListenerRateLimit(limitedListener, 0.001, 2));
+    dispatcher.addListener(limitedListener, limitedListener);
+    dispatcher.addListener(otherListener, otherListener);
+    Assert.assertTrue(dispatcher.setListenerRateLimit(limitedListener, 0.001, 2));
+
+    for (int i = 1; i <= 5; i++) {
+      dispatcher.dispatchEvent(i);
+    }
+    Assert.assertEquals(2, collectedEvents.size());
+    Assert.assertEquals(5, otherCollectedEvents.size());
+    // The skipped events can be recovered from the replay queue.
+    Assert.assertEquals(5, dispatcher.getReplayEvents(Arrays.asList(1, 2, 3, 4, 5)).size());
+    Assert.assertEquals(new ArrayList<>(Arrays.asList(3, 4, 5)),
+        new ArrayList<>(dispatcher.takeMissedEventKeys(limitedListener)));
+    Assert.assertTrue(dispatcher.takeMissedEventKeys(limitedListener).isEmpty());
+    Assert.assertNull(dispatcher.takeMissedEventKeys(new TestListener(collectedEvents)));
+
+    // Removal events are not limited as they cannot be recovered from the replay queue.
+    dispatcher.dispatchAndRemoveEvent(5);
+    Assert.assertEquals(3, collectedEvents.size());
+    Assert.assertTrue(dispatcher.takeMissedEventKeys(limitedListener).isEmpty());
+
+    Assert.assertTrue(dispatcher.clearListenerRateLimit(limitedListener));
+    dispatcher.dispatchEvent(6);
+    Assert.assertEquals(4, collectedEvents.size());
+  }
+
+  @Test
+  public void testOverloadShedding() {
+    EventDispatcherImpl<Integer, Integer, Listener<Integer>, Listener<Integer>> dispatcher =
+        new EventDispatcherImpl<>(new TestEventUtil());
+    List<ListenerWithEventEntry> collectedEvents = new ArrayList<>();
+    TestListener listener = new TestListener(collectedEvents);
+    dispatcher.addListener(listener, listener);
+
+    // Every dispatch is an overload as more than zero dispatches are active.
+    OverloadAdmissionController<Integer, Integer> admissionController =
+        new OverloadAdmissionController<>(new TestEventUtil(),
+            ReplayEventFilters.keys(Arrays.asList(2, 3)), 0, 1, TimeUnit.HOURS);
+    dispatcher.setAdmissionController(admissionController);
+
+    for (int i = 1; i <= 4; i++) {
+      dispatcher.dispatchEvent(i);
+    }
+    Assert.assertEquals(2, collectedEvents.size());
+    Assert.assertEquals(Integer.valueOf(1), collectedEvents.get(0).getEvent());
+    Assert.assertEquals(Integer.valueOf(4), collectedEvents.get(1).getEvent());
+    Assert.assertEquals(2, admissionController.getShedEventCount());
+    Assert.assertEquals(Integer.valueOf(-2), dispatcher.getReplayEvent(2));
+
+    // Removal events are never shed as they cannot be recovered from the replay queue.
+    dispatcher.dispatchAndRemoveEvent(3);
+    Assert.assertEquals(3, collectedEvents.size());
+    Assert.assertEquals(Integer.valueOf(3), collectedEvents.get(2).getEvent());
+    Assert.assertEquals(2, admissionController.getShedEventCount());
+
+    dispatcher.setAdmissionController(null);
+    dispatcher.dispatchEvent(2);
+    Assert.assertEquals(4, collectedEvents.size());
+  }
+}
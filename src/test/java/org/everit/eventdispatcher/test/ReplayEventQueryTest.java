@@ -0,0 +1,150 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.eventdispatcher.test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.everit.eventdispatcher.EventDispatcherImpl;
+import org.everit.eventdispatcher.ReplayEventFilters;
+import org.everit.eventdispatcher.ReplayEventPage;
+import org.everit.eventdispatcher.ReplayKeyRange;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ReplayEventQueryTest {
+
+  private EventDispatcherImpl<Integer, Integer, Listener<Integer>, Listener<Integer>>
+      createDispatcher() {
+    EventDispatcherImpl<Integer, Integer, Listener<Integer>, Listener<Integer>> eventDispatcher =
+        new EventDispatcherImpl<>(new TestEventUtil());
+
+    for (int i = 1; i <= 10; i++) {
+      eventDispatcher.dispatchEvent(i);
+    }
+    return eventDispatcher;
+  }
+
+  @Test
+  public void testFilteredPages() {
+    EventDispatcherImpl<Integer, Integer, Listener<Integer>, Listener<Integer>> eventDispatcher =
+        createDispatcher();
+
+    ReplayEventPage<Integer, Integer> page =
+        eventDispatcher.getReplayEvents(ReplayEventFilters.range(3, 9), 0, 4);
+
+    Assert.assertEquals(Arrays.asList(3, 4, 5, 6), new ArrayList<>(page.getEvents().keySet()));
+    Assert.assertEquals(Arrays.asList(-3, -4, -5, -6), new ArrayList<>(page.getEvents().values()));
+    Assert.assertTrue(page.hasMore());
+
+    page = eventDispatcher.getReplayEvents(ReplayEventFilters.range(3, 9), page.getNextOffset(), 4);
+    Assert.assertEquals(Arrays.asList(7, 8), new ArrayList<>(page.getEvents().keySet()));
+    Assert.assertFalse(page.hasMore());
+    Assert.assertEquals(6, page.getNextOffset());
+
+    page = eventDispatcher.getReplayEvents(ReplayEventFilters.<Integer> all(), 8, 2);
+    Assert.assertEquals(Arrays.asList(9, 10), new ArrayList<>(page.getEvents().keySet()));
+    Assert.assertFalse(page.hasMore());
+
+    try {
+      eventDispatcher.getReplayEvents(ReplayEventFilters.<Integer> all(), 0, 0);
+      Assert.fail();
+    } catch (IllegalArgumentException e) {
+      Assert.assertNotNull(e.getMessage());
+    }
+  }
+
+  @Test
+  public void testGetReplayEvent() {
+    EventDispatcherImpl<Integer, Integer, Listener<Integer>, Listener<Integer>> eventDispatcher =
+        createDispatcher();
+
+    Assert.assertEquals(Integer.valueOf(-5), eventDispatcher.getReplayEvent(5));
+    Assert.assertNull(eventDispatcher.getReplayEvent(11));
+
+    eventDispatcher.removeEvent(5);
+    Assert.assertNull(eventDispatcher.getReplayEvent(5));
+
+    // The converted replay events must be the same that new listeners receive.
+    List<ListenerWithEventEntry> collectedEvents = new ArrayList<>();
+    TestListener listener = new TestListener(collectedEvents);
+    eventDispatcher.addListener(listener, listener);
+    Assert.assertEquals(9, collectedEvents.size());
+    Assert.assertEquals(Integer.valueOf(-4), collectedEvents.get(3).getEvent());
+    Assert.assertEquals(Integer.valueOf(-6), collectedEvents.get(4).getEvent());
+  }
+
+  @Test
+  public void testGetReplayEventsByKeys() {
+    EventDispatcherImpl<Integer, Integer, Listener<Integer>, Listener<Integer>> eventDispatcher =
+        createDispatcher();
+
+    Map<Integer, Integer> events = eventDispatcher.getReplayEvents(Arrays.asList(7, 42, 2));
+    Assert.assertEquals(Arrays.asList(7, 2), new ArrayList<>(events.keySet()));
+    Assert.assertEquals(Integer.valueOf(-7), events.get(7));
+    Assert.assertEquals(Integer.valueOf(-2), events.get(2));
+  }
+
+  @Test
+  public void testPrefixRange() {
+    ReplayKeyRange<String> range = ReplayEventFilters.prefix("ab");
+    Assert.assertEquals("ab", range.getFromKey());
+    Assert.assertEquals("ac", range.getToKey());
+    Assert.assertTrue(range.accept("ab"));
+    Assert.assertTrue(range.accept("abz"));
+    Assert.assertFalse(range.accept("aa"));
+    Assert.assertFalse(range.accept("ac"));
+
+    Assert.assertEquals("b", ReplayEventFilters.prefix("a\uffff").getToKey());
+    Assert.assertNull(ReplayEventFilters.prefix("\uffff").getToKey());
+  }
+
+  @Test
+  public void testRangePages() {
+    EventDispatcherImpl<Integer, Integer, Listener<Integer>, Listener<Integer>> eventDispatcher =
+        createDispatcher();
+    ReplayKeyRange<Integer> range = ReplayEventFilters.range(3, 9);
+
+    ReplayEventPage<Integer, Integer> page = eventDispatcher.getReplayEventRange(range, null, 4);
+    Assert.assertEquals(Arrays.asList(3, 4, 5, 6), new ArrayList<>(page.getEvents().keySet()));
+    Assert.assertEquals(Arrays.asList(-3, -4, -5, -6), new ArrayList<>(page.getEvents().values()));
+    Assert.assertTrue(page.hasMore());
+    Assert.assertEquals(Integer.valueOf(6), page.getLastKey());
+
+    // The index follows the changes of the replay queue and the pages are in key order.
+    eventDispatcher.dispatchEvent(3);
+    eventDispatcher.removeEvent(7);
+    eventDispatcher.dispatchAndRemoveEvent(8);
+    eventDispatcher.dispatchEvent(-1);
+    page = eventDispatcher.getReplayEventRange(range, page.getLastKey(), 4);
+    Assert.assertTrue(page.getEvents().isEmpty());
+    Assert.assertFalse(page.hasMore());
+
+    page = eventDispatcher.getReplayEventRange(ReplayEventFilters.<Integer> range(null, 4),
+        null, 10);
+    Assert.assertEquals(Arrays.asList(1, 2, 3), new ArrayList<>(page.getEvents().keySet()));
+    Assert.assertEquals(Arrays.asList(1, -2, -3), new ArrayList<>(page.getEvents().values()));
+
+    try {
+      eventDispatcher.getReplayEventRange(range, null, 0);
+      Assert.fail();
+    } catch (IllegalArgumentException e) {
+      Assert.assertNotNull(e.getMessage());
+    }
+  }
+}
@@ -0,0 +1,226 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.eventdispatcher.test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import org.everit.eventdispatcher.EventDispatcherImpl;
+import org.everit.eventdispatcher.replication.InProcessReplicationHub;
+import org.everit.eventdispatcher.replication.ReplayStoreReplicator;
+import org.everit.eventdispatcher.replication.ReplicationCodec;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ReplicationTest {
+
+  private static final class IntegerCodec implements ReplicationCodec<Integer, Integer> {
+
+    @Override
+    public Integer decodeEvent(final byte[] data) {
+      return ByteBuffer.wrap(data).getInt();
+    }
+
+    @Override
+    public Integer decodeKey(final byte[] data) {
+      return ByteBuffer.wrap(data).getInt();
+    }
+
+    @Override
+    public byte[] encodeEvent(final Integer event) {
+      return ByteBuffer.allocate(4).putInt(event).array();
+    }
+
+    @Override
+    public byte[] encodeKey(final Integer eventKey) {
+      return ByteBuffer.allocate(4).putInt(eventKey).array();
+    }
+  }
+
+  private static ReplayStoreReplicator<Integer, Integer> createReplicator(final String nodeId,
+      final EventDispatcherImpl<Integer, Integer, ?, ?> eventDispatcher,
+      final InProcessReplicationHub hub) {
+    ReplayStoreReplicator<Integer, Integer> replicator = new ReplayStoreReplicator<>(nodeId,
+        eventDispatcher, new IntegerCodec(), hub.createTransport(), 2, null);
+    replicator.open();
+    return replicator;
+  }
+
+  @Test
+  public void testExpirationIsReplicated() throws InterruptedException {
+    InProcessReplicationHub hub = new InProcessReplicationHub();
+
+    EventDispatcherImpl<Integer, Integer, Listener<Integer>, Listener<Integer>> dispatcherA =
+        new EventDispatcherImpl<>(new TestEventUtil());
+    EventDispatcherImpl<Integer, Integer, Listener<Integer>, Listener<Integer>> dispatcherB =
+        new EventDispatcherImpl<>(new TestEventUtil());
+
+    ReplayStoreReplicator<Integer, Integer> replicatorA =
+        createReplicator("a", dispatcherA, hub);
+    ReplayStoreReplicator<Integer, Integer> replicatorB =
+        createReplicator("b", dispatcherB, hub);
+
+    dispatcherA.dispatchEvent(1, 10, TimeUnit.MILLISECONDS);
+    replicatorA.flush();
+    Assert.assertEquals(Integer.valueOf(-1), dispatcherB.getReplayEvent(1));
+
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+    while (dispatcherA.getReplayEvent(1) != null && System.nanoTime() < deadline) {
+      Thread.sleep(5);
+    }
+    Assert.assertNull(dispatcherA.getReplayEvent(1));
+
+    // The expiration is sent to the peer and a node that joins later does not get the event.
+    replicatorA.flush();
+    Assert.assertNull(dispatcherB.getReplayEvent(1));
+    EventDispatcherImpl<Integer, Integer, Listener<Integer>, Listener<Integer>> dispatcherC =
+        new EventDispatcherImpl<>(new TestEventUtil());
+    ReplayStoreReplicator<Integer, Integer> replicatorC =
+        createReplicator("c", dispatcherC, hub);
+    Assert.assertNull(dispatcherC.getReplayEvent(1));
+
+    replicatorA.close();
+    replicatorB.close();
+    replicatorC.close();
+    dispatcherA.close();
+  }
+
+  @Test
+  public void testFlushInDispatchingThreadIsSkipped() {
+    InProcessReplicationHub hub = new InProcessReplicationHub();
+
+    EventDispatcherImpl<Integer, Integer, Listener<Integer>, Listener<Integer>> dispatcherA =
+        new EventDispatcherImpl<>(new TestEventUtil());
+    EventDispatcherImpl<Integer, Integer, Listener<Integer>, Listener<Integer>> dispatcherB =
+        new EventDispatcherImpl<>(new TestEventUtil());
+
+    ReplayStoreReplicator<Integer, Integer> replicatorA = new ReplayStoreReplicator<>("a",
+        dispatcherA, new IntegerCodec(), hub.createTransport(), 2, new Executor() {
+
+          @Override
+          public void execute(final Runnable command) {
+            command.run();
+          }
+        });
+    replicatorA.open();
+    ReplayStoreReplicator<Integer, Integer> replicatorB =
+        createReplicator("b", dispatcherB, hub);
+
+    // The full batch is not sent while the dispatcher of node A is locked.
+    dispatcherA.dispatchEvent(1);
+    dispatcherA.dispatchEvent(2);
+    Assert.assertNull(dispatcherB.getReplayEvent(1));
+
+    replicatorA.flush();
+    Assert.assertEquals(Integer.valueOf(-1), dispatcherB.getReplayEvent(1));
+    Assert.assertEquals(Integer.valueOf(-2), dispatcherB.getReplayEvent(2));
+
+    replicatorA.close();
+    replicatorB.close();
+  }
+
+  @Test
+  public void testReplicationAndSnapshot() {
+    InProcessReplicationHub hub = new InProcessReplicationHub();
+
+    EventDispatcherImpl<Integer, Integer, Listener<Integer>, Listener<Integer>> dispatcherA =
+        new EventDispatcherImpl<>(new TestEventUtil());
+    EventDispatcherImpl<Integer, Integer, Listener<Integer>, Listener<Integer>> dispatcherB =
+        new EventDispatcherImpl<>(new TestEventUtil());
+
+    ReplayStoreReplicator<Integer, Integer> replicatorA =
+        createReplicator("a", dispatcherA, hub);
+    ReplayStoreReplicator<Integer, Integer> replicatorB =
+        createReplicator("b", dispatcherB, hub);
+
+    List<ListenerWithEventEntry> collectedEvents = new ArrayList<>();
+    TestListener listenerB = new TestListener(collectedEvents);
+    dispatcherB.addListener(listenerB, listenerB);
+
+    dispatcherA.dispatchEvent(1);
+    dispatcherA.dispatchEvent(2);
+    dispatcherA.dispatchEvent(3);
+    dispatcherA.removeEvent(2);
+
+    // Nothing is sent until the batch is flushed.
+    Assert.assertNull(dispatcherB.getReplayEvent(1));
+    replicatorA.flush();
+
+    Assert.assertEquals(Integer.valueOf(-1), dispatcherB.getReplayEvent(1));
+    Assert.assertNull(dispatcherB.getReplayEvent(2));
+    Assert.assertEquals(Integer.valueOf(-3), dispatcherB.getReplayEvent(3));
+    Assert.assertEquals(3, collectedEvents.size());
+
+    // Modifications of the peer are not sent back.
+    replicatorB.flush();
+    Assert.assertEquals(Integer.valueOf(-1), dispatcherA.getReplayEvent(1));
+
+    dispatcherB.dispatchEvent(4);
+    replicatorB.flush();
+    Assert.assertEquals(Integer.valueOf(-4), dispatcherA.getReplayEvent(4));
+
+    // A late joining node gets the state from the snapshot of its peers.
+    EventDispatcherImpl<Integer, Integer, Listener<Integer>, Listener<Integer>> dispatcherC =
+        new EventDispatcherImpl<>(new TestEventUtil());
+    ReplayStoreReplicator<Integer, Integer> replicatorC =
+        createReplicator("c", dispatcherC, hub);
+
+    Assert.assertEquals(Integer.valueOf(-1), dispatcherC.getReplayEvent(1));
+    Assert.assertNull(dispatcherC.getReplayEvent(2));
+    Assert.assertEquals(Integer.valueOf(-3), dispatcherC.getReplayEvent(3));
+    Assert.assertEquals(Integer.valueOf(-4), dispatcherC.getReplayEvent(4));
+
+    replicatorA.close();
+    replicatorB.close();
+    replicatorC.close();
+  }
+
+  @Test
+  public void testVersionConflict() {
+    InProcessReplicationHub hub = new InProcessReplicationHub();
+
+    EventDispatcherImpl<Integer, Integer, Listener<Integer>, Listener<Integer>> dispatcherA =
+        new EventDispatcherImpl<>(new TestEventUtil());
+    EventDispatcherImpl<Integer, Integer, Listener<Integer>, Listener<Integer>> dispatcherB =
+        new EventDispatcherImpl<>(new TestEventUtil());
+
+    ReplayStoreReplicator<Integer, Integer> replicatorA =
+        createReplicator("a", dispatcherA, hub);
+    ReplayStoreReplicator<Integer, Integer> replicatorB =
+        createReplicator("b", dispatcherB, hub);
+
+    // Both nodes modify key 5 concurrently with the same version counter. The removal on node B
+    // wins as "b" is greater than "a".
+    dispatcherA.dispatchEvent(5);
+    dispatcherB.removeEvent(5);
+    replicatorA.flush();
+    replicatorB.flush();
+
+    Assert.assertNull(dispatcherA.getReplayEvent(5));
+    Assert.assertNull(dispatcherB.getReplayEvent(5));
+
+    // A newer version wins on both nodes.
+    dispatcherA.dispatchEvent(5);
+    replicatorA.flush();
+    Assert.assertEquals(Integer.valueOf(-5), dispatcherB.getReplayEvent(5));
+
+    replicatorA.close();
+    replicatorB.close();
+  }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.eventdispatcher.test;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.everit.eventdispatcher.EventDispatcherImpl;
+import org.everit.eventdispatcher.EventUtil;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class WeakListenerTest {
+
+  private static final long TIMEOUT = 5000;
+
+  @Test
+  public void testGarbageCollectedListenerIsRemoved() throws InterruptedException {
+    EventUtil<Integer, Integer, Listener<Integer>> eventUtil = new TestEventUtil();
+    EventDispatcherImpl<Integer, Integer, Listener<Integer>, String> dispatcher =
+        new EventDispatcherImpl<>(eventUtil);
+
+    List<ListenerWithEventEntry> collectedEvents = new ArrayList<>();
+    TestListener weakListener = new TestListener(collectedEvents);
+    TestListener strongListener = new TestListener(collectedEvents);
+    dispatcher.addWeakListener("weak", weakListener);
+    dispatcher.addListener("strong", strongListener);
+
+    dispatcher.dispatchEvent(1);
+    Assert.assertEquals(2, collectedEvents.size());
+
+    // The collected events reference the listener as well.
+    collectedEvents.clear();
+    WeakReference<TestListener> weakListenerReference = new WeakReference<>(weakListener);
+    weakListener = null;
+    int removedListeners = 0;
+    long deadline = System.currentTimeMillis() + TIMEOUT;
+    while (removedListeners == 0 && System.currentTimeMillis() < deadline) {
+      System.gc();
+      Thread.sleep(10);
+      removedListeners = dispatcher.purgeClearedListeners();
+    }
+    Assert.assertNull(weakListenerReference.get());
+    Assert.assertEquals(1, removedListeners);
+
+    dispatcher.dispatchEvent(2);
+    Assert.assertEquals(1, collectedEvents.size());
+    Assert.assertSame(strongListener, collectedEvents.get(0).getListener());
+    Assert.assertFalse(dispatcher.removeListener("weak"));
+
+    // The key can be registered again and the listener receives both replay events.
+    dispatcher.addWeakListener("weak", strongListener);
+    Assert.assertEquals(3, collectedEvents.size());
+    Assert.assertTrue(dispatcher.removeListener("weak"));
+  }
+}
@@ -0,0 +1,312 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.eventdispatcher.test;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.everit.eventdispatcher.EventDispatcherImpl;
+import org.everit.eventdispatcher.osgi.WhiteboardListenerTracker;
+import org.junit.Assert;
+import org.junit.Test;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.Filter;
+import org.osgi.framework.ServiceEvent;
+import org.osgi.framework.ServiceListener;
+import org.osgi.framework.ServiceReference;
+
+public class WhiteboardListenerTrackerTest {
+
+  /**
+   * Listener that collects the received events.
+   */
+  private static class CollectingListener implements Listener<Integer> {
+
+    private final List<Integer> events = Collections.synchronizedList(new ArrayList<Integer>());
+
+    @Override
+    public void receiveEvent(final Integer event) {
+      this.events.add(event);
+    }
+  }
+
+  /**
+   * Bundle context mock that serves the registered listener services and passes the service events
+   * to the service listeners.
+   */
+  private static class MockBundleContext implements InvocationHandler {
+
+    private final List<ServiceListener> serviceListeners = new ArrayList<>();
+
+    private final Map<ServiceReference<Listener<Integer>>, Listener<Integer>> services =
+        new HashMap<>();
+
+    private final List<ServiceReference<Listener<Integer>>> ungetReferences = new ArrayList<>();
+
+    @Override
+    public Object invoke(final Object proxy, final Method method, final Object[] args) {
+      switch (method.getName()) {
+        case "addServiceListener":
+          this.serviceListeners.add((ServiceListener) args[0]);
+          return null;
+        case "getService":
+          return this.services.get(args[0]);
+        case "getServiceReferences":
+          return (this.services.isEmpty()) ? null
+              : this.services.keySet().toArray(new ServiceReference<?>[0]);
+        case "removeServiceListener":
+          this.serviceListeners.remove(args[0]);
+          return null;
+        case "ungetService":
+          this.ungetReferences.add(castReference(args[0]));
+          return Boolean.TRUE;
+        default:
+          return handleObjectMethod(proxy, method, args);
+      }
+    }
+
+    public ServiceReference<Listener<Integer>> registerService(final Listener<Integer> listener,
+        final boolean notify) {
+      ServiceReference<Listener<Integer>> reference = createReference();
+      this.services.put(reference, listener);
+      if (notify) {
+        serviceChanged(new ServiceEvent(ServiceEvent.REGISTERED, reference));
+      }
+      return reference;
+    }
+
+    private void serviceChanged(final ServiceEvent event) {
+      for (ServiceListener serviceListener : new ArrayList<>(this.serviceListeners)) {
+        serviceListener.serviceChanged(event);
+      }
+    }
+
+    public void unregisterService(final ServiceReference<Listener<Integer>> reference) {
+      serviceChanged(new ServiceEvent(ServiceEvent.UNREGISTERING, reference));
+      this.services.remove(reference);
+    }
+  }
+
+  /**
+   * Executor that runs the tasks only when the test asks for it.
+   */
+  private static class QueuingExecutor implements Executor {
+
+    private final Queue<Runnable> tasks = new LinkedList<>();
+
+    @Override
+    public void execute(final Runnable command) {
+      this.tasks.add(command);
+    }
+
+    public void runTasks() {
+      Runnable task = this.tasks.poll();
+      while (task != null) {
+        task.run();
+        task = this.tasks.poll();
+      }
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private static ServiceReference<Listener<Integer>> castReference(final Object reference) {
+    return (ServiceReference<Listener<Integer>>) reference;
+  }
+
+  private static <T> T createProxy(final Class<T> type, final InvocationHandler handler) {
+    return type.cast(Proxy.newProxyInstance(WhiteboardListenerTrackerTest.class.getClassLoader(),
+        new Class<?>[] { type }, handler));
+  }
+
+  private static ServiceReference<Listener<Integer>> createReference() {
+    return castReference(createProxy(ServiceReference.class, new InvocationHandler() {
+
+      @Override
+      public Object invoke(final Object proxy, final Method method, final Object[] args) {
+        return handleObjectMethod(proxy, method, args);
+      }
+    }));
+  }
+
+  private static Object handleObjectMethod(final Object proxy, final Method method,
+      final Object[] args) {
+    switch (method.getName()) {
+      case "equals":
+        return proxy == args[0];
+      case "hashCode":
+        return System.identityHashCode(proxy);
+      case "toString":
+        return "(objectClass=" + Listener.class.getName() + ")";
+      default:
+        throw new UnsupportedOperationException(method.getName());
+    }
+  }
+
+  private final MockBundleContext context = new MockBundleContext();
+
+  private final EventDispatcherImpl<Integer, Integer, Listener<Integer>,
+      ServiceReference<Listener<Integer>>> eventDispatcher =
+          new EventDispatcherImpl<>(new TestEventUtil());
+
+  private WhiteboardListenerTracker<Integer, Integer, Listener<Integer>> createTracker(
+      final Executor batchExecutor) {
+    return new WhiteboardListenerTracker<>(createProxy(BundleContext.class, this.context),
+        createProxy(Filter.class, new InvocationHandler() {
+
+          @Override
+          public Object invoke(final Object proxy, final Method method, final Object[] args) {
+            return handleObjectMethod(proxy, method, args);
+          }
+        }), this.eventDispatcher, batchExecutor, null);
+  }
+
+  @Test
+  public void testAlreadyRegisteredListenerDoesNotDropBatch() {
+    CollectingListener registeredListener = new CollectingListener();
+    CollectingListener newListener = new CollectingListener();
+    ServiceReference<Listener<Integer>> registeredReference =
+        this.context.registerService(registeredListener, false);
+    this.context.registerService(newListener, false);
+    this.eventDispatcher.addListener(registeredReference, registeredListener);
+
+    WhiteboardListenerTracker<Integer, Integer, Listener<Integer>> tracker = createTracker(null);
+    tracker.open();
+    this.eventDispatcher.dispatchEvent(1);
+
+    Assert.assertEquals(Collections.singletonList(1), registeredListener.events);
+    Assert.assertEquals(Collections.singletonList(1), newListener.events);
+
+    // The listener that the tracker did not register stays registered.
+    tracker.close();
+    Assert.assertTrue(this.eventDispatcher.removeListener(registeredReference));
+    Assert.assertEquals(2, this.context.ungetReferences.size());
+  }
+
+  @Test
+  public void testBatchRegistersServicesThatAppearedMeanwhile() {
+    CollectingListener listener1 = new CollectingListener();
+    CollectingListener listener2 = new CollectingListener();
+    QueuingExecutor batchExecutor = new QueuingExecutor();
+    WhiteboardListenerTracker<Integer, Integer, Listener<Integer>> tracker =
+        createTracker(batchExecutor);
+    tracker.open();
+    this.eventDispatcher.dispatchEvent(1);
+
+    this.context.registerService(listener1, true);
+    this.context.registerService(listener2, true);
+    Assert.assertEquals(1, batchExecutor.tasks.size());
+    Assert.assertTrue(listener1.events.isEmpty());
+
+    batchExecutor.runTasks();
+    Assert.assertEquals(Collections.singletonList(-1), listener1.events);
+    Assert.assertEquals(Collections.singletonList(-1), listener2.events);
+    tracker.close();
+  }
+
+  @Test
+  public void testRejectedBatchIsRegisteredInServiceEventThread() {
+    final List<Runnable> rejectedTasks = new ArrayList<>();
+    WhiteboardListenerTracker<Integer, Integer, Listener<Integer>> tracker =
+        createTracker(new Executor() {
+
+          @Override
+          public void execute(final Runnable command) {
+            rejectedTasks.add(command);
+            throw new RejectedExecutionException();
+          }
+        });
+    tracker.open();
+    this.eventDispatcher.dispatchEvent(1);
+
+    CollectingListener listener1 = new CollectingListener();
+    CollectingListener listener2 = new CollectingListener();
+    this.context.registerService(listener1, true);
+    this.context.registerService(listener2, true);
+
+    // Every service event tries the executor again as the rejected batch is not scheduled.
+    Assert.assertEquals(2, rejectedTasks.size());
+    Assert.assertEquals(Collections.singletonList(-1), listener1.events);
+    Assert.assertEquals(Collections.singletonList(-1), listener2.events);
+    tracker.close();
+  }
+
+  @Test
+  public void testRemovedServiceDuringReplayIsRemoved() {
+    final List<ServiceReference<Listener<Integer>>> references = new ArrayList<>();
+    CollectingListener removingListener = new CollectingListener() {
+
+      @Override
+      public void receiveEvent(final Integer event) {
+        super.receiveEvent(event);
+        WhiteboardListenerTrackerTest.this.context.unregisterService(references.get(0));
+      }
+    };
+    references.add(this.context.registerService(removingListener, false));
+    this.eventDispatcher.dispatchEvent(1);
+
+    WhiteboardListenerTracker<Integer, Integer, Listener<Integer>> tracker = createTracker(null);
+    tracker.open();
+    Assert.assertEquals(references, this.context.ungetReferences);
+
+    this.eventDispatcher.dispatchEvent(2);
+    Assert.assertEquals(Collections.singletonList(-1), removingListener.events);
+    tracker.close();
+  }
+
+  @Test
+  public void testServiceIsNotTrackedAfterDispatcherClosed() {
+    WhiteboardListenerTracker<Integer, Integer, Listener<Integer>> tracker = createTracker(null);
+    tracker.open();
+    this.eventDispatcher.close();
+
+    ServiceReference<Listener<Integer>> reference =
+        this.context.registerService(new CollectingListener(), true);
+    Assert.assertEquals(Collections.singletonList(reference), this.context.ungetReferences);
+
+    tracker.close();
+    Assert.assertEquals(Collections.singletonList(reference), this.context.ungetReferences);
+  }
+
+  @Test
+  public void testUnregisteredServicesAreRemoved() {
+    CollectingListener listener1 = new CollectingListener();
+    CollectingListener listener2 = new CollectingListener();
+    ServiceReference<Listener<Integer>> reference1 = this.context.registerService(listener1, false);
+    WhiteboardListenerTracker<Integer, Integer, Listener<Integer>> tracker = createTracker(null);
+    tracker.open();
+    ServiceReference<Listener<Integer>> reference2 = this.context.registerService(listener2, true);
+
+    this.context.unregisterService(reference1);
+    this.eventDispatcher.dispatchEvent(1);
+    Assert.assertTrue(listener1.events.isEmpty());
+    Assert.assertEquals(Collections.singletonList(1), listener2.events);
+
+    tracker.close();
+    Assert.assertEquals(reference2, this.context.ungetReferences.get(1));
+    Assert.assertTrue(this.context.serviceListeners.isEmpty());
+    Assert.assertFalse(this.eventDispatcher.removeListener(reference2));
+  }
+}